@@ -45,6 +45,7 @@ public class AeonianActivity extends Activity implements OnItemSelectedListener
 
     // Keys for values saved in our preferences file.
     private static final String SOUND_EFFECTS_ENABLED_KEY = "sound-effects-enabled";
+    private static final String PERF_HUD_ENABLED_KEY = "perf-hud-enabled";
     public static final String HIGH_SCORE_KEY = "high-score";
 
     // Highest score seen so far.
@@ -85,6 +86,9 @@ public class AeonianActivity extends Activity implements OnItemSelectedListener
         CheckBox soundEffectsEnabled = (CheckBox) findViewById(R.id.checkbox_soundEffectsEnabled);
         soundEffectsEnabled.setChecked(GameActivity.getSoundEffectsEnabled());
 
+        CheckBox perfHudEnabled = (CheckBox) findViewById(R.id.checkbox_perfHudEnabled);
+        perfHudEnabled.setChecked(GameActivity.getPerfHudEnabled());
+
         TextView highScore = (TextView) findViewById(R.id.text_highScore);
         highScore.setText(String.valueOf(mHighScore));
     }
@@ -188,6 +192,14 @@ public class AeonianActivity extends Activity implements OnItemSelectedListener
         updateControls();
     }
 
+    /**
+     * onClick handler for "performance overlay".
+     */
+    public void clickPerfHudEnabled(View view) {
+        GameActivity.setPerfHudEnabled(((CheckBox) view).isChecked());
+        updateControls();
+    }
+
     /**
      * Copies settings to the saved preferences.
      */
@@ -206,6 +218,7 @@ public class AeonianActivity extends Activity implements OnItemSelectedListener
         SharedPreferences.Editor editor = prefs.edit();
 
         editor.putBoolean(SOUND_EFFECTS_ENABLED_KEY, GameActivity.getSoundEffectsEnabled());
+        editor.putBoolean(PERF_HUD_ENABLED_KEY, GameActivity.getPerfHudEnabled());
         editor.commit();
     }
 
@@ -218,6 +231,7 @@ public class AeonianActivity extends Activity implements OnItemSelectedListener
         // If the saved prefs come from a different version of the game, the difficulty level
         // might be out of range.  The code in GameActivity will reset it to default.
         GameActivity.setSoundEffectsEnabled(prefs.getBoolean(SOUND_EFFECTS_ENABLED_KEY, true));
+        GameActivity.setPerfHudEnabled(prefs.getBoolean(PERF_HUD_ENABLED_KEY, false));
 
         mHighScore = prefs.getInt(HIGH_SCORE_KEY, 0);
     }
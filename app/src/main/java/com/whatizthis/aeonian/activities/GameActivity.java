@@ -6,10 +6,20 @@ import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.util.Log;
 
+import com.whatizthis.aeonian.game.AndroidLogger;
 import com.whatizthis.aeonian.game.GameState;
 import com.whatizthis.aeonian.game.GameSurfaceView;
 import com.whatizthis.aeonian.resources.SoundResources;
 import com.whatizthis.aeonian.resources.TextResources;
+import com.whatizthis.aeonian.sim.InputReplay;
+import com.whatizthis.aeonian.sim.MetricsLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Activity for the actual game.  This is largely just a wrapper for our GLSurfaceView.
@@ -17,6 +27,28 @@ import com.whatizthis.aeonian.resources.TextResources;
 public class GameActivity extends Activity {
     private static final String TAG = AeonianActivity.TAG;
     private static boolean sSoundEffectsEnabled;
+    private static boolean sPerfHudEnabled;
+
+    /*
+     * Input recording.  If enabled, everything the player does is written to RECORDING_FILE
+     * (in our private files directory) whenever we pause.  Launching the game with
+     * EXTRA_REPLAY set to "fast" or "realtime" plays that file back instead of starting a
+     * normal game.  The log is small -- a few bytes per shot -- so it's cheap to leave on.
+     */
+    public static final boolean RECORD_INPUT = true;
+    public static final String RECORDING_FILE = "input.rec";
+    public static final String EXTRA_REPLAY = "com.whatizthis.aeonian.REPLAY";
+
+    /*
+     * Session metrics.  If enabled, frame, collision, spawn and GC counters are appended to
+     * METRICS_FILE (again in our private files directory) every few seconds, for looking at
+     * after the fact.  The file is rotated when it reaches METRICS_FILE_BYTES, and we keep
+     * METRICS_FILE_COUNT of them, so they can't grow without bound.
+     */
+    public static final boolean EXPORT_METRICS = true;
+    public static final String METRICS_FILE = "metrics.jsonl";
+    private static final long METRICS_FILE_BYTES = 256 * 1024;
+    private static final int METRICS_FILE_COUNT = 4;
 
 
     // The Activity has one View, a GL surface.
@@ -31,6 +63,9 @@ public class GameActivity extends Activity {
     // discard those either.
     private GameState mGameState;
 
+    // Writes the session metrics.  Null if they're disabled.
+    private MetricsLog mMetricsLog;
+
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -42,8 +77,18 @@ public class GameActivity extends Activity {
         SoundResources.initialize(this);
         TextResources.Configuration textConfig = TextResources.configure(this);
 
-        mGameState = new GameState();
+        mGameState = createGameState();
         configureGameState();
+        if (RECORD_INPUT && !mGameState.isReplaying()) {
+            mGameState.startRecording();
+        }
+        if (EXPORT_METRICS && !mGameState.isReplaying()) {
+            mMetricsLog = new MetricsLog(new File(getFilesDir(), METRICS_FILE),
+                    GameState.METRIC_NAMES, METRICS_FILE_BYTES, METRICS_FILE_COUNT,
+                    new AndroidLogger());
+            mMetricsLog.start();
+            mGameState.setMetricsLog(mMetricsLog);
+        }
 
         // Create a GLSurfaceView, and set it as the Activity's "content view".  This will
         // also create a GLSurfaceView.Renderer, which starts the Renderer thread.
@@ -72,6 +117,9 @@ public class GameActivity extends Activity {
         super.onPause();
         mGLView.onPause();
 
+        // The simulation is stopped now, so the recording can't change under us.
+        saveRecording();
+
         /*
          * If the game is over, record the new high score.
          *
@@ -97,7 +145,22 @@ public class GameActivity extends Activity {
          * We need to do this *after* the call to mGLView.onPause(), because that causes
          * GameState to save the game to static storage, and that's what we read the score from.
          */
-        updateHighScore(GameState.getFinalScore());
+        if (!mGameState.isReplaying()) {
+            updateHighScore(GameState.getFinalScore());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "GameActivity destroying");
+        super.onDestroy();
+
+        // The Renderer thread is long gone, so nothing else will be offered.  This writes out
+        // the last row, from when we paused.
+        if (mMetricsLog != null) {
+            mMetricsLog.close();
+            mMetricsLog = null;
+        }
     }
 
     @Override
@@ -116,6 +179,51 @@ public class GameActivity extends Activity {
         mGLView.onResume();
     }
 
+    /**
+     * Creates the GameState, set up to play back the last recording if we were asked to.
+     */
+    private GameState createGameState() {
+        String replayMode = getIntent().getStringExtra(EXTRA_REPLAY);
+        if (replayMode == null) {
+            return new GameState();
+        }
+
+        File file = new File(getFilesDir(), RECORDING_FILE);
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                InputReplay replay = InputReplay.read(in);
+                Log.d(TAG, "replaying " + file + " (" + replayMode + ")");
+                return new GameState(replay, replayMode.equals("fast"));
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "unable to read " + file + ", starting a normal game", ioe);
+            return new GameState();
+        }
+    }
+
+    /**
+     * Writes the input recording out, if there is one.
+     */
+    private void saveRecording() {
+        if (!RECORD_INPUT || mGameState.isReplaying()) {
+            return;
+        }
+        File file = new File(getFilesDir(), RECORDING_FILE);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                mGameState.writeRecording(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "unable to write " + file, ioe);
+        }
+    }
+
     /**
      * Configures the GameState object with the configuration options set by AeonianActivity.
      */
@@ -126,9 +234,15 @@ public class GameActivity extends Activity {
         int minSpeed = 600;
         int maxSpeed = 1200;
 
+        // Simulation steps per second.  Independent of the display refresh rate.
+        int stepRate = 120;
+
         mGameState.setGameDimensions(dm.widthPixels, dm.heightPixels);
         mGameState.setBallInitialSpeed(minSpeed);
         mGameState.setBallMaximumSpeed(maxSpeed);
+        mGameState.setStepRate(stepRate);
+
+        mGameState.setPerfHudEnabled(sPerfHudEnabled);
 
         SoundResources.setSoundEffectsEnabled(sSoundEffectsEnabled);
     }
@@ -149,6 +263,22 @@ public class GameActivity extends Activity {
         sSoundEffectsEnabled = soundEffectsEnabled;
     }
 
+    /**
+     * Gets performance overlay status.
+     */
+    public static boolean getPerfHudEnabled() {
+        return sPerfHudEnabled;
+    }
+
+    /**
+     * Shows or hides the performance overlay (see PerfHud).
+     * <p>
+     * Changing the value does not affect a game in progress.
+     */
+    public static void setPerfHudEnabled(boolean perfHudEnabled) {
+        sPerfHudEnabled = perfHudEnabled;
+    }
+
     /**
      * Invalidates the current saved game.
      */
@@ -0,0 +1,28 @@
+package com.whatizthis.aeonian.game;
+
+import android.util.Log;
+
+import com.whatizthis.aeonian.activities.AeonianActivity;
+import com.whatizthis.aeonian.sim.Logger;
+
+/**
+ * Routes simulation log output to logcat.
+ */
+public class AndroidLogger implements Logger {
+    private static final String TAG = AeonianActivity.TAG;
+
+    @Override
+    public void d(String msg) {
+        Log.d(TAG, msg);
+    }
+
+    @Override
+    public void w(String msg) {
+        Log.w(TAG, msg);
+    }
+
+    @Override
+    public void e(String msg) {
+        Log.e(TAG, msg);
+    }
+}
@@ -0,0 +1,60 @@
+package com.whatizthis.aeonian.game;
+
+import android.util.Log;
+
+import com.whatizthis.aeonian.activities.AeonianActivity;
+import com.whatizthis.aeonian.sim.Histogram;
+
+/**
+ * Frame-time histograms for one play session, one per phase of the frame.
+ * <p>
+ * When a frame is late, the first thing we need to know is whose fault it was: the
+ * simulation working out the next frame, or the renderer submitting the last one.  Averages
+ * and maximums don't tell us much about that, since the trouble is the occasional bad frame,
+ * so we keep full distributions and look at the tail.
+ * <p>
+ * SIM is recorded on the simulation thread, and everything else on the Renderer thread.
+ * The draw phases are CPU time spent issuing GL calls; the GPU does the actual work later,
+ * and if it falls behind, that shows up as a long INTERVAL rather than a long draw.
+ */
+public class FrameTimings {
+    private static final String TAG = AeonianActivity.TAG;
+
+    public static final int SIM = 0;                // Simulation.calculateNextFrame()
+    public static final int DRAW_ENEMIES = 1;
+    public static final int DRAW_TEXTURED = 2;      // player, score, balls, messages
+    public static final int DRAW_DEBUG = 3;          // debug shapes, perf overlay
+    public static final int DRAW = 4;               // all of onDrawFrame()
+    public static final int INTERVAL = 5;           // start of one frame to start of the next
+    public static final int PHASE_COUNT = 6;
+    private static final String[] PHASE_NAMES = {
+            "sim", "draw enemies", "draw textured", "draw debug", "draw", "interval" };
+
+    private final Histogram[] mPhases = new Histogram[PHASE_COUNT];
+
+    public FrameTimings() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mPhases[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Returns the histogram for one of the phases, in nanoseconds.
+     */
+    public Histogram get(int phase) {
+        return mPhases[phase];
+    }
+
+    /**
+     * Logs p50/p95/p99/max for every phase.  Only call while the simulation thread is
+     * stopped, or the SIM numbers may be a frame behind.
+     */
+    public void log() {
+        if (mPhases[INTERVAL].getCount() == 0) {
+            return;
+        }
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            Log.d(TAG, "frame " + PHASE_NAMES[i] + ": " + mPhases[i]);
+        }
+    }
+}
@@ -1,23 +1,38 @@
 package com.whatizthis.aeonian.game;
 
 import android.graphics.Rect;
+import android.os.Build;
+import android.os.Debug;
 import android.util.Log;
 
 import com.whatizthis.aeonian.activities.AeonianActivity;
-import com.whatizthis.aeonian.factories.BallFactory;
-import com.whatizthis.aeonian.factories.EnemyFactory;
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.World;
 import com.whatizthis.aeonian.objects.Ball;
-import com.whatizthis.aeonian.objects.BaseRect;
 import com.whatizthis.aeonian.objects.Enemy;
 import com.whatizthis.aeonian.objects.OutlineAlignedRect;
 import com.whatizthis.aeonian.objects.Player;
 import com.whatizthis.aeonian.objects.TexturedAlignedRect;
 import com.whatizthis.aeonian.resources.SoundResources;
 import com.whatizthis.aeonian.resources.TextResources;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import com.whatizthis.aeonian.resources.TextureResources;
+import com.whatizthis.aeonian.sim.Arena;
+import com.whatizthis.aeonian.sim.BroadPhase;
+import com.whatizthis.aeonian.sim.Clock;
+import com.whatizthis.aeonian.sim.Histogram;
+import com.whatizthis.aeonian.sim.InputLatency;
+import com.whatizthis.aeonian.sim.InputRecorder;
+import com.whatizthis.aeonian.sim.InputReplay;
+import com.whatizthis.aeonian.sim.ManualClock;
+import com.whatizthis.aeonian.sim.MetricsLog;
+import com.whatizthis.aeonian.sim.Simulation;
+import com.whatizthis.aeonian.sim.SimulationThread;
+import com.whatizthis.aeonian.sim.Snapshot;
+import com.whatizthis.aeonian.sim.SnapshotBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * This is the primary class for the game itself.
@@ -27,22 +42,42 @@ import java.util.List;
  * but more importantly it removes the possibility of calling non-thread-safe Activity or
  * View methods from the wrong thread.
  * <p>
+ * The game rules themselves (moving things around, collisions, scoring) live in Simulation,
+ * over in the core module, which has no Android dependencies.  This class owns the Simulation,
+ * draws what it contains, and takes care of the saved game.
+ * <p>
  * The class is closely associated with GameSurfaceRenderer, and code here generally runs on the
  * Renderer thread.  The only exceptions to the rule are the methods used to configure the game,
  * which may only be used before the Renderer thread starts, and the saved game manipulation,
  * which is synchronized.
+ * <p>
+ * The Simulation runs on its own thread (see startSimulation()).  While that's running, the
+ * Renderer thread doesn't touch the Simulation at all; it draws from the most recent Snapshot,
+ * and anything it wants the Simulation to do goes through SimulationThread.queueEvent().
  */
-public class GameState {
+public class GameState implements Simulation.Listener {
     private static final String TAG = AeonianActivity.TAG;
-    public static final boolean DEBUG_COLLISIONS = false;       // enable increased logging
     public static final boolean SHOW_DEBUG_STUFF = false;       // enable on-screen debugging
 
-    public boolean isReadyToAllocEnemy = false;
-    public boolean isReadyToIncrementScore = false;
+    /*
+     * Deterministic mode: a fixed seed, and a simulated clock that advances exactly one step
+     * per step.  Every game then plays out the same way for the same touches on the same
+     * steps, which is what you want when comparing the performance of two builds.
+     */
+    public static final boolean DETERMINISTIC = false;
+    private static final long DETERMINISTIC_SEED = 1;
+
+    /*
+     * Input recording and playback.  While we record, every shot goes into a compact
+     * in-memory log that GameActivity saves when we pause.  When we're playing a log
+     * back, the simulation gets its input from there and touches are ignored.
+     */
+    private InputRecorder mRecorder;
+    private final InputReplay mReplay;
+    private final boolean mReplayFullSpeed;
 
     // Gameplay configurables.  These may not be changed while the game is in progress, and
     // changing a value invalidates the saved game.
-    private int mMaxLives = 3;
     private int mBallInitialSpeed = 600;
     private int mBallMaximumSpeed = 800;
 
@@ -50,9 +85,25 @@ public class GameState {
     // and resumed.  This should be the only static variable in GameState.
     private static SavedGame sSavedGame = new SavedGame();
 
-    public static float ARENA_WIDTH, ARENA_HEIGHT, ARENA_CENTER_X, ARENA_CENTER_Y;
-    public static float BALL_START_X;
-    public static float BALL_START_Y;
+    // The game itself.
+    private final Simulation mSim;
+    private final Clock mClock;
+    private final ManualClock mManualClock;     // deterministic mode only
+
+    // The thread that runs mSim, or null if it's not running.  Only touched on the Renderer
+    // thread.
+    private SimulationThread mSimThread;
+
+    // Snapshots of mSim, written by mSimThread.  mSnapshot is the one we're drawing now.
+    private final SnapshotBuffer mSnapshots = new SnapshotBuffer();
+    private Snapshot mSnapshot;
+
+    // Tap-to-screen timing.  The simulation owns it, but frameDrawn() and the reporting are
+    // ours, so we may use it while the simulation thread runs.
+    private final InputLatency mInputLatency;
+
+    // How long the parts of each frame take, for this session.
+    private final FrameTimings mFrameTimings = new FrameTimings();
 
     private static final float BORDER_WIDTH_PERC = 2 / 100.0f;
     private static float BORDER_WIDTH;
@@ -71,13 +122,6 @@ public class GameState {
     private static float SCORE_TOP;
     private static float SCORE_RIGHT;
 
-    /*
-     * Ball dimensions.  Internally it's just a rect, but we'll give it a circular texture so
-     * it looks round.  Size is a percentage of the arena width.  This can also be adjusted
-     * for skill level, up to a fairly goofy level.
-     */
-    private static final float BALL_WIDTH_PERC = 2.5f / 100.0f;
-
     /*
      * Rects used for drawing the border and background.  We want the background to be a solid
      * not-quite-black color, with easily visible borders that the ball will bounce off of.  We
@@ -104,81 +148,29 @@ public class GameState {
      */
 
     /*
-     * The ball.  The diameter is configurable
+     * Drawables for the things the simulation moves around.  The simulation owns the positions;
+     * we just stamp one sprite per kind of object at each position when drawing.  There's no
+     * need for a separate GL object (and texture) for every ball on the screen.
      */
-    public static int DEFAULT_BALL_DIAMETER;
-    private List<Ball> mBalls = new ArrayList<>();
-
     private TexturedAlignedRect mPlayer;
-
-    private static final float ENEMY_WIDTH_PERC = 7.5f / 100.0f;
-    public static int DEFAULT_ENEMY_DIAMETER;
-    public static float ENEMY_OFF_LEFT, ENEMY_OFF_TOP, ENEMY_OFF_RIGHT, ENEMY_OFF_BOTTOM;
-    private List<Enemy> mEnemies = new ArrayList<>();
-
-    /*
-     * Timestamp of previous frame.  Used for animation.  We cap the maximum inter-frame delta
-     * at 0.5 seconds, so that a major hiccup won't cause things to behave too crazily.
-     */
-    private static final double NANOS_PER_SECOND = 1000000000.0;
-    private static final double MAX_FRAME_DELTA_SEC = 0.5;
-    private long mPrevFrameWhenNsec;
-
-    /*
-     * Pause briefly on certain transitions, e.g. before launching a new ball after one was lost.
-     */
-    private float mPauseDuration;
+    private Ball mBallSprite;
+    private Enemy mEnemySprite;
 
     /*
      * Debug feature: do the next N frames in slow motion.  Useful when examining collisions.
      * The speed will ramp up to normal over the last 60 frames.  (This is a debug feature, not
      * part of the game, so we just count frames and assume the panel is somewhere near 60fps.)
-     * See DEBUG_COLLISIONS for example usage.
+     * See Simulation.DEBUG_COLLISIONS for example usage.
      */
     private int mDebugSlowMotionFrames;
 
-    // If FRAME_RATE_SMOOTHING is true, then the rest of these fields matter.
-    private static final boolean FRAME_RATE_SMOOTHING = false;
-    private static final int RECENT_TIME_DELTA_COUNT = 5;
-    double mRecentTimeDelta[] = new double[RECENT_TIME_DELTA_COUNT];
-    int mRecentTimeDeltaNext;
-
-    /*
-     * Storage for collision detection results.
-     */
-    public static final int HIT_FACE_NONE = 0;
-    public static final int HIT_FACE_VERTICAL = 1;
-    public static final int HIT_FACE_HORIZONTAL = 2;
-    public static final int HIT_FACE_SHARPCORNER = 3;
     private OutlineAlignedRect mDebugCollisionRect;  // visual debugging
 
-    /*
-     * Game play state.
-     */
-    private static final int GAME_INITIALIZING = 0;
-    private static final int GAME_READY = 1;
-    private static final int GAME_PLAYING = 2;
-    private static final int GAME_LOST = 4;
-    private int mGamePlayState;
-
-    private boolean mIsAnimating;
-    private int mLivesRemaining;
-    private int mScore;
-
-    /*
-     * Events that can happen when the ball moves.
-     */
-    private static final int EVENT_NONE = 0;
-    private static final int EVENT_HIT_PLAYER = 1;
-    private static final int EVENT_PLAYER_FALL = 2;
-    private static final int EVENT_POWERUP_HIT = 3;
-
     /*
      * Text message to display in the middle of the screen (e.g. "won" or "game over").
      */
     private static final float STATUS_MESSAGE_WIDTH_PERC = 85 / 100.0f;
     private TexturedAlignedRect mGameStatusMessages;
-    private int mGameStatusMessageNum;
     private int mDebugFramedString;
 
     /*
@@ -199,7 +191,236 @@ public class GameState {
      */
     private TextResources mTextRes;
 
-    public GameState() {}
+    /*
+     * Performance overlay, for QA.  Null unless enabled.
+     */
+    private boolean mPerfHudEnabled;
+    private PerfHud mPerfHud;
+
+    /*
+     * Session metrics.  Every so often we gather up the frame timings, the simulation's
+     * running totals and the GC counters, and hand them to the MetricsLog, which writes them
+     * out on its own thread.  Times are in microseconds; everything is a running total for
+     * the session except the percentiles, which cover the session so far.  The GC numbers
+     * are -1 where the platform doesn't report them (before M).
+     */
+    public static final String[] METRIC_NAMES = {
+            "frames", "frame_p50_us", "frame_p95_us", "frame_p99_us", "frame_max_us",
+            "draw_p95_us", "sim_frames", "sim_p95_us",
+            "steps", "collision_candidates", "enemies_destroyed",
+            "enemies_spawned", "balls_spawned",
+            "gc_count", "gc_time_ms", "gc_blocking_count" };
+    private static final long METRICS_INTERVAL_NSEC = 10000000000L;
+    private MetricsLog mMetricsLog;
+    private final long[] mMetricValues = new long[METRIC_NAMES.length];
+    private long mNextMetricsNsec;
+
+    public GameState() {
+        this(null, false);
+    }
+
+    /**
+     * Creates a GameState that plays back "replay" instead of taking input from the player.
+     * Playback runs on a simulated clock, as in deterministic mode, so it comes out the same
+     * as the recording.  If "fullSpeed" is set it runs as fast as it can rather than in real
+     * time.
+     */
+    public GameState(InputReplay replay, boolean fullSpeed) {
+        mReplay = replay;
+        mReplayFullSpeed = fullSpeed;
+        if (DETERMINISTIC || replay != null) {
+            mManualClock = new ManualClock();
+            mClock = mManualClock;
+        } else {
+            mManualClock = null;
+            mClock = Clock.SYSTEM;
+        }
+        mSim = new Simulation(mClock, new AndroidLogger());
+        if (DETERMINISTIC) {
+            mSim.setSeed(DETERMINISTIC_SEED);
+        }
+        mSim.setListener(this);
+        mSim.setInputReplay(replay);
+        mInputLatency = mSim.getInputLatency();
+        mSnapshot = mSnapshots.acquire();
+    }
+
+    /**
+     * Returns the simulation.  Only touch it from the Renderer thread, and only while the
+     * simulation thread is stopped.
+     */
+    public Simulation getSimulation() {
+        return mSim;
+    }
+
+    /**
+     * Starts running the simulation on its own thread.  Does nothing if it's already running.
+     */
+    public void startSimulation() {
+        if (mSimThread == null) {
+            mSimThread = new SimulationThread(mSim, mSnapshots);
+            mSimThread.setFrameTiming(mFrameTimings.get(FrameTimings.SIM));
+            if (mManualClock != null) {
+                mSimThread.setManualClock(mManualClock);
+                mSimThread.setFullSpeed(mReplayFullSpeed);
+            }
+            mSimThread.start();
+        }
+    }
+
+    /**
+     * Stops the simulation thread, and waits for it to finish.  Afterward the Simulation may be
+     * used directly from the Renderer thread (e.g. to save the game).
+     */
+    public void stopSimulation() {
+        if (mSimThread != null) {
+            mSimThread.requestExitAndWait();
+            mSimThread = null;
+            // Don't leave the collision workers sitting around while we're paused.
+            mSim.release();
+        }
+    }
+
+    /**
+     * Starts recording input.  Recording takes effect at the start of the next new game.
+     * Call after the game has been configured, before the Renderer thread starts.
+     */
+    public void startRecording() {
+        mRecorder = new InputRecorder(mSim.getStepNsec());
+        mSim.setInputRecorder(mRecorder);
+    }
+
+    /**
+     * Writes out what's been recorded so far.  Only call while the simulation thread is
+     * stopped, e.g. after GLSurfaceView.onPause() has returned.
+     *
+     * @return false if we aren't recording.
+     */
+    public boolean writeRecording(OutputStream out) throws IOException {
+        if (mRecorder == null) {
+            return false;
+        }
+        mRecorder.writeTo(out);
+        Log.d(TAG, "wrote " + mRecorder);
+        return true;
+    }
+
+    /**
+     * Returns true if we're playing back recorded input.
+     */
+    public boolean isReplaying() {
+        return mReplay != null;
+    }
+
+    /**
+     * Logs how full the entity pools got, and how much texture memory we hold.  Only call
+     * while the simulation thread is stopped.
+     */
+    public void logPoolStatistics() {
+        World world = mSim.getWorld();
+        for (int i = 0; i < world.getArchetypeCount(); i++) {
+            Log.d(TAG, "pool " + world.getArchetype(i));
+        }
+        Log.d(TAG, "textures live=" + TextureResources.getLiveTextureCount()
+                + " bytes=" + TextureResources.getLiveTextureBytes());
+    }
+
+    /**
+     * Returns the frame-time histograms for this session.
+     */
+    public FrameTimings getFrameTimings() {
+        return mFrameTimings;
+    }
+
+    /**
+     * Logs how long taps have been taking to show up on screen.
+     */
+    public void logInputLatency() {
+        if (mInputLatency.getSampleCount() != 0) {
+            Log.d(TAG, mInputLatency.getSummary());
+        }
+    }
+
+    /**
+     * Sends a row of session metrics to the MetricsLog, if it's been long enough since the
+     * last one, or if "force" is set.  Call at the end of each frame, and with "force" when
+     * pausing.
+     * <p>
+     * Reading the percentiles walks the histograms, and the GC stats come to us as strings,
+     * so this isn't free; but it only does anything every ten seconds, and the writing
+     * happens elsewhere.
+     */
+    public void sampleMetrics(boolean force) {
+        if (mMetricsLog == null) {
+            return;
+        }
+        long nowNsec = System.nanoTime();
+        if (!force && nowNsec - mNextMetricsNsec < 0) {
+            return;
+        }
+        mNextMetricsNsec = nowNsec + METRICS_INTERVAL_NSEC;
+
+        Histogram interval = mFrameTimings.get(FrameTimings.INTERVAL);
+        Histogram draw = mFrameTimings.get(FrameTimings.DRAW);
+        Histogram sim = mFrameTimings.get(FrameTimings.SIM);
+        Snapshot snap = mSnapshot;
+        long[] values = mMetricValues;
+        int i = 0;
+        values[i++] = draw.getCount();
+        values[i++] = interval.getPercentile(50) / 1000;
+        values[i++] = interval.getPercentile(95) / 1000;
+        values[i++] = interval.getPercentile(99) / 1000;
+        values[i++] = interval.getMax() / 1000;
+        values[i++] = draw.getPercentile(95) / 1000;
+        values[i++] = sim.getCount();
+        values[i++] = sim.getPercentile(95) / 1000;
+        values[i++] = snap.getTotalSteps();
+        values[i++] = snap.getTotalCollisionCandidates();
+        values[i++] = snap.getTotalEnemiesDestroyed();
+        values[i++] = snap.getTotalEnemiesSpawned();
+        values[i++] = snap.getTotalBallsSpawned();
+        values[i++] = getRuntimeStat("art.gc.gc-count");
+        values[i++] = getRuntimeStat("art.gc.gc-time");
+        values[i] = getRuntimeStat("art.gc.blocking-gc-count");
+        mMetricsLog.offer(values);
+    }
+
+    /**
+     * Returns one of the numeric Debug.getRuntimeStat() values, or -1 if it's unavailable.
+     */
+    private static long getRuntimeStat(String name) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Picks up the newest snapshot of the simulation.  Call at the start of each frame, before
+     * drawing anything.
+     */
+    public void prepareFrame() {
+        mSnapshot = mSnapshots.acquire();
+    }
+
+    /**
+     * Notes that the current snapshot has been drawn.  Call at the very end of each frame.
+     * <p>
+     * GLSurfaceView swaps the buffers as soon as we return, so this is as close as we can get
+     * to when the frame is handed to the display.  Touch times are System.nanoTime(), so
+     * that's what we use here, even when the game runs on a simulated clock.
+     */
+    public void finishFrame() {
+        mInputLatency.frameDrawn(mSnapshot, System.nanoTime());
+    }
 
     /*
      * Trivial setters for configurables.  Changing any of these values will invalidate the
@@ -213,7 +434,7 @@ public class GameState {
      * These are called from a non-Renderer thread, before the Renderer thread starts.
      */
     public void updateScore() {
-        mScore++;
+        mSim.updateScore();
     }
 
     public void setBallInitialSpeed(int speed) {
@@ -222,22 +443,50 @@ public class GameState {
     public void setBallMaximumSpeed(int speed) {
         mBallMaximumSpeed = speed;
     }
+    public void setStepRate(int stepsPerSecond) {
+        if (mReplay != null) {
+            // Has to match the recording, whatever we're asked for.
+            stepsPerSecond = (int) Math.round(1000000000.0 / mReplay.getStepNsec());
+        }
+        mSim.setStepRate(stepsPerSecond);
+    }
+    public void setPerfHudEnabled(boolean enabled) {
+        mPerfHudEnabled = enabled;
+    }
+
+    /**
+     * Sets where the session metrics go.  Null (the default) turns them off.
+     */
+    public void setMetricsLog(MetricsLog metricsLog) {
+        mMetricsLog = metricsLog;
+    }
+
+    /**
+     * Switches the collision broad phase.  Unlike the other setters this is fine mid-game,
+     * so it's handed to the simulation thread if there is one.
+     */
+    public void setBroadPhase(final BroadPhase broadPhase) {
+        if (mSimThread == null) {
+            mSim.setBroadPhase(broadPhase);
+            return;
+        }
+        mSimThread.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mSim.setBroadPhase(broadPhase);
+            }
+        });
+    }
     public void setGameDimensions(float width, float height) {
-        ARENA_HEIGHT = height;
-        ARENA_WIDTH = width;
-        ARENA_CENTER_X = width / 2;
-        ARENA_CENTER_Y = height / 2;
-        BALL_START_X = ARENA_WIDTH / 2.0f;
-        BALL_START_Y = ARENA_HEIGHT / 2.0f;
-        SCORE_TOP = ARENA_HEIGHT - BORDER_WIDTH * 2;
-        SCORE_RIGHT = ARENA_WIDTH - BORDER_WIDTH * 2;
-        BORDER_WIDTH = (int) (BORDER_WIDTH_PERC * ARENA_WIDTH);
-        DEFAULT_BALL_DIAMETER = (int) (ARENA_WIDTH * BALL_WIDTH_PERC);
-        DEFAULT_ENEMY_DIAMETER = (int) (ARENA_WIDTH * ENEMY_WIDTH_PERC);
-        ENEMY_OFF_LEFT = -DEFAULT_ENEMY_DIAMETER * 1.414f;
-        ENEMY_OFF_TOP = ARENA_HEIGHT + DEFAULT_ENEMY_DIAMETER * 1.414f;
-        ENEMY_OFF_RIGHT = ARENA_WIDTH + DEFAULT_ENEMY_DIAMETER * 1.414f;
-        ENEMY_OFF_BOTTOM = -DEFAULT_ENEMY_DIAMETER * 1.414f;
+        if (mReplay != null) {
+            // Same here.  If the screen is a different shape, the picture will be stretched.
+            width = mReplay.getArenaWidth();
+            height = mReplay.getArenaHeight();
+        }
+        Arena.setDimensions(width, height);
+        SCORE_TOP = Arena.HEIGHT - BORDER_WIDTH * 2;
+        SCORE_RIGHT = Arena.WIDTH - BORDER_WIDTH * 2;
+        BORDER_WIDTH = (int) (BORDER_WIDTH_PERC * Arena.WIDTH);
     }
 
     /**
@@ -251,15 +500,7 @@ public class GameState {
         * does exist, we'll never call here, so don't treat this like a constructor.
         */
 
-        mGamePlayState = GAME_INITIALIZING;
-        mIsAnimating = true;
-        mGameStatusMessageNum = TextResources.NO_MESSAGE;
-        mPrevFrameWhenNsec = 0;
-        mPauseDuration = 0.0f;
-        mRecentTimeDeltaNext = -1;
-        mLivesRemaining = mMaxLives;
-        mScore = 0;
-        //mLiveBrickCount = 0;      // initialized by allocBricks
+        mSim.reset();
     }
 
     /**
@@ -269,7 +510,7 @@ public class GameState {
 
         synchronized (sSavedGame) {
             SavedGame save = sSavedGame;
-            save.mScore = mScore;
+            save.mScore = mSim.getScore();
             save.mIsValid = true;
         }
     }
@@ -290,15 +531,20 @@ public class GameState {
          * GameActivity goes away.
          *
          * We synchronize on the object because multiple threads can access it.
+         *
+         * A replay isn't the player's game, so it doesn't get saved over theirs.
          */
+        if (mReplay != null) {
+            return;
+        }
 
         synchronized (sSavedGame) {
             SavedGame save = sSavedGame;
 
-            save.mGamePlayState = mGamePlayState;
-            save.mGameStatusMessageNum = mGameStatusMessageNum;
-            save.mLivesRemaining = mLivesRemaining;
-            save.mScore = mScore;
+            save.mGamePlayState = mSim.getGamePlayState();
+            save.mStatusMessage = mSim.getStatusMessage();
+            save.mLivesRemaining = mSim.getLivesRemaining();
+            save.mScore = mSim.getScore();
 
             save.mIsValid = true;
         }
@@ -311,6 +557,16 @@ public class GameState {
      * @return true if we restored from a saved game.
      */
     public boolean restore() {
+        if (mReplay != null) {
+            // A replay starts from the beginning of a game, never from the saved one, and
+            // after that it just carries on.
+            if (mSim.getStepCount() == 0) {
+                Log.d(TAG, "Replaying recorded input");
+                reset();
+            }
+            return false;
+        }
+
         synchronized (sSavedGame) {
             SavedGame save = sSavedGame;
             if (!save.mIsValid) {
@@ -320,10 +576,8 @@ public class GameState {
                 return false;
             }
 
-            mGamePlayState = save.mGamePlayState;
-            mGameStatusMessageNum = save.mGameStatusMessageNum;
-            mLivesRemaining = save.mLivesRemaining;
-            mScore = save.mScore;
+            mSim.restore(save.mGamePlayState, save.mStatusMessage, save.mLivesRemaining,
+                    save.mScore);
         }
 
         //Log.d(TAG, "game restored");
@@ -336,18 +590,7 @@ public class GameState {
      * This is called after a screen rotation or when returning to the app from the home screen.
      */
     public void surfaceChanged() {
-        // Pause briefly.  This gives the user time to orient themselves after a screen
-        // rotation or switching back from another app.
-        setPauseTime(1.5f);
-
-        // Reset this so we don't leap forward.  (Not strictly necessary because of the
-        // game pause we set above -- we don't advance the ball state on the first frames we
-        // draw, so this will reset naturally.)
-        mPrevFrameWhenNsec = 0;
-
-        // We need to draw the screen at least once, so set this whether or not we're actually
-        // animating.  If we're in a "game over" state, this will go back to "false" right away.
-        mIsAnimating = true;
+        mSim.surfaceChanged();
     }
 
     /**
@@ -379,8 +622,8 @@ public class GameState {
             //Log.d(TAG, "canResume: valid=" + sSavedGame.mIsValid
             //        + " state=" + sSavedGame.mGamePlayState);
             return sSavedGame.mIsValid &&
-                    (sSavedGame.mGamePlayState == GAME_PLAYING ||
-                            sSavedGame.mGamePlayState == GAME_READY);
+                    (sSavedGame.mGamePlayState == Simulation.GAME_PLAYING ||
+                            sSavedGame.mGamePlayState == Simulation.GAME_READY);
         }
     }
 
@@ -396,7 +639,7 @@ public class GameState {
      */
     public static int getFinalScore() {
         synchronized (sSavedGame) {
-            if (sSavedGame.mIsValid && sSavedGame.mGamePlayState == GAME_LOST) {
+            if (sSavedGame.mIsValid && sSavedGame.mGamePlayState == Simulation.GAME_LOST) {
                 return sSavedGame.mScore;
             } else {
                 return -1;
@@ -408,17 +651,27 @@ public class GameState {
      * Returns true if we want the system to call our draw methods.
      */
     public boolean isAnimating() {
-        return mIsAnimating;
+        return mSnapshot.isAnimating();
     }
 
     /**
      * Allocates the rect that defines the player.
      */
     public void allocPlayer() {
+        mSim.allocPlayer();
+
+        Archetype body = mSim.getPlayer();
+        float diameter = body.column(Components.RADIUS)[0] * 2.0f;
         Player player = new Player();
-        player.setScale(ARENA_WIDTH / 11, ARENA_WIDTH / 11);
-        player.setPosition(ARENA_WIDTH / 2, ARENA_HEIGHT / 2);
+        player.setScale(diameter, diameter);
+        player.setPosition(body.column(Components.X)[0], body.column(Components.Y)[0]);
         player.setAlive(true);
+
+        // Acquire the new sprite's texture before dropping the old one, so the shared texture
+        // isn't deleted and regenerated in between.
+        if (mPlayer != null) {
+            mPlayer.releaseTexture();
+        }
         mPlayer = player;
     }
 
@@ -430,34 +683,70 @@ public class GameState {
     }
 
     /**
-     * Randomly spawn an enemy and their initial direction
+     * Allocates the sprites used to draw balls and enemies.
      */
-    void allocEnemy() {
-        mEnemies.add(EnemyFactory.spawn());
+    public void allocSprites() {
+        Ball ballSprite = new Ball();
+        if (mBallSprite != null) {
+            mBallSprite.releaseTexture();
+        }
+        mBallSprite = ballSprite;
+        mEnemySprite = new Enemy();
+        mEnemySprite.setColor(1, 0, 1);
     }
 
     /**
      * Draw the enemy object.
      */
     public void drawEnemies() {
-        for (Enemy enemy : mEnemies) {
-            enemy.draw();
+        Snapshot.Bodies enemies = mSnapshot.getEnemies();
+        Enemy sprite = mEnemySprite;
+        float alpha = mSnapshot.getInterpolation(mClock.nanoTime());
+        sprite.setSpinTime(mSnapshot.getSimTimeNsec(alpha));
+        int count = enemies.getCount();
+        for (int i = 0; i < count; i++) {
+            float diameter = enemies.getDiameter(i);
+            sprite.setPosition(enemies.getXPosition(i, alpha), enemies.getYPosition(i, alpha));
+            sprite.setScale(diameter, diameter);
+            sprite.draw();
         }
     }
 
     /**
-     * Create a ball at start position, setting direction and speed to initial values.
+     * Passes a touch sample to the simulation, which turns taps and held fingers into balls
+     * fired from the start position.  The balls are created on the simulation thread, so they
+     * won't show up until the next snapshot.
+     * <p>
+     * Called on the UI thread, which is the one producer for the simulation's TouchRing.  We
+     * don't look at mSimThread here; touches that arrive while the simulation is stopped wait
+     * in the ring until it starts again.
+     *
+     * @param action One of the TouchRing.ACTION_* values.
      */
-    public void allocBall(float touchX, float touchY) {
-        mBalls.add(BallFactory.spawn(touchX, touchY));
+    public void touchEvent(int action, float touchX, float touchY, long whenNsec,
+                           int pointerId) {
+        if (mReplay != null) {
+            // Playing back a recording.  Ignore the real player.
+            return;
+        }
+        if (!mSim.getTouchRing().offer(action, touchX, touchY, whenNsec, pointerId)) {
+            Log.d(TAG, "touch ring full, dropped touch");
+        }
     }
 
     /**
      * Draws the balls.
      */
     public void drawBalls() {
-        for (Ball ball : mBalls) {
-            ball.draw();
+        Snapshot.Bodies balls = mSnapshot.getBalls();
+        Ball sprite = mBallSprite;
+        float alpha = mSnapshot.getInterpolation(mClock.nanoTime());
+        int count = balls.getCount();
+        for (int i = 0; i < count; i++) {
+            float diameter = balls.getDiameter(i);
+            sprite.setPosition(balls.getXPosition(i, alpha), balls.getYPosition(i, alpha));
+            sprite.setScale(diameter, diameter);
+            sprite.draw();
         }
     }
 
@@ -493,9 +782,9 @@ public class GameState {
         }
 
         float widthHeightRatio = (float) widest.width() / widest.height();
-        float cellHeight = ARENA_HEIGHT * SCORE_HEIGHT_PERC;
+        float cellHeight = Arena.HEIGHT * SCORE_HEIGHT_PERC;
         float cellWidth = cellHeight * widthHeightRatio * 1.05f; // add 5% spacing between digits
-        float rightStart = (ARENA_WIDTH * 0.5f) + (NUM_SCORE_DIGITS * cellWidth/2);
+        float rightStart = (Arena.WIDTH * 0.5f) + (NUM_SCORE_DIGITS * cellWidth/2);
 
         // Note these are laid out from right to left, i.e. mScoreDigits[0] is the 1s digit.
         for (int i = 0; i < NUM_SCORE_DIGITS; i++) {
@@ -511,8 +800,8 @@ public class GameState {
      * Draws the current score.
      */
     public void drawScore() {
-        float cellHeight = ARENA_HEIGHT * SCORE_HEIGHT_PERC;
-        int score = mScore;
+        float cellHeight = Arena.HEIGHT * SCORE_HEIGHT_PERC;
+        int score = mSnapshot.getScore();
         for (int i = 0; i < NUM_SCORE_DIGITS; i++) {
             int val = score % 10;
             Rect boundsRect = mTextRes.getTextureRect(TextResources.DIGIT_START + val);
@@ -541,17 +830,18 @@ public class GameState {
         mGameStatusMessages = new TexturedAlignedRect();
         mGameStatusMessages.setTexture(mTextRes.getTextureHandle(),
                 mTextRes.getTextureWidth(), mTextRes.getTextureHeight());
-        mGameStatusMessages.setPosition(ARENA_WIDTH / 2, ARENA_HEIGHT / 2);
+        mGameStatusMessages.setPosition(Arena.WIDTH / 2, Arena.HEIGHT / 2);
     }
 
     /**
      * If appropriate, draw a message in the middle of the screen.
      */
     public void drawMessages() {
-        if (mGameStatusMessageNum != TextResources.NO_MESSAGE) {
+        int messageNum = getStatusMessageNum();
+        if (messageNum != TextResources.NO_MESSAGE) {
             TexturedAlignedRect msgBox = mGameStatusMessages;
 
-            Rect boundsRect = mTextRes.getTextureRect(mGameStatusMessageNum);
+            Rect boundsRect = mTextRes.getTextureRect(messageNum);
             msgBox.setTextureCoords(boundsRect);
 
             /*
@@ -572,14 +862,28 @@ public class GameState {
              * here to do that.
              */
 
-            float scale = (ARENA_WIDTH * STATUS_MESSAGE_WIDTH_PERC) / boundsRect.width();
+            float scale = (Arena.WIDTH * STATUS_MESSAGE_WIDTH_PERC) / boundsRect.width();
             msgBox.setScale(boundsRect.width() * scale, boundsRect.height() * scale);
 
-            //Log.d(TAG, "drawing " + mGameStatusMessageNum);
+            //Log.d(TAG, "drawing " + messageNum);
             msgBox.draw();
         }
     }
 
+    /**
+     * Maps the simulation's status message to one of our text strings.
+     */
+    private int getStatusMessageNum() {
+        switch (mSnapshot.getStatusMessage()) {
+            case Simulation.STATUS_READY:
+                return TextResources.READY;
+            case Simulation.STATUS_GAME_OVER:
+                return TextResources.GAME_OVER;
+            default:
+                return TextResources.NO_MESSAGE;
+        }
+    }
+
     /**
      * Allocates shapes that we use for "visual debugging".
      */
@@ -610,11 +914,11 @@ public class GameState {
         if (true) {
             int textureWidth = mTextRes.getTextureWidth();
             int textureHeight = mTextRes.getTextureHeight();
-            float scale = (ARENA_WIDTH * STATUS_MESSAGE_WIDTH_PERC) / textureWidth;
+            float scale = (Arena.WIDTH * STATUS_MESSAGE_WIDTH_PERC) / textureWidth;
 
             // Draw an orange rect around the texture.
             OutlineAlignedRect outline = new OutlineAlignedRect();
-            outline.setPosition(ARENA_WIDTH / 2, ARENA_HEIGHT / 2);
+            outline.setPosition(Arena.WIDTH / 2, Arena.HEIGHT / 2);
             outline.setScale(textureWidth * scale + 2, textureHeight * scale + 2);
             outline.setColor(1.0f, 0.65f, 0.0f);
             OutlineAlignedRect.prepareToDraw();
@@ -645,8 +949,8 @@ public class GameState {
                 // Now scale it to arena coordinates, using the same scale factor we used to
                 // draw the texture with all the messages, and translate it to the center of
                 // the arena.  We need to invert Y to match GL conventions.
-                boundsCenterX = ARENA_WIDTH / 2 + (boundsCenterX * scale);
-                boundsCenterY = ARENA_HEIGHT / 2 - (boundsCenterY * scale);
+                boundsCenterX = Arena.WIDTH / 2 + (boundsCenterX * scale);
+                boundsCenterY = Arena.HEIGHT / 2 - (boundsCenterY * scale);
                 // Set the values and draw the rect.
                 outline.setPosition(boundsCenterX, boundsCenterY);
                 outline.setScale(boundsRect.width() * scale, boundsRect.height() * scale);
@@ -658,293 +962,43 @@ public class GameState {
     }
 
     /**
-     * Sets the pause time.  The game will continue to execute and render, but won't advance
-     * game state.  Used at the start of the game to give the user a chance to orient
-     * themselves to the board.
-     * <p>
-     * May also be handy during debugging to see stuff (like the ball at the instant of a
-     * collision) without fully stopping the game.
+     * Creates the performance overlay, if it's enabled.
      */
-    void setPauseTime(float durationMsec) {
-        mPauseDuration = durationMsec;
+    public void allocPerfHud() {
+        if (!mPerfHudEnabled) {
+            mPerfHud = null;
+            return;
+        }
+        mPerfHud = new PerfHud(mTextRes, BORDER_WIDTH * 2, SCORE_TOP, Arena.HEIGHT);
     }
 
     /**
-     * Updates all game state for the next frame.  This primarily consists of moving the ball
-     * and checking for collisions.
+     * Draws the performance overlay, if it's enabled.  Call after everything else has been
+     * drawn, with alpha blending on.
      */
-    public void calculateNextFrame() {
-        // First frame has no time delta, so make it a no-op.
-        if (mPrevFrameWhenNsec == 0) {
-            mPrevFrameWhenNsec = System.nanoTime();     // use monotonic clock
-            mRecentTimeDeltaNext = -1;                  // reset saved values
+    public void drawPerfHud() {
+        if (mPerfHud == null) {
             return;
         }
-
-        if (isReadyToAllocEnemy) {
-            allocEnemy();
-            isReadyToAllocEnemy = false;
-        }
-
-        if (isReadyToIncrementScore) {
-            mScore++;
-            isReadyToIncrementScore = false;
-        }
-
-        /*
-         * The distance the ball must travel is determined by the time between frames and the
-         * current speed (expressed in arena-units per second).  What we actually want to know
-         * is how much time will elapse between the *display* of the previous frame and the
-         * *display* of the current frame, but this is close enough.
-         *
-         * If onDrawFrame() is being called immediately after vsync, we should get a pretty
-         * steady pace (e.g. a device with 60fps refresh will call the method every 16.7ms).
-         * If we're getting called on some other schedule the span for each frame could vary
-         * by quite a bit.  Also note that not all devices operate at 60fps.
-         *
-         * Smoothing frames by averaging the last few deltas can reduce noticeable jumps,
-         * but create the possibility that you won't be animating at exactly the right
-         * speed.  For our purposes it doesn't seem to matter.
-         *
-         * It's interesting to note that, because "deltaSec" varies, and our collision handling
-         * isn't perfectly precise, the game is not deterministic.  Variations in frame rate
-         * lead to minor variations in the ball's path.  If you want reproducible behavior
-         * for debugging, override deltaSec with a fixed value (e.g. 1/60).
-         */
-
-        long nowNsec = System.nanoTime();
-        double curDeltaSec = (nowNsec - mPrevFrameWhenNsec) / NANOS_PER_SECOND;
-        if (curDeltaSec > MAX_FRAME_DELTA_SEC) {
-            // We went to sleep for an extended period.  Cap it at a reasonable limit.
-            Log.d(TAG, "delta time was " + curDeltaSec + ", capping at " + MAX_FRAME_DELTA_SEC);
-            curDeltaSec = MAX_FRAME_DELTA_SEC;
-        }
-        double deltaSec;
-
-        if (FRAME_RATE_SMOOTHING) {
-            if (mRecentTimeDeltaNext < 0) {
-                // first time through, fill table with current value
-                for (int i = 0; i < RECENT_TIME_DELTA_COUNT; i++) {
-                    mRecentTimeDelta[i] = curDeltaSec;
-                }
-                mRecentTimeDeltaNext = 0;
-            }
-
-            mRecentTimeDelta[mRecentTimeDeltaNext] = curDeltaSec;
-            mRecentTimeDeltaNext = (mRecentTimeDeltaNext + 1) % RECENT_TIME_DELTA_COUNT;
-
-            deltaSec = 0.0f;
-            for (int i = 0; i < RECENT_TIME_DELTA_COUNT; i++) {
-                deltaSec += mRecentTimeDelta[i];
-            }
-            deltaSec /= RECENT_TIME_DELTA_COUNT;
-        } else {
-            deltaSec = curDeltaSec;
-        }
-
-        boolean advanceFrame = true;
-
-        // Do something appropriate based on our current state.
-        switch (mGamePlayState) {
-            case GAME_INITIALIZING:
-                mGamePlayState = GAME_READY;
-                break;
-            case GAME_READY:
-                mGameStatusMessageNum = TextResources.READY;
-                if (advanceFrame) {
-                    // "ready" has expired, move ball to starting position
-                    mGamePlayState = GAME_PLAYING;
-                    mGameStatusMessageNum = TextResources.NO_MESSAGE;
-                    setPauseTime(0.5f);
-                    advanceFrame = false;
-                }
-                break;
-            case GAME_LOST:
-                mGameStatusMessageNum = TextResources.GAME_OVER;
-                mIsAnimating = false;
-                advanceFrame = false;
-                saveScore();
-                break;
-            case GAME_PLAYING:
-                break;
-            default:
-                Log.e(TAG, "GLITCH: bad state " + mGamePlayState);
-                break;
-        }
-
-        if (advanceFrame) {
-            int event = moveBalls(deltaSec);
-            switch (event) {
-                case EVENT_POWERUP_HIT:
-                    break;
-                case EVENT_NONE:
-                    break;
-                default:
-                    throw new RuntimeException("bad game event: " + event);
-            }
-
-            event = moveEnemies(deltaSec);
-            switch (event) {
-                case EVENT_HIT_PLAYER:
-                    mGamePlayState = GAME_LOST;
-                    break;
-                case EVENT_NONE:
-                    break;
-                default:
-                    throw new RuntimeException("bad game event: " + event);
-            }
-
-//            event = movePath(deltaSec);
-//            switch (event) {
-//                case EVENT_PLAYER_FALL:
-//                    mGamePlayState = GAME_LOST;
-//                    break;
-//                case EVENT_NONE:
-//                    break;
-//                default:
-//                    throw new RuntimeException("bad game event: " + event);
-//            }
-        }
-
-        mPrevFrameWhenNsec = nowNsec;
-    }
-
-    private int moveEnemies(double deltaSec) {
-        int event = EVENT_NONE;
-        Iterator<Enemy> iter = mEnemies.iterator();
-
-        while (iter.hasNext()) {
-            Enemy enemy = iter.next();
-
-            float radius = enemy.getRadius();
-            float distance = (float) (enemy.getSpeed() * deltaSec);
-
-            while (distance > 0.0f) {
-                float curX = enemy.getXPosition();
-                float curY = enemy.getYPosition();
-                float dirX = enemy.getXDirection();
-                float dirY = enemy.getYDirection();
-                float finalX = curX + dirX * distance;
-                float finalY = curY + dirY * distance;
-                float left, right, top, bottom;
-
-            /*
-             * Find the edges of the rectangle described by the ball's start and end position.
-             * The (x,y) values identify the center, so factor in the radius too.
-             *
-             * Per GL conventions, values get larger moving toward the top-right corner.
-             */
-                if (curX < finalX) {
-                    left = curX - radius;
-                    right = finalX + radius;
-                } else {
-                    left = finalX - radius;
-                    right = curX + radius;
-                }
-                if (curY < finalY) {
-                    bottom = curY - radius;
-                    top = finalY + radius;
-                } else {
-                    bottom = finalY - radius;
-                    top = curY + radius;
-                }
-
-                int hits = 0;
-
-                // test for other balls
-                for (Ball ball : mBalls) {
-                    if (enemy.checkCoarseCollision(ball, left, right, bottom, top)) {
-                        enemy.addCollision(ball);
-                        hits++;
-                    }
-                }
-
-                // test for player hit
-                if (enemy.checkCoarseCollision(mPlayer, left, right, bottom, top)
-                        && enemy.collidedWith(mPlayer, curX, curY, dirX, dirY, distance, radius)) {
-                    return EVENT_HIT_PLAYER;
-                }
-
-                if (hits != 0) {
-                    // may have hit something, look closer
-                    BaseRect hit = enemy.findFirstCollision(curX, curY, dirX, dirY, distance, radius);
-
-                    if (hit == null) {
-                        // didn't actually hit, clear counter
-                        hits = 0;
-                    } else {
-                        /*
-                         * Figure out what we hit, and react.  A conceptually cleaner way to do
-                         * this would be to define a "collision" action on every BaseRect object,
-                         * and call that.  This is very straightforward for the object state update
-                         * handling (e.g. remove brick, make sound), but gets a little more
-                         * complicated for collisions that don't follow the basic rules (e.g. hitting
-                         * the paddle) or special events (like hitting the very last brick).  We're
-                         * not trying to build a game engine, so we just use a big if-then-else.
-                         *
-                         * Playing a sound here may not be the best approach.  If the sound code
-                         * takes a while to queue up sounds, we could stall the game/render thread
-                         * and reduce our frame rate.  It might be better to queue up sounds on a
-                         * separate thread.  However, unless the ball is moving at an absurd speed,
-                         * we shouldn't be colliding with more than two objects in a single frame,
-                         * so we shouldn't be stressing SoundPool much.
-                         */
-                        SoundResources.play(SoundResources.WALL_HIT);
-
-                        distance -= enemy.getHitDistanceTraveled();
-                        iter.remove();
-                        mBalls.remove(hit);
-                        // TODO display explosion animation
-                    }
-                }
-
-                if (hits == 0) {
-                    enemy.setPosition(finalX, finalY);
-                    distance = 0.0f;
-                }
-            }
-        }
-
-        return event;
+        mPerfHud.update(mSnapshot, mFrameTimings, System.nanoTime());
+        mPerfHud.draw();
     }
 
-    /**
-     * Moves the balls.
-     *
-     * @return A value indicating special events.
+    /*
+     * Simulation.Listener callbacks.  These arrive on the simulation thread.  SoundPool is
+     * fine with that, and the saved game is synchronized.
      */
-    private int moveBalls(double deltaSec) {
-        int event = EVENT_NONE;
-        Iterator<Ball> iter = mBalls.iterator();
-
-        while (iter.hasNext()) {
-            Ball ball = iter.next();
 
-            if (isOutOfBounds(ball.getXPosition(), ball.getYPosition(), ball.getRadius())) {
-                mScore = (mScore < 10) ? 0 : mScore - 10;
-                iter.remove();
-                continue;
-            }
-
-            float distance = (float) (ball.getSpeed() * deltaSec);
-
-            while (distance > 0.0f) {
-                float curX = ball.getXPosition();
-                float curY = ball.getYPosition();
-                float dirX = ball.getXDirection();
-                float dirY = ball.getYDirection();
-                float finalX = curX + dirX * distance;
-                float finalY = curY + dirY * distance;
-                ball.setPosition(finalX, finalY);
-                distance = 0.0f;
-            }
-        }
-
-        return event;
+    @Override
+    public void onEnemyDestroyed() {
+        SoundResources.play(SoundResources.WALL_HIT);
     }
 
-    private boolean isOutOfBounds(float x, float y, float r) {
-        return x < -r || y < -r || x > GameState.ARENA_WIDTH + r || y > GameState.ARENA_HEIGHT + r;
+    @Override
+    public void onGameOver() {
+        if (mReplay == null) {
+            saveScore();
+        }
     }
 
     /**
@@ -955,7 +1009,7 @@ public class GameState {
      */
     private static class SavedGame {
         public int mGamePlayState;
-        public int mGameStatusMessageNum;
+        public int mStatusMessage;
         public int mLivesRemaining;
         public int mScore;
 
@@ -8,14 +8,14 @@ import android.util.Log;
 
 import com.whatizthis.aeonian.Util;
 import com.whatizthis.aeonian.activities.AeonianActivity;
+import com.whatizthis.aeonian.objects.BaseRect;
 import com.whatizthis.aeonian.objects.BasicAlignedRect;
 import com.whatizthis.aeonian.objects.Enemy;
+import com.whatizthis.aeonian.objects.TextBatch;
 import com.whatizthis.aeonian.objects.TexturedAlignedRect;
 import com.whatizthis.aeonian.resources.TextResources;
-
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import com.whatizthis.aeonian.resources.TextureResources;
+import com.whatizthis.aeonian.sim.Arena;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -37,13 +37,20 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
     // Size and position of the GL viewport, in screen coordinates.  If the viewport covers the
     // entire screen, the offsets will be zero and the width/height values will match the
     // size of the display.  (This is one of the few places where we deal in actual pixels.)
-    private int mViewportWidth, mViewportHeight;
-    private int mViewportXoff, mViewportYoff;
+    //
+    // These are read on the UI thread by touchEvent().  During a rotation it might see a mix
+    // of old and new values, which just puts one tap in a slightly odd place.
+    private volatile int mViewportWidth, mViewportHeight;
+    private volatile int mViewportXoff, mViewportYoff;
 
     private GameSurfaceView mSurfaceView;
     private GameState mGameState;
     private TextResources.Configuration mTextConfig;
 
+    // When the previous frame started, for FrameTimings.INTERVAL.  0 if there wasn't one, or
+    // if the gap since doesn't count as a frame interval (e.g. we were paused).
+    private long mPrevFrameStartNsec;
+
 
     /**
      * Constructs the Renderer.  We need references to the GameState, so we can tell it to
@@ -72,14 +79,21 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         BasicAlignedRect.createProgram();
         TexturedAlignedRect.createProgram();
         Enemy.createProgram();
+        TextBatch.createProgram();
+        TextureResources.onSurfaceCreated();
 
-        // Allocate objects associated with the various graphical elements.
+        // Allocate objects associated with the various graphical elements.  The simulation
+        // should already be stopped, but if the EGL context was lost out from under us it
+        // might not be.
         final GameState gameState = mGameState;
+        gameState.stopSimulation();
         gameState.setTextResources(new TextResources(mTextConfig));
         gameState.allocPlayer();
+        gameState.allocSprites();
         gameState.allocScore();
         gameState.allocMessages();
         gameState.allocDebugStuff();
+        gameState.allocPerfHud();
 
         // Restore game state from static storage.
         gameState.restore();
@@ -99,9 +113,6 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         }
 
         if (EXTRA_CHECK) Util.checkGlError("onSurfaceCreated end");
-
-        startScoreThread(gameState);
-        startEnemySpawnerThread(gameState);
     }
 
     /**
@@ -136,7 +147,7 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
 
         if (EXTRA_CHECK) Util.checkGlError("onSurfaceChanged start");
 
-        float arenaRatio = GameState.ARENA_HEIGHT / GameState.ARENA_WIDTH;
+        float arenaRatio = Arena.HEIGHT / Arena.WIDTH;
         int x, y, viewWidth, viewHeight;
 
         if (height > (int) (width * arenaRatio)) {
@@ -167,27 +178,35 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         // If we reversed {0, ARENA_HEIGHT} to {ARENA_HEIGHT, 0}, we'd have (0,0) in the
         // upper-left corner instead of the bottom left, which is more familiar for 2D
         // graphics work.  It might cause brain ache if we want to mix in 3D elements though.
-        Matrix.orthoM(mProjectionMatrix, 0,  0, GameState.ARENA_WIDTH,
-                0, GameState.ARENA_HEIGHT,  -1, 1);
+        Matrix.orthoM(mProjectionMatrix, 0,  0, Arena.WIDTH,
+                0, Arena.HEIGHT,  -1, 1);
 
-        // Nudge game state after the surface change.
+        // Nudge game state after the surface change, then get things moving.
+        mPrevFrameStartNsec = 0;
+        mGameState.stopSimulation();
         mGameState.surfaceChanged();
+        mGameState.startSimulation();
 
         if (EXTRA_CHECK) Util.checkGlError("onSurfaceChanged end");
     }
 
     /**
-     * Advances game state, then draws the new frame.
+     * Draws the newest snapshot of the game.  The game itself advances on the simulation
+     * thread, so nothing we do here slows it down, and vice-versa.
      */
     @Override
     public void onDrawFrame(GL10 unused) {
         GameState gameState = mGameState;
+        FrameTimings timings = gameState.getFrameTimings();
 
-        gameState.calculateNextFrame();
+        long frameStartNsec = System.nanoTime();
+        if (mPrevFrameStartNsec != 0) {
+            timings.get(FrameTimings.INTERVAL).record(frameStartNsec - mPrevFrameStartNsec);
+        }
+        mPrevFrameStartNsec = frameStartNsec;
 
-        // Simulate slow game state update, to see impact on animation.
-//        try { Thread.sleep(33); }
-//        catch (InterruptedException ie) {}
+        gameState.prepareFrame();
+        BaseRect.resetDrawCallCount();
 
         if (EXTRA_CHECK) Util.checkGlError("onDrawFrame start");
 
@@ -196,9 +215,12 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
 
         // Draw the various elements.  These are all BasicAlignedRect.
 
+        long phaseStartNsec = System.nanoTime();
         Enemy.prepareToDraw();
         gameState.drawEnemies();
         Enemy.finishedDrawing();
+        long phaseEndNsec = System.nanoTime();
+        timings.get(FrameTimings.DRAW_ENEMIES).record(phaseEndNsec - phaseStartNsec);
 
         /*
          * Draw alpha-blended components, notably the ball and score.
@@ -226,6 +248,8 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
          * be faster.)
          */
 
+        phaseStartNsec = phaseEndNsec;
+
         // Enable alpha blending.
         GLES20.glEnable(GLES20.GL_BLEND);
         // Blend based on the fragment's alpha value.
@@ -237,14 +261,24 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         gameState.drawBalls();
         gameState.drawMessages();
         TexturedAlignedRect.finishedDrawing();
+        phaseEndNsec = System.nanoTime();
+        timings.get(FrameTimings.DRAW_TEXTURED).record(phaseEndNsec - phaseStartNsec);
+        phaseStartNsec = phaseEndNsec;
 
         gameState.drawDebugStuff();
+        gameState.drawPerfHud();
+        phaseEndNsec = System.nanoTime();
+        timings.get(FrameTimings.DRAW_DEBUG).record(phaseEndNsec - phaseStartNsec);
 
         // Turn alpha blending off.
         GLES20.glDisable(GLES20.GL_BLEND);
 
         if (EXTRA_CHECK) Util.checkGlError("onDrawFrame end");
 
+        gameState.finishFrame();
+        timings.get(FrameTimings.DRAW).record(System.nanoTime() - frameStartNsec);
+        gameState.sampleMetrics(false);
+
         // Stop animating at 60fps (or whatever the refresh rate is) if the game is over.  Once
         // we do this, we won't get here again unless something explicitly asks the system to
         // render a new frame.  (As a handy side-effect, this prevents the paddle from actively
@@ -261,6 +295,9 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
             // uses the same synchronization.  If it weren't allowed, we'd need to post an
             // event to the UI thread to do this.
             mSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+
+            // Whenever the next frame comes, it won't be one interval after this one.
+            mPrevFrameStartNsec = 0;
         }
     }
 
@@ -272,47 +309,37 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
      */
     public void onViewPause(ConditionVariable syncObj) {
         /*
-         * We don't explicitly pause the game action, because the main game loop is being driven
-         * by the framework's calls to our onDrawFrame() callback.  If we were driving the updates
-         * ourselves we'd need to do something more.
+         * Stop the simulation thread first.  Once it's gone we have the Simulation to
+         * ourselves and can save it; it'll be restarted by onSurfaceChanged() when we resume.
          */
+        mGameState.stopSimulation();
+        mGameState.logPoolStatistics();
+        mGameState.logInputLatency();
+        mGameState.getFrameTimings().log();
+        mGameState.sampleMetrics(true);
+        mPrevFrameStartNsec = 0;
         mGameState.save();
 
         syncObj.open();
     }
 
     /**
-     * Updates state after the player touches the screen.  Call through queueEvent().
+     * Updates state after the player touches the screen.  Unlike everything else here, this
+     * is called on the UI thread; it only reads the viewport, and hands the touch to GameState.
+     *
+     * @param action What the pointer did; one of the TouchRing.ACTION_* values.
+     * @param whenNsec When the touch happened, in System.nanoTime() terms.
+     * @param pointerId The MotionEvent pointer ID.
      */
-    public void touchEvent(float x, float y) {
-        float arenaX = (x - mViewportXoff) * (GameState.ARENA_WIDTH / mViewportWidth);
-        float arenaY = GameState.ARENA_HEIGHT - (y - mViewportYoff) * (GameState.ARENA_HEIGHT / mViewportHeight);
-        mGameState.allocBall(arenaX, arenaY);
+    public void touchEvent(int action, float x, float y, long whenNsec, int pointerId) {
+        if (mViewportWidth == 0 || mViewportHeight == 0) {
+            // Surface isn't set up yet, so we don't know where anything is.
+            return;
+        }
+        float arenaX = (x - mViewportXoff) * (Arena.WIDTH / mViewportWidth);
+        float arenaY = Arena.HEIGHT - (y - mViewportYoff) * (Arena.HEIGHT / mViewportHeight);
+        mGameState.touchEvent(action, arenaX, arenaY, whenNsec, pointerId);
         //Log.v(TAG, "touch at x=" + (int) x + " y=" + (int) y + " --> arenaX=" + (int) arenaX);
     }
-
-    private void startScoreThread(final GameState gameState) {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                gameState.isReadyToIncrementScore = true;
-            }
-        }, 0, 200);
-    }
-
-    private void startEnemySpawnerThread(final GameState gameState) {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                Timer enemyTimer = new Timer();
-                int delay = (2 + new Random().nextInt(5)) * 1000;
-                enemyTimer.schedule(new TimerTask() {
-                    public void run() {
-                        gameState.isReadyToAllocEnemy = true;
-                    }
-                }, delay);
-            }
-        }, 0, 1000);
-    }
 }
 
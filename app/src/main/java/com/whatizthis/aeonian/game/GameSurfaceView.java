@@ -3,12 +3,14 @@ package com.whatizthis.aeonian.game;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.os.ConditionVariable;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 
 import com.whatizthis.aeonian.activities.AeonianActivity;
 import com.whatizthis.aeonian.game.GameState;
 import com.whatizthis.aeonian.game.GameSurfaceRenderer;
 import com.whatizthis.aeonian.resources.TextResources;
+import com.whatizthis.aeonian.sim.TouchRing;
 
 /**
  * View object for the GL surface.  Wraps the renderer.
@@ -62,26 +64,33 @@ public class GameSurfaceView extends GLSurfaceView {
     @Override
     public boolean onTouchEvent(MotionEvent e) {
         /*
-         * Forward touch events to the game loop.  We don't want to call Renderer methods
-         * directly, because they manipulate state that is "owned" by a different thread.  We
-         * use the GLSurfaceView queueEvent() function to execute it there.
+         * Forward touch events to the game loop.  We used to hand each one to the Renderer
+         * thread with queueEvent(), which meant allocating a Runnable for every tap.  Now the
+         * renderer converts the position right here, on the UI thread, and it goes straight
+         * into the simulation's TouchRing, with no allocation and no thread hop.
          *
-         * This increases the latency of our touch response slightly, but it shouldn't be
-         * noticeable.
+         * We used to look at ACTION_DOWN only, so a second finger, or a finger held down,
+         * did nothing.  Now every pointer counts: each one going down is a shot, and the
+         * simulation keeps firing while it's held (see FireControl), aiming wherever it's
+         * been moved to.  So we pass along every sample we get, each with its own timestamp.
          */
 
-        switch (e.getAction()) {
+        switch (e.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
-                final float x, y;
-                x = e.getX();
-                y = e.getY();
-                //Log.d(TAG, "GameSurfaceView onTouchEvent x=" + x + " y=" + y);
-                queueEvent(new Runnable() {
-                    @Override public void run() {
-                        mRenderer.touchEvent(x, y);
-                    }});
-
+            case MotionEvent.ACTION_POINTER_DOWN:
+                //Log.d(TAG, "GameSurfaceView onTouchEvent x=" + e.getX() + " y=" + e.getY());
+                sendPointer(TouchRing.ACTION_DOWN, e, e.getActionIndex());
+                break;
             case MotionEvent.ACTION_MOVE:
+                sendMoves(e);
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                sendPointer(TouchRing.ACTION_UP, e, e.getActionIndex());
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mRenderer.touchEvent(TouchRing.ACTION_CANCEL, 0.0f, 0.0f,
+                        toNanoTime(e.getEventTime()), -1);
                 break;
             default:
                 break;
@@ -89,4 +98,43 @@ public class GameSurfaceView extends GLSurfaceView {
 
         return true;
     }
+
+    /**
+     * Sends the current sample of one pointer.
+     */
+    private void sendPointer(int action, MotionEvent e, int index) {
+        mRenderer.touchEvent(action, e.getX(index), e.getY(index),
+                toNanoTime(e.getEventTime()), e.getPointerId(index));
+    }
+
+    /**
+     * Sends every sample of every pointer in a move event.  Touch panels sample faster than
+     * the display refreshes -- 240Hz isn't unusual -- and Android batches the samples it
+     * collects between frames into one event, as "history".  The oldest come first, and the
+     * event's own position is the newest.
+     */
+    private void sendMoves(MotionEvent e) {
+        int pointerCount = e.getPointerCount();
+        int historySize = e.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            long whenNsec = toNanoTime(e.getHistoricalEventTime(h));
+            for (int p = 0; p < pointerCount; p++) {
+                mRenderer.touchEvent(TouchRing.ACTION_MOVE, e.getHistoricalX(p, h),
+                        e.getHistoricalY(p, h), whenNsec, e.getPointerId(p));
+            }
+        }
+        long whenNsec = toNanoTime(e.getEventTime());
+        for (int p = 0; p < pointerCount; p++) {
+            mRenderer.touchEvent(TouchRing.ACTION_MOVE, e.getX(p), e.getY(p), whenNsec,
+                    e.getPointerId(p));
+        }
+    }
+
+    /**
+     * Converts a MotionEvent timestamp, which is in SystemClock.uptimeMillis() terms, to
+     * System.nanoTime() terms.
+     */
+    private static long toNanoTime(long eventTimeMsec) {
+        return System.nanoTime() - (SystemClock.uptimeMillis() - eventTimeMsec) * 1000000L;
+    }
 }
@@ -0,0 +1,230 @@
+package com.whatizthis.aeonian.game;
+
+import android.graphics.Rect;
+
+import com.whatizthis.aeonian.objects.BaseRect;
+import com.whatizthis.aeonian.objects.TextBatch;
+import com.whatizthis.aeonian.resources.TextResources;
+import com.whatizthis.aeonian.resources.TextureResources;
+import com.whatizthis.aeonian.sim.Histogram;
+import com.whatizthis.aeonian.sim.Snapshot;
+
+/**
+ * On-screen performance overlay, for QA.  Shows, in the top left corner:
+ * <pre>
+ *   FPS 60  CALLS 14
+ *   SIM 0.41 MS  DRAW 1.20 MS
+ *   ENEMIES 38  BALLS 3
+ *   POOL 640  TEX 2
+ * </pre>
+ * FPS is frames drawn per second, SIM and DRAW are the mean time spent in
+ * Simulation.calculateNextFrame() and onDrawFrame(), CALLS is draw calls per frame (not
+ * counting our own), ENEMIES and BALLS are what's alive, POOL is entity slots allocated, and
+ * TEX is live textures.
+ * <p>
+ * The point of an overlay like this is to watch the numbers while playing, so it has to stay
+ * out of the way of what it's measuring.  It doesn't log, and doesn't allocate once it's
+ * built: the text is put together from the digit and label glyphs in the TextResources
+ * texture, the way drawScore() does it, with the numbers taken apart a digit at a time.
+ * Rather than a TexturedAlignedRect per glyph, though, the whole overlay is one TextBatch, so
+ * it costs a single draw call.  The numbers are averaged over half a second, and the batch is
+ * only rebuilt when they change, which also keeps them still enough to read.
+ * <p>
+ * Renderer thread only.
+ */
+public class PerfHud {
+    private static final long REFRESH_NSEC = 500000000L;
+
+    // Lines are this tall (as a fraction of the arena height), measured on the digits.
+    private static final float LINE_HEIGHT_PERC = 2.5f / 100.0f;
+    private static final float LINE_SPACING = 1.5f;
+
+    // Enough for four lines of five-digit numbers.
+    private static final int MAX_GLYPHS = 96;
+
+    private final TextResources mTextRes;
+    private final TextBatch mBatch = new TextBatch(MAX_GLYPHS);
+    private final float mLeft;
+    private final float mTop;
+
+    // Glyph sizes, in arena units per texel.
+    private final float mLineHeight;
+    private final float mDigitScale;
+    private final float mLabelScale;
+    private final float mDigitCellWidth;
+    private final float mSpaceWidth;
+
+    // Where the next glyph goes.
+    private float mCursorX;
+    private float mBaseline;
+
+    // The window we're averaging over.
+    private long mWindowStartNsec;
+    private int mWindowFrames;
+    private long mSimCount, mSimTotal;
+    private long mDrawCount, mDrawTotal;
+
+    /**
+     * Sets up the overlay, with its top left corner at (left, top) in arena coordinates.
+     */
+    public PerfHud(TextResources textRes, float left, float top, float arenaHeight) {
+        mTextRes = textRes;
+        mLeft = left;
+        mTop = top;
+        mBatch.setTexture(textRes.getTextureHandle(), textRes.getTextureWidth(),
+                textRes.getTextureHeight());
+
+        // As in allocScore(), digits get fixed-width cells so the numbers don't jiggle.  The
+        // labels were rendered at a smaller point size, so they need scaling up by the
+        // difference to come out matching.
+        mLineHeight = arenaHeight * LINE_HEIGHT_PERC;
+        int maxWidth = 0;
+        int height = 1;
+        for (int i = 0; i < 10; i++) {
+            Rect boundsRect = textRes.getTextureRect(TextResources.DIGIT_START + i);
+            maxWidth = Math.max(maxWidth, boundsRect.width());
+            height = Math.max(height, boundsRect.height());
+        }
+        mDigitScale = mLineHeight / height;
+        mLabelScale = mDigitScale * textRes.getTextSize(TextResources.DIGIT_START)
+                / textRes.getTextSize(TextResources.HUD_FPS);
+        mDigitCellWidth = maxWidth * mDigitScale * 1.1f;
+        mSpaceWidth = mLineHeight * 0.4f;
+    }
+
+    /**
+     * Notes a frame, and updates the text if it's been long enough.  Call once per frame,
+     * after everything else has been drawn and before draw().
+     */
+    public void update(Snapshot snap, FrameTimings timings, long nowNsec) {
+        mWindowFrames++;
+        if (mWindowStartNsec == 0) {
+            startWindow(timings, nowNsec);
+            return;
+        }
+        long elapsedNsec = nowNsec - mWindowStartNsec;
+        if (elapsedNsec < REFRESH_NSEC) {
+            return;
+        }
+
+        Histogram sim = timings.get(FrameTimings.SIM);
+        Histogram draw = timings.get(FrameTimings.DRAW);
+        long simCount = sim.getCount() - mSimCount;
+        long drawCount = draw.getCount() - mDrawCount;
+        long simNsec = simCount == 0 ? 0 : (sim.getTotal() - mSimTotal) / simCount;
+        long drawNsec = drawCount == 0 ? 0 : (draw.getTotal() - mDrawTotal) / drawCount;
+        long fps = (mWindowFrames * 1000000000L + elapsedNsec / 2) / elapsedNsec;
+
+        mBatch.clear();
+        startLine(0);
+        addLabel(TextResources.HUD_FPS);
+        addNumber(fps);
+        addSpace();
+        addLabel(TextResources.HUD_CALLS);
+        addNumber(BaseRect.getDrawCallCount());
+
+        startLine(1);
+        addLabel(TextResources.HUD_SIM);
+        addMsec(simNsec);
+        addLabel(TextResources.HUD_MSEC);
+        addSpace();
+        addLabel(TextResources.HUD_DRAW);
+        addMsec(drawNsec);
+        addLabel(TextResources.HUD_MSEC);
+
+        startLine(2);
+        addLabel(TextResources.HUD_ENEMIES);
+        addNumber(snap.getEnemies().getCount());
+        addSpace();
+        addLabel(TextResources.HUD_BALLS);
+        addNumber(snap.getBalls().getCount());
+
+        startLine(3);
+        addLabel(TextResources.HUD_POOL);
+        addNumber(snap.getPoolCapacity());
+        addSpace();
+        addLabel(TextResources.HUD_TEXTURES);
+        addNumber(TextureResources.getLiveTextureCount());
+
+        mWindowFrames = 0;
+        startWindow(timings, nowNsec);
+    }
+
+    /**
+     * Draws the overlay.  Alpha blending should be enabled, as for TexturedAlignedRect.
+     */
+    public void draw() {
+        mBatch.draw();
+    }
+
+    private void startWindow(FrameTimings timings, long nowNsec) {
+        Histogram sim = timings.get(FrameTimings.SIM);
+        Histogram draw = timings.get(FrameTimings.DRAW);
+        mWindowStartNsec = nowNsec;
+        mSimCount = sim.getCount();
+        mSimTotal = sim.getTotal();
+        mDrawCount = draw.getCount();
+        mDrawTotal = draw.getTotal();
+    }
+
+    private void startLine(int line) {
+        mCursorX = mLeft;
+        mBaseline = mTop - mLineHeight - line * mLineHeight * LINE_SPACING;
+    }
+
+    private void addSpace() {
+        mCursorX += mSpaceWidth;
+    }
+
+    /**
+     * Adds one of the HUD_* labels, followed by a space.  Every glyph sits on the baseline;
+     * none of them has a descender.
+     */
+    private void addLabel(int index) {
+        Rect boundsRect = mTextRes.getTextureRect(index);
+        float width = boundsRect.width() * mLabelScale;
+        mBatch.add(boundsRect, mCursorX, mBaseline, width,
+                boundsRect.height() * mLabelScale);
+        mCursorX += width;
+        if (index != TextResources.HUD_POINT) {
+            mCursorX += mSpaceWidth;
+        }
+    }
+
+    private void addDigit(int val) {
+        Rect boundsRect = mTextRes.getTextureRect(TextResources.DIGIT_START + val);
+        float width = boundsRect.width() * mDigitScale;
+        // Centered in the cell.
+        mBatch.add(boundsRect, mCursorX + (mDigitCellWidth - width) / 2, mBaseline, width,
+                boundsRect.height() * mDigitScale);
+        mCursorX += mDigitCellWidth;
+    }
+
+    /**
+     * Adds a non-negative number, followed by a space.
+     */
+    private void addNumber(long value) {
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor != 0; divisor /= 10) {
+            addDigit((int) (value / divisor % 10));
+        }
+        mCursorX += mSpaceWidth;
+    }
+
+    /**
+     * Adds a time in nanoseconds as milliseconds with two decimal places, e.g. "1.20 ".
+     */
+    private void addMsec(long nsec) {
+        long hundredths = (nsec + 5000) / 10000;
+        // addNumber() puts a space after; take it back before the point.
+        addNumber(hundredths / 100);
+        mCursorX -= mSpaceWidth;
+        addLabel(TextResources.HUD_POINT);
+        addDigit((int) (hundredths / 10 % 10));
+        addDigit((int) (hundredths % 10));
+        mCursorX += mSpaceWidth;
+    }
+}
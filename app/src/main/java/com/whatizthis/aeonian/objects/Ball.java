@@ -1,193 +1,27 @@
 package com.whatizthis.aeonian.objects;
 
 import android.graphics.Rect;
-import android.opengl.GLES20;
 
 import com.whatizthis.aeonian.activities.AeonianActivity;
+import com.whatizthis.aeonian.resources.TextureResources;
 
 import java.nio.ByteBuffer;
 
 /**
- * Ball object.
+ * Ball object.  Just the visuals; the simulation tracks where balls are and where they're going.
  */
 public class Ball extends TexturedAlignedRect {
     private static final String TAG = AeonianActivity.TAG;
 
     private static final int TEX_SIZE = 64;        // dimension for square texture (power of 2)
-    private static final int DATA_FORMAT = GLES20.GL_RGBA;  // 8bpp RGBA
     private static final int BYTES_PER_PIXEL = 4;
 
-    // Normalized motion vector.
-    private float mMotionX;
-    private float mMotionY;
-
-    // Speed, expressed in terms of steps per second.  A speed of 60 will move the ball
-    // 60 arena-units per second, or 1 unit per frame on a 60Hz device.  This is not the same
-    // as 1 *pixel* per frame unless the arena units happen to match up.
-    private int mSpeed;
-
     public Ball() {
-        setTexture(generateBallTexture(), TEX_SIZE, TEX_SIZE, DATA_FORMAT);
+        setTexture(TextureResources.acquire(TextureResources.BALL));
         // Ball diameter is an odd number of pixels.
         setTextureCoords(new Rect(0, 0, TEX_SIZE-1, TEX_SIZE-1));
     }
 
-    /**
-     * Gets the motion vector X component.
-     */
-    public float getXDirection() {
-        return mMotionX;
-    }
-
-    /**
-     * Gets the motion vector Y component.
-     */
-    public float getYDirection() {
-        return mMotionY;
-    }
-
-    /**
-     * Sets the motion vector.  Input values will be normalized.
-     */
-    public void setDirection(float deltaX, float deltaY) {
-        float mag = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-        mMotionX = deltaX / mag;
-        mMotionY = deltaY / mag;
-    }
-
-    /**
-     * Gets the speed, in arena-units per second.
-     */
-    public int getSpeed() {
-        return mSpeed;
-    }
-
-    /**
-     * Sets the speed, in arena-units per second.
-     */
-    public void setSpeed(int speed) {
-        if (speed <= 0) {
-            throw new RuntimeException("speed must be positive (" + speed + ")");
-        }
-        mSpeed = speed;
-    }
-
-    /**
-     * Gets the ball's radius, in arena units.
-     */
-    public float getRadius() {
-        // The "scale" value indicates diameter.
-        return getXScale() / 2.0f;
-    }
-
-    /**
-     * Generates the ball texture.  This is a simple filled circle in a solid color, with
-     * a transparent black background.
-     *
-     * @return A direct ByteBuffer with pre-multiplied RGBA data.
-     */
-    private ByteBuffer generateBallTexture() {
-        /*
-         * Most images used in games are generated with external tools and then loaded from
-         * image files.  This is an example of generating texture data directly.
-         *
-         * We "render" it into a byte[], then copy that into a direct byte buffer.  This
-         * requires one extra copy than we would need if we rendered directly into the ByteBuffer,
-         * but we can't assume that ByteBuffer.array() will work with direct byte buffers, and
-         * writing data with ByteBuffer.put(int, byte) is slow and annoying.
-         *
-         * We use GL_RGBA, which has four 8-bit normalized unsigned integer components (which
-         * is a fancy way to say, "the usual format for 32-bit color pixels").  We could
-         * get away with creating this as an alpha map and then use a shader to apply color,
-         * but that's not necessary and requires the shader work.
-         */
-        byte[] buf = new byte[TEX_SIZE * TEX_SIZE * BYTES_PER_PIXEL];
-
-        /*
-         * We're drawing a filled circle with a radius of 31, which gives us a circle
-         * that fills a 63x63 area.  We're using a 64x64 texture, so have a choice to make:
-         *  (1) Assume the hardware can handle non-power-of-2 texture sizes.  This doesn't
-         *      always hold, so we don't want to do this.
-         *  (2) Leave the 64th row and column set to transparent black, and hope nobody notices
-         *      when things don't quite collide.  This is reasonably safe, given the size of
-         *      the ball and the speed of motion.
-         *  (3) "Stretch" the circle slightly when generating the data, doubling-up the center
-         *      row and column, to fill the circle to 64x64.  Should look fine.
-         *  (4) Adjust the texture coordinates so that the edges are at 0.984375 (63/64) instead
-         *      of 1.0.  This is generally the correct approach, but requires that we manually
-         *      specify the texture dimensions instead of just saying, "use this whole image".
-         *
-         * Going with #4.  Note the radius of 31 is arbitrary and has no bearing on how large
-         * the ball is on screen (this is a texture applied to a pair of triangles, not a bitmap
-         * of screen-sized pixels).  We want it to be small enough that it doesn't use up a
-         * ton of memory, but bug enough that, if the ball is drawn very large, the circle
-         * edges don't look chunky when we scale it up.
-         */
-        int left[] = new int[TEX_SIZE-1];
-        int right[] = new int[TEX_SIZE-1];
-        computeCircleEdges(TEX_SIZE/2 - 1, left, right);
-
-        // Render the edge list as a filled circle.
-        for (int y = 0; y < left.length; y++) {
-            int xleft = left[y];
-            int xright = right[y];
-
-            for (int x = xleft ; x <= xright; x++) {
-                int offset = (y * TEX_SIZE + x) * BYTES_PER_PIXEL;
-                buf[offset]   = (byte) 0xff;    // red
-                buf[offset+1] = (byte) 0xff;    // green
-                buf[offset+2] = (byte) 0xff;    // blue
-                buf[offset+3] = (byte) 0xff;    // alpha
-            }
-        }
-
-        // Create a ByteBuffer, copy the data over, and (very important) reset the position.
-        ByteBuffer byteBuf = ByteBuffer.allocateDirect(buf.length);
-        byteBuf.put(buf);
-        byteBuf.position(0);
-        return byteBuf;
-    }
-
-    /**
-     * Computes the left and right edges of a rasterized circle, using Bresenham's algorithm.
-     *
-     * @param rad Radius.
-     * @param left Left edge index, range [0, rad].  Array must hold (rad*2+1) elements.
-     * @param right Right edge index, range [rad, rad*2 + 1].
-     */
-    private static void computeCircleEdges(int rad, int[] left, int[] right) {
-        /* (also available in 6502 assembly) */
-        int x, y, d;
-
-        d = 1 - rad;
-        x = 0;
-        y = rad;
-
-        // Walk through one quadrant, setting the other three as reflections.
-        while (x <= y) {
-            setCircleValues(rad, x, y, left, right);
-
-            if (d < 0) {
-                d = d + (x << 2) + 3;
-            } else {
-                d = d + ((x - y) << 2) + 5;
-                y--;
-            }
-            x++;
-        }
-    }
-
-    /**
-     * Sets the edge values for four quadrants based on values from the first quadrant.
-     */
-    private static void setCircleValues(int rad, int x, int y, int[] left, int[] right) {
-        left[rad+y] = left[rad-y] = rad - x;
-        left[rad+x] = left[rad-x] = rad - y;
-        right[rad+y] = right[rad-y] = rad + x;
-        right[rad+x] = right[rad-x] = rad + y;
-    }
-
-
     // Colors for the test texture, in little-endian RGBA.
     public static final int BLACK = 0x00000000;
     public static final int RED = 0x000000ff;
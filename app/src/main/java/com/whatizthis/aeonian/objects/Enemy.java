@@ -2,7 +2,6 @@ package com.whatizthis.aeonian.objects;
 
 import android.opengl.GLES20;
 import android.opengl.Matrix;
-import android.os.SystemClock;
 import android.util.Log;
 
 import com.whatizthis.aeonian.game.GameSurfaceRenderer;
@@ -61,14 +60,8 @@ public class Enemy extends BaseRect {
 
     private static float[] mRotationMatrix = new float[16];
 
-    // Normalized motion vector.
-    private float mMotionX;
-    private float mMotionY;
-
-    // Speed, expressed in terms of steps per second.  A speed of 60 will move the ball
-    // 60 arena-units per second, or 1 unit per frame on a 60Hz device.  This is not the same
-    // as 1 *pixel* per frame unless the arena units happen to match up.
-    private int mSpeed;
+    // Simulated time, in milliseconds, that sets how far round the spin is.
+    private long mSpinTimeMsec;
 
 
     /**
@@ -103,6 +96,13 @@ public class Enemy extends BaseRect {
         mColor[3] = 1.0f;
     }
 
+    /**
+     * Sets the simulated time to draw at, which determines the rotation.
+     */
+    public void setSpinTime(long simTimeNsec) {
+        mSpinTimeMsec = simTimeNsec / 1000000;
+    }
+
     /**
      * Returns a four-element array with the RGBA color info.  The caller must not modify
      * the values in the returned array.
@@ -117,46 +117,6 @@ public class Enemy extends BaseRect {
     }
 
 
-    /**
-     * Gets the motion vector X component.
-     */
-    public float getXDirection() {
-        return mMotionX;
-    }
-
-    /**
-     * Gets the motion vector Y component.
-     */
-    public float getYDirection() {
-        return mMotionY;
-    }
-
-    /**
-     * Sets the motion vector.  Input values will be normalized.
-     */
-    public void setDirection(float deltaX, float deltaY) {
-        float mag = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-        mMotionX = deltaX / mag;
-        mMotionY = deltaY / mag;
-    }
-
-    /**
-     * Gets the speed, in arena-units per second.
-     */
-    public int getSpeed() {
-        return mSpeed;
-    }
-
-    /**
-     * Sets the speed, in arena-units per second.
-     */
-    public void setSpeed(int speed) {
-        if (speed <= 0) {
-            throw new RuntimeException("speed must be positive (" + speed + ")");
-        }
-        mSpeed = speed;
-    }
-
     /**
      * Performs setup common to all BasicAlignedRects.
      */
@@ -200,14 +160,6 @@ public class Enemy extends BaseRect {
         GLES20.glUseProgram(0);
     }
 
-    /**
-     * Gets the ball's radius, in arena units.
-     */
-    public float getRadius() {
-        // The "scale" value indicates diameter.
-        return getXScale() / 2.0f;
-    }
-
     /**
      * Draws the rect.
      */
@@ -220,8 +172,9 @@ public class Enemy extends BaseRect {
         float[] mvp = sTempMVP;     // scratch storage
         float[] rotate = mRotationMatrix;     // scratch storage
 
-        // Create a rotation transformation for the object
-        float angle = 0.50f * (SystemClock.uptimeMillis() % 4000);
+        // Create a rotation transformation for the object.  The angle comes from simulated
+        // time, so the spin is the same on every run of a game and stops when the game does.
+        float angle = 0.50f * (mSpinTimeMsec % 4000);
         Matrix.setRotateM(mRotationMatrix, 0, angle, 0, 0, -1.0f);
 
         // Compute model/view/projection matrix.
@@ -242,6 +195,7 @@ public class Enemy extends BaseRect {
 
         // Draw the rect.
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
+        countDrawCall();
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glDrawArrays");
     }
 }
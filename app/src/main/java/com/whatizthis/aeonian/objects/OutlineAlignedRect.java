@@ -69,6 +69,7 @@ public class OutlineAlignedRect extends BasicAlignedRect {
 
         // Draw the rect.
         GLES20.glDrawArrays(GLES20.GL_LINE_LOOP, 0, VERTEX_COUNT);
+        countDrawCall();
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glDrawArrays");
     }
 }
@@ -0,0 +1,195 @@
+package com.whatizthis.aeonian.objects;
+
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.whatizthis.aeonian.Util;
+import com.whatizthis.aeonian.activities.AeonianActivity;
+import com.whatizthis.aeonian.game.GameSurfaceRenderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A run of glyphs from one texture, drawn with a single draw call.
+ * <p>
+ * The score draws each digit as a TexturedAlignedRect, which is one draw call (plus a
+ * matrix multiply and a handful of uniform and attribute updates) per glyph.  That's fine for
+ * five digits.  For a screenful of text it's the sort of per-frame cost we'd rather not add,
+ * so instead we write every glyph's quad into one vertex array, already in arena
+ * coordinates, and draw the lot as triangles.  The projection matrix is the whole transform.
+ * <p>
+ * Glyphs are added between clear() and the next draw(); the vertex data is uploaded on the
+ * first draw() after a change, and reused until the next one.  Uses the TexturedAlignedRect
+ * shaders, so the same blending rules apply.
+ */
+public class TextBatch {
+    private static final String TAG = AeonianActivity.TAG;
+
+    // Each vertex is x,y followed by s,t.  Each glyph is two triangles, ccw.
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+    private static final int VERTICES_PER_GLYPH = 6;
+    private static final int FLOATS_PER_GLYPH = VERTICES_PER_GLYPH * FLOATS_PER_VERTEX;
+
+    // Handles to uniforms and attributes in the shader.
+    private static int sProgramHandle = -1;
+    private static int sPositionHandle = -1;
+    private static int sTexCoordHandle = -1;
+    private static int sMVPMatrixHandle = -1;
+
+    private final int mCapacity;
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private int mGlyphCount;
+    private boolean mDirty;
+
+    private int mTextureHandle = -1;
+    private float mTextureWidth = 1.0f;
+    private float mTextureHeight = 1.0f;
+
+    /**
+     * Creates a batch with room for "capacity" glyphs.  Any more are ignored.
+     */
+    public TextBatch(int capacity) {
+        mCapacity = capacity;
+        mVertices = new float[capacity * FLOATS_PER_GLYPH];
+        ByteBuffer bb = ByteBuffer.allocateDirect(mVertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+    }
+
+    /**
+     * Creates the GL program and associated references.
+     */
+    public static void createProgram() {
+        sProgramHandle = Util.createProgram(TexturedAlignedRect.VERTEX_SHADER_CODE,
+                TexturedAlignedRect.FRAGMENT_SHADER_CODE);
+        Log.d(TAG, "Created program " + sProgramHandle);
+
+        sPositionHandle = GLES20.glGetAttribLocation(sProgramHandle, "a_position");
+        Util.checkGlError("glGetAttribLocation");
+        sTexCoordHandle = GLES20.glGetAttribLocation(sProgramHandle, "a_texCoord");
+        Util.checkGlError("glGetAttribLocation");
+        sMVPMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_mvpMatrix");
+        Util.checkGlError("glGetUniformLocation");
+
+        // Set u_texture to reference texture unit 0.
+        int textureUniformHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_texture");
+        Util.checkGlError("glGetUniformLocation");
+        GLES20.glUseProgram(sProgramHandle);
+        GLES20.glUniform1i(textureUniformHandle, 0);
+        Util.checkGlError("glUniform1i");
+        GLES20.glUseProgram(0);
+    }
+
+    /**
+     * Sets the texture the glyphs come from.
+     *
+     * @param handle GL texture handle.
+     * @param width Width of the texture (in texels).
+     * @param height Height of the texture (in texels).
+     */
+    public void setTexture(int handle, int width, int height) {
+        mTextureHandle = handle;
+        mTextureWidth = width;
+        mTextureHeight = height;
+    }
+
+    /**
+     * Removes all glyphs.
+     */
+    public void clear() {
+        mGlyphCount = 0;
+        mDirty = true;
+    }
+
+    /**
+     * Adds a glyph.
+     *
+     * @param coords Where the glyph is in the texture, in image coordinates (see
+     *      TexturedAlignedRect.setTextureCoords()).
+     * @param left Left edge, in arena coordinates.
+     * @param bottom Bottom edge, in arena coordinates.
+     * @param width Width, in arena coordinates.
+     * @param height Height, in arena coordinates.
+     * @return false if the batch was full and the glyph was dropped.
+     */
+    public boolean add(Rect coords, float left, float bottom, float width, float height) {
+        if (mGlyphCount == mCapacity) {
+            return false;
+        }
+        float right = left + width;
+        float top = bottom + height;
+        float texLeft = coords.left / mTextureWidth;
+        float texRight = coords.right / mTextureWidth;
+        float texTop = coords.top / mTextureHeight;
+        float texBottom = coords.bottom / mTextureHeight;
+
+        float[] v = mVertices;
+        int i = mGlyphCount * FLOATS_PER_GLYPH;
+        // bottom left, bottom right, top left
+        v[i++] = left;      v[i++] = bottom;    v[i++] = texLeft;   v[i++] = texBottom;
+        v[i++] = right;     v[i++] = bottom;    v[i++] = texRight;  v[i++] = texBottom;
+        v[i++] = left;      v[i++] = top;       v[i++] = texLeft;   v[i++] = texTop;
+        // top left, bottom right, top right
+        v[i++] = left;      v[i++] = top;       v[i++] = texLeft;   v[i++] = texTop;
+        v[i++] = right;     v[i++] = bottom;    v[i++] = texRight;  v[i++] = texBottom;
+        v[i++] = right;     v[i++] = top;       v[i++] = texRight;  v[i] = texTop;
+
+        mGlyphCount++;
+        mDirty = true;
+        return true;
+    }
+
+    public int getGlyphCount() {
+        return mGlyphCount;
+    }
+
+    /**
+     * Draws all of the glyphs.  Sets up and tears down its own GL state, so don't call this
+     * between another class's prepareToDraw() and finishedDrawing().
+     */
+    public void draw() {
+        if (mGlyphCount == 0) {
+            return;
+        }
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("draw start");
+
+        FloatBuffer fb = mVertexBuffer;
+        if (mDirty) {
+            fb.position(0);
+            fb.put(mVertices, 0, mGlyphCount * FLOATS_PER_GLYPH);
+            mDirty = false;
+        }
+
+        GLES20.glUseProgram(sProgramHandle);
+
+        // Both attributes come out of the one buffer; the texture coordinates start two floats
+        // into each vertex.
+        fb.position(0);
+        GLES20.glEnableVertexAttribArray(sPositionHandle);
+        GLES20.glVertexAttribPointer(sPositionHandle, 2, GLES20.GL_FLOAT, false, STRIDE, fb);
+        fb.position(2);
+        GLES20.glEnableVertexAttribArray(sTexCoordHandle);
+        GLES20.glVertexAttribPointer(sTexCoordHandle, 2, GLES20.GL_FLOAT, false, STRIDE, fb);
+        fb.position(0);
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glVertexAttribPointer");
+
+        GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false,
+                GameSurfaceRenderer.mProjectionMatrix, 0);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mGlyphCount * VERTICES_PER_GLYPH);
+        BaseRect.countDrawCall();
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glDrawArrays");
+
+        GLES20.glDisableVertexAttribArray(sPositionHandle);
+        GLES20.glDisableVertexAttribArray(sTexCoordHandle);
+        GLES20.glUseProgram(0);
+    }
+}
@@ -8,6 +8,7 @@ import android.util.Log;
 import com.whatizthis.aeonian.game.GameSurfaceRenderer;
 import com.whatizthis.aeonian.Util;
 import com.whatizthis.aeonian.activities.AeonianActivity;
+import com.whatizthis.aeonian.resources.TextureResources;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -56,6 +57,7 @@ public class TexturedAlignedRect extends BaseRect {
 
     // Texture data for this instance.
     private int mTextureDataHandle = -1;
+    private TextureResources.Texture mSharedTexture;
     private int mTextureWidth = -1;
     private int mTextureHeight = -1;
     private FloatBuffer mTexBuffer;
@@ -126,6 +128,7 @@ public class TexturedAlignedRect extends BaseRect {
      * Sets the texture data by creating a new texture from a buffer of data.
      */
     public void setTexture(ByteBuffer buf, int width, int height, int format) {
+        releaseTexture();
         mTextureDataHandle =
                 Util.createImageTexture(buf, width, height, format);
         mTextureWidth = width;
@@ -140,11 +143,35 @@ public class TexturedAlignedRect extends BaseRect {
      * @param height Height of the texture (in texels).
      */
     public void setTexture(int handle, int width, int height) {
+        releaseTexture();
         mTextureDataHandle = handle;
         mTextureWidth = width;
         mTextureHeight = height;
     }
 
+    /**
+     * Uses a shared texture from TextureResources.  The handle is looked up each time we
+     * draw, so this keeps working after the surface is recreated.  Call releaseTexture() when
+     * the object is discarded.
+     */
+    public void setTexture(TextureResources.Texture tex) {
+        releaseTexture();
+        mSharedTexture = tex;
+        mTextureDataHandle = -1;
+        mTextureWidth = tex.getWidth();
+        mTextureHeight = tex.getHeight();
+    }
+
+    /**
+     * Gives up our reference to the shared texture, if we have one.
+     */
+    public void releaseTexture() {
+        if (mSharedTexture != null) {
+            TextureResources.release(mSharedTexture);
+            mSharedTexture = null;
+        }
+    }
+
     /**
      * Specifies the rectangle within the texture map where the texture data is.  By default,
      * the entire texture will be used.
@@ -238,11 +265,13 @@ public class TexturedAlignedRect extends BaseRect {
         // required in 2.0, and will actually raise a GL_INVALID_ENUM error.
 
         // Bind the texture data to the 2D texture target.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
+        int handle = mSharedTexture != null ? mSharedTexture.getHandle() : mTextureDataHandle;
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glBindTexture");
 
         // Draw the rect.
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
+        countDrawCall();
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glDrawArrays");
     }
 }
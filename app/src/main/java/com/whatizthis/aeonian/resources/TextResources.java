@@ -66,14 +66,29 @@ public class TextResources {
      * been retained until they were replaced with new values.
      */
 
-    // Messages we show to the user, and a set of digits for the score.  Pass one of these
-    // as the argument to getTextureRect().
+    // Messages we show to the user, a set of digits for the score, and labels for the
+    // performance HUD.  Pass one of these as the argument to getTextureRect().
     public static final int NO_MESSAGE = -1;        // used to indicate no message shown
     public static final int READY = 0;
     public static final int GAME_OVER = 1;
     public static final int WINNER = 2;             // YOU'RE WINNER !
     public static final int DIGIT_START = 3;
-    private static final int STRING_COUNT = DIGIT_START + 10;
+    public static final int HUD_FPS = DIGIT_START + 10;
+    public static final int HUD_SIM = HUD_FPS + 1;
+    public static final int HUD_DRAW = HUD_FPS + 2;
+    public static final int HUD_MSEC = HUD_FPS + 3;
+    public static final int HUD_CALLS = HUD_FPS + 4;
+    public static final int HUD_ENEMIES = HUD_FPS + 5;
+    public static final int HUD_BALLS = HUD_FPS + 6;
+    public static final int HUD_POOL = HUD_FPS + 7;
+    public static final int HUD_TEXTURES = HUD_FPS + 8;
+    public static final int HUD_POINT = HUD_FPS + 9;            // decimal point
+    private static final int STRING_COUNT = HUD_POINT + 1;
+
+    // The HUD labels are only for QA, so they aren't translated.  They're all caps so none
+    // of them has a descender, which means they line up with the digits along the bottom.
+    private static final String[] HUD_LABELS = {
+            "FPS", "SIM", "DRAW", "MS", "CALLS", "ENEMIES", "BALLS", "POOL", "TEX", "." };
 
     // We use a square texture with this size.  With ARGB_4444 this eats up 512KB.  If we add
     // more strings we might want to double the height.  (Texture sizes should always be powers
@@ -88,6 +103,9 @@ public class TextResources {
     // at the same size.
     private static final int TEXT_SIZE = 70;
 
+    // The HUD labels are drawn small, so they don't need many pixels.
+    private static final int HUD_TEXT_SIZE = 32;
+
     // Fancy text parameters.
     private static final int SHADOW_RADIUS = 8;
     private static final int SHADOW_OFFSET = 5;
@@ -95,6 +113,9 @@ public class TextResources {
     // These identify the location of individual items.
     private Rect[] mTextPositions = new Rect[STRING_COUNT];
 
+    // The point size each item was rendered at.
+    private int[] mTextSizes = new int[STRING_COUNT];
+
     // Handle to the image texture that holds all of the strings.
     public int mTextureHandle = -1;
 
@@ -112,6 +133,9 @@ public class TextResources {
         // Add a drop shadow?
         private final boolean[] mTextShadows = new boolean[STRING_COUNT];
 
+        // Point size to render at.
+        private final int[] mTextSizes = new int[STRING_COUNT];
+
         /**
          * Extracts strings from Android resource file and prepares internal text data.  Selects
          * colors for text strings.
@@ -125,6 +149,13 @@ public class TextResources {
                 mTextStrings[DIGIT_START + i] = String.valueOf((char)('0' + i));
                 mTextColors[DIGIT_START + i] = 0xe0e020;
                 mTextShadows[DIGIT_START + i] = false;
+                mTextSizes[DIGIT_START + i] = TEXT_SIZE;
+            }
+            for (int i = 0; i < HUD_LABELS.length; i++) {
+                mTextStrings[HUD_FPS + i] = HUD_LABELS[i];
+                mTextColors[HUD_FPS + i] = 0xe0e0e0;
+                mTextShadows[HUD_FPS + i] = false;
+                mTextSizes[HUD_FPS + i] = HUD_TEXT_SIZE;
             }
         }
 
@@ -133,6 +164,7 @@ public class TextResources {
             mTextStrings[index] = context.getString(res);
             mTextColors[index] = color;
             mTextShadows[index] = true;
+            mTextSizes[index] = TEXT_SIZE;
         }
 
         public String getTextString(int index) {
@@ -144,6 +176,9 @@ public class TextResources {
         public boolean getTextShadow(int index) {
             return mTextShadows[index];
         }
+        public int getTextSize(int index) {
+            return mTextSizes[index];
+        }
     }
 
     /**
@@ -212,7 +247,6 @@ public class TextResources {
         Paint textPaint = new Paint();
         Typeface typeface = Typeface.defaultFromStyle(Typeface.BOLD);
         textPaint.setTypeface(typeface);
-        textPaint.setTextSize(TEXT_SIZE);
         textPaint.setAntiAlias(true);
 
         int startX = 0;
@@ -221,6 +255,8 @@ public class TextResources {
         for (int i = 0; i < STRING_COUNT; i++) {
             // Get text dimensions.
             String str = config.getTextString(i);
+            textPaint.setTextSize(config.getTextSize(i));
+            mTextSizes[i] = config.getTextSize(i);
             textPaint.setColor(0xff000000 | config.getTextColor(i));
             if (config.getTextShadow(i)) {
                 textPaint.setShadowLayer(SHADOW_RADIUS, SHADOW_OFFSET, SHADOW_OFFSET, 0xff000000);
@@ -305,6 +341,15 @@ public class TextResources {
         return bitmap;
     }
 
+    /**
+     * Returns the point size the text with the specified index was rendered at.  Strings
+     * rendered at different sizes need different scale factors to come out the same size on
+     * screen.
+     */
+    public int getTextSize(int index) {
+        return mTextSizes[index];
+    }
+
     /**
      * Returns the number of strings we know about.
      */
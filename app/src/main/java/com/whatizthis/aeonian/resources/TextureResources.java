@@ -0,0 +1,291 @@
+package com.whatizthis.aeonian.resources;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.whatizthis.aeonian.Util;
+import com.whatizthis.aeonian.activities.AeonianActivity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Procedurally generated textures, shared between everything that draws with them.
+ * <p>
+ * Call acquire() to get a Texture, and release() when the object using it goes away.  The
+ * texture is generated and uploaded the first time it's acquired, and deleted when the last
+ * reference is released.
+ * <p>
+ * All methods must be called on the Renderer thread.
+ */
+public class TextureResources {
+    private static final String TAG = AeonianActivity.TAG;
+
+    /*
+     * Before this existed, every Ball and Player generated its own copy of the same 64x64
+     * circle and uploaded it with glTexImage2D, and nothing ever deleted the old ones.  The
+     * pixels were identical every time, so there's no reason to have more than one.
+     *
+     * A Texture is a small object rather than a bare GL handle so that we can replace the
+     * handle underneath it.  When the EGL context is lost (e.g. when the activity is paused),
+     * every texture we created goes with it.  onSurfaceCreated() regenerates everything that's
+     * still referenced, and drawing code that looks at getHandle() each frame picks up the new
+     * handle without having to be told.
+     *
+     * There's no locking; GL calls have to be made on the Renderer thread anyway.
+     */
+
+    // Pass these to acquire().
+    public static final int BALL = 0;
+    private static final int NUM_TEXTURES = 1;
+
+    private static final int BALL_TEX_SIZE = 64;    // dimension for square texture (power of 2)
+    private static final int BYTES_PER_PIXEL = 4;   // GL_RGBA
+
+    private static final Texture[] sTextures = new Texture[NUM_TEXTURES];
+
+    // Monitoring.  Only counts textures that currently have a GL handle.
+    private static int sLiveCount;
+    private static int sLiveBytes;
+
+    /**
+     * A shared texture.  Holds the GL handle and dimensions.
+     */
+    public static class Texture {
+        private final int mKey;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFormat;
+        private int mHandle = -1;
+        private int mRefCount;
+
+        private Texture(int key, int width, int height, int format) {
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+        }
+
+        /**
+         * Returns the current GL handle.  This changes when the surface is recreated, so
+         * don't cache it.
+         */
+        public int getHandle() {
+            return mHandle;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        private int getByteCount() {
+            return mWidth * mHeight * BYTES_PER_PIXEL;
+        }
+    }
+
+    private TextureResources() {}
+
+    /**
+     * Returns the shared texture for "key", generating it if nobody is using it yet.
+     *
+     * @param key BALL, etc.
+     */
+    public static Texture acquire(int key) {
+        Texture tex = sTextures[key];
+        if (tex == null) {
+            tex = sTextures[key] = create(key);
+        }
+        if (tex.mHandle < 0) {
+            upload(tex);
+        }
+        tex.mRefCount++;
+        return tex;
+    }
+
+    /**
+     * Drops a reference.  The GL texture is deleted when the last reference goes away.
+     */
+    public static void release(Texture tex) {
+        if (tex.mRefCount <= 0) {
+            throw new RuntimeException("texture " + tex.mKey + " released too many times");
+        }
+        if (--tex.mRefCount == 0 && tex.mHandle >= 0) {
+            int[] handles = new int[] { tex.mHandle };
+            GLES20.glDeleteTextures(1, handles, 0);
+            Util.checkGlError("glDeleteTextures");
+            tex.mHandle = -1;
+            sLiveCount--;
+            sLiveBytes -= tex.getByteCount();
+        }
+    }
+
+    /**
+     * Regenerates every texture that's still referenced.  Call from onSurfaceCreated(), before
+     * anything is drawn.  The old handles belonged to the old EGL context, so we just forget
+     * them; deleting them would be an error.
+     */
+    public static void onSurfaceCreated() {
+        sLiveCount = 0;
+        sLiveBytes = 0;
+        for (int i = 0; i < NUM_TEXTURES; i++) {
+            Texture tex = sTextures[i];
+            if (tex == null) {
+                continue;
+            }
+            tex.mHandle = -1;
+            if (tex.mRefCount > 0) {
+                upload(tex);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of GL textures we currently own.
+     */
+    public static int getLiveTextureCount() {
+        return sLiveCount;
+    }
+
+    /**
+     * Returns the amount of texture data we've uploaded, in bytes.  This doesn't include
+     * whatever padding or mipmaps the driver adds.
+     */
+    public static int getLiveTextureBytes() {
+        return sLiveBytes;
+    }
+
+    private static Texture create(int key) {
+        switch (key) {
+            case BALL:
+                return new Texture(key, BALL_TEX_SIZE, BALL_TEX_SIZE, GLES20.GL_RGBA);
+            default:
+                throw new RuntimeException("unknown texture " + key);
+        }
+    }
+
+    private static void upload(Texture tex) {
+        ByteBuffer buf;
+        switch (tex.mKey) {
+            case BALL:
+                buf = generateBallTexture();
+                break;
+            default:
+                throw new RuntimeException("unknown texture " + tex.mKey);
+        }
+        tex.mHandle = Util.createImageTexture(buf, tex.mWidth, tex.mHeight, tex.mFormat);
+        sLiveCount++;
+        sLiveBytes += tex.getByteCount();
+        Log.d(TAG, "generated texture " + tex.mKey + " handle=" + tex.mHandle);
+    }
+
+    /**
+     * Generates the ball texture.  This is a simple filled circle in a solid color, with
+     * a transparent black background.
+     *
+     * @return A direct ByteBuffer with pre-multiplied RGBA data.
+     */
+    private static ByteBuffer generateBallTexture() {
+        /*
+         * Most images used in games are generated with external tools and then loaded from
+         * image files.  This is an example of generating texture data directly.
+         *
+         * We "render" it into a byte[], then copy that into a direct byte buffer.  This
+         * requires one extra copy than we would need if we rendered directly into the ByteBuffer,
+         * but we can't assume that ByteBuffer.array() will work with direct byte buffers, and
+         * writing data with ByteBuffer.put(int, byte) is slow and annoying.
+         *
+         * We use GL_RGBA, which has four 8-bit normalized unsigned integer components (which
+         * is a fancy way to say, "the usual format for 32-bit color pixels").  We could
+         * get away with creating this as an alpha map and then use a shader to apply color,
+         * but that's not necessary and requires the shader work.
+         */
+        final int size = BALL_TEX_SIZE;
+        byte[] buf = new byte[size * size * BYTES_PER_PIXEL];
+
+        /*
+         * We're drawing a filled circle with a radius of 31, which gives us a circle
+         * that fills a 63x63 area.  We're using a 64x64 texture, so have a choice to make:
+         *  (1) Assume the hardware can handle non-power-of-2 texture sizes.  This doesn't
+         *      always hold, so we don't want to do this.
+         *  (2) Leave the 64th row and column set to transparent black, and hope nobody notices
+         *      when things don't quite collide.  This is reasonably safe, given the size of
+         *      the ball and the speed of motion.
+         *  (3) "Stretch" the circle slightly when generating the data, doubling-up the center
+         *      row and column, to fill the circle to 64x64.  Should look fine.
+         *  (4) Adjust the texture coordinates so that the edges are at 0.984375 (63/64) instead
+         *      of 1.0.  This is generally the correct approach, but requires that we manually
+         *      specify the texture dimensions instead of just saying, "use this whole image".
+         *
+         * Going with #4.  Note the radius of 31 is arbitrary and has no bearing on how large
+         * the ball is on screen (this is a texture applied to a pair of triangles, not a bitmap
+         * of screen-sized pixels).  We want it to be small enough that it doesn't use up a
+         * ton of memory, but bug enough that, if the ball is drawn very large, the circle
+         * edges don't look chunky when we scale it up.
+         */
+        int left[] = new int[size-1];
+        int right[] = new int[size-1];
+        computeCircleEdges(size/2 - 1, left, right);
+
+        // Render the edge list as a filled circle.
+        for (int y = 0; y < left.length; y++) {
+            int xleft = left[y];
+            int xright = right[y];
+
+            for (int x = xleft ; x <= xright; x++) {
+                int offset = (y * size + x) * BYTES_PER_PIXEL;
+                buf[offset]   = (byte) 0xff;    // red
+                buf[offset+1] = (byte) 0xff;    // green
+                buf[offset+2] = (byte) 0xff;    // blue
+                buf[offset+3] = (byte) 0xff;    // alpha
+            }
+        }
+
+        // Create a ByteBuffer, copy the data over, and (very important) reset the position.
+        ByteBuffer byteBuf = ByteBuffer.allocateDirect(buf.length);
+        byteBuf.put(buf);
+        byteBuf.position(0);
+        return byteBuf;
+    }
+
+    /**
+     * Computes the left and right edges of a rasterized circle, using Bresenham's algorithm.
+     *
+     * @param rad Radius.
+     * @param left Left edge index, range [0, rad].  Array must hold (rad*2+1) elements.
+     * @param right Right edge index, range [rad, rad*2 + 1].
+     */
+    private static void computeCircleEdges(int rad, int[] left, int[] right) {
+        /* (also available in 6502 assembly) */
+        int x, y, d;
+
+        d = 1 - rad;
+        x = 0;
+        y = rad;
+
+        // Walk through one quadrant, setting the other three as reflections.
+        while (x <= y) {
+            setCircleValues(rad, x, y, left, right);
+
+            if (d < 0) {
+                d = d + (x << 2) + 3;
+            } else {
+                d = d + ((x - y) << 2) + 5;
+                y--;
+            }
+            x++;
+        }
+    }
+
+    /**
+     * Sets the edge values for four quadrants based on values from the first quadrant.
+     */
+    private static void setCircleValues(int rad, int x, int y, int[] left, int[] right) {
+        left[rad+y] = left[rad-y] = rad - x;
+        left[rad+x] = left[rad-x] = rad - y;
+        right[rad+y] = right[rad-y] = rad + x;
+        right[rad+x] = right[rad-x] = rad + y;
+    }
+}
@@ -0,0 +1,171 @@
+package com.whatizthis.aeonian.bench;
+
+import com.whatizthis.aeonian.sim.CollisionQuery;
+import com.whatizthis.aeonian.sim.Kernels;
+import com.whatizthis.aeonian.sim.ScalarKernels;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the scalar and vector kernels against each other on the same data, and works out
+ * how many entities one core could push through each kernel in a 60fps frame.
+ * <p>
+ * Before timing anything it checks that both kernels give the same answers, bit for bit, on
+ * the same input.  If they don't, that's a bug in the vector kernels, and we stop.
+ * <p>
+ * Usage: KernelBench [entities] [seconds-per-kernel]
+ */
+public class KernelBench {
+    private static final double FRAME_NSEC = 1000000000.0 / 60;
+    private static final float STEP_SEC = 1.0f / 60;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+
+        Kernels scalar = ScalarKernels.INSTANCE;
+        Kernels vector = loadVectorKernels();
+        System.out.println(count + " entities, scalar vs " + vector.getName());
+        if (vector == scalar) {
+            System.out.println("  (Vector API not available; run with"
+                    + " --add-modules jdk.incubator.vector)");
+        }
+
+        Data data = new Data(count, new Random(1));
+        checkSame(scalar, vector, data);
+
+        for (Kernels kernels : new Kernels[] { scalar, vector }) {
+            double integrateNsec = timeIntegrate(kernels, data.copy(), seconds);
+            double overlapNsec = timeOverlaps(kernels, data, seconds);
+            System.out.println(String.format("  %-10s integrate %.3f ns/entity (%,d per frame),"
+                    + " overlaps %.3f ns/ball (%,d ball tests per frame)",
+                    kernels.getName(), integrateNsec, (long) (FRAME_NSEC / integrateNsec),
+                    overlapNsec, (long) (FRAME_NSEC / overlapNsec)));
+        }
+    }
+
+    private static Kernels loadVectorKernels() {
+        try {
+            return VectorKernels.create();
+        } catch (LinkageError err) {
+            return ScalarKernels.INSTANCE;
+        }
+    }
+
+    /**
+     * Runs both kernels on identical copies of the data for a few hundred steps, and throws
+     * if they ever disagree.
+     */
+    private static void checkSame(Kernels expected, Kernels actual, Data data) {
+        Data a = data.copy();
+        Data b = data.copy();
+        CollisionQuery outA = new CollisionQuery();
+        CollisionQuery outB = new CollisionQuery();
+        outA.reserve(a.count);
+        outB.reserve(b.count);
+        Random random = new Random(2);
+
+        for (int step = 0; step < 300; step++) {
+            expected.integrate(a.x, a.y, a.dirX, a.dirY, a.speed, a.count, STEP_SEC);
+            actual.integrate(b.x, b.y, b.dirX, b.dirY, b.speed, b.count, STEP_SEC);
+            if (!Arrays.equals(a.x, b.x) || !Arrays.equals(a.y, b.y)) {
+                throw new RuntimeException(actual.getName() + " integrate differs at step "
+                        + step);
+            }
+
+            float left = random.nextFloat() * Data.SIZE;
+            float bottom = random.nextFloat() * Data.SIZE;
+            float size = random.nextFloat() * 200.0f;
+            outA.clear();
+            outB.clear();
+            int foundA = expected.collectOverlaps(left, left + size, bottom, bottom + size,
+                    a.x, a.y, a.radius, a.count, outA);
+            int foundB = actual.collectOverlaps(left, left + size, bottom, bottom + size,
+                    b.x, b.y, b.radius, b.count, outB);
+            if (foundA != foundB || !Arrays.equals(
+                    Arrays.copyOf(outA.getCandidates(), outA.getCandidateCount()),
+                    Arrays.copyOf(outB.getCandidates(), outB.getCandidateCount()))) {
+                throw new RuntimeException(actual.getName() + " collectOverlaps differs at step "
+                        + step + " (" + foundA + " vs " + foundB + ")");
+            }
+        }
+        System.out.println("  results match over 300 steps");
+    }
+
+    private static double timeIntegrate(Kernels kernels, Data data, double seconds) {
+        long endNsec = System.nanoTime() + (long) (seconds * 1e9);
+        long runs = 0;
+        long startNsec = System.nanoTime();
+        long nowNsec;
+        do {
+            kernels.integrate(data.x, data.y, data.dirX, data.dirY, data.speed, data.count,
+                    STEP_SEC);
+            runs++;
+        } while ((nowNsec = System.nanoTime()) < endNsec);
+        return (double) (nowNsec - startNsec) / (runs * data.count);
+    }
+
+    private static double timeOverlaps(Kernels kernels, Data data, double seconds) {
+        CollisionQuery out = new CollisionQuery();
+        out.reserve(data.count);
+        Random random = new Random(3);
+        long endNsec = System.nanoTime() + (long) (seconds * 1e9);
+        long runs = 0;
+        long startNsec = System.nanoTime();
+        long nowNsec;
+        do {
+            // Roughly an enemy-sized box somewhere in the arena.
+            float left = random.nextFloat() * Data.SIZE;
+            float bottom = random.nextFloat() * Data.SIZE;
+            out.clear();
+            kernels.collectOverlaps(left, left + 100.0f, bottom, bottom + 100.0f,
+                    data.x, data.y, data.radius, data.count, out);
+            runs++;
+        } while ((nowNsec = System.nanoTime()) < endNsec);
+        return (double) (nowNsec - startNsec) / (runs * data.count);
+    }
+
+    /**
+     * A column-per-field set of entities, laid out the way Archetype stores them.
+     */
+    private static class Data {
+        static final float SIZE = 2000.0f;
+
+        final int count;
+        final float[] x, y, dirX, dirY, speed, radius;
+
+        Data(int count, Random random) {
+            this.count = count;
+            x = new float[count];
+            y = new float[count];
+            dirX = new float[count];
+            dirY = new float[count];
+            speed = new float[count];
+            radius = new float[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = random.nextFloat() * SIZE;
+                y[i] = random.nextFloat() * SIZE;
+                double angle = random.nextDouble() * Math.PI * 2;
+                dirX[i] = (float) Math.cos(angle);
+                dirY[i] = (float) Math.sin(angle);
+                speed[i] = 100.0f + random.nextFloat() * 500.0f;
+                radius[i] = 5.0f + random.nextFloat() * 20.0f;
+            }
+        }
+
+        private Data(Data other) {
+            count = other.count;
+            x = other.x.clone();
+            y = other.y.clone();
+            dirX = other.dirX.clone();
+            dirY = other.dirY.clone();
+            speed = other.speed.clone();
+            radius = other.radius.clone();
+        }
+
+        Data copy() {
+            return new Data(this);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.whatizthis.aeonian.bench;
+
+import com.whatizthis.aeonian.sim.Arena;
+import com.whatizthis.aeonian.sim.InputReplay;
+import com.whatizthis.aeonian.sim.Logger;
+import com.whatizthis.aeonian.sim.ManualClock;
+import com.whatizthis.aeonian.sim.Simulation;
+import com.whatizthis.aeonian.sim.SnapshotBuffer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Frame-time report.  Plays back a library of recorded sessions (see InputRecorder) through
+ * the frame loop, measures them, and shows how the numbers compare with a stored baseline.
+ * <p>
+ * For each session we report the CPU time per 60fps frame (50th, 95th and 99th percentile,
+ * and the worst) and bytes allocated per frame.  Each session is played a couple of times
+ * first, untimed, so the JIT has settled, and then measured several times over.  What's
+ * reported is the median of those passes, along with the fastest and slowest, which gives a
+ * rough idea of how much of a difference from the baseline is just noise.
+ * <p>
+ * This only reports; it never fails.  Frame times on a shared or busy machine wander by 30%
+ * or more from one run to the next, which is more than the regressions we'd want to catch,
+ * so a fixed threshold either cries wolf or misses everything.  Read the numbers, and compare
+ * runs before and after a change on the same machine if they look off.  Whether the sessions
+ * still play out the same way (how every game ends, the frame and candidate counts) doesn't
+ * depend on timing, and is checked by ReplayTest in the core unit tests instead.  So is
+ * allocation: bytesPerFrame doesn't wander, and ReplayTest fails if it's anything but 0.
+ * <p>
+ * Timings depend on the machine, so the baseline is only meaningful on the machine that
+ * recorded it.  "gradle -p bench perfRegression -PupdateBaseline" records a new one.
+ * <p>
+ * Sessions are the *.rec files in the sessions directory, which is shared with ReplayTest.
+ * The two there now are synthetic, written by HeadlessRunner (see ReplayTest for how), not
+ * recorded from real play.  To add one played on a device (debug build), play a game, leave
+ * it, pull the log, and add it to ReplayTest:
+ * <pre>
+ *   adb exec-out run-as whatizthis.aeonian cat files/input.rec \
+ *       &gt; core/src/test/resources/replays/NAME.rec
+ * </pre>
+ * Usage: ReplayBench [sessions-dir] [baseline-file] [--update-baseline]
+ */
+public class ReplayBench {
+    private static final long FRAME_NSEC = 1000000000L / 60;
+    private static final int WARMUP_PASSES = 2;
+    private static final int MEASURE_PASSES = 5;
+
+    // What we report, in the order Pass.measure() fills them in.
+    private static final String[] KEYS = { "p50", "p95", "p99", "max", "bytesPerFrame" };
+
+    private static final ThreadMXBean sThreads = ManagementFactory.getThreadMXBean();
+    private static final boolean sHaveCpuTime = sThreads.isCurrentThreadCpuTimeSupported();
+
+    /**
+     * What we measured on one pass through a session.
+     */
+    private static class Pass {
+        final long[] frameNsec;         // CPU time per frame
+        long bytesPerFrame = -1;        // -1 if the JVM can't tell us
+
+        Pass(long frames) {
+            frameNsec = new long[(int) frames];
+        }
+
+        /**
+         * Fills in "out" with the values for KEYS.  Sorts frameNsec.
+         */
+        void measure(long[] out) {
+            int count = frameNsec.length;
+            Arrays.sort(frameNsec);
+            out[0] = percentile(frameNsec, count, 0.50);
+            out[1] = percentile(frameNsec, count, 0.95);
+            out[2] = percentile(frameNsec, count, 0.99);
+            out[3] = count > 0 ? frameNsec[count - 1] : 0;
+            out[4] = bytesPerFrame;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> plain = new ArrayList<String>();
+        boolean updateBaseline = false;
+        for (String arg : args) {
+            if (arg.equals("--update-baseline")) {
+                updateBaseline = true;
+            } else {
+                plain.add(arg);
+            }
+        }
+        File dir = new File(plain.size() > 0 ? plain.get(0) : "core/src/test/resources/replays");
+        File baselineFile = new File(plain.size() > 1 ? plain.get(1)
+                : "bench/replays/baseline.properties");
+
+        File[] sessions = dir.listFiles();
+        List<File> recordings = new ArrayList<File>();
+        if (sessions != null) {
+            Arrays.sort(sessions);
+            for (File file : sessions) {
+                if (file.getName().endsWith(".rec")) {
+                    recordings.add(file);
+                }
+            }
+        }
+        if (recordings.isEmpty()) {
+            System.err.println("no sessions (*.rec) in " + dir);
+            System.exit(2);
+        }
+
+        Properties results = new Properties();
+        Properties baseline = new Properties();
+        if (!updateBaseline) {
+            if (baselineFile.exists()) {
+                InputStream in = new FileInputStream(baselineFile);
+                try {
+                    baseline.load(in);
+                } finally {
+                    in.close();
+                }
+            } else {
+                System.out.println("no baseline at " + baselineFile
+                        + "; run with --update-baseline to record one");
+            }
+        }
+
+        for (File file : recordings) {
+            String name = file.getName().substring(0, file.getName().length() - 4);
+            byte[] data = Files.readAllBytes(file.toPath());
+
+            long frames = 0;
+            for (int i = 0; i < WARMUP_PASSES; i++) {
+                frames = play(data, null);
+            }
+            long[][] values = new long[KEYS.length][MEASURE_PASSES];
+            long[] measured = new long[KEYS.length];
+            for (int i = 0; i < MEASURE_PASSES; i++) {
+                Pass pass = new Pass(frames);
+                play(data, pass);
+                pass.measure(measured);
+                for (int k = 0; k < KEYS.length; k++) {
+                    values[k][i] = measured[k];
+                }
+            }
+
+            System.out.println(String.format("%s: %,d frames, median of %d passes", name,
+                    frames, MEASURE_PASSES));
+            for (int k = 0; k < KEYS.length; k++) {
+                long[] sorted = values[k];
+                Arrays.sort(sorted);
+                long median = sorted[MEASURE_PASSES / 2];
+                results.setProperty(name + "." + KEYS[k], Long.toString(median));
+                report(KEYS[k], median, sorted[0], sorted[MEASURE_PASSES - 1],
+                        baseline.getProperty(name + "." + KEYS[k]));
+            }
+        }
+
+        if (updateBaseline) {
+            OutputStream out = new FileOutputStream(baselineFile);
+            try {
+                results.store(out, "ReplayBench baseline; regenerate with --update-baseline");
+            } finally {
+                out.close();
+            }
+            System.out.println("wrote " + baselineFile);
+        }
+    }
+
+    /**
+     * Prints one line of the report, e.g.
+     * <pre>
+     *   p95               8,611  (8,402 .. 9,120)   baseline 9,150, -6%
+     * </pre>
+     * Times are in nanoseconds.
+     */
+    private static void report(String key, long median, long min, long max, String baseline) {
+        StringBuilder sb = new StringBuilder(String.format("  %-14s %,9d  (%,d .. %,d)",
+                key, median, min, max));
+        if (baseline != null) {
+            long then = Long.parseLong(baseline);
+            sb.append(String.format("   baseline %,d", then));
+            if (then > 0) {
+                sb.append(String.format(", %+.0f%%", (median - then) * 100.0 / then));
+            }
+        }
+        System.out.println(sb);
+    }
+
+    /**
+     * Plays every game in the log.  If "pass" is null we're just warming up, and only count
+     * frames; otherwise we measure.  Returns the number of frames.
+     */
+    private static long play(byte[] data, Pass pass) {
+        InputReplay replay = new InputReplay(data);
+        Arena.setDimensions(replay.getArenaWidth(), replay.getArenaHeight());
+        ManualClock clock = new ManualClock();
+        Simulation sim = new Simulation(clock, Logger.SILENT);
+        sim.setStepRate((int) Math.round(1000000000.0 / replay.getStepNsec()));
+        sim.setInputReplay(replay);
+        SnapshotBuffer snapshots = new SnapshotBuffer();
+
+        // Everything the loop below needs is allocated up front, so anything allocated
+        // while it runs is down to the game.
+        long[] frameNsec = pass != null ? pass.frameNsec : null;
+        long frames = 0;
+        long startBytes = allocatedBytes();
+
+        while (true) {
+            sim.reset();
+            if (!replay.isInGame()) {
+                break;
+            }
+            sim.allocPlayer();
+
+            long endTick = replay.getEndTick();
+            long lastTick = endTick >= 0 ? endTick : replay.getLastInputTick();
+            while (sim.isAnimating() && sim.getStepCount() <= lastTick) {
+                clock.advance(FRAME_NSEC);
+                long startNsec = cpuTime();
+                sim.calculateNextFrame();
+                sim.writeSnapshot(snapshots.getBack());
+                snapshots.publish();
+                long elapsedNsec = cpuTime() - startNsec;
+                if (frameNsec != null && frames < frameNsec.length) {
+                    frameNsec[(int) frames] = elapsedNsec;
+                }
+                frames++;
+            }
+        }
+        long endBytes = allocatedBytes();
+        sim.release();
+
+        if (pass != null && startBytes >= 0 && frames > 0) {
+            pass.bytesPerFrame = (endBytes - startBytes) / frames;
+        }
+        return frames;
+    }
+
+    private static long percentile(long[] sorted, int count, double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    /**
+     * Returns this thread's CPU time, or wall-clock time if the JVM can't tell us.  The frame
+     * loop is single-threaded (unless a step goes parallel, which the recorded sessions don't
+     * get near), so the two are close anyway.
+     */
+    private static long cpuTime() {
+        return sHaveCpuTime ? sThreads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Returns the number of bytes this thread has allocated, or -1 if the JVM can't tell us.
+     */
+    private static long allocatedBytes() {
+        if (sThreads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) sThreads).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
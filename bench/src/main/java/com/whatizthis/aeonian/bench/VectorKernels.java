@@ -0,0 +1,117 @@
+package com.whatizthis.aeonian.bench;
+
+import com.whatizthis.aeonian.sim.Collision;
+import com.whatizthis.aeonian.sim.CollisionQuery;
+import com.whatizthis.aeonian.sim.Kernels;
+import com.whatizthis.aeonian.sim.ScalarKernels;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels built on the Vector API, doing as many entities at once as the CPU's widest float
+ * registers hold (8 with AVX2, 4 with NEON or SSE).
+ * <p>
+ * The arithmetic is the same sequence of float operations as ScalarKernels, with no fused
+ * multiply-adds, so the results are identical down to the last bit.  Whatever is left over
+ * after the last full vector is done one at a time.
+ * <p>
+ * Loading this class fails with a LinkageError if the JVM wasn't started with
+ * --add-modules jdk.incubator.vector, so callers that want to carry on without it should
+ * catch that.
+ */
+public class VectorKernels implements Kernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * Returns vector kernels if the CPU has vectors wider than one float, otherwise the
+     * scalar ones.
+     */
+    public static Kernels create() {
+        if (SPECIES.length() > 1) {
+            return new VectorKernels();
+        }
+        return ScalarKernels.INSTANCE;
+    }
+
+    @Override
+    public String getName() {
+        return "vector-" + SPECIES.length() + "x";
+    }
+
+    @Override
+    public void integrate(float[] x, float[] y, float[] dirX, float[] dirY, float[] speed,
+            int count, float deltaSec) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(count); i < upper; i += SPECIES.length()) {
+            FloatVector distance = FloatVector.fromArray(SPECIES, speed, i).mul(deltaSec);
+            FloatVector.fromArray(SPECIES, x, i)
+                    .add(FloatVector.fromArray(SPECIES, dirX, i).mul(distance))
+                    .intoArray(x, i);
+            FloatVector.fromArray(SPECIES, y, i)
+                    .add(FloatVector.fromArray(SPECIES, dirY, i).mul(distance))
+                    .intoArray(y, i);
+        }
+        for (; i < count; i++) {
+            float distance = speed[i] * deltaSec;
+            x[i] += dirX[i] * distance;
+            y[i] += dirY[i] * distance;
+        }
+    }
+
+    @Override
+    public int collectOverlaps(float left, float right, float bottom, float top, float[] x,
+            float[] y, float[] radius, int count, CollisionQuery out) {
+        /*
+         * checkCoarseCollision() clips the two boxes against each other and checks that
+         * something is left.  That's the same as checking that each box's low edge is below
+         * the other's high edge, on both axes, which is a handful of compares we can do a
+         * whole vector at a time.  The query box's own edges don't change, so if it's empty
+         * nothing can pass.
+         */
+        if (!(right > left && top > bottom)) {
+            return 0;
+        }
+
+        int found = 0;
+        int i = 0;
+        for (int upper = SPECIES.loopBound(count); i < upper; i += SPECIES.length()) {
+            FloatVector cx = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector cy = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector diameter = FloatVector.fromArray(SPECIES, radius, i).mul(2.0f);
+            FloatVector targLeft = cx.sub(diameter);
+            FloatVector targRight = cx.add(diameter);
+            FloatVector targBottom = cy.sub(diameter);
+            FloatVector targTop = cy.add(diameter);
+
+            VectorMask<Float> hit = targLeft.compare(VectorOperators.LT, right)
+                    .and(targRight.compare(VectorOperators.GT, left))
+                    .and(targRight.compare(VectorOperators.GT, targLeft))
+                    .and(targBottom.compare(VectorOperators.LT, top))
+                    .and(targTop.compare(VectorOperators.GT, bottom))
+                    .and(targTop.compare(VectorOperators.GT, targBottom));
+            if (!hit.anyTrue()) {
+                continue;
+            }
+            // Add the hits in lane order, so the rows come out in the same order as the
+            // scalar loop.
+            long bits = hit.toLong();
+            while (bits != 0) {
+                out.add(i + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+                found++;
+            }
+        }
+        for (; i < count; i++) {
+            float diameter = radius[i] * 2.0f;
+            if (Collision.checkCoarseCollision(x[i], y[i], diameter, diameter,
+                    left, right, bottom, top)) {
+                out.add(i);
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,183 @@
+package com.whatizthis.aeonian.ecs;
+
+/**
+ * All of the entities that have one particular set of components, stored as
+ * structure-of-arrays.
+ * <p>
+ * Each column is a plain float[], and entity "row" has its values at index "row" in every
+ * column.  Systems grab the arrays they need and loop over them, which is about as
+ * cache-friendly as Java gets.  Nothing here allocates unless the archetype outgrows its
+ * arrays, and then the capacity doubles.
+ * <p>
+ * Removal swaps the last row into the vacated slot, so it's O(1), but it changes the row of
+ * the last entity.  Code that removes while iterating should re-examine the current row
+ * rather than advancing past it.
+ * <p>
+ * In effect each archetype is a pool: removed rows are reused by the next add(), and the
+ * arrays are never shrunk.  getCapacity(), getHighWaterMark() and getGrowCount() show how
+ * well the pool is sized; if getGrowCount() isn't zero after a busy session, reserve more up
+ * front.
+ */
+public class Archetype {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final String mName;
+    private final int mMask;
+
+    // One array per column, indexed by Components column number.  Columns that don't belong
+    // to our components are null.
+    private final float[][] mColumns = new float[Components.COLUMN_COUNT][];
+    private int mCount;
+    private int mCapacity;
+
+    // Pool statistics.
+    private int mHighWaterMark;
+    private int mGrowCount;
+
+    /**
+     * Creates an archetype.  Use World.createArchetype() rather than calling this directly.
+     *
+     * @param mask Components.* bits.
+     */
+    Archetype(String name, int mask, int capacity) {
+        mName = name;
+        mMask = mask;
+        mCapacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        for (int col = 0; col < Components.COLUMN_COUNT; col++) {
+            if ((mask & Components.ownerOf(col)) != 0) {
+                mColumns[col] = new float[mCapacity];
+            }
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns true if entities of this archetype have all of the components in "mask".
+     */
+    public boolean has(int mask) {
+        return (mMask & mask) == mask;
+    }
+
+    /**
+     * Returns the number of entities.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of entities we have room for without reallocating.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the most entities we've held at once since the last resetStatistics().
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * Returns the number of times the storage has had to grow since the last
+     * resetStatistics().
+     */
+    public int getGrowCount() {
+        return mGrowCount;
+    }
+
+    public void resetStatistics() {
+        mHighWaterMark = mCount;
+        mGrowCount = 0;
+    }
+
+    /**
+     * Makes sure there's room for at least "capacity" entities, so that adding them won't
+     * allocate.
+     */
+    public void reserve(int capacity) {
+        if (capacity > mCapacity) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * Returns the storage for a column.  Only the first size() entries are meaningful.  Don't
+     * hang on to the array across calls to add(); it's replaced when the archetype grows.
+     */
+    public float[] column(int column) {
+        float[] array = mColumns[column];
+        if (array == null) {
+            throw new RuntimeException(mName + " has no column " + column);
+        }
+        return array;
+    }
+
+    /**
+     * Adds an entity, with all columns zeroed.
+     *
+     * @return The new entity's row.
+     */
+    public int add() {
+        if (mCount == mCapacity) {
+            resize(mCapacity * 2);
+            mGrowCount++;
+        }
+        int row = mCount++;
+        if (mCount > mHighWaterMark) {
+            mHighWaterMark = mCount;
+        }
+        float[][] columns = mColumns;
+        for (int col = 0; col < Components.COLUMN_COUNT; col++) {
+            if (columns[col] != null) {
+                columns[col][row] = 0.0f;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Removes the entity at "row" by moving the last entity into its place.
+     */
+    public void remove(int row) {
+        int last = --mCount;
+        if (row != last) {
+            float[][] columns = mColumns;
+            for (int col = 0; col < Components.COLUMN_COUNT; col++) {
+                float[] array = columns[col];
+                if (array != null) {
+                    array[row] = array[last];
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entities.  Keeps the storage.
+     */
+    public void clear() {
+        mCount = 0;
+    }
+
+    private void resize(int capacity) {
+        for (int col = 0; col < Components.COLUMN_COUNT; col++) {
+            float[] array = mColumns[col];
+            if (array != null) {
+                float[] grown = new float[capacity];
+                System.arraycopy(array, 0, grown, 0, mCount);
+                mColumns[col] = grown;
+            }
+        }
+        mCapacity = capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "[Archetype " + mName + " count=" + mCount + " capacity=" + mCapacity
+                + " high=" + mHighWaterMark + " grown=" + mGrowCount + "]";
+    }
+}
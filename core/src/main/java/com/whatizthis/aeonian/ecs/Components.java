@@ -0,0 +1,63 @@
+package com.whatizthis.aeonian.ecs;
+
+/**
+ * The components an entity can have, and the columns each one is stored in.
+ * <p>
+ * A component is a bit in a mask.  An archetype's mask says which components every entity
+ * in it has.  Each component owns one or more float columns; an archetype allocates the
+ * columns for its components and nothing else, so e.g. the player (which doesn't move) has
+ * no direction or speed storage.
+ * <p>
+ * SHAPE makes an entity solid, and gives it a radius.  Everything is round unless it also has
+ * EXTENT, in which case it's an axis-aligned rectangle and the radius is just a bound on it
+ * (the broad phase works with radii; the narrow phase looks at the real shape).
+ * <p>
+ * Everything is a float.  That keeps the storage uniform (one float[] per column), and
+ * everything we track so far is naturally a float anyway.
+ */
+public class Components {
+    /*
+     * Component bits.
+     */
+    public static final int POSITION = 1 << 0;          // X, Y
+    public static final int PREV_POSITION = 1 << 1;     // PREV_X, PREV_Y
+    public static final int MOTION = 1 << 2;            // DIR_X, DIR_Y, SPEED
+    public static final int SHAPE = 1 << 3;             // RADIUS
+    public static final int EXTENT = 1 << 4;            // HALF_WIDTH, HALF_HEIGHT
+
+    /*
+     * Columns.  Position of the center in arena coordinates; position as of the start of
+     * the current step (for interpolation and swept collisions); normalized direction of
+     * travel; speed in arena-units per second; radius in arena units; half the width and
+     * height of a rectangle, in arena units.
+     */
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int PREV_X = 2;
+    public static final int PREV_Y = 3;
+    public static final int DIR_X = 4;
+    public static final int DIR_Y = 5;
+    public static final int SPEED = 6;
+    public static final int RADIUS = 7;
+    public static final int HALF_WIDTH = 8;
+    public static final int HALF_HEIGHT = 9;
+    public static final int COLUMN_COUNT = 10;
+
+    // Which component owns each column, indexed by column.
+    private static final int[] COLUMN_OWNER = {
+        POSITION, POSITION,
+        PREV_POSITION, PREV_POSITION,
+        MOTION, MOTION, MOTION,
+        SHAPE,
+        EXTENT, EXTENT,
+    };
+
+    private Components() {}
+
+    /**
+     * Returns the component bit that owns "column".
+     */
+    public static int ownerOf(int column) {
+        return COLUMN_OWNER[column];
+    }
+}
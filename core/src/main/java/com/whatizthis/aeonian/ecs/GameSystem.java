@@ -0,0 +1,29 @@
+package com.whatizthis.aeonian.ecs;
+
+/**
+ * One stage of the frame: spawning, movement, collisions, and so on.
+ * <p>
+ * Systems are run in a fixed order by a Schedule.  (This would be called "System", but that
+ * name is taken.)
+ */
+public abstract class GameSystem {
+    private final String mName;
+
+    protected GameSystem(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns a short name, for timing reports.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Does this system's work for one step.
+     *
+     * @param deltaSec Length of the step, in seconds.
+     */
+    public abstract void update(World world, double deltaSec);
+}
@@ -0,0 +1,100 @@
+package com.whatizthis.aeonian.ecs;
+
+import java.util.ArrayList;
+
+/**
+ * Runs a list of systems in order, and keeps track of how long each one takes.
+ * <p>
+ * Timing uses System.nanoTime() directly, not the simulation's Clock.  We're measuring how
+ * much real CPU time the work takes, which has nothing to do with how much game time is
+ * passing.
+ */
+public class Schedule {
+    private final ArrayList<GameSystem> mSystems = new ArrayList<GameSystem>();
+
+    // Per-system timing, indexed like mSystems.
+    private long[] mLastNsec = new long[0];
+    private long[] mMaxNsec = new long[0];
+    private long[] mTotalNsec = new long[0];
+    private int mRunCount;
+
+    /**
+     * Appends a system.  Systems run in the order they're added.
+     */
+    public void add(GameSystem system) {
+        mSystems.add(system);
+        int count = mSystems.size();
+        mLastNsec = new long[count];
+        mMaxNsec = new long[count];
+        mTotalNsec = new long[count];
+        mRunCount = 0;
+    }
+
+    /**
+     * Runs all systems once.
+     */
+    public void run(World world, double deltaSec) {
+        ArrayList<GameSystem> systems = mSystems;
+        long[] lastNsec = mLastNsec;
+        long[] maxNsec = mMaxNsec;
+        long[] totalNsec = mTotalNsec;
+
+        long startNsec = System.nanoTime();
+        for (int i = 0; i < systems.size(); i++) {
+            systems.get(i).update(world, deltaSec);
+
+            long endNsec = System.nanoTime();
+            long elapsed = endNsec - startNsec;
+            lastNsec[i] = elapsed;
+            totalNsec[i] += elapsed;
+            if (elapsed > maxNsec[i]) {
+                maxNsec[i] = elapsed;
+            }
+            startNsec = endNsec;
+        }
+        mRunCount++;
+    }
+
+    public int getSystemCount() {
+        return mSystems.size();
+    }
+
+    public GameSystem getSystem(int index) {
+        return mSystems.get(index);
+    }
+
+    /**
+     * Returns the time system "index" took on the most recent run, in nanoseconds.
+     */
+    public long getLastNanos(int index) {
+        return mLastNsec[index];
+    }
+
+    /**
+     * Returns the longest time system "index" has taken since timing was last reset.
+     */
+    public long getMaxNanos(int index) {
+        return mMaxNsec[index];
+    }
+
+    /**
+     * Returns the average time system "index" has taken since timing was last reset.
+     */
+    public long getAverageNanos(int index) {
+        return mRunCount == 0 ? 0 : mTotalNsec[index] / mRunCount;
+    }
+
+    /**
+     * Returns the number of runs since timing was last reset.
+     */
+    public int getRunCount() {
+        return mRunCount;
+    }
+
+    public void resetTiming() {
+        for (int i = 0; i < mSystems.size(); i++) {
+            mLastNsec[i] = mMaxNsec[i] = mTotalNsec[i] = 0;
+        }
+        mRunCount = 0;
+    }
+}
@@ -0,0 +1,45 @@
+package com.whatizthis.aeonian.ecs;
+
+import java.util.ArrayList;
+
+/**
+ * The set of archetypes that make up the game.
+ * <p>
+ * Archetypes are created up front and live as long as the World.  Systems find the ones
+ * they're interested in with has(), e.g. the movement system walks every archetype that has
+ * both POSITION and MOTION without caring whether those are balls or enemies.  Adding a new
+ * kind of entity is a matter of creating an archetype for it; the existing systems pick it up
+ * automatically.
+ */
+public class World {
+    private final ArrayList<Archetype> mArchetypes = new ArrayList<Archetype>();
+
+    /**
+     * Creates a new archetype.
+     *
+     * @param mask Components.* bits.
+     * @param capacity Initial number of entities to make room for.
+     */
+    public Archetype createArchetype(String name, int mask, int capacity) {
+        Archetype archetype = new Archetype(name, mask, capacity);
+        mArchetypes.add(archetype);
+        return archetype;
+    }
+
+    public int getArchetypeCount() {
+        return mArchetypes.size();
+    }
+
+    public Archetype getArchetype(int index) {
+        return mArchetypes.get(index);
+    }
+
+    /**
+     * Removes every entity from every archetype.
+     */
+    public void clear() {
+        for (int i = 0; i < mArchetypes.size(); i++) {
+            mArchetypes.get(i).clear();
+        }
+    }
+}
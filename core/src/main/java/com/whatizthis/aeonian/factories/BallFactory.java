@@ -0,0 +1,54 @@
+package com.whatizthis.aeonian.factories;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.sim.Arena;
+
+/**
+ * Created by austin on 6/12/17.
+ */
+
+public class BallFactory {
+    /*
+     * Balls are rows in an archetype, and the archetype's storage is the pool: spawn()
+     * acquires a row (reusing a released one if there is one) and release() gives it back.
+     * Nothing is allocated per ball unless the pool has to grow.  POOL_SIZE is how many we
+     * make room for up front; the archetype's high-water mark and grow count show whether
+     * it's big enough.
+     */
+    public static final int POOL_SIZE = 1024;
+
+    private static int mBallSpeed = 2000;
+    private static float mBallSizeMultiplier = 1.0f;
+
+    /**
+     * Acquires a ball from "balls", starting at the center and heading toward the waypoint.
+     *
+     * @return The new ball's row.
+     */
+    public static int spawn(Archetype balls, float waypointX, float waypointY) {
+        float deltaX = waypointX - Arena.BALL_START_X;
+        float deltaY = waypointY - Arena.BALL_START_Y;
+        float mag = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+
+        int row = balls.add();
+        balls.column(Components.X)[row] = Arena.BALL_START_X;
+        balls.column(Components.Y)[row] = Arena.BALL_START_Y;
+        balls.column(Components.PREV_X)[row] = Arena.BALL_START_X;
+        balls.column(Components.PREV_Y)[row] = Arena.BALL_START_Y;
+        balls.column(Components.DIR_X)[row] = deltaX / mag;
+        balls.column(Components.DIR_Y)[row] = deltaY / mag;
+        balls.column(Components.SPEED)[row] = mBallSpeed;
+        balls.column(Components.RADIUS)[row] =
+                Arena.DEFAULT_BALL_DIAMETER * mBallSizeMultiplier / 2.0f;
+        return row;
+    }
+
+    /**
+     * Returns the ball at "row" to the pool.  This moves the last ball into "row", so callers
+     * iterating over balls should look at "row" again rather than moving on.
+     */
+    public static void release(Archetype balls, int row) {
+        balls.remove(row);
+    }
+}
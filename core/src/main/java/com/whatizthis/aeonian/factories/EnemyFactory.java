@@ -0,0 +1,83 @@
+package com.whatizthis.aeonian.factories;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.sim.Arena;
+import com.whatizthis.aeonian.sim.RandomStream;
+
+/**
+ * Created by austin on 6/4/17.
+ */
+
+public class EnemyFactory {
+    // Enemies we make room for up front.  See BallFactory for how the pooling works.
+    public static final int POOL_SIZE = 128;
+
+    private static final int MIN_SPEED = 400;
+    private static final int MAX_SPEED = 600;
+
+    // Odd index is vertical, even is horizontal
+    // { top, left, bottom, right }
+    private static final int[] MIN_RANGES = {(int) Arena.ENEMY_OFF_LEFT, (int) Arena.ENEMY_OFF_BOTTOM};
+    private static final int[] MAX_RANGES = {(int) Arena.ENEMY_OFF_RIGHT, (int) Arena.ENEMY_OFF_TOP};
+
+    /**
+     * Acquires an enemy from "enemies", just off one of the edges of the arena, heading for
+     * the player.  Where it starts and how fast it goes come from "random".
+     *
+     * @return The new enemy's row, or -1 if something went wrong.
+     */
+    public static int spawn(Archetype enemies, RandomStream random) {
+        int speed = randInRange(random, MIN_SPEED, MAX_SPEED);
+
+        int region = random.nextInt(4);
+        float x, y;
+        switch (region) {
+            case 0:
+                x = randInRange(random, MIN_RANGES[region % 2], MAX_RANGES[region % 2]);
+                y = Arena.ENEMY_OFF_TOP;
+                break;
+            case 1:
+                x = Arena.ENEMY_OFF_LEFT;
+                y = randInRange(random, MIN_RANGES[region % 2], MAX_RANGES[region % 2]);
+                break;
+            case 2:
+                x = randInRange(random, MIN_RANGES[region % 2], MAX_RANGES[region % 2]);
+                y = Arena.ENEMY_OFF_BOTTOM;
+                break;
+            case 3:
+                x = Arena.ENEMY_OFF_RIGHT;
+                y = randInRange(random, MIN_RANGES[region % 2], MAX_RANGES[region % 2]);
+                break;
+            default:
+                return -1;
+        }
+
+        float deltaX = Arena.CENTER_X - x;
+        float deltaY = Arena.CENTER_Y - y;
+        float mag = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+
+        int row = enemies.add();
+        enemies.column(Components.X)[row] = x;
+        enemies.column(Components.Y)[row] = y;
+        enemies.column(Components.PREV_X)[row] = x;
+        enemies.column(Components.PREV_Y)[row] = y;
+        enemies.column(Components.DIR_X)[row] = deltaX / mag;
+        enemies.column(Components.DIR_Y)[row] = deltaY / mag;
+        enemies.column(Components.SPEED)[row] = speed;
+        enemies.column(Components.RADIUS)[row] = Arena.DEFAULT_ENEMY_DIAMETER / 2.0f;
+        return row;
+    }
+
+    /**
+     * Returns the enemy at "row" to the pool.  This moves the last enemy into "row", so callers
+     * iterating over enemies should look at "row" again rather than moving on.
+     */
+    public static void release(Archetype enemies, int row) {
+        enemies.remove(row);
+    }
+
+    private static int randInRange(RandomStream random, int min, int max) {
+        return random.nextInt(max - min + 1) + min;
+    }
+}
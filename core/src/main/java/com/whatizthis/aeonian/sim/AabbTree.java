@@ -0,0 +1,501 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+
+/**
+ * A broad phase that keeps the balls in a dynamic bounding-volume tree.
+ * <p>
+ * Each ball gets a leaf with a "fat" box: its real box, grown a bit all around and stretched
+ * several steps ahead along its direction of travel.  Balls fly in straight lines, so a ball
+ * stays inside its fat box for a while, and until it leaves we don't touch the tree at all.
+ * When it does leave, it's pulled out and reinserted with a fresh fat box.
+ * <p>
+ * This is the same structure as Box2D's b2DynamicTree: leaves are inserted next to the
+ * sibling that grows the tree's total perimeter the least, and rotations on the way back up
+ * keep it balanced.
+ * <p>
+ * When does it win?  Not with a normal game's worth of balls.  With a hundred or so the
+ * brute-force scan is just a short loop of compares, and the tree's upkeep costs more than
+ * it saves; in HeadlessRunner at 60 enemies/s and 200 balls/s (about 90 balls on screen)
+ * brute force is ahead.  The tree pulls ahead once there are several hundred balls: at 200
+ * enemies/s and 1000 balls/s (about 450) it runs the whole game twice as fast.  The spatial
+ * hash beats it at both loads, since our balls are all about the same size and spread
+ * fairly evenly; the tree is for scenes where they aren't (very mixed sizes, or everything
+ * bunched into one corner), which is where a fixed grid does badly.
+ */
+public class AabbTree implements BroadPhase {
+    /*
+     * Nodes live in parallel arrays indexed by node number, like the archetype columns, so
+     * there's one allocation per array rather than one per node.  Free nodes are chained
+     * through mParent.  Leaves have no children (mChild1 is NULL) and know which ball row
+     * they belong to; internal nodes have a row of NULL.
+     *
+     * A leaf is attached to a row, not to a particular ball.  Between steps, rows get
+     * reshuffled by swap-removes we never hear about (e.g. the scoring system throwing out
+     * balls that left the arena), and new balls show up at the end.  That's fine: all a leaf
+     * promises is that its fat box contains whatever is in its row right now.  update()
+     * checks that for every row, and reinserts the few that fail.  A ball that was swapped
+     * into another row fails the check and is reinserted like any other ball that moved.
+     */
+
+    private static final int NULL = -1;
+
+    /*
+     * How far ahead of a ball the fat box reaches, in steps of travel.  This is the same idea
+     * as b2DynamicTree's displacement-predicted boxes: the box is stretched by velocity * step
+     * times this.  Six steps (the first try) is only 1/20 s at 120Hz, so a ball in the heavy
+     * HeadlessRunner load (200 enemies/s, 1000 balls/s) left its box every few steps, and we
+     * spent more time reinserting than querying.  24 steps, about 0.2 s, cuts the reinserts by
+     * two thirds.  Past that the longer boxes start costing more in queries than they save.
+     */
+    private static final float FAT_STEPS = 24.0f;
+
+    private float[] mMinX = new float[0];
+    private float[] mMinY = new float[0];
+    private float[] mMaxX = new float[0];
+    private float[] mMaxY = new float[0];
+    private int[] mParent = new int[0];
+    private int[] mChild1 = new int[0];
+    private int[] mChild2 = new int[0];
+    private int[] mHeight = new int[0];
+    private int[] mRow = new int[0];
+    private int mRoot = NULL;
+    private int mFreeList = NULL;
+    private int mNodeCount;
+
+    // Leaf for each ball row, or NULL.  Rows at or past mTrackedCount never have leaves.
+    private int[] mLeafOf = new int[0];
+    private int mTrackedCount;
+
+    // Ball columns from the last update().
+    private float[] mBallX, mBallY, mBallRadius;
+
+    // Scratch stack for queries.
+    private int[] mStack = new int[64];
+
+    // Statistics.
+    private int mReinsertCount;
+
+    @Override
+    public String getName() {
+        return "aabb-tree";
+    }
+
+    @Override
+    public void update(Archetype balls, double deltaSec) {
+        float[] ballX = mBallX = balls.column(Components.X);
+        float[] ballY = mBallY = balls.column(Components.Y);
+        float[] ballRadius = mBallRadius = balls.column(Components.RADIUS);
+        float[] dirX = balls.column(Components.DIR_X);
+        float[] dirY = balls.column(Components.DIR_Y);
+        float[] speed = balls.column(Components.SPEED);
+        int count = balls.size();
+
+        if (mLeafOf.length < count) {
+            int[] grown = new int[Math.max(count, mLeafOf.length * 2)];
+            System.arraycopy(mLeafOf, 0, grown, 0, mLeafOf.length);
+            for (int i = mLeafOf.length; i < grown.length; i++) {
+                grown[i] = NULL;
+            }
+            mLeafOf = grown;
+        }
+        int[] leafOf = mLeafOf;
+
+        // Balls that went away since last time.
+        for (int row = count; row < mTrackedCount; row++) {
+            int leaf = leafOf[row];
+            if (leaf != NULL) {
+                removeLeaf(leaf);
+                freeNode(leaf);
+                leafOf[row] = NULL;
+            }
+        }
+        mTrackedCount = count;
+
+        for (int row = 0; row < count; row++) {
+            // The box the coarse test uses: a full diameter either side of the center.
+            float reach = ballRadius[row] * 2.0f;
+            float minX = ballX[row] - reach;
+            float maxX = ballX[row] + reach;
+            float minY = ballY[row] - reach;
+            float maxY = ballY[row] + reach;
+
+            int leaf = leafOf[row];
+            if (leaf != NULL) {
+                if (mMinX[leaf] <= minX && mMinY[leaf] <= minY
+                        && mMaxX[leaf] >= maxX && mMaxY[leaf] >= maxY) {
+                    continue;
+                }
+                removeLeaf(leaf);
+                mReinsertCount++;
+            } else {
+                leaf = allocateNode();
+                leafOf[row] = leaf;
+            }
+            mRow[leaf] = row;
+
+            // Fatten: a margin all around, plus a few steps of travel in the direction we're
+            // going.  Nothing behind; we're not coming back.
+            float margin = ballRadius[row];
+            float travel = (float) (speed[row] * deltaSec * FAT_STEPS);
+            float dx = dirX[row] * travel;
+            float dy = dirY[row] * travel;
+            minX -= margin;
+            minY -= margin;
+            maxX += margin;
+            maxY += margin;
+            if (dx < 0.0f) {
+                minX += dx;
+            } else {
+                maxX += dx;
+            }
+            if (dy < 0.0f) {
+                minY += dy;
+            } else {
+                maxY += dy;
+            }
+            mMinX[leaf] = minX;
+            mMinY[leaf] = minY;
+            mMaxX[leaf] = maxX;
+            mMaxY[leaf] = maxY;
+            insertLeaf(leaf);
+        }
+    }
+
+    @Override
+    public int query(float left, float right, float bottom, float top, CollisionQuery out) {
+        if (mRoot == NULL) {
+            return 0;
+        }
+        float[] ballX = mBallX;
+        float[] ballY = mBallY;
+        float[] ballRadius = mBallRadius;
+
+        int found = 0;
+        int[] stack = mStack;
+        int depth = 0;
+        stack[depth++] = mRoot;
+        while (depth > 0) {
+            int node = stack[--depth];
+            if (mMaxX[node] < left || mMinX[node] > right
+                    || mMaxY[node] < bottom || mMinY[node] > top) {
+                continue;
+            }
+            if (mChild1[node] == NULL) {
+                int row = mRow[node];
+                float ballDiameter = ballRadius[row] * 2.0f;
+                if (Collision.checkCoarseCollision(ballX[row], ballY[row], ballDiameter,
+                        ballDiameter, left, right, bottom, top)) {
+                    out.add(row);
+                    found++;
+                }
+            } else {
+                if (depth + 2 > stack.length) {
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, depth);
+                    stack = mStack = grown;
+                }
+                stack[depth++] = mChild1[node];
+                stack[depth++] = mChild2[node];
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void remove(int row, int lastRow) {
+        int[] leafOf = mLeafOf;
+        int leaf = leafOf[row];
+        if (leaf != NULL) {
+            removeLeaf(leaf);
+            freeNode(leaf);
+        }
+        leafOf[row] = NULL;
+        if (row != lastRow) {
+            int moved = leafOf[lastRow];
+            leafOf[row] = moved;
+            if (moved != NULL) {
+                mRow[moved] = row;
+            }
+            leafOf[lastRow] = NULL;
+        }
+        mTrackedCount = lastRow;
+    }
+
+    /**
+     * Returns the height of the tree.  A balanced tree of n leaves is about log2(n) high.
+     */
+    public int getHeight() {
+        return mRoot == NULL ? 0 : mHeight[mRoot];
+    }
+
+    /**
+     * Returns the number of times a ball has left its fat box and been reinserted.
+     */
+    public int getReinsertCount() {
+        return mReinsertCount;
+    }
+
+    @Override
+    public String toString() {
+        return "[AabbTree nodes=" + mNodeCount + " height=" + getHeight()
+                + " reinserts=" + mReinsertCount + "]";
+    }
+
+    private int allocateNode() {
+        if (mFreeList == NULL) {
+            int capacity = mParent.length;
+            int grown = Math.max(capacity * 2, 64);
+            mMinX = grow(mMinX, grown);
+            mMinY = grow(mMinY, grown);
+            mMaxX = grow(mMaxX, grown);
+            mMaxY = grow(mMaxY, grown);
+            mParent = grow(mParent, grown);
+            mChild1 = grow(mChild1, grown);
+            mChild2 = grow(mChild2, grown);
+            mHeight = grow(mHeight, grown);
+            mRow = grow(mRow, grown);
+            for (int i = grown - 1; i >= capacity; i--) {
+                mParent[i] = mFreeList;
+                mFreeList = i;
+            }
+        }
+        int node = mFreeList;
+        mFreeList = mParent[node];
+        mParent[node] = NULL;
+        mChild1[node] = NULL;
+        mChild2[node] = NULL;
+        mHeight[node] = 0;
+        mRow[node] = NULL;
+        mNodeCount++;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        mParent[node] = mFreeList;
+        mHeight[node] = -1;
+        mFreeList = node;
+        mNodeCount--;
+    }
+
+    private void insertLeaf(int leaf) {
+        if (mRoot == NULL) {
+            mRoot = leaf;
+            mParent[leaf] = NULL;
+            return;
+        }
+
+        /*
+         * Walk down to the best sibling for the new leaf.  At each node, the cost of making
+         * the leaf its sibling is the perimeter of the new parent box, plus what it costs to
+         * grow every box above it ("inheritance").  Stop when neither child would be cheaper
+         * than right here.
+         */
+        int index = mRoot;
+        while (mChild1[index] != NULL) {
+            int child1 = mChild1[index];
+            int child2 = mChild2[index];
+
+            float perimeter = perimeter(index);
+            float combined = unionPerimeter(index, leaf);
+            float cost = 2.0f * combined;
+            float inheritance = 2.0f * (combined - perimeter);
+
+            float cost1 = unionPerimeter(child1, leaf) + inheritance;
+            if (mChild1[child1] != NULL) {
+                cost1 -= perimeter(child1);
+            }
+            float cost2 = unionPerimeter(child2, leaf) + inheritance;
+            if (mChild1[child2] != NULL) {
+                cost2 -= perimeter(child2);
+            }
+
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? child1 : child2;
+        }
+        int sibling = index;
+
+        // Put a new parent above the sibling, holding the sibling and the leaf.
+        int oldParent = mParent[sibling];
+        int newParent = allocateNode();
+        mParent[newParent] = oldParent;
+        setUnion(newParent, leaf, sibling);
+        mHeight[newParent] = mHeight[sibling] + 1;
+        mChild1[newParent] = sibling;
+        mChild2[newParent] = leaf;
+        mParent[sibling] = newParent;
+        mParent[leaf] = newParent;
+        if (oldParent != NULL) {
+            if (mChild1[oldParent] == sibling) {
+                mChild1[oldParent] = newParent;
+            } else {
+                mChild2[oldParent] = newParent;
+            }
+        } else {
+            mRoot = newParent;
+        }
+
+        refitFrom(mParent[leaf]);
+    }
+
+    /**
+     * Detaches a leaf from the tree.  The node itself is left for the caller to reuse or free.
+     */
+    private void removeLeaf(int leaf) {
+        if (leaf == mRoot) {
+            mRoot = NULL;
+            return;
+        }
+
+        int parent = mParent[leaf];
+        int grandParent = mParent[parent];
+        int sibling = mChild1[parent] == leaf ? mChild2[parent] : mChild1[parent];
+
+        // The sibling takes the parent's place.
+        if (grandParent != NULL) {
+            if (mChild1[grandParent] == parent) {
+                mChild1[grandParent] = sibling;
+            } else {
+                mChild2[grandParent] = sibling;
+            }
+            mParent[sibling] = grandParent;
+            freeNode(parent);
+            refitFrom(grandParent);
+        } else {
+            mRoot = sibling;
+            mParent[sibling] = NULL;
+            freeNode(parent);
+        }
+    }
+
+    /**
+     * Walks from "index" up to the root, rebalancing and recomputing boxes and heights.
+     */
+    private void refitFrom(int index) {
+        while (index != NULL) {
+            index = balance(index);
+            int child1 = mChild1[index];
+            int child2 = mChild2[index];
+            mHeight[index] = 1 + Math.max(mHeight[child1], mHeight[child2]);
+            setUnion(index, child1, child2);
+            index = mParent[index];
+        }
+    }
+
+    /**
+     * If the children of "a" differ in height by more than one, rotates the taller one up.
+     *
+     * @return The node now at a's position in the tree.
+     */
+    private int balance(int a) {
+        if (mChild1[a] == NULL || mHeight[a] < 2) {
+            return a;
+        }
+
+        int b = mChild1[a];
+        int c = mChild2[a];
+        int diff = mHeight[c] - mHeight[b];
+
+        if (diff > 1) {
+            // Rotate c up.
+            int f = mChild1[c];
+            int g = mChild2[c];
+            mChild1[c] = a;
+            mParent[c] = mParent[a];
+            mParent[a] = c;
+            replaceChild(mParent[c], a, c);
+
+            if (mHeight[f] > mHeight[g]) {
+                mChild2[c] = f;
+                mChild2[a] = g;
+                mParent[g] = a;
+                setUnion(a, b, g);
+                setUnion(c, a, f);
+                mHeight[a] = 1 + Math.max(mHeight[b], mHeight[g]);
+                mHeight[c] = 1 + Math.max(mHeight[a], mHeight[f]);
+            } else {
+                mChild2[c] = g;
+                mChild2[a] = f;
+                mParent[f] = a;
+                setUnion(a, b, f);
+                setUnion(c, a, g);
+                mHeight[a] = 1 + Math.max(mHeight[b], mHeight[f]);
+                mHeight[c] = 1 + Math.max(mHeight[a], mHeight[g]);
+            }
+            return c;
+        }
+
+        if (diff < -1) {
+            // Rotate b up.
+            int d = mChild1[b];
+            int e = mChild2[b];
+            mChild1[b] = a;
+            mParent[b] = mParent[a];
+            mParent[a] = b;
+            replaceChild(mParent[b], a, b);
+
+            if (mHeight[d] > mHeight[e]) {
+                mChild2[b] = d;
+                mChild1[a] = e;
+                mParent[e] = a;
+                setUnion(a, c, e);
+                setUnion(b, a, d);
+                mHeight[a] = 1 + Math.max(mHeight[c], mHeight[e]);
+                mHeight[b] = 1 + Math.max(mHeight[a], mHeight[d]);
+            } else {
+                mChild2[b] = e;
+                mChild1[a] = d;
+                mParent[d] = a;
+                setUnion(a, c, d);
+                setUnion(b, a, e);
+                mHeight[a] = 1 + Math.max(mHeight[c], mHeight[d]);
+                mHeight[b] = 1 + Math.max(mHeight[a], mHeight[e]);
+            }
+            return b;
+        }
+
+        return a;
+    }
+
+    private void replaceChild(int parent, int oldChild, int newChild) {
+        if (parent == NULL) {
+            mRoot = newChild;
+        } else if (mChild1[parent] == oldChild) {
+            mChild1[parent] = newChild;
+        } else {
+            mChild2[parent] = newChild;
+        }
+    }
+
+    private void setUnion(int dst, int a, int b) {
+        mMinX[dst] = Math.min(mMinX[a], mMinX[b]);
+        mMinY[dst] = Math.min(mMinY[a], mMinY[b]);
+        mMaxX[dst] = Math.max(mMaxX[a], mMaxX[b]);
+        mMaxY[dst] = Math.max(mMaxY[a], mMaxY[b]);
+    }
+
+    private float perimeter(int node) {
+        return 2.0f * ((mMaxX[node] - mMinX[node]) + (mMaxY[node] - mMinY[node]));
+    }
+
+    private float unionPerimeter(int a, int b) {
+        float width = Math.max(mMaxX[a], mMaxX[b]) - Math.min(mMinX[a], mMinX[b]);
+        float height = Math.max(mMaxY[a], mMaxY[b]) - Math.min(mMinY[a], mMinY[b]);
+        return 2.0f * (width + height);
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,51 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * Arena dimensions, and the sizes and positions derived from them.
+ * <p>
+ * Everything here is in arena coordinates, with (0,0) in the bottom-left corner.  Values are
+ * set once by setDimensions(), before the game starts, and treated as constant afterward.
+ */
+public class Arena {
+    public static float WIDTH, HEIGHT, CENTER_X, CENTER_Y;
+    public static float BALL_START_X;
+    public static float BALL_START_Y;
+
+    /*
+     * Ball dimensions.  Internally it's just a rect, but the renderer gives it a circular
+     * texture so it looks round.  Size is a percentage of the arena width.
+     */
+    private static final float BALL_WIDTH_PERC = 2.5f / 100.0f;
+    public static int DEFAULT_BALL_DIAMETER;
+
+    private static final float ENEMY_WIDTH_PERC = 7.5f / 100.0f;
+    public static int DEFAULT_ENEMY_DIAMETER;
+
+    // Enemies spawn just outside the visible area.  The extra sqrt(2) keeps a rotated enemy
+    // from peeking in at the edge.
+    public static float ENEMY_OFF_LEFT, ENEMY_OFF_TOP, ENEMY_OFF_RIGHT, ENEMY_OFF_BOTTOM;
+
+    // The player sits in the middle of the arena.
+    public static float PLAYER_DIAMETER;
+
+    private Arena() {}
+
+    /**
+     * Sets the arena size, and recomputes everything that depends on it.
+     */
+    public static void setDimensions(float width, float height) {
+        HEIGHT = height;
+        WIDTH = width;
+        CENTER_X = width / 2;
+        CENTER_Y = height / 2;
+        BALL_START_X = WIDTH / 2.0f;
+        BALL_START_Y = HEIGHT / 2.0f;
+        DEFAULT_BALL_DIAMETER = (int) (WIDTH * BALL_WIDTH_PERC);
+        DEFAULT_ENEMY_DIAMETER = (int) (WIDTH * ENEMY_WIDTH_PERC);
+        ENEMY_OFF_LEFT = -DEFAULT_ENEMY_DIAMETER * 1.414f;
+        ENEMY_OFF_TOP = HEIGHT + DEFAULT_ENEMY_DIAMETER * 1.414f;
+        ENEMY_OFF_RIGHT = WIDTH + DEFAULT_ENEMY_DIAMETER * 1.414f;
+        ENEMY_OFF_BOTTOM = -DEFAULT_ENEMY_DIAMETER * 1.414f;
+        PLAYER_DIAMETER = WIDTH / 11;
+    }
+}
@@ -0,0 +1,49 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+
+/**
+ * Finds the balls that might be in the way of an enemy, so the collision system only has to
+ * run the expensive tests on a handful of them.
+ * <p>
+ * Every implementation gives the same answer: query() adds exactly the balls that pass
+ * Collision.checkCoarseCollision() against the query rectangle.  They differ only in how
+ * much work it takes to get there, which depends on how many balls and enemies there are and
+ * how they're spread out.  Simulation.setBroadPhase() swaps between them while the game is
+ * running, so they can be compared on the same scene.
+ * <p>
+ * Like the rest of the simulation, implementations are not thread-safe.
+ */
+public interface BroadPhase {
+    /**
+     * Returns a short name, for logs and benchmark output.
+     */
+    String getName();
+
+    /**
+     * Brings the structure up to date with the current ball positions.  Called once per
+     * step, after the balls have moved and before any queries.
+     * <p>
+     * Rows may have been added, removed or reshuffled since the last call, and a different
+     * broad phase may have been in use, so don't assume row "n" is the same ball it was.
+     *
+     * @param deltaSec Length of the step, in seconds.
+     */
+    void update(Archetype balls, double deltaSec);
+
+    /**
+     * Adds the row of every ball that could collide with something inside the rectangle to
+     * "out".  Doesn't clear "out" first.  "out" has room for every ball, so this can't
+     * overflow it.
+     *
+     * @return The number of rows added.
+     */
+    int query(float left, float right, float bottom, float top, CollisionQuery out);
+
+    /**
+     * Forgets about ball "row".  Call just before releasing it: the archetype is about to
+     * move the last ball ("lastRow") into its place, and this keeps us in step so that we can
+     * keep querying for the rest of the step.
+     */
+    void remove(int row, int lastRow);
+}
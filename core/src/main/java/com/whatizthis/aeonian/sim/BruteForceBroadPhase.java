@@ -0,0 +1,50 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+
+/**
+ * Tests every ball on every query.  This is what the game originally did.
+ * <p>
+ * There's no structure to maintain, so it wins when there are only a few balls, and it's the
+ * reference the other broad phases are checked against.  The cost is (enemies * balls) per
+ * step, which gets out of hand quickly.
+ * <p>
+ * The loop itself is Kernels.collectOverlaps(), so a vectorized Kernels can do several balls
+ * at once.
+ */
+public class BruteForceBroadPhase implements BroadPhase {
+    private final Kernels mKernels;
+    private Archetype mBalls;
+
+    public BruteForceBroadPhase() {
+        this(ScalarKernels.INSTANCE);
+    }
+
+    public BruteForceBroadPhase(Kernels kernels) {
+        mKernels = kernels;
+    }
+
+    @Override
+    public String getName() {
+        return "brute-force/" + mKernels.getName();
+    }
+
+    @Override
+    public void update(Archetype balls, double deltaSec) {
+        mBalls = balls;
+    }
+
+    @Override
+    public int query(float left, float right, float bottom, float top, CollisionQuery out) {
+        Archetype balls = mBalls;
+        return mKernels.collectOverlaps(left, right, bottom, top,
+                balls.column(Components.X), balls.column(Components.Y),
+                balls.column(Components.RADIUS), balls.size(), out);
+    }
+
+    @Override
+    public void remove(int row, int lastRow) {
+        // Nothing to do; we read the archetype directly.
+    }
+}
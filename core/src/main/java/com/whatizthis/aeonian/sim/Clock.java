@@ -0,0 +1,26 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * Source of monotonic time for the simulation.
+ * <p>
+ * On the device this is just System.nanoTime().  A benchmark or test harness can supply its
+ * own clock, so the frame loop can be driven as fast as the CPU allows while the simulation
+ * still believes it is running at (say) 60fps.
+ */
+public interface Clock {
+    /**
+     * Returns the current time, in nanoseconds.  Only the difference between two values is
+     * meaningful.
+     */
+    long nanoTime();
+
+    /**
+     * The system monotonic clock.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+}
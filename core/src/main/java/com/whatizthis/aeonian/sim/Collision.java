@@ -0,0 +1,542 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+
+/**
+ * Collision math for a round object moving through the arena.
+ * <p>
+ * There's no state here.  The candidates to test and the results of the tests go in a
+ * CollisionQuery, which the caller keeps around so none of that has to be allocated on every
+ * frame.
+ */
+public class Collision {
+    private static final boolean EXTRA_CHECK = true;        // enable additional assertions
+
+    /*
+     * Collision detection results.
+     */
+    public static final int HIT_FACE_NONE = 0;
+    public static final int HIT_FACE_VERTICAL = 1;
+    public static final int HIT_FACE_HORIZONTAL = 2;
+    public static final int HIT_FACE_SHARPCORNER = 3;
+    public static final int HIT_FACE_ROUND = 4;             // see the manifold's normal
+
+    private Collision() {}
+
+    /**
+     * Determines whether an object at (xpos,ypos), with the given scale, could possibly
+     * collide with a ball whose current and future position are enclosed by the l/r/b/t
+     * values.
+     *
+     * @return true if we might collide with this object.
+     */
+    public static boolean checkCoarseCollision(float xpos, float ypos, float xscale,
+            float yscale, float left, float right, float bottom, float top) {
+        /*
+         * This is a "coarse" detection, so we can play fast and loose.  One approach is to
+         * essentially draw a circle around each object, and see if the circles intersect.
+         * This requires a simple distance test -- if the distance between the center points
+         * of the objects is greater than their combined radii, there's no chance of collision.
+         * Mathematically, each test is two multiplications and a compare.
+         *
+         * This is a very sloppy test for a fast-moving ball, though, because we're drawing
+         * it around the current and final position.  If the ball is moving quickly from left
+         * to right, we will end up testing for collisions in a large area above and below
+         * the ball, because the circle extends in all directions.
+         *
+         * A better test, given the generally rectangular nature of all of our objects, would
+         * be to test the draw rects for overlap.  This is precise for all objects except the
+         * ball itself, and even for that it has a better-confined region.  Each test requires
+         * a handful of additions and comparisons, and on a device with an FPU will be slower.
+         *
+         * If we're really concerned about performance, we can skip brick collision detection
+         * entirely at the top and bottom of the board with a simple range check.  The brick
+         * area can then be divided into a grid with 64 cells, and each brick can hold a long
+         * integer that has bits set based on what cells it is a part of.  We set up a bit
+         * vector with the set of cells that the ball could touch as it moves between the old
+         * and new positions, and do a quick bit mask to check for collisions.
+         *
+         * And so on.
+         *
+         * At the end of the day we've got about a hundred bricks, the four edges of the screen,
+         * and the paddle.  We just want to do something simple that will cut the number of
+         * objects we need to check in the "fine" pass to a handful.
+         */
+
+        // Convert position+scale into l/r/b/t.
+        float targLeft, targRight, targBottom, targTop;
+
+        targLeft = xpos - xscale;
+        targRight = xpos + xscale;
+        targBottom = ypos - yscale;
+        targTop = ypos + yscale;
+
+        // If the smallest right is bigger than the biggest left, and the smallest bottom is
+        // bigger than the biggest top, we overlap.
+        //
+        // FWIW, this is essentially an application of the Separating Axis Theorem for two
+        // axis-aligned rects.
+        float checkLeft = targLeft > left ? targLeft : left;
+        float checkRight = targRight < right ? targRight : right;
+        float checkTop = targBottom > bottom ? targBottom : bottom;
+        float checkBottom = targTop < top ? targTop : top;
+
+        if (checkRight > checkLeft && checkBottom > checkTop) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests for a collision with the candidate balls in "query" as we travel from
+     * (curX,curY).
+     * <p>
+     * We can't return multiple values from a method call in Java, and we don't want to
+     * allocate storage for them on each frame (this being part of the main game loop).  So we
+     * return the index of the ball we hit, and fill in the query's Manifold with the details.
+     *
+     * @param query Candidates to test, and where the result goes.
+     * @param balls The archetype that the candidates index into.
+     * @param curX Current X position.
+     * @param curY Current Y position.
+     * @param dirX X component of normalized direction vector.
+     * @param dirY Y component of normalized direction vector.
+     * @param distance Distance to travel.
+     * @param radius Radius of the ball.
+     * @return The index of the ball we struck, or -1 if none.
+     */
+    public static int findFirstCollision(CollisionQuery query, Archetype balls,
+            final float curX, final float curY,
+            final float dirX, final float dirY, final float distance, final float radius) {
+        float[] ballX = balls.column(Components.X);
+        float[] ballY = balls.column(Components.Y);
+        float[] ballRadius = balls.column(Components.RADIUS);
+
+        /*
+         * The "coarse" function has indicated that a collision is possible.  We need to get
+         * an exact determination of what we're hitting.
+         *
+         * Each candidate gets a sweep test, which tells us exactly how far along the path we
+         * first touch it.  Round things get timeOfImpactCircle(), rectangles (anything with an
+         * EXTENT) get timeOfImpact().  We check the shape once for the whole archetype rather
+         * than once per candidate.  The one we touch soonest is the one we hit.
+         * If two are touched at the same distance, the one in the lower row gets credit, so
+         * the answer doesn't depend on what order the broad phase found them in.
+         */
+        int[] candidates = query.getCandidates();
+        int count = query.getCandidateCount();
+        int hit = -1;
+        float hitDistance = distance;
+
+        if (!balls.has(Components.EXTENT)) {
+            // Round, which is what balls are.  One quadratic per candidate.
+            for (int c = 0; c < count; c++) {
+                int row = candidates[c];
+                float toi = timeOfImpactCircle(ballX[row], ballY[row], ballRadius[row],
+                        curX, curY, dirX, dirY, distance, radius);
+                if (toi >= 0.0f && (hit < 0 || toi < hitDistance
+                        || (toi == hitDistance && row < hit))) {
+                    hit = row;
+                    hitDistance = toi;
+                }
+            }
+            if (hit < 0) {
+                return -1;
+            }
+            setCircleHitDetails(query.getManifold(), hit, ballX[hit], ballY[hit],
+                    ballRadius[hit], curX, curY, dirX, dirY, hitDistance, radius);
+            return hit;
+        }
+
+        float[] halfWidth = balls.column(Components.HALF_WIDTH);
+        float[] halfHeight = balls.column(Components.HALF_HEIGHT);
+        for (int c = 0; c < count; c++) {
+            int rect = candidates[c];
+            float toi = timeOfImpact(ballX[rect], ballY[rect], halfWidth[rect],
+                    halfHeight[rect], curX, curY, dirX, dirY, distance, radius);
+            if (toi >= 0.0f && (hit < 0 || toi < hitDistance
+                    || (toi == hitDistance && rect < hit))) {
+                hit = rect;
+                hitDistance = toi;
+            }
+        }
+        if (hit < 0) {
+            return -1;
+        }
+        setHitDetails(query.getManifold(), hit, ballX[hit], ballY[hit], halfWidth[hit],
+                halfHeight[hit], curX, curY, dirX, dirY, hitDistance, radius);
+        return hit;
+    }
+
+    /**
+     * Tests for a collision with entity "row" of "targets" as the ball travels from
+     * (curX,curY).  Uses the circle or rect test, depending on the entity's shape.
+     * <p>
+     * Returns whether we hit.  Details go in "out", as for findFirstCollision().
+     *
+     * @param out Where to put the details of the hit.
+     * @param targets An archetype with POSITION and SHAPE.
+     * @param row The entity to test against.
+     * @param curX Current X position.
+     * @param curY Current Y position.
+     * @param dirX X component of normalized direction vector.
+     * @param dirY Y component of normalized direction vector.
+     * @param distance Distance to travel.
+     * @param radius Radius of the ball.
+     */
+    public static boolean collidedWith(Manifold out, Archetype targets, int row,
+            final float curX, final float curY, final float dirX, final float dirY,
+            final float distance, final float radius) {
+        float targetX = targets.column(Components.X)[row];
+        float targetY = targets.column(Components.Y)[row];
+        if (targets.has(Components.EXTENT)) {
+            return collidedWith(out, targetX, targetY,
+                    targets.column(Components.HALF_WIDTH)[row],
+                    targets.column(Components.HALF_HEIGHT)[row],
+                    curX, curY, dirX, dirY, distance, radius);
+        }
+
+        float targetRadius = targets.column(Components.RADIUS)[row];
+        float toi = timeOfImpactCircle(targetX, targetY, targetRadius, curX, curY, dirX, dirY,
+                distance, radius);
+        if (toi < 0.0f) {
+            out.clear();
+            return false;
+        }
+        setCircleHitDetails(out, row, targetX, targetY, targetRadius, curX, curY, dirX, dirY,
+                toi, radius);
+        return true;
+    }
+
+    /**
+     * Tests for a collision with the rectangle centered at (rectXWorld,rectYWorld) as the ball
+     * travels from (curX,curY).
+     * <p>
+     * Returns whether we hit.  Details go in "out", as for findFirstCollision().
+     *
+     * @param out Where to put the details of the hit.
+     * @param rectXWorld Rect center X position.
+     * @param rectYWorld Rect center Y position.
+     * @param rectXScaleHalf Half the rect's width.
+     * @param rectYScaleHalf Half the rect's height.
+     * @param curX Current X position.
+     * @param curY Current Y position.
+     * @param dirX X component of normalized direction vector.
+     * @param dirY Y component of normalized direction vector.
+     * @param distance Distance to travel.
+     * @param radius Radius of the ball.
+     */
+    public static boolean collidedWith(Manifold out, final float rectXWorld, final float rectYWorld,
+            final float rectXScaleHalf, final float rectYScaleHalf, final float curX,
+            final float curY, final float dirX, final float dirY, final float distance,
+            final float radius) {
+        float toi = timeOfImpact(rectXWorld, rectYWorld, rectXScaleHalf, rectYScaleHalf,
+                curX, curY, dirX, dirY, distance, radius);
+        if (toi < 0.0f) {
+            out.clear();
+            return false;
+        }
+        setHitDetails(out, -1, rectXWorld, rectYWorld, rectXScaleHalf, rectYScaleHalf, curX,
+                curY, dirX, dirY, toi, radius);
+        return true;
+    }
+
+    /**
+     * Computes how far a circle can travel before it touches a rectangle.
+     *
+     * @return The distance along the path at first contact, in [0, distance], or a negative
+     *     value if the circle doesn't touch the rect.  Zero means the circle started out
+     *     overlapping it.
+     */
+    public static float timeOfImpact(final float rectXWorld, final float rectYWorld,
+            final float rectXScaleHalf, final float rectYScaleHalf, final float curX,
+            final float curY, final float dirX, final float dirY, final float distance,
+            final float radius) {
+        /*
+         * We used to step the circle forward 2 units at a time and check for overlap at each
+         * step.  That's simple, but a fast ball does hundreds of iterations per candidate per
+         * second, and anything thinner than the step could be skipped over entirely.
+         *
+         * Instead, shrink the circle to a point and grow the rectangle by the radius.  The
+         * point touches the grown shape exactly when the circle touches the rect.  The grown
+         * shape (the Minkowski sum) is a rect with rounded corners: the straight parts of its
+         * edges are the rect's edges pushed out by the radius, and each corner is a quarter
+         * circle of the same radius around the rect's corner.  That makes it a ray cast, which
+         * we can solve in closed form:
+         *
+         *  (1) Cast the ray against the rect grown by the radius with square corners, using
+         *      the usual slab test.  If it misses, it misses the rounded one too.
+         *  (2) Look at where it enters.  If that point is beside an edge of the original rect
+         *      (inside its extent on one axis), it's on a straight part, and that's the hit.
+         *  (3) Otherwise it entered through one of the square corner pieces, and we have to
+         *      cast against that corner's circle.  If it misses the circle it misses the whole
+         *      shape: to get from the corner piece to anywhere else inside, it would have to
+         *      cross the circle.  (See Ericson, "Real-Time Collision Detection", 5.3.5 and
+         *      5.5.7.)
+         *
+         * If the ray starts inside the square-cornered box we do the same thing from the
+         * starting point, which catches circles that begin already overlapping.
+         *
+         * The work is a fixed handful of multiplies, regardless of speed or distance.
+         */
+        final float expandX = rectXScaleHalf + radius;
+        final float expandY = rectYScaleHalf + radius;
+
+        // Put the rect center at (0,0).
+        final float startX = curX - rectXWorld;
+        final float startY = curY - rectYWorld;
+
+        // Slab test on each axis.  A zero direction component means the ray is parallel to
+        // that slab, and either always inside it or never.
+        float tEnter = Float.NEGATIVE_INFINITY;
+        float tExit = Float.POSITIVE_INFINITY;
+        if (dirX == 0.0f) {
+            if (startX <= -expandX || startX >= expandX) {
+                return -1.0f;
+            }
+        } else {
+            float inv = 1.0f / dirX;
+            float t1 = (-expandX - startX) * inv;
+            float t2 = (expandX - startX) * inv;
+            tEnter = Math.min(t1, t2);
+            tExit = Math.max(t1, t2);
+        }
+        if (dirY == 0.0f) {
+            if (startY <= -expandY || startY >= expandY) {
+                return -1.0f;
+            }
+        } else {
+            float inv = 1.0f / dirY;
+            float t1 = (-expandY - startY) * inv;
+            float t2 = (expandY - startY) * inv;
+            tEnter = Math.max(tEnter, Math.min(t1, t2));
+            tExit = Math.min(tExit, Math.max(t1, t2));
+        }
+        if (tEnter >= tExit || tExit <= 0.0f || tEnter > distance) {
+            return -1.0f;
+        }
+
+        // Where we enter the box (or where we start, if we start inside it).
+        float t = tEnter > 0.0f ? tEnter : 0.0f;
+        float hitX = startX + dirX * t;
+        float hitY = startY + dirY * t;
+        float absX = Math.abs(hitX);
+        float absY = Math.abs(hitY);
+        if (absX <= rectXScaleHalf || absY <= rectYScaleHalf) {
+            return t;
+        }
+
+        // Corner piece.  Cast against the circle around the nearest corner.
+        float cornerX = hitX < 0.0f ? -rectXScaleHalf : rectXScaleHalf;
+        float cornerY = hitY < 0.0f ? -rectYScaleHalf : rectYScaleHalf;
+        float relX = startX - cornerX;
+        float relY = startY - cornerY;
+        // |rel + dir*t|^2 = radius^2, and dir is normalized, so t^2 + 2bt + c = 0.
+        float b = relX * dirX + relY * dirY;
+        float c = relX * relX + relY * relY - radius * radius;
+        if (c <= 0.0f) {
+            // Started inside the circle.
+            return 0.0f;
+        }
+        float disc = b * b - c;
+        if (disc < 0.0f || b > 0.0f) {
+            // Missed the circle, or heading away from it.
+            return -1.0f;
+        }
+        float toi = -b - (float) Math.sqrt(disc);
+        if (toi > distance) {
+            return -1.0f;
+        }
+        if (EXTRA_CHECK && toi < 0.0f) {
+            throw new RuntimeException("negative corner toi " + toi);
+        }
+        return toi;
+    }
+
+    /**
+     * Fills in "out" for a collision with the given rect, after "traveled" units along the
+     * path.
+     */
+    private static void setHitDetails(Manifold out, int row, final float rectXWorld, final float rectYWorld,
+            final float rectXScaleHalf, final float rectYScaleHalf, final float curX,
+            final float curY, final float dirX, final float dirY, final float traveled,
+            final float radius) {
+        float circleXWorld = curX + dirX * traveled;
+        float circleYWorld = curY + dirY * traveled;
+
+        // Translate the circle so that it's in the first quadrant, with the center of the
+        // rectangle at (0,0).
+        float circleX = Math.abs(circleXWorld - rectXWorld);
+        float circleY = Math.abs(circleYWorld - rectYWorld);
+
+        /*
+         * If the center of the circle is inside the rect on the X axis, we've hit a
+         * horizontal surface; on the Y axis, a vertical surface.  If it's inside on neither,
+         * we've hit a corner.
+         *
+         * (The stepping version could get the center inside on both axes if a step jumped far
+         * enough.  Now that we stop at the moment of contact, that only happens if we started
+         * out overlapping, and treating it as a horizontal hit is as good as anything.)
+         */
+        int faceHit;
+        int faceToAdjust;
+        if (circleX <= rectXScaleHalf) {
+            faceToAdjust = faceHit = HIT_FACE_HORIZONTAL;
+        } else if (circleY <= rectYScaleHalf) {
+            faceToAdjust = faceHit = HIT_FACE_VERTICAL;
+        } else {
+            float xdist = circleX - rectXScaleHalf;
+            float ydist = circleY - rectYScaleHalf;
+
+            /*
+             * The center point of the ball is outside both edges of the rectangle, so this is
+             * a corner hit.  We need to decide how to bounce off.
+             *
+             * Compare the direction the ball was moving with which corner we hit.  Consider
+             * the bottom-left corner of a brick.  There are three ways to hit it: straight in
+             * (ball moving up and right), skimming from the left (ball moving down and right),
+             * and skimming from below (ball moving up and left).  By comparing just the sign
+             * of the components of the ball's direction vector with the sign of a vector drawn
+             * from the corner to the center of the rect, we can decide what sort of impact
+             * we've had.
+             *
+             * If the signs match, it's a "sharp" corner impact, and we want to bounce
+             * straight back.  If only X matches, we're approaching from the side, and it's a
+             * vertical side impact.  If only Y matches, we're approaching from the bottom, and
+             * it's a horizontal impact.
+             */
+            float dirXSign = Math.signum(dirX);
+            float dirYSign = Math.signum(dirY);
+            float cornerXSign = Math.signum(rectXWorld - circleXWorld);
+            float cornerYSign = Math.signum(rectYWorld - circleYWorld);
+
+            if (dirXSign == cornerXSign && dirYSign == cornerYSign) {
+                faceHit = HIT_FACE_SHARPCORNER;
+            } else if (dirXSign == cornerXSign) {
+                faceHit = HIT_FACE_VERTICAL;
+            } else if (dirYSign == cornerYSign) {
+                faceHit = HIT_FACE_HORIZONTAL;
+            } else {
+                // This would mean we hit the far corner of the brick, i.e. the ball
+                // passed completely through it.
+                faceHit = HIT_FACE_SHARPCORNER;
+            }
+
+            // Adjust whichever requires the least movement to guarantee we're no
+            // longer colliding.
+            if (xdist < ydist) {
+                faceToAdjust = HIT_FACE_HORIZONTAL;
+            } else {
+                faceToAdjust = HIT_FACE_VERTICAL;
+            }
+        }
+
+        /*
+         * The adjustment backs the ball out so it's just touching the object.  With an exact
+         * time of impact it's usually zero (give or take round-off), but it's still needed
+         * when the ball started out overlapping.  It's a minimum-distance axis-aligned shift
+         * rather than a move back along the path, which is easier to compute and close enough.
+         */
+        float hitXAdj, hitYAdj;
+        if (faceToAdjust == HIT_FACE_HORIZONTAL) {
+            hitXAdj = 0.0f;
+            hitYAdj = Math.max(rectYScaleHalf + radius - circleY, 0.0f);
+            if (circleYWorld < rectYWorld) {
+                // ball is below rect, must be moving up, so adjust it down
+                hitYAdj = -hitYAdj;
+            }
+        } else {
+            hitXAdj = Math.max(rectXScaleHalf + radius - circleX, 0.0f);
+            hitYAdj = 0.0f;
+            if (circleXWorld < rectXWorld) {
+                // ball is left of rect, must be moving to right, so adjust it left
+                hitXAdj = -hitXAdj;
+            }
+        }
+
+        // The normal points from the closest point on the rect to the center of the circle.
+        // If the center is inside the rect there's no closest point, so use the face.
+        float normalX = circleX > rectXScaleHalf ? circleX - rectXScaleHalf : 0.0f;
+        float normalY = circleY > rectYScaleHalf ? circleY - rectYScaleHalf : 0.0f;
+        float length = (float) Math.sqrt(normalX * normalX + normalY * normalY);
+        if (length > 0.0f) {
+            normalX /= length;
+            normalY /= length;
+        } else if (faceToAdjust == HIT_FACE_HORIZONTAL) {
+            normalY = 1.0f;
+        } else {
+            normalX = 1.0f;
+        }
+        if (circleXWorld < rectXWorld) {
+            normalX = -normalX;
+        }
+        if (circleYWorld < rectYWorld) {
+            normalY = -normalY;
+        }
+
+        out.set(row, traveled, faceHit, hitXAdj, hitYAdj, normalX, normalY);
+    }
+
+    /**
+     * Computes how far a circle can travel before it touches another, stationary, circle.
+     *
+     * @return The distance along the path at first contact, in [0, distance], or a negative
+     *     value if they don't touch.  Zero means they started out overlapping.
+     */
+    public static float timeOfImpactCircle(final float targetX, final float targetY,
+            final float targetRadius, final float curX, final float curY, final float dirX,
+            final float dirY, final float distance, final float radius) {
+        /*
+         * Same trick as the rect version: shrink the moving circle to a point and grow the
+         * target by the same amount.  Growing a circle just gives a bigger circle, so this is
+         * one ray-vs-circle test.  With p the start relative to the target and a normalized
+         * direction d, we want the smallest t with |p + d*t| = R, which is
+         *
+         *   t^2 + 2(p.d)t + (p.p - R^2) = 0
+         */
+        float relX = curX - targetX;
+        float relY = curY - targetY;
+        float reach = targetRadius + radius;
+        float b = relX * dirX + relY * dirY;
+        float c = relX * relX + relY * relY - reach * reach;
+        if (c <= 0.0f) {
+            // Started out overlapping.
+            return 0.0f;
+        }
+        float disc = b * b - c;
+        if (disc < 0.0f || b > 0.0f) {
+            // Missed, or heading away.
+            return -1.0f;
+        }
+        float toi = -b - (float) Math.sqrt(disc);
+        return toi <= distance ? toi : -1.0f;
+    }
+
+    /**
+     * Fills in "out" for a collision with the given circle, after "traveled" units along the
+     * path.
+     */
+    private static void setCircleHitDetails(Manifold out, int row, final float targetX,
+            final float targetY, final float targetRadius, final float curX, final float curY,
+            final float dirX, final float dirY, final float traveled, final float radius) {
+        float circleX = curX + dirX * traveled;
+        float circleY = curY + dirY * traveled;
+        float normalX = circleX - targetX;
+        float normalY = circleY - targetY;
+        float length = (float) Math.sqrt(normalX * normalX + normalY * normalY);
+        if (length > 0.0f) {
+            normalX /= length;
+            normalY /= length;
+        } else {
+            // Dead center.  Any direction is as good as another; back out the way we came.
+            normalX = -dirX;
+            normalY = -dirY;
+        }
+
+        // Nonzero only if we started out overlapping.
+        float overlap = Math.max(targetRadius + radius - length, 0.0f);
+        out.set(row, traveled, HIT_FACE_ROUND, normalX * overlap, normalY * overlap,
+                normalX, normalY);
+    }
+}
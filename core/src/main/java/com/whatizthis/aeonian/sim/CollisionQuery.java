@@ -0,0 +1,122 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * Scratch state for the collision tests in one step: the balls an enemy might hit, and the
+ * manifold describing what it did hit.
+ * <p>
+ * The collision system owns a single instance and reuses it for every enemy.  The candidate
+ * buffer is a plain int[] with a fixed capacity, set by reserve() at the start of the step to
+ * the most candidates there could possibly be (one per ball).  A query can't overflow it, and
+ * as long as the ball pool doesn't grow, nothing here allocates.
+ * <p>
+ * It also counts candidates over the step, which is a cheap way to see how well the broad
+ * phase is doing.
+ */
+public class CollisionQuery {
+    /*
+     * Results used to live in fields on each object (and later on Collision), and candidates
+     * in a list that was recreated after every hit and never cleared on a miss.  Nothing had
+     * a clear lifetime.  Here the lifetimes are explicit: beginStep() starts a step, clear()
+     * starts a query, and everything is overwritten in place.
+     */
+
+    private int[] mCandidates = new int[0];
+    private int mCandidateCount;
+    private final Manifold mManifold = new Manifold();
+
+    // Per-step statistics.
+    private int mCandidateTotal;
+    private int mMaxCandidates;
+
+    /**
+     * Makes room for "capacity" candidates.  Call at the start of each step with the size of
+     * the ball pool; this only allocates if the pool has grown.
+     */
+    public void reserve(int capacity) {
+        if (mCandidates.length < capacity) {
+            mCandidates = new int[capacity];
+        }
+    }
+
+    /**
+     * Resets the statistics.  Call at the start of each step.
+     */
+    public void beginStep() {
+        mCandidateTotal = 0;
+        mMaxCandidates = 0;
+        clear();
+    }
+
+    /**
+     * Empties the candidate list and the manifold.  Call before each coarse pass; rows from
+     * an earlier pass may no longer refer to the same ball.
+     */
+    public void clear() {
+        mCandidateCount = 0;
+        mManifold.clear();
+    }
+
+    /**
+     * Adds a ball to the list of possible collisions.
+     */
+    public void add(int row) {
+        if (mCandidateCount == mCandidates.length) {
+            throw new RuntimeException("candidate buffer full (" + mCandidates.length
+                    + "); reserve() wasn't called with the pool size");
+        }
+        mCandidates[mCandidateCount++] = row;
+        mCandidateTotal++;
+        if (mCandidateCount > mMaxCandidates) {
+            mMaxCandidates = mCandidateCount;
+        }
+    }
+
+    /**
+     * Drops the candidates whose entry in "gone" is set, keeping the rest in order.  They've
+     * already been counted in the statistics, and stay counted.
+     */
+    public void removeGone(boolean[] gone) {
+        int[] candidates = mCandidates;
+        int kept = 0;
+        for (int c = 0; c < mCandidateCount; c++) {
+            int row = candidates[c];
+            if (!gone[row]) {
+                candidates[kept++] = row;
+            }
+        }
+        mCandidateCount = kept;
+    }
+
+    public int getCandidateCount() {
+        return mCandidateCount;
+    }
+
+    /**
+     * Returns the candidate buffer.  Only the first getCandidateCount() entries are
+     * meaningful.
+     */
+    public int[] getCandidates() {
+        return mCandidates;
+    }
+
+    /**
+     * Returns the result of the last narrow-phase test.
+     */
+    public Manifold getManifold() {
+        return mManifold;
+    }
+
+    /**
+     * Returns the number of candidates found this step, summed over all queries.
+     */
+    public int getCandidateTotal() {
+        return mCandidateTotal;
+    }
+
+    /**
+     * Returns the most candidates any one query found this step.
+     */
+    public int getMaxCandidates() {
+        return mMaxCandidates;
+    }
+}
@@ -0,0 +1,365 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.GameSystem;
+import com.whatizthis.aeonian.ecs.World;
+import com.whatizthis.aeonian.factories.BallFactory;
+import com.whatizthis.aeonian.factories.EnemyFactory;
+
+/**
+ * Checks each enemy's path over the last step against the balls and the player.
+ * <p>
+ * The movement system has already moved everything, so an enemy's path is the segment from
+ * its previous position to its current one.  Balls are treated as standing still while we do
+ * this; they've already moved for this step.
+ * <p>
+ * Balls near an enemy's path are found through a BroadPhase, which is brought up to date at
+ * the start of each step.
+ * <p>
+ * An enemy that hits a ball is destroyed along with the ball.  An enemy that reaches the
+ * player ends the game.  Either way we just record what happened; the scoring system decides
+ * what it means.
+ * <p>
+ * Nothing is removed until every enemy has been looked at.  We go through the enemies in row
+ * order, marking the ones that hit something and the balls they hit, and then remove all of
+ * them at the end.  A ball that's already been claimed is skipped by the enemies after it.
+ * <p>
+ * When there are a lot of enemies and balls, the looking is handed to a ParallelCollisionPass
+ * and spread over the other cores.  The acting stays here, on one thread, and goes the same
+ * way, so a step plays out the same whichever way it was done.
+ * <p>
+ * Alternatively, a KineticScheduler can do the whole job by predicting collisions instead of
+ * testing for them (see setKinetic()).
+ */
+class CollisionSystem extends GameSystem {
+    /**
+     * Steps with at least this many (enemy, ball) pairs go parallel.  Below this, handing
+     * the work to other threads costs more than it saves.
+     */
+    static final long DEFAULT_PARALLEL_PAIRS = 100000;
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final Simulation mSim;
+    private final Archetype mBalls;
+    private final Archetype mEnemies;
+    private final Archetype mPlayer;
+    private final CollisionQuery mQuery = new CollisionQuery();
+    private BroadPhase mBroadPhase = new SpatialHash();
+
+    private long mParallelPairs = DEFAULT_PARALLEL_PAIRS;
+    private int mParallelism = PARALLELISM;
+    private boolean mWasParallel;
+    private ParallelCollisionPass mParallelPass;        // created on first use, or after release()
+    private boolean[] mBallGone = new boolean[0];
+    private boolean[] mEnemyGone = new boolean[0];
+
+    private KineticScheduler mKinetic;      // null unless enabled
+
+    CollisionSystem(Simulation sim, Archetype balls, Archetype enemies, Archetype player) {
+        super("collision");
+        mSim = sim;
+        mBalls = balls;
+        mEnemies = enemies;
+        mPlayer = player;
+    }
+
+    BroadPhase getBroadPhase() {
+        return mBroadPhase;
+    }
+
+    void setBroadPhase(BroadPhase broadPhase) {
+        mBroadPhase = broadPhase;
+    }
+
+    /**
+     * Sets how many (enemy, ball) pairs a step needs before we go parallel.  0 always does,
+     * Long.MAX_VALUE never does.  Ignored on single-core devices (see setParallelism()).
+     */
+    void setParallelPairs(long pairs) {
+        mParallelPairs = pairs;
+    }
+
+    /**
+     * Sets how many threads the parallel pass uses.  Defaults to the number of cores; 1 never
+     * goes parallel.  Tests use this to try the parallel pass on machines with one core.
+     */
+    void setParallelism(int threads) {
+        if (threads != mParallelism) {
+            release();
+            mParallelism = threads;
+        }
+    }
+
+    /**
+     * Switches between testing for collisions every step and predicting them with a
+     * KineticScheduler.  The scheduler also takes over from the scoring system's
+     * out-of-bounds sweep, so the caller needs to turn that off.
+     */
+    void setKinetic(boolean kinetic) {
+        if (kinetic && mKinetic == null) {
+            mKinetic = new KineticScheduler(mSim, mBalls, mEnemies, mPlayer);
+        } else if (!kinetic) {
+            mKinetic = null;
+        }
+    }
+
+    KineticScheduler getKinetic() {
+        return mKinetic;
+    }
+
+    /**
+     * Forgets anything carried over from earlier steps.  Call when the entities have been
+     * changed outside of the step, e.g. on a reset.
+     */
+    void reset() {
+        if (mKinetic != null) {
+            mKinetic.resync();
+        }
+    }
+
+    /**
+     * Shuts down the parallel pass's worker threads, if it has any.  They're started again
+     * if a later step needs them.
+     */
+    void release() {
+        if (mParallelPass != null) {
+            mParallelPass.shutdown();
+            mParallelPass = null;
+        }
+    }
+
+    /**
+     * Returns the number of balls the broad phase turned up in the last step, over all
+     * enemies.  Parallel steps don't use the broad phase, but find the same balls and count
+     * those, along with any second looks for enemies whose ball was taken.  Kinetic steps
+     * report 0.
+     */
+    int getCandidateTotal() {
+        int total = mQuery.getCandidateTotal();
+        if (mWasParallel && mParallelPass != null) {
+            total += mParallelPass.getCandidateTotal();
+        }
+        return total;
+    }
+
+    @Override
+    public void update(World world, double deltaSec) {
+        Archetype enemies = mEnemies;
+        Archetype balls = mBalls;
+        CollisionQuery query = mQuery;
+        query.reserve(balls.getCapacity());
+        query.beginStep();
+
+        if (mKinetic != null) {
+            mWasParallel = false;
+            mKinetic.update(deltaSec);
+            return;
+        }
+
+        mWasParallel = mParallelism > 1
+                && (long) enemies.size() * balls.size() >= mParallelPairs;
+        if (mWasParallel) {
+            updateParallel(deltaSec);
+            return;
+        }
+
+        boolean havePlayer = mPlayer.size() > 0;
+        float playerX = 0.0f, playerY = 0.0f, playerRadius = 0.0f;
+        if (havePlayer) {
+            playerX = mPlayer.column(Components.X)[0];
+            playerY = mPlayer.column(Components.Y)[0];
+            playerRadius = mPlayer.column(Components.RADIUS)[0];
+        }
+
+        float[] enemyX = enemies.column(Components.X);
+        float[] enemyY = enemies.column(Components.Y);
+        float[] enemyPrevX = enemies.column(Components.PREV_X);
+        float[] enemyPrevY = enemies.column(Components.PREV_Y);
+        float[] enemyDirX = enemies.column(Components.DIR_X);
+        float[] enemyDirY = enemies.column(Components.DIR_Y);
+        float[] enemySpeed = enemies.column(Components.SPEED);
+        float[] enemyRadius = enemies.column(Components.RADIUS);
+
+        BroadPhase broadPhase = mBroadPhase;
+        broadPhase.update(balls, deltaSec);
+
+        int ballCount = balls.size();
+        int enemyCount = enemies.size();
+        clearMarks(ballCount, enemyCount);
+        boolean[] ballGone = mBallGone;
+        boolean[] enemyGone = mEnemyGone;
+        boolean playerHit = false;
+
+        for (int i = 0; i < enemyCount; i++) {
+            float radius = enemyRadius[i];
+            float distance = (float) (enemySpeed[i] * deltaSec);
+            float curX = enemyPrevX[i];
+            float curY = enemyPrevY[i];
+            float dirX = enemyDirX[i];
+            float dirY = enemyDirY[i];
+            float finalX = enemyX[i];
+            float finalY = enemyY[i];
+            float left, right, top, bottom;
+
+            /*
+             * Find the edges of the rectangle described by the enemy's start and end position.
+             * The (x,y) values identify the center, so factor in the radius too.
+             *
+             * Per GL conventions, values get larger moving toward the top-right corner.
+             */
+            if (curX < finalX) {
+                left = curX - radius;
+                right = finalX + radius;
+            } else {
+                left = finalX - radius;
+                right = curX + radius;
+            }
+            if (curY < finalY) {
+                bottom = curY - radius;
+                top = finalY + radius;
+            } else {
+                bottom = finalY - radius;
+                top = curY + radius;
+            }
+
+            // test for player hit
+            if (havePlayer
+                    && Collision.checkCoarseCollision(playerX, playerY, playerRadius * 2,
+                            playerRadius * 2, left, right, bottom, top)
+                    && Collision.collidedWith(query.getManifold(), mPlayer, 0, curX, curY,
+                            dirX, dirY, distance, radius)) {
+                // Game over; nothing after this gets looked at.
+                playerHit = true;
+                break;
+            }
+
+            // test for balls
+            query.clear();
+            int hits = broadPhase.query(left, right, bottom, top, query);
+
+            if (hits != 0) {
+                // may have hit something, look closer, at the balls nobody's claimed yet
+                query.removeGone(ballGone);
+                int hit = Collision.findFirstCollision(query, balls, curX, curY, dirX, dirY,
+                        distance, radius);
+                if (hit >= 0) {
+                    /*
+                     * The enemy and the ball are both gone.  We used to move along the rest
+                     * of the path after a hit, which could hit a second ball and remove the
+                     * enemy twice; there's nothing left to move, so we're done with it.
+                     */
+                    ballGone[hit] = true;
+                    enemyGone[i] = true;
+                    mSim.recordEnemyDestroyed();
+                    // TODO display explosion animation
+                }
+            }
+        }
+
+        removeMarked(ballCount, enemyCount, broadPhase);
+        if (playerHit) {
+            mSim.recordPlayerHit();
+        }
+    }
+
+    /**
+     * Does the step with the detection spread over several threads.
+     * <p>
+     * Every enemy's result is worked out against the balls as they were at the start of the
+     * step.  We then go through the enemies in row order, as the serial loop does, and
+     * decide what actually happens.  The only thing that can differ is when two enemies want
+     * the same ball: the first one gets it, and the second looks again among the balls that
+     * are left, which is what the serial loop would have found for it.  The candidates come
+     * in a different order than the broad phase gives them, but findFirstCollision() settles
+     * ties by row, so that doesn't matter.  The results don't depend on which thread did
+     * what, and match the serial loop's.
+     */
+    private void updateParallel(double deltaSec) {
+        Archetype balls = mBalls;
+        Archetype enemies = mEnemies;
+        int ballCount = balls.size();
+        int enemyCount = enemies.size();
+
+        if (mParallelPass == null) {
+            mParallelPass = new ParallelCollisionPass(mParallelism);
+        }
+        ParallelCollisionPass pass = mParallelPass;
+        pass.detect(balls, enemies, mPlayer, deltaSec);
+        int[] hitBall = pass.getHitBalls();
+        boolean[] hitPlayer = pass.getHitPlayer();
+
+        clearMarks(ballCount, enemyCount);
+        boolean[] ballGone = mBallGone;
+        boolean[] enemyGone = mEnemyGone;
+
+        boolean playerHit = false;
+        for (int i = 0; i < enemyCount; i++) {
+            if (hitPlayer[i]) {
+                // Like the serial loop, nothing after this gets looked at.
+                playerHit = true;
+                break;
+            }
+            int hit = hitBall[i];
+            if (hit >= 0 && ballGone[hit]) {
+                hit = pass.findFirstRemaining(i, balls, enemies, deltaSec, ballGone, mQuery);
+            }
+            if (hit >= 0) {
+                ballGone[hit] = true;
+                enemyGone[i] = true;
+                mSim.recordEnemyDestroyed();
+            }
+        }
+
+        // The broad phase wasn't used this step, so it doesn't need telling about these.  It
+        // gets brought up to date at the start of the next serial step.
+        removeMarked(ballCount, enemyCount, null);
+        if (playerHit) {
+            mSim.recordPlayerHit();
+        }
+    }
+
+    /**
+     * Makes sure there's a mark for every ball and enemy, and clears them.
+     */
+    private void clearMarks(int ballCount, int enemyCount) {
+        if (mBallGone.length < mBalls.getCapacity()) {
+            mBallGone = new boolean[mBalls.getCapacity()];
+        }
+        if (mEnemyGone.length < mEnemies.getCapacity()) {
+            mEnemyGone = new boolean[mEnemies.getCapacity()];
+        }
+        for (int i = 0; i < ballCount; i++) {
+            mBallGone[i] = false;
+        }
+        for (int i = 0; i < enemyCount; i++) {
+            mEnemyGone[i] = false;
+        }
+    }
+
+    /**
+     * Removes the balls and enemies marked as gone, from the highest row down.  Each remove
+     * swaps the last row in, and that row is always one we're keeping, so the rows still to
+     * be removed stay where they were.  If "broadPhase" isn't null it's kept in step.
+     */
+    private void removeMarked(int ballCount, int enemyCount, BroadPhase broadPhase) {
+        Archetype balls = mBalls;
+        Archetype enemies = mEnemies;
+        boolean[] ballGone = mBallGone;
+        boolean[] enemyGone = mEnemyGone;
+        for (int i = ballCount - 1; i >= 0; i--) {
+            if (ballGone[i]) {
+                if (broadPhase != null) {
+                    broadPhase.remove(i, balls.size() - 1);
+                }
+                BallFactory.release(balls, i);
+            }
+        }
+        for (int i = enemyCount - 1; i >= 0; i--) {
+            if (enemyGone[i]) {
+                EnemyFactory.release(enemies, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * A priority queue of predicted events, earliest first.
+ * <p>
+ * An event is a time, a type, and up to two entity handles, each an (id, generation) pair
+ * (see KineticScheduler).  The queue doesn't know what any of it means.  Events that tie on
+ * time come out in the order they were added, so the order never depends on anything but
+ * the order of the add() calls.
+ * <p>
+ * Events live in parallel arrays, indexed by slot, and the heap is an array of slot numbers,
+ * so sifting moves one int rather than a whole event.  Released slots are reused, and the
+ * arrays only grow, so a queue that has reached its working size doesn't allocate.
+ */
+class EventQueue {
+    // Per slot.
+    private double[] mTime = new double[0];
+    private long[] mSeq = new long[0];
+    private int[] mType = new int[0];
+    private int[] mA = new int[0];
+    private int[] mAGen = new int[0];
+    private int[] mB = new int[0];
+    private int[] mBGen = new int[0];
+
+    private int[] mHeap = new int[0];
+    private int mSize;
+    private int[] mFreeSlots = new int[0];
+    private int mFreeCount;
+    private int mSlotCount;
+    private long mNextSeq;
+
+    // The event most recently removed by pop().
+    private double mPoppedTime;
+    private int mPoppedType, mPoppedA, mPoppedAGen, mPoppedB, mPoppedBGen;
+
+    /**
+     * Adds an event.
+     */
+    void add(double time, int type, int a, int aGen, int b, int bGen) {
+        int slot;
+        if (mFreeCount > 0) {
+            slot = mFreeSlots[--mFreeCount];
+        } else {
+            if (mSlotCount == mTime.length) {
+                grow(Math.max(64, mSlotCount * 2));
+            }
+            slot = mSlotCount++;
+        }
+        mTime[slot] = time;
+        mSeq[slot] = mNextSeq++;
+        mType[slot] = type;
+        mA[slot] = a;
+        mAGen[slot] = aGen;
+        mB[slot] = b;
+        mBGen[slot] = bGen;
+
+        mHeap[mSize] = slot;
+        siftUp(mSize++);
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the time of the earliest event.  The queue must not be empty.
+     */
+    double peekTime() {
+        return mTime[mHeap[0]];
+    }
+
+    /**
+     * Removes the earliest event.  Its contents are available from the getPopped*() methods
+     * until the next pop().  The queue must not be empty.
+     */
+    void pop() {
+        int slot = mHeap[0];
+        mPoppedTime = mTime[slot];
+        mPoppedType = mType[slot];
+        mPoppedA = mA[slot];
+        mPoppedAGen = mAGen[slot];
+        mPoppedB = mB[slot];
+        mPoppedBGen = mBGen[slot];
+        mFreeSlots[mFreeCount++] = slot;
+
+        if (--mSize > 0) {
+            mHeap[0] = mHeap[mSize];
+            siftDown(0);
+        }
+    }
+
+    double getPoppedTime() {
+        return mPoppedTime;
+    }
+
+    int getPoppedType() {
+        return mPoppedType;
+    }
+
+    int getPoppedA() {
+        return mPoppedA;
+    }
+
+    int getPoppedAGen() {
+        return mPoppedAGen;
+    }
+
+    int getPoppedB() {
+        return mPoppedB;
+    }
+
+    int getPoppedBGen() {
+        return mPoppedBGen;
+    }
+
+    /**
+     * Drops every event.  Keeps the storage.
+     */
+    void clear() {
+        mSize = 0;
+        mFreeCount = 0;
+        mSlotCount = 0;
+    }
+
+    private boolean earlier(int slotA, int slotB) {
+        double timeA = mTime[slotA];
+        double timeB = mTime[slotB];
+        return timeA < timeB || (timeA == timeB && mSeq[slotA] < mSeq[slotB]);
+    }
+
+    private void siftUp(int pos) {
+        int[] heap = mHeap;
+        int slot = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >> 1;
+            if (!earlier(slot, heap[parent])) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = slot;
+    }
+
+    private void siftDown(int pos) {
+        int[] heap = mHeap;
+        int size = mSize;
+        int slot = heap[pos];
+        while (true) {
+            int child = pos * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && earlier(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!earlier(heap[child], slot)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = slot;
+    }
+
+    private void grow(int capacity) {
+        mTime = copyOf(mTime, capacity);
+        mSeq = copyOf(mSeq, capacity);
+        mType = copyOf(mType, capacity);
+        mA = copyOf(mA, capacity);
+        mAGen = copyOf(mAGen, capacity);
+        mB = copyOf(mB, capacity);
+        mBGen = copyOf(mBGen, capacity);
+        mHeap = copyOf(mHeap, capacity);
+        mFreeSlots = copyOf(mFreeSlots, capacity);
+    }
+
+    private static double[] copyOf(double[] array, int length) {
+        double[] grown = new double[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] grown = new long[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] grown = new int[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,152 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * Turns touches into shots.
+ * <p>
+ * A finger going down fires right away.  If it stays down, it keeps firing every
+ * HOLD_FIRE_INTERVAL_NSEC at wherever it is now, so the player can sweep a stream of shots
+ * across the screen.  Every pointer does this on its own, so two thumbs fire twice as much.
+ * <p>
+ * Touch panels can report a couple of hundred samples a second per finger, and Android
+ * hands us the ones between frames as history; we're given all of them, with timestamps.
+ * Moves only update the aim, and a held finger fires on its own schedule rather than per
+ * sample, so a fast panel doesn't mean more shots -- just better aim and better timing.
+ * <p>
+ * Shots wait in a small queue, and at most a few leave it per frame (see
+ * Simulation.setMaxShotsPerFrame()), so even a pile of fingers can't flood a frame with
+ * spawns.  If the queue overflows, the newest shots are dropped.
+ * <p>
+ * Touch timestamps are real time, in System.nanoTime() terms, not simulated time, so the
+ * hold timer runs on real time too.  That doesn't cost us determinism: the shots that come
+ * out are what the InputRecorder writes down.
+ * <p>
+ * A tap's shot carries the tap's time along with it, so InputLatency can time it.
+ */
+class FireControl {
+    static final long HOLD_FIRE_INTERVAL_NSEC = 150000000L;
+
+    // Pointer IDs are small, and reused as fingers come and go.  Any past this are ignored.
+    private static final int MAX_POINTERS = 16;
+    private static final int QUEUE_SIZE = 32;
+
+    private final boolean[] mHeld = new boolean[MAX_POINTERS];
+    private final float[] mAimX = new float[MAX_POINTERS];
+    private final float[] mAimY = new float[MAX_POINTERS];
+    private final long[] mNextFireNsec = new long[MAX_POINTERS];
+
+    // Shots waiting to go, as a ring.  Shots from taps have the tap time; the rest have 0.
+    private final float[] mQueueX = new float[QUEUE_SIZE];
+    private final float[] mQueueY = new float[QUEUE_SIZE];
+    private final long[] mQueueTapNsec = new long[QUEUE_SIZE];
+    private int mQueueHead;
+    private int mQueueCount;
+    private long mDropped;
+
+    /**
+     * Takes one touch sample.  See TouchRing for the actions.
+     */
+    void onTouch(int action, float x, float y, long whenNsec, int pointerId) {
+        if (action == TouchRing.ACTION_CANCEL) {
+            // The gesture was taken away from us.  Let go of everything.
+            for (int i = 0; i < MAX_POINTERS; i++) {
+                mHeld[i] = false;
+            }
+            return;
+        }
+        if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+            return;
+        }
+
+        switch (action) {
+            case TouchRing.ACTION_DOWN:
+                enqueue(x, y, whenNsec);
+                mHeld[pointerId] = true;
+                mAimX[pointerId] = x;
+                mAimY[pointerId] = y;
+                mNextFireNsec[pointerId] = whenNsec + HOLD_FIRE_INTERVAL_NSEC;
+                break;
+            case TouchRing.ACTION_MOVE:
+            case TouchRing.ACTION_UP:
+                if (!mHeld[pointerId]) {
+                    break;
+                }
+                mAimX[pointerId] = x;
+                mAimY[pointerId] = y;
+                fireIfDue(pointerId, whenNsec);
+                if (action == TouchRing.ACTION_UP) {
+                    mHeld[pointerId] = false;
+                }
+                break;
+            default:
+                throw new RuntimeException("bad touch action " + action);
+        }
+    }
+
+    /**
+     * Fires for fingers that are being held still, which send us nothing.  Call once per
+     * frame, after the touches have been taken.
+     */
+    void update(long nowNsec) {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (mHeld[i]) {
+                fireIfDue(i, nowNsec);
+            }
+        }
+    }
+
+    /**
+     * Hands up to "max" queued shots to the simulation.
+     */
+    void fire(Simulation sim, int max) {
+        int count = Math.min(mQueueCount, max);
+        for (int i = 0; i < count; i++) {
+            int slot = (mQueueHead + i) % QUEUE_SIZE;
+            sim.allocBall(mQueueX[slot], mQueueY[slot], mQueueTapNsec[slot]);
+        }
+        mQueueHead = (mQueueHead + count) % QUEUE_SIZE;
+        mQueueCount -= count;
+    }
+
+    /**
+     * Forgets all fingers and queued shots.
+     */
+    void clear() {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            mHeld[i] = false;
+        }
+        mQueueCount = 0;
+    }
+
+    /**
+     * Returns the number of shots dropped because the queue was full.
+     */
+    long getDropped() {
+        return mDropped;
+    }
+
+    private void fireIfDue(int pointerId, long nowNsec) {
+        long nextNsec = mNextFireNsec[pointerId];
+        if (nowNsec - nextNsec < 0) {
+            return;
+        }
+        enqueue(mAimX[pointerId], mAimY[pointerId], 0);
+        nextNsec += HOLD_FIRE_INTERVAL_NSEC;
+        if (nowNsec - nextNsec >= 0) {
+            // We were held up (e.g. paused).  Don't try to make up the missed shots.
+            nextNsec = nowNsec + HOLD_FIRE_INTERVAL_NSEC;
+        }
+        mNextFireNsec[pointerId] = nextNsec;
+    }
+
+    private void enqueue(float x, float y, long tapNsec) {
+        if (mQueueCount == QUEUE_SIZE) {
+            mDropped++;
+            return;
+        }
+        int slot = (mQueueHead + mQueueCount) % QUEUE_SIZE;
+        mQueueX[slot] = x;
+        mQueueY[slot] = y;
+        mQueueTapNsec[slot] = tapNsec;
+        mQueueCount++;
+    }
+}
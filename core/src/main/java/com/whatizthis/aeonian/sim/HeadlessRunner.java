@@ -0,0 +1,180 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.Schedule;
+import com.whatizthis.aeonian.ecs.World;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Runs the simulation on a plain JVM, with no display, as fast as it will go.
+ * <p>
+ * Each frame advances a ManualClock by a fixed amount, so the simulation behaves as if it were
+ * running on a 60fps device no matter how quickly we actually get through the frames.  This
+ * is meant for profiling and benchmarking the frame loop; hook a profiler up to the JVM and
+ * let it run.
+ * <p>
+ * Usage: HeadlessRunner [frames] [enemies-per-second] [balls-per-second] [broad-phases]
+ *     [parallel-pairs] [record-file]
+ * <p>
+ * broad-phases is a comma-separated list of "brute", "hash", "tree" and "kinetic" (which
+ * isn't a broad phase, but predicts collisions instead; see KineticScheduler).  The run is
+ * split into equal parts and the broad phase switched at each boundary, so e.g. "brute,tree"
+ * compares the two on the same game.  Collision timing is printed for each part.
+ * <p>
+ * parallel-pairs is passed to Simulation.setParallelCollisionPairs(); use 0 to always run
+ * collision detection in parallel, or a huge number to never do it.
+ * <p>
+ * If record-file is given, the inputs are written there (see InputRecorder), and ReplayRunner
+ * can play the same games again.
+ */
+public class HeadlessRunner {
+    private static final long FRAME_NSEC = 1000000000L / 60;
+
+    public static void main(String[] args) throws IOException {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int enemiesPerSec = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int ballsPerSec = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        String[] broadPhases = (args.length > 3 ? args[3] : "hash").split(",");
+        long parallelPairs = args.length > 4 ? Long.parseLong(args[4])
+                : CollisionSystem.DEFAULT_PARALLEL_PAIRS;
+        String recordPath = args.length > 5 ? args[5] : null;
+
+        Arena.setDimensions(1080, 1920);
+
+        ManualClock clock = new ManualClock();
+        Simulation sim = new Simulation(clock, Logger.SILENT);
+        sim.setSeed(1);
+        sim.setParallelCollisionPairs(parallelPairs);
+        InputRecorder recorder = null;
+        if (recordPath != null) {
+            recorder = new InputRecorder(sim.getStepNsec());
+            sim.setInputRecorder(recorder);
+        }
+        sim.reset();
+        sim.allocPlayer();
+
+        // Fixed seeds, here and above, so every run does exactly the same work.
+        Random random = new Random(1);
+        float enemyCredit = 0.0f;
+        float ballCredit = 0.0f;
+        int restarts = 0;
+
+        Schedule schedule = sim.getStepSchedule();
+        int collisionIndex = findSystem(schedule, "collision");
+        int partFrames = Math.max(frameCount / broadPhases.length, 1);
+        int part = 0;
+
+        long startNsec = System.nanoTime();
+        for (int frame = 0; frame < frameCount; frame++) {
+            if (frame % partFrames == 0 && part < broadPhases.length) {
+                if (part > 0) {
+                    printCollisionTiming(sim, schedule, collisionIndex);
+                }
+                String name = broadPhases[part++];
+                sim.setKineticCollisions(name.equals("kinetic"));
+                if (!sim.isKineticCollisions()) {
+                    sim.setBroadPhase(createBroadPhase(name));
+                }
+                schedule.resetTiming();
+            }
+
+            enemyCredit += enemiesPerSec / 60.0f;
+            while (enemyCredit >= 1.0f) {
+                sim.allocEnemy();
+                enemyCredit -= 1.0f;
+            }
+
+            // Shoot at a random enemy if there is one, otherwise at a random spot.
+            ballCredit += ballsPerSec / 60.0f;
+            while (ballCredit >= 1.0f) {
+                Archetype enemies = sim.getEnemies();
+                int enemyCount = enemies.size();
+                if (enemyCount > 0) {
+                    int target = random.nextInt(enemyCount);
+                    sim.allocBall(enemies.column(Components.X)[target],
+                            enemies.column(Components.Y)[target]);
+                } else {
+                    sim.allocBall(random.nextFloat() * Arena.WIDTH,
+                            random.nextFloat() * Arena.HEIGHT);
+                }
+                ballCredit -= 1.0f;
+            }
+
+            clock.advance(FRAME_NSEC);
+            sim.calculateNextFrame();
+
+            if (!sim.isAnimating()) {
+                // Somebody reached the player.  Start over; we're here to measure frames,
+                // not to win.
+                sim.reset();
+                restarts++;
+            }
+        }
+        long elapsedNsec = System.nanoTime() - startNsec;
+        sim.release();
+
+        System.out.println(frameCount + " frames in " + (elapsedNsec / 1000000) + " ms ("
+                + (long) (frameCount / (elapsedNsec / 1000000000.0)) + " fps), "
+                + restarts + " restarts, final score " + sim.getScore());
+        printCollisionTiming(sim, schedule, collisionIndex);
+
+        World world = sim.getWorld();
+        for (int i = 0; i < world.getArchetypeCount(); i++) {
+            System.out.println("  " + world.getArchetype(i));
+        }
+
+        for (int i = 0; i < schedule.getSystemCount(); i++) {
+            System.out.println("  " + schedule.getSystem(i).getName() + ": avg "
+                    + schedule.getAverageNanos(i) + " ns, max " + schedule.getMaxNanos(i)
+                    + " ns");
+        }
+
+        if (recorder != null) {
+            OutputStream out = new FileOutputStream(recordPath);
+            try {
+                recorder.writeTo(out);
+            } finally {
+                out.close();
+            }
+            System.out.println("  wrote " + recordPath + ": " + recorder);
+        }
+    }
+
+    private static BroadPhase createBroadPhase(String name) {
+        if (name.equals("brute")) {
+            return new BruteForceBroadPhase();
+        } else if (name.equals("hash")) {
+            return new SpatialHash();
+        } else if (name.equals("tree")) {
+            return new AabbTree();
+        }
+        throw new RuntimeException("unknown broad phase " + name);
+    }
+
+    private static int findSystem(Schedule schedule, String name) {
+        for (int i = 0; i < schedule.getSystemCount(); i++) {
+            if (schedule.getSystem(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new RuntimeException("no system " + name);
+    }
+
+    private static void printCollisionTiming(Simulation sim, Schedule schedule, int index) {
+        BroadPhase broadPhase = sim.getBroadPhase();
+        String name = broadPhase.getName();
+        String detail = broadPhase instanceof AabbTree ? " " + broadPhase : "";
+        if (sim.isKineticCollisions()) {
+            name = "kinetic";
+            detail = " " + ((CollisionSystem) schedule.getSystem(index)).getKinetic();
+        }
+        System.out.println("  " + name + ": collision avg "
+                + schedule.getAverageNanos(index) + " ns, max " + schedule.getMaxNanos(index)
+                + " ns over " + schedule.getRunCount() + " steps" + detail);
+    }
+}
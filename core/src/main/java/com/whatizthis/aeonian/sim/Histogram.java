@@ -0,0 +1,148 @@
+package com.whatizthis.aeonian.sim;
+
+import java.util.Locale;
+
+/**
+ * Counts how often values (typically durations in nanoseconds) fall in each of a fixed set of
+ * buckets, so we can report percentiles without keeping every sample.
+ * <p>
+ * The buckets are log-linear, as in HdrHistogram: each power of two is split into
+ * SUB_BUCKETS equal slices, so a value is known to within about 3% whether it's 50 ns or 50
+ * ms.  Recording is a few shifts and an array increment, and nothing is allocated after
+ * construction, so it's cheap enough to use on every frame.  The largest value we can place
+ * is around a minute; anything bigger lands in the top bucket, though getMax() still has it
+ * exactly.
+ * <p>
+ * Not thread-safe.  One thread records; reading from another thread gets numbers that may
+ * be a sample or two out of date, which is fine for display but not much else.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values below 2^HIGHEST_BIT (~68 seconds, in nanoseconds) are bucketed as described.  The
+    // last slice below that doubles as the catch-all for anything bigger.
+    private static final int HIGHEST_BIT = 36;
+    private static final int BUCKET_COUNT = (HIGHEST_BIT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mTotal;
+    private long mMax;
+
+    /**
+     * Adds one value.  Negative values are counted as zero.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[indexOf(value)]++;
+        mCount++;
+        mTotal += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        long[] counts = mCounts;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        mCount = 0;
+        mTotal = 0;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the sum of everything recorded.  Handy for averaging over a window: take the
+     * difference in total and count between two reads.
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mCount == 0 ? 0 : mTotal / mCount;
+    }
+
+    /**
+     * Returns the value that "percentile" percent (0-100) of the recorded values are at or
+     * below, to within the precision of the buckets.  Returns 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile / 100.0 * mCount);
+        if (target < 1) {
+            target = 1;
+        }
+        long[] counts = mCounts;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                // Report the top of the bucket, but never more than we've actually seen.  The
+                // top bucket has no top; it holds everything too big for the others.
+                if (i == counts.length - 1) {
+                    return mMax;
+                }
+                return Math.min(highestValueAt(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Returns "p50 a p95 b p99 c max d" with the values in milliseconds, for logging.
+     */
+    public String getSummaryMsec() {
+        return "p50 " + toMsec(getPercentile(50)) + " p95 " + toMsec(getPercentile(95))
+                + " p99 " + toMsec(getPercentile(99)) + " max " + toMsec(mMax);
+    }
+
+    @Override
+    public String toString() {
+        return "count " + mCount + ", " + getSummaryMsec() + " ms";
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket apiece.  Above that, a value whose top bit is
+     * bit n goes in one of the SUB_BUCKETS buckets for [2^n, 2^(n+1)), chosen by the next
+     * SUB_BUCKET_BITS bits down.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int index = (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static String toMsec(long nsec) {
+        return String.format(Locale.US, "%.2f", nsec / 1000000.0);
+    }
+}
@@ -0,0 +1,141 @@
+package com.whatizthis.aeonian.sim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long it takes from a tap to the ball it fires showing up on screen.
+ * <p>
+ * Each tap carries the time the touch panel saw it (the MotionEvent's event time).  That
+ * follows the shot through the TouchRing, the FireControl and the spawn queue to the step
+ * that creates the ball, where the time it was created is noted alongside.  Snapshots carry
+ * a count of the tapped balls created so far, so once the renderer has drawn a snapshot it
+ * knows which balls have just made it to the screen, and can work out how long each took.
+ * <p>
+ * We split the time in two: "to sim" runs from the tap to the ball being created, and covers
+ * Android delivering the event, the UI thread handing it over, and the simulation getting
+ * around to it; "to screen" runs from there to the end of the first frame that drew it,
+ * which is snapshot hand-off plus rendering.  The real photons come a frame or two after
+ * that, once the buffer swap and the compositor are done, which we can't see from here.
+ * <p>
+ * Only taps are measured.  Balls fired by a finger being held down, or by recorded input,
+ * have no tap to measure from.
+ * <p>
+ * The simulation thread hands the times over through a ring, much like TouchRing; if the
+ * renderer falls far behind, shots are left unmeasured rather than waiting.  Everything else
+ * belongs to the renderer thread, which keeps a Histogram per stage.
+ */
+public class InputLatency {
+    public static final int STAGE_TO_SIM = 0;
+    public static final int STAGE_TO_SCREEN = 1;
+    public static final int STAGE_TOTAL = 2;
+    public static final int STAGE_COUNT = 3;
+    private static final String[] STAGE_NAMES = { "to sim", "to screen", "total" };
+
+    // Shots created but not yet drawn.  This is a lot of taps for one frame.
+    private static final int IN_FLIGHT = 128;
+
+    // Written by the simulation thread.
+    private final long[] mTapNsec = new long[IN_FLIGHT];
+    private final long[] mCreatedNsec = new long[IN_FLIGHT];
+    private final AtomicLong mCreated = new AtomicLong();
+    private long mUnmeasured;
+
+    // Owned by the renderer thread.
+    private final AtomicLong mDrawn = new AtomicLong();
+    private final Histogram[] mStages = { new Histogram(), new Histogram(), new Histogram() };
+
+    /**
+     * Notes that a ball fired by a tap at "tapNsec" was created at "createdNsec".  Simulation
+     * thread only.
+     */
+    void shotCreated(long tapNsec, long createdNsec) {
+        long created = mCreated.get();
+        if (created - mDrawn.get() >= IN_FLIGHT) {
+            mUnmeasured++;
+            return;
+        }
+        int slot = (int) (created % IN_FLIGHT);
+        mTapNsec[slot] = tapNsec;
+        mCreatedNsec[slot] = createdNsec;
+        mCreated.lazySet(created + 1);
+    }
+
+    /**
+     * Returns the number of measured shots created so far, for the snapshot.  Simulation
+     * thread only.
+     */
+    long getCreatedCount() {
+        return mCreated.get();
+    }
+
+    /**
+     * Notes that a frame showing "snap" finished drawing at "drawnNsec".  Any measured shots
+     * it was the first to show are added to the samples.  Renderer thread only.
+     */
+    public void frameDrawn(Snapshot snap, long drawnNsec) {
+        long drawn = mDrawn.get();
+        long visible = snap.getMeasuredShotCount();
+        if (visible == drawn) {
+            return;
+        }
+        for (long i = drawn; i < visible; i++) {
+            int slot = (int) (i % IN_FLIGHT);
+            long tapNsec = mTapNsec[slot];
+            long createdNsec = mCreatedNsec[slot];
+            mStages[STAGE_TO_SIM].record(createdNsec - tapNsec);
+            mStages[STAGE_TO_SCREEN].record(drawnNsec - createdNsec);
+            mStages[STAGE_TOTAL].record(drawnNsec - tapNsec);
+        }
+        // Hands the slots back to the simulation thread.
+        mDrawn.lazySet(visible);
+    }
+
+    /**
+     * Returns the number of taps measured so far.  Renderer thread only.
+     */
+    public long getSampleCount() {
+        return mStages[STAGE_TOTAL].getCount();
+    }
+
+    /**
+     * Returns the number of shots that went unmeasured because the renderer was too far behind.
+     * Not synchronized; only for display.
+     */
+    public long getUnmeasuredCount() {
+        return mUnmeasured;
+    }
+
+    /**
+     * Returns the latencies, in nanoseconds, for one of the STAGE_* stages.  Renderer thread
+     * only.
+     */
+    public Histogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    /**
+     * Forgets the samples collected so far.  Renderer thread only.
+     */
+    public void clearSamples() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i].reset();
+        }
+    }
+
+    /**
+     * Returns a one-line summary, with percentiles in milliseconds.  Renderer thread only.
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("input latency: ").append(getSampleCount()).append(" taps");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            sb.append(", ").append(STAGE_NAMES[stage]).append(' ')
+                    .append(mStages[stage].getSummaryMsec());
+        }
+        sb.append(" ms");
+        if (mUnmeasured != 0) {
+            sb.append(", ").append(mUnmeasured).append(" unmeasured");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package com.whatizthis.aeonian.sim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records everything from outside the simulation that affects how a game plays out, so the
+ * game can be played again later (see InputReplay).
+ * <p>
+ * Given the seed, the game is fully determined by which inputs arrived on which step: the
+ * shots the player fired, and any enemies the host spawned itself.  So that's all we write
+ * down.  The spawn and score timers run on simulated time (see TimerSystem), so they don't
+ * need recording, and positions and such are never recorded either; the replay works them
+ * out again.
+ * <p>
+ * The log is meant to be left running for a whole session, so it's packed tight.  Everything
+ * is a varint (7 bits per byte, low bits first, high bit set on all but the last byte), and
+ * most things are stored as the difference from the one before, which keeps them small:
+ * <pre>
+ *   header:  "AEIN"  version  step-nsec  arena-width  arena-height
+ *   record:  (tick-delta &lt;&lt; 3 | type)  [payload]
+ * </pre>
+ * tick-delta is the number of steps since the previous record in the same game.  The record
+ * types, and what follows them, are:
+ * <pre>
+ *   GAME_START   seed (zigzag)            starts a game; the tick goes back to 0
+ *   SHOT         dx dy (zigzag)           aim point, in 1/16ths, relative to the last shot
+ *   ENEMY        -                        an enemy was spawned between steps
+ *   GAME_END     score                    the player was hit
+ * </pre>
+ * A shot usually takes five to seven bytes, where the raw floats and a timestamp would take
+ * sixteen.
+ * <p>
+ * Aim points are rounded to 1/16th of a pixel before the simulation sees them (see quantize())
+ * whether or not anything is recording, so the recorded game and the live one are the same.
+ * <p>
+ * Everything here happens on the simulation thread, in memory.  The caller writes the log out
+ * with writeTo() while the simulation is stopped.
+ */
+public class InputRecorder {
+    static final int MAGIC = 0x4145494e;        // "AEIN"
+    static final int VERSION = 2;     // 1 also recorded the wall-clock timers
+
+    static final int TYPE_BITS = 3;
+    static final int TYPE_GAME_START = 0;
+    static final int TYPE_SHOT = 1;
+    static final int TYPE_ENEMY = 2;
+    static final int TYPE_GAME_END = 3;
+
+    // Aim points are stored in fixed point, with this many steps per pixel.
+    static final float POSITION_SCALE = 16.0f;
+
+    private byte[] mBuffer = new byte[4096];
+    private int mLength;
+
+    private boolean mInGame;
+    private long mLastTick;
+    private int mLastShotX, mLastShotY;
+    private int mGameCount;
+    private int mRecordCount;
+
+    /**
+     * Creates a recorder for a simulation with the given step length, in the current arena.
+     */
+    public InputRecorder(long stepNsec) {
+        writeInt(MAGIC);
+        writeVarint(VERSION);
+        writeVarint(stepNsec);
+        writeVarint(Math.round(Arena.WIDTH));
+        writeVarint(Math.round(Arena.HEIGHT));
+    }
+
+    /**
+     * Rounds an aim point to the precision we record.
+     */
+    public static float quantize(float value) {
+        return Math.round(value * POSITION_SCALE) / POSITION_SCALE;
+    }
+
+    /**
+     * Starts a new game.  If the previous one never ended, it's left that way; the replay
+     * runs it up to its last input.
+     */
+    void beginGame(long seed) {
+        mInGame = true;
+        mLastTick = 0;
+        mLastShotX = mLastShotY = 0;
+        mGameCount++;
+        writeRecord(0, TYPE_GAME_START);
+        writeVarint(zigzag(seed));
+    }
+
+    /**
+     * Ends the current game, on step "tick".
+     */
+    void endGame(long tick, int score) {
+        if (!mInGame) {
+            return;
+        }
+        writeRecord(tick, TYPE_GAME_END);
+        writeVarint(score);
+        mInGame = false;
+    }
+
+    /**
+     * Notes a shot at (x,y), already quantized, fired on step "tick".
+     */
+    void shot(long tick, float x, float y) {
+        if (!mInGame) {
+            return;
+        }
+        int fixedX = Math.round(x * POSITION_SCALE);
+        int fixedY = Math.round(y * POSITION_SCALE);
+        writeRecord(tick, TYPE_SHOT);
+        writeVarint(zigzag(fixedX - mLastShotX));
+        writeVarint(zigzag(fixedY - mLastShotY));
+        mLastShotX = fixedX;
+        mLastShotY = fixedY;
+    }
+
+    /**
+     * Notes an event with no payload (just ENEMY, for now) on step "tick".
+     */
+    void event(long tick, int type) {
+        if (!mInGame) {
+            return;
+        }
+        writeRecord(tick, type);
+    }
+
+    /**
+     * Returns the number of bytes recorded so far.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Writes the log out.  Don't call while the simulation is running.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mLength);
+    }
+
+    @Override
+    public String toString() {
+        return "InputRecorder[games=" + mGameCount + " records=" + mRecordCount
+                + " bytes=" + mLength + "]";
+    }
+
+    private void writeRecord(long tick, int type) {
+        if (tick < mLastTick) {
+            throw new RuntimeException("input recorded out of order (" + tick + " < "
+                    + mLastTick + ")");
+        }
+        writeVarint((tick - mLastTick) << TYPE_BITS | type);
+        mLastTick = tick;
+        mRecordCount++;
+    }
+
+    private static long zigzag(long value) {
+        // Folds negative values in among the positive ones, so small magnitudes stay short.
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeInt(int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int value) {
+        if (mLength == mBuffer.length) {
+            byte[] grown = new byte[mBuffer.length * 2];
+            System.arraycopy(mBuffer, 0, grown, 0, mLength);
+            mBuffer = grown;
+        }
+        mBuffer[mLength++] = (byte) value;
+    }
+}
@@ -0,0 +1,259 @@
+package com.whatizthis.aeonian.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Plays back a log written by InputRecorder.
+ * <p>
+ * Hand it to Simulation.setInputReplay().  Each reset() then starts the next game in the log,
+ * with that game's seed, and at the start of every step the inputs recorded for that step are
+ * fed back in.  The host shouldn't pass along any touches of its own.
+ * <p>
+ * The log doesn't say which broad phase or collision mode was in use, so use the same ones
+ * the recording was made with.  Anything else should come out exactly the same, which makes
+ * this a handy way to check that a change didn't alter how the game plays (compare the final
+ * scores, see getEndScore()).
+ */
+public class InputReplay {
+    private final byte[] mData;
+    private final long mStepNsec;
+    private final int mArenaWidth;
+    private final int mArenaHeight;
+    private int mPos;
+
+    // The game being played.
+    private boolean mInGame;
+    private long mSeed;
+    private long mNextTick;         // tick of the record at mPos
+    private int mNextType;          // type of the record at mPos, or -1 at the end of the game
+    private int mShotX, mShotY;
+    private long mEndTick;
+    private int mEndScore;
+    private long mLastInputTick;
+
+    /**
+     * Reads a whole log.
+     */
+    public static InputReplay read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int count;
+        while ((count = in.read(buf)) > 0) {
+            bytes.write(buf, 0, count);
+        }
+        return new InputReplay(bytes.toByteArray());
+    }
+
+    public InputReplay(byte[] data) {
+        mData = data;
+        if (data.length < 4 || readInt() != InputRecorder.MAGIC) {
+            throw new RuntimeException("not an input log");
+        }
+        long version = readVarint();
+        if (version != InputRecorder.VERSION) {
+            throw new RuntimeException("unsupported input log version " + version);
+        }
+        mStepNsec = readVarint();
+        mArenaWidth = (int) readVarint();
+        mArenaHeight = (int) readVarint();
+        mNextType = -1;
+    }
+
+    /**
+     * Returns the step length the log was recorded with.  Simulation.setStepRate() needs to
+     * match.
+     */
+    public long getStepNsec() {
+        return mStepNsec;
+    }
+
+    /**
+     * Returns the arena size the log was recorded in.  Arena.setDimensions() needs to match.
+     */
+    public int getArenaWidth() {
+        return mArenaWidth;
+    }
+
+    public int getArenaHeight() {
+        return mArenaHeight;
+    }
+
+    /**
+     * Moves on to the next game in the log.  Returns false if there isn't one.
+     */
+    boolean nextGame() {
+        // Skip whatever's left of the current game.
+        while (mNextType >= 0) {
+            skipRecord();
+        }
+        mInGame = false;
+        if (mPos >= mData.length) {
+            return false;
+        }
+
+        long header = readVarint();
+        if ((header & ((1 << InputRecorder.TYPE_BITS) - 1)) != InputRecorder.TYPE_GAME_START) {
+            throw new RuntimeException("input log corrupt: expected a game start at " + mPos);
+        }
+        mSeed = unzigzag(readVarint());
+        mShotX = mShotY = 0;
+        mNextTick = 0;
+        mInGame = true;
+
+        // Look ahead for the end of the game, so the caller knows how long to run it.
+        int start = mPos;
+        mEndTick = -1;
+        mEndScore = -1;
+        mLastInputTick = 0;
+        readRecordHeader();
+        while (mNextType >= 0) {
+            if (mNextType == InputRecorder.TYPE_GAME_END) {
+                mEndTick = mNextTick;
+            } else {
+                mLastInputTick = mNextTick;
+            }
+            skipRecord();
+        }
+        mPos = start;
+        mNextTick = 0;
+        readRecordHeader();
+        return true;
+    }
+
+    /**
+     * Returns true if we're in the middle of playing back a game.
+     */
+    public boolean isInGame() {
+        return mInGame;
+    }
+
+    /**
+     * Returns the seed of the current game.
+     */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Returns the step on which the current game ended, or -1 if the recording stopped
+     * before it did.
+     */
+    public long getEndTick() {
+        return mEndTick;
+    }
+
+    /**
+     * Returns the final score of the current game as recorded, or -1 if it didn't end.
+     */
+    public int getEndScore() {
+        return mEndScore;
+    }
+
+    /**
+     * Returns the step of the last input in the current game.
+     */
+    public long getLastInputTick() {
+        return mLastInputTick;
+    }
+
+    /**
+     * Feeds in the inputs for step "tick".  Called by the simulation at the start of each
+     * step, before anything else runs.
+     */
+    void apply(Simulation sim, long tick) {
+        if (!mInGame) {
+            return;
+        }
+
+        while (mNextType >= 0 && mNextTick <= tick) {
+            switch (mNextType) {
+                case InputRecorder.TYPE_SHOT:
+                    mShotX += (int) unzigzag(readVarint());
+                    mShotY += (int) unzigzag(readVarint());
+                    sim.allocBall(mShotX / InputRecorder.POSITION_SCALE,
+                            mShotY / InputRecorder.POSITION_SCALE);
+                    break;
+                case InputRecorder.TYPE_ENEMY:
+                    sim.allocEnemy();
+                    break;
+                case InputRecorder.TYPE_GAME_END:
+                    readVarint();       // the score, which we already have
+                    break;
+                default:
+                    throw new RuntimeException("input log corrupt: type " + mNextType);
+            }
+            readRecordHeader();
+        }
+    }
+
+    /**
+     * Reads the type and tick of the next record, or notes the end of the game if there isn't
+     * one.
+     */
+    private void readRecordHeader() {
+        if (mPos >= mData.length) {
+            mNextType = -1;
+            return;
+        }
+        int pos = mPos;
+        long header = readVarint();
+        int type = (int) (header & ((1 << InputRecorder.TYPE_BITS) - 1));
+        if (type == InputRecorder.TYPE_GAME_START) {
+            // Next game.  Leave it for nextGame().
+            mPos = pos;
+            mNextType = -1;
+            return;
+        }
+        mNextTick += header >>> InputRecorder.TYPE_BITS;
+        mNextType = type;
+    }
+
+    /**
+     * Skips over the payload of the record whose header we just read, and reads the next
+     * header.
+     */
+    private void skipRecord() {
+        switch (mNextType) {
+            case InputRecorder.TYPE_SHOT:
+                readVarint();
+                readVarint();
+                break;
+            case InputRecorder.TYPE_GAME_END:
+                mEndScore = (int) readVarint();
+                break;
+            default:
+                break;
+        }
+        readRecordHeader();
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readInt() {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | (mData[mPos++] & 0xff);
+        }
+        return value;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (mPos >= mData.length) {
+                throw new RuntimeException("input log truncated");
+            }
+            int b = mData[mPos++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * The inner loops that run over every entity, pulled out so they can be swapped for faster
+ * versions where the platform has them.
+ * <p>
+ * ScalarKernels is plain Java and runs everywhere, including Android.  The JVM-only bench
+ * module has a version built on the incubating Vector API, which does several entities per
+ * instruction.  Every implementation must give bit-for-bit the same results as the scalar
+ * one, so switching doesn't change how the game plays.
+ */
+public interface Kernels {
+    /**
+     * Returns a short name, for logs and benchmark output.
+     */
+    String getName();
+
+    /**
+     * Moves entities [0, count) in a straight line: each coordinate advances by its direction
+     * component times (speed * deltaSec).
+     */
+    void integrate(float[] x, float[] y, float[] dirX, float[] dirY, float[] speed, int count,
+            float deltaSec);
+
+    /**
+     * Tests one rectangle against balls [0, count), and adds the row of every ball that passes
+     * Collision.checkCoarseCollision() to "out".
+     *
+     * @return The number of rows added.
+     */
+    int collectOverlaps(float left, float right, float bottom, float top, float[] x, float[] y,
+            float[] radius, int count, CollisionQuery out);
+}
@@ -0,0 +1,432 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.factories.BallFactory;
+import com.whatizthis.aeonian.factories.EnemyFactory;
+
+/**
+ * Collision handling by prediction rather than by testing.
+ * <p>
+ * Everything in the game moves in a straight line at a constant speed: enemies from the edge
+ * toward the player, balls from the start position toward wherever the player touched.  So
+ * when something appears we can work out, in closed form, exactly when it will touch each of
+ * the things it could touch, and when a ball will leave the arena.  Those predictions go into
+ * a priority queue.  Each step then only pops the events that have come due, instead of
+ * looking at every enemy against every ball.
+ * <p>
+ * This replaces the stepped collision test (CollisionSystem) and the scoring system's
+ * out-of-bounds sweep when enabled with Simulation.setKineticCollisions().  The timing is
+ * exact rather than per-step, so it can catch a graze the stepped test misses; otherwise the
+ * game plays the same.  Only round balls are handled.
+ */
+class KineticScheduler {
+    /*
+     * Events name entities by handle, not by row, because rows move whenever anything is
+     * released.  A handle is an id that stays with the entity for as long as it lives, plus
+     * a generation that changes when the id is given up.  We never go looking for the events
+     * that mention something when it goes away.  They stay in the queue, and when one comes
+     * due and either handle no longer matches a live entity, it's dropped.  Nothing changes
+     * course once it's moving, so there's no path change to handle.  If that ever changes, the
+     * same trick works: give the entity a new handle, which strands its old predictions, and
+     * predict again from where it is now.
+     *
+     * Time is seconds since the last resync, as a double, so there's no drift worth speaking
+     * of over a game.  A step covers (mNow - deltaSec, mNow]; positions at the start of the
+     * step are in PREV_X/PREV_Y, which is what we predict from for anything that showed up
+     * during the step.
+     *
+     * We keep the handle tables in step with the archetypes by being the only thing that
+     * removes balls or enemies while we're in charge, and by noticing new rows at the end.
+     * Anything else -- a reset, a new player, the arena changing size -- means we throw
+     * everything away and predict again from scratch.
+     */
+
+    private static final int EVENT_CONTACT = 0;        // a = enemy, b = ball
+    private static final int EVENT_EXIT = 1;           // a = ball
+    private static final int EVENT_PLAYER = 2;         // a = enemy
+
+    // Enemies that won't reach the player in this long aren't worth scheduling.
+    private static final double PLAYER_HORIZON_SEC = 60.0;
+
+    private final Simulation mSim;
+    private final Archetype mBalls;
+    private final Archetype mEnemies;
+    private final Archetype mPlayer;
+
+    private final EventQueue mQueue = new EventQueue();
+    private final Handles mBallHandles = new Handles();
+    private final Handles mEnemyHandles = new Handles();
+    private double[] mBallExitTime = new double[0];     // by ball id
+
+    private double mNow;
+    private boolean mNeedsResync = true;
+    private int mKnownBalls;
+    private int mKnownEnemies;
+
+    // What the predictions assumed.  If any of it changes, they're all wrong.
+    private boolean mHavePlayer;
+    private float mPlayerX, mPlayerY, mPlayerRadius;
+    private float mArenaWidth, mArenaHeight;
+
+    // Statistics.
+    private long mEventsHandled;
+    private long mEventsStale;
+    private int mResyncCount;
+
+    KineticScheduler(Simulation sim, Archetype balls, Archetype enemies, Archetype player) {
+        mSim = sim;
+        mBalls = balls;
+        mEnemies = enemies;
+        mPlayer = player;
+    }
+
+    /**
+     * Throws away every prediction.  They'll be made again from scratch at the start of the
+     * next step.  Call after anything that changes the entities behind our back.
+     */
+    void resync() {
+        mNeedsResync = true;
+    }
+
+    /**
+     * Advances time by one step and acts on everything that happened during it.  Movement
+     * has already run.
+     */
+    void update(double deltaSec) {
+        Archetype balls = mBalls;
+        Archetype enemies = mEnemies;
+        if (balls.has(Components.EXTENT)) {
+            throw new RuntimeException("kinetic collisions only handle round balls");
+        }
+        mBallHandles.reserve(balls.getCapacity());
+        mEnemyHandles.reserve(enemies.getCapacity());
+        if (mBallExitTime.length < balls.getCapacity()) {
+            double[] grown = new double[balls.getCapacity()];
+            System.arraycopy(mBallExitTime, 0, grown, 0, mBallExitTime.length);
+            mBallExitTime = grown;
+        }
+
+        if (mNeedsResync || balls.size() < mKnownBalls || enemies.size() < mKnownEnemies
+                || assumptionsChanged()) {
+            startOver();
+        }
+
+        /*
+         * Anything past what we knew about was added since the last step.  New enemies are
+         * checked against the balls we already had, then new balls against all the enemies,
+         * so every new pair is looked at exactly once.
+         */
+        int ballCount = balls.size();
+        int enemyCount = enemies.size();
+        for (int row = mKnownEnemies; row < enemyCount; row++) {
+            mEnemyHandles.add(row);
+            predictEnemy(row, Components.PREV_X, Components.PREV_Y, mKnownBalls);
+        }
+        for (int row = mKnownBalls; row < ballCount; row++) {
+            mBallHandles.add(row);
+            predictBall(row, Components.PREV_X, Components.PREV_Y, enemyCount);
+        }
+
+        mNow += deltaSec;
+        handleDueEvents();
+
+        mKnownBalls = balls.size();
+        mKnownEnemies = enemies.size();
+    }
+
+    /**
+     * Returns how many times every prediction has been thrown away and made again.
+     */
+    int getResyncCount() {
+        return mResyncCount;
+    }
+
+    @Override
+    public String toString() {
+        return "[KineticScheduler pending=" + mQueue.size() + " handled=" + mEventsHandled
+                + " stale=" + mEventsStale + " resyncs=" + mResyncCount + "]";
+    }
+
+    private boolean assumptionsChanged() {
+        Archetype player = mPlayer;
+        boolean havePlayer = player.size() > 0;
+        if (havePlayer != mHavePlayer || mArenaWidth != Arena.WIDTH
+                || mArenaHeight != Arena.HEIGHT) {
+            return true;
+        }
+        return havePlayer && (mPlayerX != player.column(Components.X)[0]
+                || mPlayerY != player.column(Components.Y)[0]
+                || mPlayerRadius != player.column(Components.RADIUS)[0]);
+    }
+
+    private void startOver() {
+        mQueue.clear();
+        mBallHandles.clear();
+        mEnemyHandles.clear();
+        mNow = 0.0;
+        mKnownBalls = 0;
+        mKnownEnemies = 0;
+        mNeedsResync = false;
+        mResyncCount++;
+
+        Archetype player = mPlayer;
+        mHavePlayer = player.size() > 0;
+        if (mHavePlayer) {
+            mPlayerX = player.column(Components.X)[0];
+            mPlayerY = player.column(Components.Y)[0];
+            mPlayerRadius = player.column(Components.RADIUS)[0];
+        }
+        mArenaWidth = Arena.WIDTH;
+        mArenaHeight = Arena.HEIGHT;
+    }
+
+    /**
+     * Pops everything due by mNow, in time order, and does what it says.
+     */
+    private void handleDueEvents() {
+        EventQueue queue = mQueue;
+        Archetype balls = mBalls;
+        Archetype enemies = mEnemies;
+
+        while (!queue.isEmpty() && queue.peekTime() <= mNow) {
+            queue.pop();
+            int a = queue.getPoppedA();
+            int aGen = queue.getPoppedAGen();
+            switch (queue.getPoppedType()) {
+                case EVENT_CONTACT: {
+                    int enemy = mEnemyHandles.findRow(a, aGen);
+                    int ball = mBallHandles.findRow(queue.getPoppedB(), queue.getPoppedBGen());
+                    if (enemy < 0 || ball < 0) {
+                        mEventsStale++;
+                        continue;
+                    }
+                    mEnemyHandles.remove(enemy, enemies.size() - 1);
+                    EnemyFactory.release(enemies, enemy);
+                    mBallHandles.remove(ball, balls.size() - 1);
+                    BallFactory.release(balls, ball);
+                    mSim.recordEnemyDestroyed();
+                    break;
+                }
+                case EVENT_EXIT: {
+                    int ball = mBallHandles.findRow(a, aGen);
+                    if (ball < 0) {
+                        mEventsStale++;
+                        continue;
+                    }
+                    mBallHandles.remove(ball, balls.size() - 1);
+                    BallFactory.release(balls, ball);
+                    mSim.addScore(-ScoringSystem.MISSED_BALL_PENALTY);
+                    break;
+                }
+                case EVENT_PLAYER: {
+                    if (mEnemyHandles.findRow(a, aGen) < 0) {
+                        mEventsStale++;
+                        continue;
+                    }
+                    mEventsHandled++;
+                    // Game over.  As with the stepped test, nothing else gets looked at.
+                    mSim.recordPlayerHit();
+                    return;
+                }
+                default:
+                    throw new RuntimeException("bad event type " + queue.getPoppedType());
+            }
+            mEventsHandled++;
+        }
+    }
+
+    /**
+     * Schedules the enemy at "row" to reach the player, and to meet any of balls
+     * [0, ballCount).  Positions come from columns xCol/yCol, and are as of mNow.
+     */
+    private void predictEnemy(int row, int xCol, int yCol, int ballCount) {
+        Archetype enemies = mEnemies;
+        int id = mEnemyHandles.getId(row);
+        int gen = mEnemyHandles.getGeneration(id);
+        float x = enemies.column(xCol)[row];
+        float y = enemies.column(yCol)[row];
+        float dirX = enemies.column(Components.DIR_X)[row];
+        float dirY = enemies.column(Components.DIR_Y)[row];
+        float speed = enemies.column(Components.SPEED)[row];
+        float radius = enemies.column(Components.RADIUS)[row];
+
+        if (mHavePlayer && speed > 0.0f) {
+            float toi = Collision.timeOfImpactCircle(mPlayerX, mPlayerY, mPlayerRadius, x, y,
+                    dirX, dirY, (float) (speed * PLAYER_HORIZON_SEC), radius);
+            if (toi >= 0.0f) {
+                mQueue.add(mNow + toi / speed, EVENT_PLAYER, id, gen, 0, 0);
+            }
+        }
+
+        for (int ball = 0; ball < ballCount; ball++) {
+            predictContact(row, x, y, dirX, dirY, speed, radius, id, gen, ball, xCol, yCol);
+        }
+    }
+
+    /**
+     * Schedules the ball at "row" to leave the arena, and to meet any of enemies
+     * [0, enemyCount).
+     */
+    private void predictBall(int row, int xCol, int yCol, int enemyCount) {
+        Archetype balls = mBalls;
+        Archetype enemies = mEnemies;
+        int id = mBallHandles.getId(row);
+        double exitTime = mNow + exitDelay(row, xCol, yCol);
+        mBallExitTime[id] = exitTime;
+        mQueue.add(exitTime, EVENT_EXIT, id, mBallHandles.getGeneration(id), 0, 0);
+
+        float[] enemyX = enemies.column(xCol);
+        float[] enemyY = enemies.column(yCol);
+        float[] enemyDirX = enemies.column(Components.DIR_X);
+        float[] enemyDirY = enemies.column(Components.DIR_Y);
+        float[] enemySpeed = enemies.column(Components.SPEED);
+        float[] enemyRadius = enemies.column(Components.RADIUS);
+        for (int enemy = 0; enemy < enemyCount; enemy++) {
+            int enemyId = mEnemyHandles.getId(enemy);
+            predictContact(enemy, enemyX[enemy], enemyY[enemy], enemyDirX[enemy],
+                    enemyDirY[enemy], enemySpeed[enemy], enemyRadius[enemy], enemyId,
+                    mEnemyHandles.getGeneration(enemyId), row, xCol, yCol);
+        }
+    }
+
+    /**
+     * Schedules a contact between an enemy (described by the arguments) and the ball at
+     * "ball", if they'll touch before the ball leaves the arena.  The ball's exit must
+     * already have been predicted.
+     */
+    private void predictContact(int enemy, float x, float y, float dirX, float dirY,
+            float speed, float radius, int enemyId, int enemyGen, int ball, int xCol,
+            int yCol) {
+        /*
+         * Work in the ball's frame of reference: the ball stands still and the enemy moves
+         * with the difference of the two velocities.  That's the moving-circle-vs-still-circle
+         * test the stepped collision code uses, run over the ball's whole remaining life.
+         */
+        Archetype balls = mBalls;
+        float ballSpeed = balls.column(Components.SPEED)[ball];
+        float relX = dirX * speed - balls.column(Components.DIR_X)[ball] * ballSpeed;
+        float relY = dirY * speed - balls.column(Components.DIR_Y)[ball] * ballSpeed;
+        float relSpeed = (float) Math.sqrt(relX * relX + relY * relY);
+        if (relSpeed == 0.0f) {
+            // Moving together.  If they aren't touching now, they never will.
+            return;
+        }
+        int ballId = mBallHandles.getId(ball);
+        double life = mBallExitTime[ballId] - mNow;
+        float toi = Collision.timeOfImpactCircle(balls.column(xCol)[ball],
+                balls.column(yCol)[ball], balls.column(Components.RADIUS)[ball], x, y,
+                relX / relSpeed, relY / relSpeed, (float) (relSpeed * life), radius);
+        if (toi >= 0.0f) {
+            mQueue.add(mNow + toi / relSpeed, EVENT_CONTACT, enemyId, enemyGen, ballId,
+                    mBallHandles.getGeneration(ballId));
+        }
+    }
+
+    /**
+     * Returns how long until the ball at "row" is out of bounds, in the sense of
+     * ScoringSystem: entirely outside the arena.
+     */
+    private double exitDelay(int row, int xCol, int yCol) {
+        Archetype balls = mBalls;
+        float x = balls.column(xCol)[row];
+        float y = balls.column(yCol)[row];
+        float radius = balls.column(Components.RADIUS)[row];
+        float speed = balls.column(Components.SPEED)[row];
+        double velX = balls.column(Components.DIR_X)[row] * speed;
+        double velY = balls.column(Components.DIR_Y)[row] * speed;
+
+        double delay = Double.MAX_VALUE;
+        if (velX < 0.0) {
+            delay = Math.min(delay, (x + radius) / -velX);
+        } else if (velX > 0.0) {
+            delay = Math.min(delay, (Arena.WIDTH + radius - x) / velX);
+        }
+        if (velY < 0.0) {
+            delay = Math.min(delay, (y + radius) / -velY);
+        } else if (velY > 0.0) {
+            delay = Math.min(delay, (Arena.HEIGHT + radius - y) / velY);
+        }
+        return Math.max(delay, 0.0);
+    }
+
+    /**
+     * Stable handles for the rows of one archetype.  Rows get shuffled when something is
+     * removed; ids don't.  Giving up an id bumps its generation, so anything still holding
+     * the old (id, generation) can tell it's stale.
+     */
+    static class Handles {
+        private int[] mRowToId = new int[0];
+        private int[] mIdToRow = new int[0];
+        private int[] mGeneration = new int[0];
+        private int[] mFreeIds = new int[0];
+        private int mFreeCount;
+        private int mIdCount;
+
+        void reserve(int capacity) {
+            if (mRowToId.length < capacity) {
+                int[] grown = new int[capacity];
+                System.arraycopy(mRowToId, 0, grown, 0, mRowToId.length);
+                mRowToId = grown;
+                grown = new int[capacity];
+                System.arraycopy(mIdToRow, 0, grown, 0, mIdToRow.length);
+                mIdToRow = grown;
+                grown = new int[capacity];
+                System.arraycopy(mGeneration, 0, grown, 0, mGeneration.length);
+                mGeneration = grown;
+                grown = new int[capacity];
+                System.arraycopy(mFreeIds, 0, grown, 0, mFreeIds.length);
+                mFreeIds = grown;
+            }
+        }
+
+        /**
+         * Gives up every id.
+         */
+        void clear() {
+            for (int id = 0; id < mIdCount; id++) {
+                mGeneration[id]++;
+            }
+            mIdCount = 0;
+            mFreeCount = 0;
+        }
+
+        /**
+         * Assigns a handle to the entity at "row".
+         */
+        void add(int row) {
+            int id = mFreeCount > 0 ? mFreeIds[--mFreeCount] : mIdCount++;
+            mRowToId[row] = id;
+            mIdToRow[id] = row;
+        }
+
+        /**
+         * Gives up the handle of the entity at "row", and moves the handle of the entity at
+         * "lastRow" into its place, as Archetype.remove() is about to do with the entity.
+         */
+        void remove(int row, int lastRow) {
+            int id = mRowToId[row];
+            int moved = mRowToId[lastRow];
+            mRowToId[row] = moved;
+            mIdToRow[moved] = row;
+            mIdToRow[id] = -1;
+            mGeneration[id]++;
+            mFreeIds[mFreeCount++] = id;
+        }
+
+        int getId(int row) {
+            return mRowToId[row];
+        }
+
+        int getGeneration(int id) {
+            return mGeneration[id];
+        }
+
+        /**
+         * Returns the row of the entity with handle (id, generation), or -1 if it's gone.
+         */
+        int findRow(int id, int generation) {
+            return mGeneration[id] == generation ? mIdToRow[id] : -1;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.whatizthis.aeonian.sim;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures tap-to-screen latency (see InputLatency) on a plain JVM, with no display.
+ * <p>
+ * This sets things up the way the device does: the simulation runs on a SimulationThread
+ * against the real clock, a stand-in for the UI thread feeds it touches through the
+ * TouchRing, and the main thread plays the renderer, picking up a snapshot every vsync,
+ * spending a while "drawing" it, and reporting it drawn.  The touches are what
+ * GameSurfaceView would send for a stream of quick taps: each one is a down, a short drag
+ * sampled at the touch panel's rate and batched up until the next vsync (as MotionEvent
+ * history is), and an up, each sample stamped with the time the panel took it.
+ * <p>
+ * What this can't show is the time Android takes to get a touch to us, and the time from
+ * the end of a frame to the light leaving the screen.  It does show what our own pipeline
+ * adds, which is the part we can do something about.
+ * <p>
+ * Usage: LatencyRunner [seconds] [taps-per-second] [panel-hz] [display-hz] [draw-msec]
+ */
+public class LatencyRunner {
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int tapsPerSec = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int panelHz = args.length > 2 ? Integer.parseInt(args[2]) : 240;
+        int displayHz = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+        double drawMsec = args.length > 4 ? Double.parseDouble(args[4]) : 4.0;
+
+        Arena.setDimensions(1080, 1920);
+        final Simulation sim = new Simulation(Clock.SYSTEM, Logger.SILENT);
+        sim.setSeed(1);
+        sim.reset();
+        sim.allocPlayer();
+
+        SnapshotBuffer snapshots = new SnapshotBuffer();
+        SimulationThread simThread = new SimulationThread(sim, snapshots);
+        long vsyncNsec = 1000000000L / displayHz;
+        TapSource taps = new TapSource(sim.getTouchRing(), tapsPerSec, panelHz, vsyncNsec);
+        simThread.start();
+        taps.start();
+
+        // Our player isn't very good, so games end now and then.  Start another right away.
+        Runnable restart = new Runnable() {
+            @Override
+            public void run() {
+                sim.reset();
+                sim.allocPlayer();
+            }
+        };
+
+        InputLatency latency = sim.getInputLatency();
+        long drawNsec = (long) (drawMsec * 1000000);
+        long nextFrameNsec = System.nanoTime();
+        long endNsec = nextFrameNsec + seconds * 1000000000L;
+        int frames = 0;
+        int restarts = 0;
+        boolean restarting = false;
+        while (nextFrameNsec - endNsec < 0) {
+            sleepUntil(nextFrameNsec);
+            nextFrameNsec += vsyncNsec;
+
+            Snapshot snap = snapshots.acquire();
+            spinUntil(System.nanoTime() + drawNsec);
+            latency.frameDrawn(snap, System.nanoTime());
+            frames++;
+
+            if (snap.isAnimating()) {
+                restarting = false;
+            } else if (!restarting) {
+                simThread.queueEvent(restart);
+                restarting = true;
+                restarts++;
+            }
+        }
+
+        taps.requestExitAndWait();
+        simThread.requestExitAndWait();
+        sim.release();
+
+        System.out.println(frames + " frames at " + displayHz + "Hz, " + taps.getTapCount()
+                + " taps at " + panelHz + "Hz, " + restarts + " restarts, "
+                + sim.getTouchRing().getDropped() + " touches dropped");
+        System.out.println(latency.getSummary());
+    }
+
+    private static void sleepUntil(long whenNsec) {
+        long waitNsec;
+        while ((waitNsec = whenNsec - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNsec);
+        }
+    }
+
+    private static void spinUntil(long whenNsec) {
+        while (whenNsec - System.nanoTime() > 0) {
+            // Busy, like a renderer would be.
+        }
+    }
+
+    /**
+     * Plays the touch panel and the UI thread.  Taps come at random intervals averaging
+     * 1/taps-per-second apart (but never while the last one is still down), at random spots
+     * in the top of the arena.
+     */
+    private static class TapSource extends Thread {
+        private static final long TAP_NSEC = 60000000L;         // well short of hold-to-fire
+        private static final int MAX_BATCH = 64;
+
+        private final TouchRing mRing;
+        private final long mTapIntervalNsec;
+        private final long mPanelNsec;
+        private final long mVsyncNsec;
+        private final Random mRandom = new Random(1);
+        private volatile boolean mShouldExit;
+        private int mTapCount;
+
+        // Move samples waiting for the next vsync.
+        private final float[] mBatchX = new float[MAX_BATCH];
+        private final float[] mBatchY = new float[MAX_BATCH];
+        private final long[] mBatchNsec = new long[MAX_BATCH];
+        private int mBatchCount;
+
+        TapSource(TouchRing ring, int tapsPerSec, int panelHz, long vsyncNsec) {
+            super("Taps");
+            mRing = ring;
+            mTapIntervalNsec = 1000000000L / Math.max(tapsPerSec, 1);
+            mPanelNsec = 1000000000L / panelHz;
+            mVsyncNsec = vsyncNsec;
+        }
+
+        int getTapCount() {
+            return mTapCount;
+        }
+
+        void requestExitAndWait() {
+            mShouldExit = true;
+            try {
+                join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            long sampleNsec = System.nanoTime();
+            long nextVsyncNsec = sampleNsec + mVsyncNsec;
+            long nextTapNsec = sampleNsec + nextGap();
+            boolean down = false;
+            long upNsec = 0;
+            float x = 0.0f;
+            float y = 0.0f;
+
+            while (!mShouldExit) {
+                sleepUntil(sampleNsec);
+
+                if (!down) {
+                    if (sampleNsec - nextTapNsec >= 0) {
+                        // Android delivers downs and ups right away; only moves are batched.
+                        x = mRandom.nextFloat() * Arena.WIDTH;
+                        y = Arena.HEIGHT * (0.5f + mRandom.nextFloat() * 0.5f);
+                        mRing.offer(TouchRing.ACTION_DOWN, x, y, sampleNsec, 0);
+                        mTapCount++;
+                        down = true;
+                        upNsec = sampleNsec + TAP_NSEC;
+                        nextTapNsec = sampleNsec + nextGap();
+                    }
+                } else if (sampleNsec - upNsec >= 0) {
+                    flushMoves();
+                    mRing.offer(TouchRing.ACTION_UP, x, y, sampleNsec, 0);
+                    down = false;
+                } else {
+                    x += 2.0f;
+                    y += 1.0f;
+                    if (mBatchCount < MAX_BATCH) {
+                        mBatchX[mBatchCount] = x;
+                        mBatchY[mBatchCount] = y;
+                        mBatchNsec[mBatchCount] = sampleNsec;
+                        mBatchCount++;
+                    }
+                }
+
+                if (sampleNsec - nextVsyncNsec >= 0) {
+                    flushMoves();
+                    nextVsyncNsec += mVsyncNsec;
+                }
+                sampleNsec += mPanelNsec;
+            }
+        }
+
+        /**
+         * Sends the batched moves, oldest first, as GameSurfaceView.sendMoves() would.
+         */
+        private void flushMoves() {
+            for (int i = 0; i < mBatchCount; i++) {
+                mRing.offer(TouchRing.ACTION_MOVE, mBatchX[i], mBatchY[i], mBatchNsec[i], 0);
+            }
+            mBatchCount = 0;
+        }
+
+        private long nextGap() {
+            return mTapIntervalNsec / 2 + (long) (mRandom.nextDouble() * mTapIntervalNsec);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * Minimal logging interface, so the simulation doesn't need android.util.Log.
+ */
+public interface Logger {
+    void d(String msg);
+    void w(String msg);
+    void e(String msg);
+
+    /**
+     * Discards everything.  Handy when benchmarking, where log output would skew the numbers.
+     */
+    Logger SILENT = new Logger() {
+        @Override public void d(String msg) {}
+        @Override public void w(String msg) {}
+        @Override public void e(String msg) {}
+    };
+
+    /**
+     * Writes to stdout / stderr.
+     */
+    Logger CONSOLE = new Logger() {
+        @Override public void d(String msg) { System.out.println("D " + msg); }
+        @Override public void w(String msg) { System.out.println("W " + msg); }
+        @Override public void e(String msg) { System.err.println("E " + msg); }
+    };
+}
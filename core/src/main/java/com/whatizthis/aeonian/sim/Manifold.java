@@ -0,0 +1,94 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * The result of a narrow-phase test: what we hit, how far we got, and how to separate.
+ * <p>
+ * One of these lives in each CollisionQuery and is overwritten by every test, so read what
+ * you need before running the next one.
+ */
+public class Manifold {
+    private boolean mHit;
+    private int mRow;
+    private float mDistanceTraveled;
+    private int mFace;
+    private float mXAdj, mYAdj;
+    private float mNormalX, mNormalY;
+
+    /**
+     * Returns true if the last test hit something.  The other getters are meaningless if not.
+     */
+    public boolean isHit() {
+        return mHit;
+    }
+
+    /**
+     * Returns the row of the ball we hit, or -1 if the test wasn't against a ball.
+     */
+    public int getRow() {
+        return mRow;
+    }
+
+    /**
+     * Returns how far along the path we were at impact.
+     */
+    public float getDistanceTraveled() {
+        return mDistanceTraveled;
+    }
+
+    /**
+     * Returns what face orientation we hit (Collision.HIT_FACE_*).
+     */
+    public int getFace() {
+        return mFace;
+    }
+
+    /**
+     * Returns the X position adjustment that will leave the objects just touching.
+     */
+    public float getXAdj() {
+        return mXAdj;
+    }
+
+    /**
+     * Returns the Y position adjustment that will leave the objects just touching.
+     */
+    public float getYAdj() {
+        return mYAdj;
+    }
+
+    /**
+     * Returns the X component of the contact normal: the unit vector pointing from the thing
+     * we hit toward us, at the point of contact.
+     */
+    public float getNormalX() {
+        return mNormalX;
+    }
+
+    /**
+     * Returns the Y component of the contact normal.
+     */
+    public float getNormalY() {
+        return mNormalY;
+    }
+
+    void clear() {
+        mHit = false;
+        mRow = -1;
+        mDistanceTraveled = 0.0f;
+        mFace = Collision.HIT_FACE_NONE;
+        mXAdj = mYAdj = 0.0f;
+        mNormalX = mNormalY = 0.0f;
+    }
+
+    void set(int row, float distanceTraveled, int face, float xAdj, float yAdj,
+            float normalX, float normalY) {
+        mHit = true;
+        mRow = row;
+        mDistanceTraveled = distanceTraveled;
+        mFace = face;
+        mXAdj = xAdj;
+        mYAdj = yAdj;
+        mNormalX = normalX;
+        mNormalY = normalY;
+    }
+}
@@ -0,0 +1,31 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * A clock that only moves when told to.  Used to run the simulation headless, or in
+ * deterministic mode on the device (see SimulationThread.setManualClock()).
+ * <p>
+ * Only one thread may advance it, but any thread may read it.
+ */
+public class ManualClock implements Clock {
+    private volatile long mNowNsec;
+
+    public ManualClock() {
+        // Start at a nonzero value.  Simulation treats a zero timestamp as "no previous frame".
+        mNowNsec = 1;
+    }
+
+    @Override
+    public long nanoTime() {
+        return mNowNsec;
+    }
+
+    /**
+     * Moves the clock forward.
+     */
+    public void advance(long nsec) {
+        if (nsec < 0) {
+            throw new IllegalArgumentException("clock can't go backward (" + nsec + ")");
+        }
+        mNowNsec += nsec;
+    }
+}
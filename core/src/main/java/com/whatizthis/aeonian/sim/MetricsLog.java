@@ -0,0 +1,247 @@
+package com.whatizthis.aeonian.sim;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes rows of counters to a JSON-lines file, one object per line, from a background thread.
+ * <p>
+ * The numbers we care about after the fact -- how the frame times were spread, how much
+ * collision work there was, how often the GC ran -- used to exist only as log lines when the
+ * game paused, which is no help once the device is back in somebody's pocket.  This keeps
+ * them on disk instead.  Each row is a fixed set of named long values, and comes out as
+ * <pre>
+ *   {"session":1476612345678,"time":1476612355678,"frames":600,...}
+ * </pre>
+ * where "session" is when this log was created and "time" is when the row was offered, both
+ * in milliseconds since the epoch.  Counters are running totals, so rows can be diffed.
+ * <p>
+ * Whoever calls offer() is usually the render thread, which mustn't wait on the disk, so rows
+ * go through a small ring, much like TouchRing: one producer thread, one consumer (our writer
+ * thread), a counter apiece and no locks.  The producer copies its values into a preallocated
+ * slot and unparks the writer; all of the formatting and I/O happens over here.  If the
+ * writer falls so far behind that the ring fills, rows are dropped and counted.
+ * <p>
+ * The file is capped at maxFileBytes.  When the next line won't fit, it's renamed to
+ * "name.1" (bumping "name.1" to "name.2", and so on) and a new one started, keeping at most
+ * maxFiles files in all.  The oldest data goes first.
+ */
+public class MetricsLog {
+    private static final int QUEUE_SIZE = 16;                   // power of two
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final String[] mNames;
+    private final long mMaxFileBytes;
+    private final int mMaxFiles;
+    private final Logger mLog;
+    private final long mSessionMsec;
+
+    // The ring.  Rows are copied in whole; mTimeMsec is stamped by offer().
+    private final long[][] mRows = new long[QUEUE_SIZE][];
+    private final long[] mTimeMsec = new long[QUEUE_SIZE];
+    private final AtomicLong mWritten = new AtomicLong();      // producer's
+    private final AtomicLong mRead = new AtomicLong();         // consumer's
+    private volatile long mDropped;                            // producer's
+
+    private final WriterThread mWriter = new WriterThread();
+    private volatile boolean mShouldExit;
+
+    // Writer thread only.
+    private OutputStream mOut;
+    private long mFileBytes;
+
+    /**
+     * Creates a log that writes to "file".  Call start() to get the writer going.
+     *
+     * @param names Names of the values in each row, in order.
+     * @param maxFileBytes How big a file may get before it's rotated.
+     * @param maxFiles How many files to keep, including the current one.
+     */
+    public MetricsLog(File file, String[] names, long maxFileBytes, int maxFiles, Logger log) {
+        if (maxFiles < 1) {
+            throw new RuntimeException("maxFiles must be at least 1");
+        }
+        mFile = file;
+        mNames = names.clone();
+        mMaxFileBytes = maxFileBytes;
+        mMaxFiles = maxFiles;
+        mLog = log;
+        mSessionMsec = System.currentTimeMillis();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            mRows[i] = new long[names.length];
+        }
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        mWriter.start();
+    }
+
+    /**
+     * Writes out whatever is waiting, closes the file, and stops the writer thread.  Rows
+     * offered after this are dropped.
+     */
+    public void close() {
+        mShouldExit = true;
+        LockSupport.unpark(mWriter);
+
+        boolean interrupted = false;
+        while (mWriter.isAlive()) {
+            try {
+                mWriter.join();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a row for writing.  "values" must have one entry per name, and is copied, so
+     * the caller can reuse it.  Returns false if the queue was full and the row was dropped.
+     * Producer thread only; doesn't block or allocate.
+     */
+    public boolean offer(long[] values) {
+        long written = mWritten.get();
+        if (mShouldExit || written - mRead.get() >= QUEUE_SIZE) {
+            mDropped++;
+            return false;
+        }
+        int slot = (int) written & (QUEUE_SIZE - 1);
+        System.arraycopy(values, 0, mRows[slot], 0, mNames.length);
+        mTimeMsec[slot] = System.currentTimeMillis();
+        // Publishes the slot contents along with the count.
+        mWritten.lazySet(written + 1);
+        LockSupport.unpark(mWriter);
+        return true;
+    }
+
+    /**
+     * Returns the number of rows dropped because the queue was full.
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Writes out every row that's waiting.  Writer thread only.
+     */
+    private void drain() throws IOException {
+        long read = mRead.get();
+        long written = mWritten.get();
+        if (read == written) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(256);
+        for (; read != written; read++) {
+            int slot = (int) read & (QUEUE_SIZE - 1);
+            sb.setLength(0);
+            sb.append("{\"session\":").append(mSessionMsec);
+            sb.append(",\"time\":").append(mTimeMsec[slot]);
+            long[] row = mRows[slot];
+            for (int i = 0; i < mNames.length; i++) {
+                sb.append(",\"").append(mNames[i]).append("\":").append(row[i]);
+            }
+            sb.append("}\n");
+            // Done with the slot.  Hand it back before the (slow) write.
+            mRead.lazySet(read + 1);
+            writeLine(sb.toString().getBytes(UTF8));
+        }
+        mOut.flush();
+    }
+
+    private void writeLine(byte[] line) throws IOException {
+        if (mOut == null) {
+            mFileBytes = mFile.length();
+            mOut = new FileOutputStream(mFile, true);
+        }
+        if (mFileBytes != 0 && mFileBytes + line.length > mMaxFileBytes) {
+            rotate();
+            mOut = new FileOutputStream(mFile, false);
+            mFileBytes = 0;
+        }
+        mOut.write(line);
+        mFileBytes += line.length;
+    }
+
+    /**
+     * Closes the current file and shuffles it and the older ones down by one, dropping the
+     * oldest.
+     */
+    private void rotate() throws IOException {
+        mOut.close();
+        mOut = null;
+        if (mMaxFiles == 1) {
+            return;     // we'll just start over
+        }
+        File oldest = rotatedFile(mMaxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            mLog.w("unable to delete " + oldest);
+        }
+        for (int i = mMaxFiles - 2; i > 0; i--) {
+            File from = rotatedFile(i);
+            if (from.exists() && !from.renameTo(rotatedFile(i + 1))) {
+                mLog.w("unable to rename " + from);
+            }
+        }
+        if (!mFile.renameTo(rotatedFile(1))) {
+            mLog.w("unable to rename " + mFile);
+        }
+    }
+
+    private File rotatedFile(int index) {
+        return new File(mFile.getPath() + "." + index);
+    }
+
+    private void closeFile() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException ioe) {
+                mLog.w("unable to close " + mFile + ": " + ioe);
+            }
+            mOut = null;
+        }
+    }
+
+    private class WriterThread extends Thread {
+        WriterThread() {
+            super("MetricsLog");
+            // Don't hold the process up if nobody calls close().  Every drain ends with a
+            // flush, so all we'd lose is whatever hadn't been offered yet.
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mShouldExit) {
+                    drain();
+                    LockSupport.park();
+                }
+                // Anything offered before close() was called.
+                drain();
+            } catch (IOException ioe) {
+                // Metrics aren't worth much grief.  Give up on them; offer() will start
+                // dropping rows once the queue fills.
+                mLog.w("metrics log " + mFile + " failed: " + ioe);
+            } finally {
+                closeFile();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.GameSystem;
+import com.whatizthis.aeonian.ecs.World;
+
+/**
+ * Moves everything that moves in a straight line, after remembering where it started.
+ * <p>
+ * Nothing here knows what a ball or an enemy is.  Any archetype with a position and motion
+ * gets moved; any archetype with a previous position gets that updated first.
+ */
+class MovementSystem extends GameSystem {
+    private Kernels mKernels = ScalarKernels.INSTANCE;
+
+    MovementSystem() {
+        super("movement");
+    }
+
+    void setKernels(Kernels kernels) {
+        mKernels = kernels;
+    }
+
+    @Override
+    public void update(World world, double deltaSec) {
+        savePositions(world);
+
+        Kernels kernels = mKernels;
+        float delta = (float) deltaSec;
+        for (int a = 0; a < world.getArchetypeCount(); a++) {
+            Archetype arch = world.getArchetype(a);
+            if (!arch.has(Components.POSITION | Components.MOTION)) {
+                continue;
+            }
+
+            kernels.integrate(arch.column(Components.X), arch.column(Components.Y),
+                    arch.column(Components.DIR_X), arch.column(Components.DIR_Y),
+                    arch.column(Components.SPEED), arch.size(), delta);
+        }
+    }
+
+    /**
+     * Copies the current position of everything into its previous position.
+     */
+    static void savePositions(World world) {
+        for (int a = 0; a < world.getArchetypeCount(); a++) {
+            Archetype arch = world.getArchetype(a);
+            if (!arch.has(Components.POSITION | Components.PREV_POSITION)) {
+                continue;
+            }
+            int count = arch.size();
+            System.arraycopy(arch.column(Components.X), 0, arch.column(Components.PREV_X), 0,
+                    count);
+            System.arraycopy(arch.column(Components.Y), 0, arch.column(Components.PREV_Y), 0,
+                    count);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Works out what every enemy would hit this step, using several threads.  The collision
+ * system switches to this when there are enough enemies and balls that one core can't keep
+ * up.
+ * <p>
+ * This only looks; it doesn't remove anything.  The results are per enemy row: the ball it
+ * would hit first (getHitBalls()) and whether it reaches the player (getHitPlayer()).  The
+ * collision system then walks them in row order on its own thread and does the removing, so
+ * what happens is the same no matter how the threads were scheduled.
+ */
+class ParallelCollisionPass {
+    /*
+     * The arena is cut into a grid of tiles and each enemy belongs to the tile its path is
+     * centered in.  A tile is one task.  It gathers the balls that could touch any of its
+     * enemies by checking them all against the box around the tile's enemy paths, and then
+     * each enemy only looks through that short list.  Tasks share nothing they write to:
+     * every tile has its own ball list and CollisionQuery, and each enemy's result slot is
+     * only written by the tile it belongs to.  The archetypes are only read.
+     *
+     * We don't use the broad phase here.  The spatial hash and the tree both keep scratch
+     * state for their queries, so they can't be asked things from several threads at once,
+     * and one ball scan per tile is cheap next to the enemy * ball loop it replaces.
+     *
+     * The candidates for an enemy are exactly the balls that pass the coarse test against its
+     * path, same as the broad phase would give.  They're in row order rather than the broad
+     * phase's, but findFirstCollision() breaks ties by row, so it picks the same ball.
+     *
+     * Enemies aren't spread evenly (they converge on the player), so there are more tiles
+     * than cores and the pool's work stealing evens things out.  Everything is allocated up
+     * front or grown with the pools, and the tasks are reinitialized and reused each step.
+     */
+
+    private static final int TILE_COLUMNS = 4;
+    private static final int TILE_ROWS = 4;
+    private static final int TILE_COUNT = TILE_COLUMNS * TILE_ROWS;
+
+    private final ForkJoinPool mPool;
+    private final TileTask[] mTileTasks = new TileTask[TILE_COUNT];
+    private final RootTask mRootTask = new RootTask();
+
+    // Per enemy row: the box around its path this step, its tile, and what it hits.
+    private float[] mLeft = new float[0];
+    private float[] mRight = new float[0];
+    private float[] mBottom = new float[0];
+    private float[] mTop = new float[0];
+    private int[] mTile = new int[0];
+    private int[] mHitBall = new int[0];
+    private boolean[] mHitPlayer = new boolean[0];
+
+    // Enemy rows sorted by tile.  Tile t's are mTileEnemies[mTileStart[t] .. mTileStart[t+1]-1].
+    private int[] mTileEnemies = new int[0];
+    private final int[] mTileStart = new int[TILE_COUNT + 1];
+
+    // What the tasks are working on.  Set before the pool is started.
+    private Archetype mBalls;
+    private Archetype mEnemies;
+    private Archetype mPlayer;
+    private double mDeltaSec;
+
+    /**
+     * @param parallelism Number of worker threads.
+     */
+    ParallelCollisionPass(int parallelism) {
+        mPool = new ForkJoinPool(parallelism);
+        for (int i = 0; i < TILE_COUNT; i++) {
+            mTileTasks[i] = new TileTask(i);
+        }
+    }
+
+    /**
+     * Fills in the results for every enemy.  Blocks until all the tiles are done.
+     */
+    void detect(Archetype balls, Archetype enemies, Archetype player, double deltaSec) {
+        reserve(enemies.getCapacity());
+        mBalls = balls;
+        mEnemies = enemies;
+        mPlayer = player;
+        mDeltaSec = deltaSec;
+
+        sortByTile();
+
+        for (int i = 0; i < TILE_COUNT; i++) {
+            mTileTasks[i].reinitialize();
+            mTileTasks[i].mQuery.beginStep();
+        }
+        mRootTask.reinitialize();
+        mPool.invoke(mRootTask);
+
+        mBalls = mEnemies = mPlayer = null;
+    }
+
+    /**
+     * Stops the worker threads.  The pass can't be used afterward.
+     */
+    void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Returns the number of candidates the coarse tests turned up in the last detect(), over
+     * all enemies.
+     */
+    int getCandidateTotal() {
+        int total = 0;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            total += mTileTasks[i].mQuery.getCandidateTotal();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the row of the ball each enemy hits first, or -1.  Ignores other enemies, so
+     * two enemies may claim the same ball.
+     */
+    int[] getHitBalls() {
+        return mHitBall;
+    }
+
+    /**
+     * Returns whether each enemy reaches the player.  If so, getHitBalls() is -1 for it;
+     * like the serial pass, we check the player first.
+     */
+    boolean[] getHitPlayer() {
+        return mHitPlayer;
+    }
+
+    /**
+     * Finds the ball enemy "row" hits first, skipping balls that are already gone.  Used
+     * when the ball it was going to hit has been claimed by an enemy resolved earlier.  This
+     * is a plain scan of every ball, on the calling thread, and only valid until the rows
+     * change.
+     */
+    int findFirstRemaining(int row, Archetype balls, Archetype enemies, double deltaSec,
+            boolean[] gone, CollisionQuery query) {
+        float left = mLeft[row], right = mRight[row], bottom = mBottom[row], top = mTop[row];
+        float[] ballX = balls.column(Components.X);
+        float[] ballY = balls.column(Components.Y);
+        float[] ballRadius = balls.column(Components.RADIUS);
+
+        query.clear();
+        for (int b = 0; b < balls.size(); b++) {
+            float diameter = ballRadius[b] * 2;
+            if (!gone[b] && Collision.checkCoarseCollision(ballX[b], ballY[b], diameter,
+                    diameter, left, right, bottom, top)) {
+                query.add(b);
+            }
+        }
+        if (query.getCandidateCount() == 0) {
+            return -1;
+        }
+        return Collision.findFirstCollision(query, balls,
+                enemies.column(Components.PREV_X)[row], enemies.column(Components.PREV_Y)[row],
+                enemies.column(Components.DIR_X)[row], enemies.column(Components.DIR_Y)[row],
+                (float) (enemies.column(Components.SPEED)[row] * deltaSec),
+                enemies.column(Components.RADIUS)[row]);
+    }
+
+    private void reserve(int capacity) {
+        if (mLeft.length < capacity) {
+            mLeft = new float[capacity];
+            mRight = new float[capacity];
+            mBottom = new float[capacity];
+            mTop = new float[capacity];
+            mTile = new int[capacity];
+            mHitBall = new int[capacity];
+            mHitPlayer = new boolean[capacity];
+            mTileEnemies = new int[capacity];
+        }
+    }
+
+    /**
+     * Works out each enemy's path box and tile, and counting-sorts the enemies by tile.
+     */
+    private void sortByTile() {
+        Archetype enemies = mEnemies;
+        int count = enemies.size();
+        float[] enemyX = enemies.column(Components.X);
+        float[] enemyY = enemies.column(Components.Y);
+        float[] enemyPrevX = enemies.column(Components.PREV_X);
+        float[] enemyPrevY = enemies.column(Components.PREV_Y);
+        float[] enemyRadius = enemies.column(Components.RADIUS);
+        float tileWidth = Arena.WIDTH / TILE_COLUMNS;
+        float tileHeight = Arena.HEIGHT / TILE_ROWS;
+        int[] start = mTileStart;
+
+        for (int t = 0; t <= TILE_COUNT; t++) {
+            start[t] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            // Same box the serial pass queries with.
+            float radius = enemyRadius[i];
+            float curX = enemyPrevX[i], finalX = enemyX[i];
+            float curY = enemyPrevY[i], finalY = enemyY[i];
+            if (curX < finalX) {
+                mLeft[i] = curX - radius;
+                mRight[i] = finalX + radius;
+            } else {
+                mLeft[i] = finalX - radius;
+                mRight[i] = curX + radius;
+            }
+            if (curY < finalY) {
+                mBottom[i] = curY - radius;
+                mTop[i] = finalY + radius;
+            } else {
+                mBottom[i] = finalY - radius;
+                mTop[i] = curY + radius;
+            }
+
+            // Enemies start off the edge of the arena, so clamp to the outer tiles.
+            int col = (int) ((mLeft[i] + mRight[i]) * 0.5f / tileWidth);
+            int tileRow = (int) ((mBottom[i] + mTop[i]) * 0.5f / tileHeight);
+            col = Math.max(0, Math.min(TILE_COLUMNS - 1, col));
+            tileRow = Math.max(0, Math.min(TILE_ROWS - 1, tileRow));
+            int tile = tileRow * TILE_COLUMNS + col;
+            mTile[i] = tile;
+            start[tile + 1]++;
+        }
+        for (int t = 0; t < TILE_COUNT; t++) {
+            start[t + 1] += start[t];
+        }
+        // Rows go in ascending order within each tile.  Use the end of each tile's run as a
+        // cursor and walk backward, so we don't need a second offsets array.
+        for (int i = count - 1; i >= 0; i--) {
+            int tile = mTile[i];
+            int end = --start[tile + 1];
+            mTileEnemies[end] = i;
+        }
+        // That left start[t + 1] pointing at the beginning of tile t.  Shift them down.
+        for (int t = 0; t < TILE_COUNT; t++) {
+            start[t] = start[t + 1];
+        }
+        start[TILE_COUNT] = count;
+    }
+
+    /**
+     * Runs the detection for one tile's enemies.
+     */
+    private void detectTile(int tile, TileTask task) {
+        int first = mTileStart[tile];
+        int last = mTileStart[tile + 1];
+        if (first == last) {
+            return;
+        }
+
+        // Box around all of this tile's enemy paths.
+        int[] tileEnemies = mTileEnemies;
+        float left = Float.MAX_VALUE, right = -Float.MAX_VALUE;
+        float bottom = Float.MAX_VALUE, top = -Float.MAX_VALUE;
+        for (int k = first; k < last; k++) {
+            int e = tileEnemies[k];
+            left = Math.min(left, mLeft[e]);
+            right = Math.max(right, mRight[e]);
+            bottom = Math.min(bottom, mBottom[e]);
+            top = Math.max(top, mTop[e]);
+        }
+
+        // Anything that passes the coarse test against one enemy passes it against the
+        // bigger box, so this list has all of them.
+        Archetype balls = mBalls;
+        int ballCount = balls.size();
+        float[] ballX = balls.column(Components.X);
+        float[] ballY = balls.column(Components.Y);
+        float[] ballRadius = balls.column(Components.RADIUS);
+        int[] near = task.reserve(balls.getCapacity());
+        int nearCount = 0;
+        for (int b = 0; b < ballCount; b++) {
+            float diameter = ballRadius[b] * 2;
+            if (Collision.checkCoarseCollision(ballX[b], ballY[b], diameter, diameter,
+                    left, right, bottom, top)) {
+                near[nearCount++] = b;
+            }
+        }
+
+        Archetype enemies = mEnemies;
+        Archetype player = mPlayer;
+        boolean havePlayer = player.size() > 0;
+        float playerX = 0.0f, playerY = 0.0f, playerDiameter = 0.0f;
+        if (havePlayer) {
+            playerX = player.column(Components.X)[0];
+            playerY = player.column(Components.Y)[0];
+            playerDiameter = player.column(Components.RADIUS)[0] * 2;
+        }
+        float[] enemyPrevX = enemies.column(Components.PREV_X);
+        float[] enemyPrevY = enemies.column(Components.PREV_Y);
+        float[] enemyDirX = enemies.column(Components.DIR_X);
+        float[] enemyDirY = enemies.column(Components.DIR_Y);
+        float[] enemySpeed = enemies.column(Components.SPEED);
+        float[] enemyRadius = enemies.column(Components.RADIUS);
+        CollisionQuery query = task.mQuery;
+
+        for (int k = first; k < last; k++) {
+            int e = tileEnemies[k];
+            float curX = enemyPrevX[e], curY = enemyPrevY[e];
+            float dirX = enemyDirX[e], dirY = enemyDirY[e];
+            float distance = (float) (enemySpeed[e] * mDeltaSec);
+            float radius = enemyRadius[e];
+            float eLeft = mLeft[e], eRight = mRight[e], eBottom = mBottom[e], eTop = mTop[e];
+
+            mHitPlayer[e] = havePlayer
+                    && Collision.checkCoarseCollision(playerX, playerY, playerDiameter,
+                            playerDiameter, eLeft, eRight, eBottom, eTop)
+                    && Collision.collidedWith(query.getManifold(), player, 0, curX, curY,
+                            dirX, dirY, distance, radius);
+            if (mHitPlayer[e]) {
+                mHitBall[e] = -1;
+                continue;
+            }
+
+            query.clear();
+            for (int c = 0; c < nearCount; c++) {
+                int b = near[c];
+                float diameter = ballRadius[b] * 2;
+                if (Collision.checkCoarseCollision(ballX[b], ballY[b], diameter, diameter,
+                        eLeft, eRight, eBottom, eTop)) {
+                    query.add(b);
+                }
+            }
+            mHitBall[e] = query.getCandidateCount() == 0 ? -1
+                    : Collision.findFirstCollision(query, balls, curX, curY, dirX, dirY,
+                            distance, radius);
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mTile;
+        private final CollisionQuery mQuery = new CollisionQuery();
+        private int[] mNear = new int[0];
+
+        TileTask(int tile) {
+            mTile = tile;
+        }
+
+        int[] reserve(int capacity) {
+            if (mNear.length < capacity) {
+                mNear = new int[capacity];
+            }
+            mQuery.reserve(capacity);
+            return mNear;
+        }
+
+        @Override
+        protected void compute() {
+            detectTile(mTile, this);
+        }
+    }
+
+    private class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(mTileTasks);
+        }
+    }
+}
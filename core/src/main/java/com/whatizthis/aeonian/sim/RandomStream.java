@@ -0,0 +1,81 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * A small, fast, seedable random number generator (SplitMix64).
+ * <p>
+ * The simulation gives each thing that needs random numbers its own stream, all derived from
+ * one seed.  That way a game can be replayed exactly from its seed, and a change to how one
+ * subsystem uses its numbers doesn't shift what every other subsystem sees.
+ * <p>
+ * java.util.SplittableRandom does the same job, but it isn't available until API 24, and
+ * java.util.Random synchronizes on every call and can't be reseeded per stream without
+ * allocating.  This is the same algorithm SplittableRandom uses, minus the splitting.  Not
+ * thread-safe.
+ */
+public class RandomStream {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long mState;
+
+    /**
+     * Creates stream number "stream" of "seed".  Different streams of the same seed are
+     * independent of each other.
+     */
+    public RandomStream(long seed, int stream) {
+        setSeed(seed, stream);
+    }
+
+    /**
+     * Restarts the stream, as if it had just been created with these arguments.
+     */
+    public void setSeed(long seed, int stream) {
+        // Hash the stream number into the seed, so that nearby seeds and nearby streams
+        // don't produce overlapping sequences.
+        mState = mix(seed + mix((stream + 1) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Returns the next 64 random bits.
+     */
+    public long nextLong() {
+        mState += GOLDEN_GAMMA;
+        return mix(mState);
+    }
+
+    /**
+     * Returns a uniformly distributed value in [0, bound).
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive (" + bound + ")");
+        }
+        // Take the top 31 bits, and reject the few values that would make the low results
+        // slightly more likely than the high ones.
+        int bits, value;
+        do {
+            bits = (int) (nextLong() >>> 33);
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    /**
+     * Returns a uniformly distributed value in [0, 1).
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Returns a uniformly distributed value in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,35 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.GameSystem;
+import com.whatizthis.aeonian.ecs.World;
+
+/**
+ * Copies what the renderer needs into a Snapshot.  Runs once per frame, after all of the
+ * frame's steps, rather than once per step.
+ */
+class RenderPrepSystem extends GameSystem {
+    private final Archetype mBalls;
+    private final Archetype mEnemies;
+    private Snapshot mTarget;
+
+    RenderPrepSystem(Archetype balls, Archetype enemies) {
+        super("render-prep");
+        mBalls = balls;
+        mEnemies = enemies;
+    }
+
+    /**
+     * Sets the snapshot to fill in on the next update.
+     */
+    void setTarget(Snapshot target) {
+        mTarget = target;
+    }
+
+    @Override
+    public void update(World world, double deltaSec) {
+        Snapshot snap = mTarget;
+        snap.getBalls().set(mBalls);
+        snap.getEnemies().set(mEnemies);
+    }
+}
@@ -0,0 +1,108 @@
+package com.whatizthis.aeonian.sim;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Plays back an input log (see InputRecorder) on a plain JVM, with no display.
+ * <p>
+ * Every game in the log is played again from its seed, and we check that it ends on the same
+ * step with the same score as it did when it was recorded.  If it doesn't, something has
+ * changed how the game plays -- or it isn't deterministic any more.
+ * <p>
+ * Usage: ReplayRunner log-file [speed] [broad-phase]
+ * <p>
+ * speed is "fast" (the default), which runs the steps back to back, or "realtime", which
+ * waits out each step the way the device would.  broad-phase is as for HeadlessRunner, and
+ * should match what the recording was made with.
+ */
+public class ReplayRunner {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayRunner log-file [fast|realtime] [broad-phase]");
+            System.exit(2);
+        }
+        boolean realTime = args.length > 1 && args[1].equals("realtime");
+        String broadPhase = args.length > 2 ? args[2] : "hash";
+
+        InputReplay replay;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            replay = InputReplay.read(in);
+        } finally {
+            in.close();
+        }
+
+        Arena.setDimensions(replay.getArenaWidth(), replay.getArenaHeight());
+        ManualClock clock = new ManualClock();
+        Simulation sim = new Simulation(clock, Logger.SILENT);
+        sim.setStepRate((int) Math.round(1000000000.0 / replay.getStepNsec()));
+        if (sim.getStepNsec() != replay.getStepNsec()) {
+            throw new RuntimeException("can't match recorded step of " + replay.getStepNsec()
+                    + " ns");
+        }
+        if (broadPhase.equals("kinetic")) {
+            sim.setKineticCollisions(true);
+        } else if (broadPhase.equals("brute")) {
+            sim.setBroadPhase(new BruteForceBroadPhase());
+        } else if (broadPhase.equals("tree")) {
+            sim.setBroadPhase(new AabbTree());
+        }
+        sim.setInputReplay(replay);
+
+        int games = 0;
+        int mismatches = 0;
+        long totalSteps = 0;
+        long stepNsec = sim.getStepNsec();
+        long startNsec = System.nanoTime();
+        while (true) {
+            sim.reset();
+            if (!replay.isInGame()) {
+                break;
+            }
+            sim.allocPlayer();
+            games++;
+
+            // A game that was still going when the recording stopped runs until its last input.
+            long endTick = replay.getEndTick();
+            long lastTick = endTick >= 0 ? endTick : replay.getLastInputTick();
+            long nextStepWhenNsec = System.nanoTime();
+            while (sim.isAnimating() && sim.getStepCount() <= lastTick) {
+                if (realTime) {
+                    long waitNsec = nextStepWhenNsec - System.nanoTime();
+                    if (waitNsec > 0) {
+                        Thread.sleep(waitNsec / 1000000, (int) (waitNsec % 1000000));
+                    }
+                    nextStepWhenNsec += stepNsec;
+                }
+                clock.advance(stepNsec);
+                sim.calculateNextFrame();
+            }
+            totalSteps += sim.getStepCount();
+
+            String result;
+            if (endTick < 0) {
+                result = "unfinished in recording";
+            } else if (sim.getGamePlayState() == Simulation.GAME_LOST
+                    && sim.getStepCount() == endTick + 1
+                    && sim.getScore() == replay.getEndScore()) {
+                result = "matches";
+            } else {
+                result = "DIFFERS (recorded step " + endTick + " score "
+                        + replay.getEndScore() + ")";
+                mismatches++;
+            }
+            System.out.println("game " + games + " seed " + replay.getSeed() + ": "
+                    + sim.getStepCount() + " steps, score " + sim.getScore() + ", " + result);
+        }
+        long elapsedNsec = System.nanoTime() - startNsec;
+        sim.release();
+
+        System.out.println(games + " games, " + totalSteps + " steps in "
+                + (elapsedNsec / 1000000) + " ms, " + mismatches + " mismatches");
+        if (mismatches != 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.whatizthis.aeonian.sim;
+
+/**
+ * Kernels written as ordinary loops.  This is the reference implementation, and the one the
+ * game uses unless told otherwise.
+ */
+public class ScalarKernels implements Kernels {
+    /**
+     * Shared instance.  There's no state, so everybody can use the same one.
+     */
+    public static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void integrate(float[] x, float[] y, float[] dirX, float[] dirY, float[] speed,
+            int count, float deltaSec) {
+        for (int i = 0; i < count; i++) {
+            float distance = speed[i] * deltaSec;
+            x[i] += dirX[i] * distance;
+            y[i] += dirY[i] * distance;
+        }
+    }
+
+    @Override
+    public int collectOverlaps(float left, float right, float bottom, float top, float[] x,
+            float[] y, float[] radius, int count, CollisionQuery out) {
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            float diameter = radius[i] * 2.0f;
+            if (Collision.checkCoarseCollision(x[i], y[i], diameter, diameter,
+                    left, right, bottom, top)) {
+                out.add(i);
+                found++;
+            }
+        }
+        return found;
+    }
+}
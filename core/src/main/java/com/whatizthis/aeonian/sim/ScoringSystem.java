@@ -0,0 +1,74 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.GameSystem;
+import com.whatizthis.aeonian.ecs.World;
+import com.whatizthis.aeonian.factories.BallFactory;
+
+/**
+ * Turns what happened during the step into score changes and game state changes.
+ * <p>
+ * Points come from surviving (the score timer, see TimerSystem) and are lost for every ball
+ * that leaves the arena without hitting anything.  Destroyed enemies are passed along to the
+ * listener, which typically plays a sound.  If the player was hit, the game is over.
+ */
+class ScoringSystem extends GameSystem {
+    static final int MISSED_BALL_PENALTY = 10;
+
+    private final Simulation mSim;
+    private final TimerSystem mTimers;
+    private final Archetype mBalls;
+    private boolean mSweepBalls = true;
+
+    ScoringSystem(Simulation sim, TimerSystem timers, Archetype balls) {
+        super("scoring");
+        mSim = sim;
+        mTimers = timers;
+        mBalls = balls;
+    }
+
+    /**
+     * Turns the out-of-bounds sweep on or off.  Turn it off when something else is taking
+     * care of balls that leave (see KineticScheduler).
+     */
+    void setSweepBalls(boolean sweep) {
+        mSweepBalls = sweep;
+    }
+
+    @Override
+    public void update(World world, double deltaSec) {
+        Simulation sim = mSim;
+
+        int ticks = mTimers.getDueScoreTicks();
+        if (ticks > 0) {
+            sim.addScore(ticks);
+        }
+
+        if (mSweepBalls) {
+            sweepBalls(sim);
+        }
+
+        sim.dispatchStepEvents();
+    }
+
+    private void sweepBalls(Simulation sim) {
+        // Balls that leave the arena are gone for good, and cost some points.
+        Archetype balls = mBalls;
+        float[] ballX = balls.column(Components.X);
+        float[] ballY = balls.column(Components.Y);
+        float[] ballRadius = balls.column(Components.RADIUS);
+        for (int i = 0; i < balls.size(); ) {
+            if (isOutOfBounds(ballX[i], ballY[i], ballRadius[i])) {
+                sim.addScore(-MISSED_BALL_PENALTY);
+                BallFactory.release(balls, i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static boolean isOutOfBounds(float x, float y, float r) {
+        return x < -r || y < -r || x > Arena.WIDTH + r || y > Arena.HEIGHT + r;
+    }
+}
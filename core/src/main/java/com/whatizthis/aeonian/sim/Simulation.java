@@ -0,0 +1,771 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.Schedule;
+import com.whatizthis.aeonian.ecs.World;
+import com.whatizthis.aeonian.factories.BallFactory;
+import com.whatizthis.aeonian.factories.EnemyFactory;
+
+/**
+ * The game simulation: balls, enemies, the player, and the rules that tie them together.
+ * <p>
+ * This is the half of the game that doesn't draw anything.  It has no Android dependencies,
+ * so it can be driven from a plain JVM (see HeadlessRunner) as well as from GameState on the
+ * device.  Time comes from an injected Clock, and log output goes to an injected Logger.
+ * <p>
+ * The entities live in an ECS World, one Archetype per kind of entity, and each step runs a
+ * fixed Schedule of systems over them: timers, spawn, movement, collision, scoring.  Once per
+ * frame a render-prep system copies the result into a Snapshot.  Each schedule keeps
+ * per-system timing, available through getStepSchedule() and getFrameSchedule().
+ * <p>
+ * Like GameState, this is not thread-safe.  All calls must come from the thread that runs
+ * the frame loop.
+ */
+public class Simulation {
+    public static final boolean DEBUG_COLLISIONS = false;       // enable increased logging
+
+    /**
+     * Callbacks for things the host may want to react to, e.g. by playing a sound.  Called
+     * on the frame loop thread.
+     */
+    public interface Listener {
+        /**
+         * An enemy was hit by a ball.
+         */
+        void onEnemyDestroyed();
+
+        /**
+         * The game has ended.  May be called more than once.
+         */
+        void onGameOver();
+    }
+
+    private final Clock mClock;
+    private final Logger mLog;
+    private Listener mListener;
+
+    // Gameplay configurables.  These may not be changed while the game is in progress.
+    private int mMaxLives = 3;
+
+    /*
+     * Entities, and the systems that operate on them.
+     */
+    private final World mWorld = new World();
+    private final Archetype mBalls;
+    private final Archetype mEnemies;
+    private final Archetype mPlayer;
+    private final Schedule mStepSchedule = new Schedule();
+    private final Schedule mFrameSchedule = new Schedule();
+    private final TimerSystem mTimerSystem;
+    private final SpawnSystem mSpawnSystem;
+    private final MovementSystem mMovementSystem;
+    private final CollisionSystem mCollisionSystem;
+    private final ScoringSystem mScoringSystem;
+    private final RenderPrepSystem mRenderPrepSystem;
+
+    /*
+     * Randomness.  Everything that needs random numbers gets its own stream, derived from
+     * mSeed, and reset() restarts them all.  Given the same seed, the same input on the same
+     * steps, and a clock that advances by the same amounts, every game plays out exactly
+     * the same way.  The default seed is different every time.
+     */
+    private static final int STREAM_ENEMIES = 0;
+    private static final int STREAM_SPAWN_TIMER = 1;
+    private long mSeed = System.nanoTime();
+    private final RandomStream mEnemyRandom = new RandomStream(mSeed, STREAM_ENEMIES);
+    private final RandomStream mSpawnRandom = new RandomStream(mSeed, STREAM_SPAWN_TIMER);
+
+    // Simulated time: the number of steps run since the last reset(), in nanoseconds.
+    private long mSimTimeNsec;
+    private long mStepCount;
+    private long mCollisionCandidates;
+
+    // Running totals for the life of the Simulation, which reset() leaves alone.  They go out
+    // in the snapshot for the session metrics.
+    private long mTotalSteps;
+    private long mTotalCollisionCandidates;
+    private long mTotalEnemiesDestroyed;
+
+    /*
+     * Input recording and playback.  Inputs are tagged with the number of the step they take
+     * effect on, so a game can be played back exactly without caring how the steps were
+     * grouped into frames.
+     */
+    private InputRecorder mRecorder;
+    private InputReplay mReplay;
+
+    /*
+     * Touches from the UI thread.  This is the one thing other threads may touch directly
+     * (see TouchRing); the ring is drained at the start of every frame, and the touches go
+     * to the FireControl, which decides when they become shots.  A burst of taps -- or a
+     * backlog that built up while we were paused -- is spread over several frames rather
+     * than landing all at once.
+     */
+    public static final int DEFAULT_MAX_SHOTS_PER_FRAME = 8;
+    private final TouchRing mTouches = new TouchRing(TouchRing.DEFAULT_CAPACITY);
+    private final FireControl mFireControl = new FireControl();
+    private final InputLatency mInputLatency = new InputLatency();
+    private int mMaxShotsPerFrame = DEFAULT_MAX_SHOTS_PER_FRAME;
+    private final TouchRing.Sink mTouchSink = new TouchRing.Sink() {
+        @Override
+        public void onTouch(int action, float x, float y, long whenNsec, int pointerId) {
+            mFireControl.onTouch(action, x, y, whenNsec, pointerId);
+        }
+    };
+
+    // Things that happened during the current step, for the scoring system to deal with.
+    private int mEnemiesDestroyed;
+    private boolean mPlayerHit;
+
+    /*
+     * Timestamp of previous frame.  Used for animation.  We cap the maximum inter-frame delta
+     * at 0.5 seconds, so that a major hiccup won't cause things to behave too crazily.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    private static final long MAX_FRAME_DELTA_NSEC = 500000000L;
+    private long mPrevFrameWhenNsec;
+
+    /*
+     * The simulation advances in fixed-size steps, independent of the display refresh rate.
+     * Elapsed frame time goes into an accumulator, and we run as many whole steps as fit.
+     * The renderer blends between the last two steps, so motion still looks smooth when the
+     * display rate and the step rate don't line up (see Snapshot.getInterpolation()).
+     */
+    public static final int DEFAULT_STEP_RATE = 120;
+    private long mStepNsec;
+    private double mStepSec;
+    private long mAccumulatedNsec;
+
+    /*
+     * Pause briefly on certain transitions, e.g. before launching a new ball after one was lost.
+     */
+    private float mPauseDuration;
+
+    /*
+     * Game play state.
+     */
+    public static final int GAME_INITIALIZING = 0;
+    public static final int GAME_READY = 1;
+    public static final int GAME_PLAYING = 2;
+    public static final int GAME_LOST = 4;
+    private int mGamePlayState;
+
+    private boolean mIsAnimating;
+    private int mLivesRemaining;
+    private int mScore;
+
+    /*
+     * Status message to display in the middle of the screen.  The renderer decides what these
+     * actually look like.
+     */
+    public static final int STATUS_NONE = -1;
+    public static final int STATUS_READY = 0;
+    public static final int STATUS_GAME_OVER = 1;
+    private int mStatusMessage;
+
+    /**
+     * Creates a simulation.  Arena.setDimensions() must have been called first.
+     */
+    public Simulation(Clock clock, Logger logger) {
+        mClock = clock;
+        mLog = logger;
+        setStepRate(DEFAULT_STEP_RATE);
+
+        int moving = Components.POSITION | Components.PREV_POSITION | Components.MOTION
+                | Components.SHAPE;
+        mBalls = mWorld.createArchetype("balls", moving, BallFactory.POOL_SIZE);
+        mEnemies = mWorld.createArchetype("enemies", moving, EnemyFactory.POOL_SIZE);
+        mPlayer = mWorld.createArchetype("player", Components.POSITION | Components.SHAPE, 1);
+
+        mTimerSystem = new TimerSystem(this);
+        mStepSchedule.add(mTimerSystem);
+        mSpawnSystem = new SpawnSystem(this, mTimerSystem, mBalls, mEnemies);
+        mStepSchedule.add(mSpawnSystem);
+        mMovementSystem = new MovementSystem();
+        mStepSchedule.add(mMovementSystem);
+        mCollisionSystem = new CollisionSystem(this, mBalls, mEnemies, mPlayer);
+        mStepSchedule.add(mCollisionSystem);
+        mScoringSystem = new ScoringSystem(this, mTimerSystem, mBalls);
+        mStepSchedule.add(mScoringSystem);
+
+        mRenderPrepSystem = new RenderPrepSystem(mBalls, mEnemies);
+        mFrameSchedule.add(mRenderPrepSystem);
+    }
+
+    /**
+     * Sets the number of simulation steps per second.  May not be changed while the game is
+     * in progress.
+     */
+    public void setStepRate(int stepsPerSecond) {
+        if (stepsPerSecond <= 0) {
+            throw new RuntimeException("step rate must be positive (" + stepsPerSecond + ")");
+        }
+        mStepNsec = (long) NANOS_PER_SECOND / stepsPerSecond;
+        mStepSec = mStepNsec / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Changes how the collision system finds balls near an enemy.  Unlike most settings,
+     * this may be changed at any time (from the simulation thread); the new broad phase is
+     * brought up to date at the start of the next step.
+     */
+    public void setBroadPhase(BroadPhase broadPhase) {
+        if (broadPhase == null) {
+            throw new RuntimeException("null broad phase");
+        }
+        mLog.d("broad phase now " + broadPhase.getName());
+        mCollisionSystem.setBroadPhase(broadPhase);
+    }
+
+    public BroadPhase getBroadPhase() {
+        return mCollisionSystem.getBroadPhase();
+    }
+
+    /**
+     * Sets how many (enemy, ball) pairs there have to be in a step before collision detection
+     * is spread over several cores.  0 means always, Long.MAX_VALUE never.  Like the broad
+     * phase, this may be changed at any time (from the simulation thread).
+     */
+    public void setParallelCollisionPairs(long pairs) {
+        mLog.d("parallel collision above " + pairs + " pairs");
+        mCollisionSystem.setParallelPairs(pairs);
+    }
+
+    /**
+     * Shuts down the worker threads used for parallel collision detection.  Call when done
+     * with the simulation, or when it won't be stepped for a while (e.g. the game is
+     * paused); they're started back up if a later step needs them.  Simulation thread only,
+     * or while it's stopped.
+     */
+    public void release() {
+        mCollisionSystem.release();
+    }
+
+    /**
+     * Sets the seed for everything random in the game, and restarts the random streams.
+     * Every reset() restarts them from this seed too.
+     */
+    public void setSeed(long seed) {
+        mLog.d("seed now " + seed);
+        mSeed = seed;
+        restartRandom();
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Returns the random stream used to place new enemies.
+     */
+    RandomStream getEnemyRandom() {
+        return mEnemyRandom;
+    }
+
+    /**
+     * Returns the random stream used to pick enemy spawn delays.
+     */
+    RandomStream getSpawnRandom() {
+        return mSpawnRandom;
+    }
+
+    private void restartRandom() {
+        mEnemyRandom.setSeed(mSeed, STREAM_ENEMIES);
+        mSpawnRandom.setSeed(mSeed, STREAM_SPAWN_TIMER);
+    }
+
+    /**
+     * Starts writing down the inputs to every game from the next reset() on.  Pass null to
+     * stop.  Must be called from the simulation thread, or while it's stopped.
+     */
+    public void setInputRecorder(InputRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    public InputRecorder getInputRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Plays back recorded inputs instead of taking them from the host.  Each reset() moves
+     * on to the next game in the log.  Pass null to go back to live input.  Must be called
+     * from the simulation thread, or while it's stopped.
+     */
+    public void setInputReplay(InputReplay replay) {
+        mReplay = replay;
+    }
+
+    public InputReplay getInputReplay() {
+        return mReplay;
+    }
+
+    /**
+     * Returns the ring that carries touches in from the UI thread.  Unlike everything else
+     * here, the ring's offer() may be called from another thread (just one).
+     */
+    public TouchRing getTouchRing() {
+        return mTouches;
+    }
+
+    /**
+     * Returns the tracker for how long taps take to reach the screen.  The renderer reports
+     * to it after each frame; see InputLatency for which threads may call what.
+     */
+    public InputLatency getInputLatency() {
+        return mInputLatency;
+    }
+
+    /**
+     * Sets the most shots we'll fire in one frame.  Any more wait for the next.
+     */
+    public void setMaxShotsPerFrame(int max) {
+        if (max <= 0) {
+            throw new RuntimeException("max shots per frame must be positive (" + max + ")");
+        }
+        mMaxShotsPerFrame = max;
+    }
+
+    /**
+     * Writes down an input that arrived during, or ahead of, the current step.
+     */
+    void recordInput(int type) {
+        if (mRecorder != null) {
+            mRecorder.event(mStepCount, type);
+        }
+    }
+
+    /**
+     * Switches collision handling between testing every step (the default) and predicting
+     * collisions ahead of time (see KineticScheduler).  May be changed at any time (from the
+     * simulation thread); predictions are made from scratch on the next step.
+     */
+    public void setKineticCollisions(boolean kinetic) {
+        mLog.d("kinetic collisions " + (kinetic ? "on" : "off"));
+        mCollisionSystem.setKinetic(kinetic);
+        mCollisionSystem.reset();
+        mScoringSystem.setSweepBalls(!kinetic);
+    }
+
+    public boolean isKineticCollisions() {
+        return mCollisionSystem.getKinetic() != null;
+    }
+
+    /**
+     * Changes the kernels used to move things.  May be changed at any time (from the
+     * simulation thread).  To use them for collisions too, pass them to a
+     * BruteForceBroadPhase.
+     */
+    public void setKernels(Kernels kernels) {
+        mLog.d("kernels now " + kernels.getName());
+        mMovementSystem.setKernels(kernels);
+    }
+
+    /**
+     * Sets the listener.  Pass null to remove it.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Resets game state to initial values.
+     */
+    public void reset() {
+        mGamePlayState = GAME_INITIALIZING;
+        mIsAnimating = true;
+        mStatusMessage = STATUS_NONE;
+        mPrevFrameWhenNsec = 0;
+        mAccumulatedNsec = 0;
+        mPauseDuration = 0.0f;
+        mLivesRemaining = mMaxLives;
+        mScore = 0;
+        mBalls.clear();
+        mEnemies.clear();
+        mSpawnSystem.clear();
+        mTouches.clear();
+        mFireControl.clear();
+        mCollisionSystem.reset();
+        if (mReplay != null && mReplay.nextGame()) {
+            mSeed = mReplay.getSeed();
+        }
+        restartRandom();
+        mTimerSystem.reset();
+        mSimTimeNsec = 0;
+        mStepCount = 0;
+        mCollisionCandidates = 0;
+        if (mRecorder != null) {
+            mRecorder.beginGame(mSeed);
+        }
+        mEnemiesDestroyed = 0;
+        mPlayerHit = false;
+    }
+
+    /**
+     * Restores the values captured by a saved game.
+     */
+    public void restore(int gamePlayState, int statusMessage, int livesRemaining, int score) {
+        mGamePlayState = gamePlayState;
+        mStatusMessage = statusMessage;
+        mLivesRemaining = livesRemaining;
+        mScore = score;
+    }
+
+    /**
+     * Returns how much simulated time has passed since the last reset(): the number of steps
+     * run times the length of a step.  Unlike the clock, this is the same on every run of the
+     * same game.
+     */
+    public long getSimTimeNsec() {
+        return mSimTimeNsec;
+    }
+
+    /**
+     * Returns the number of steps run since the last reset().
+     */
+    public long getStepCount() {
+        return mStepCount;
+    }
+
+    public int getGamePlayState() {
+        return mGamePlayState;
+    }
+
+    public int getStatusMessage() {
+        return mStatusMessage;
+    }
+
+    public int getLivesRemaining() {
+        return mLivesRemaining;
+    }
+
+    public int getScore() {
+        return mScore;
+    }
+
+    public void updateScore() {
+        mScore++;
+    }
+
+    /**
+     * Adds "points" to the score, which may be negative.  The score doesn't go below zero.
+     */
+    void addScore(int points) {
+        mScore += points;
+        if (mScore < 0) {
+            mScore = 0;
+        }
+    }
+
+    /**
+     * Notes that an enemy was destroyed during this step.  Called by the collision system.
+     */
+    void recordEnemyDestroyed() {
+        mEnemiesDestroyed++;
+        mTotalEnemiesDestroyed++;
+    }
+
+    /**
+     * Notes that an enemy reached the player during this step.  Called by the collision
+     * system.
+     */
+    void recordPlayerHit() {
+        mPlayerHit = true;
+    }
+
+    /**
+     * Acts on whatever was recorded during this step.  Called by the scoring system.
+     */
+    void dispatchStepEvents() {
+        if (mListener != null) {
+            for (int i = 0; i < mEnemiesDestroyed; i++) {
+                /*
+                 * The listener will typically play a sound.  If the sound code takes a
+                 * while to queue up sounds, we could stall the simulation thread.  Unless
+                 * enemies are arriving at an absurd rate we shouldn't be destroying more
+                 * than a couple in a single step, so we shouldn't be stressing SoundPool much.
+                 */
+                mListener.onEnemyDestroyed();
+            }
+        }
+        mEnemiesDestroyed = 0;
+
+        if (mPlayerHit) {
+            mGamePlayState = GAME_LOST;
+            mPlayerHit = false;
+            if (mRecorder != null) {
+                mRecorder.endGame(mStepCount, mScore);
+            }
+        }
+    }
+
+    /**
+     * Returns how many (enemy, ball) pairs the collision system has looked at closely since
+     * the last reset().  A rough measure of how much collision work there was.
+     */
+    public long getCollisionCandidates() {
+        return mCollisionCandidates;
+    }
+
+    /**
+     * Returns the systems run on every step, for timing reports.
+     */
+    public Schedule getStepSchedule() {
+        return mStepSchedule;
+    }
+
+    /**
+     * Returns the systems run once per frame, for timing reports.
+     */
+    public Schedule getFrameSchedule() {
+        return mFrameSchedule;
+    }
+
+    /**
+     * Returns the length of a step, in nanoseconds.
+     */
+    public long getStepNsec() {
+        return mStepNsec;
+    }
+
+    /**
+     * Returns the number of nanoseconds until there will be enough accumulated time for
+     * another step, as of the last call to calculateNextFrame().
+     */
+    public long getNanosUntilNextStep() {
+        return mStepNsec - mAccumulatedNsec;
+    }
+
+    /**
+     * Copies everything the renderer needs into "snap".
+     */
+    public void writeSnapshot(Snapshot snap) {
+        mRenderPrepSystem.setTarget(snap);
+        mFrameSchedule.run(mWorld, mStepSec);
+        mRenderPrepSystem.setTarget(null);
+
+        snap.setStatus(mScore, mStatusMessage, mIsAnimating);
+
+        // The current positions are as of the end of the last whole step, which is a little
+        // before the last frame; the leftover time is still sitting in the accumulator.
+        snap.setStepTime(mPrevFrameWhenNsec - mAccumulatedNsec, mStepNsec);
+        snap.setSimTime(mSimTimeNsec);
+        snap.setMeasuredShotCount(mInputLatency.getCreatedCount());
+
+        int capacity = 0;
+        for (int i = 0; i < mWorld.getArchetypeCount(); i++) {
+            capacity += mWorld.getArchetype(i).getCapacity();
+        }
+        snap.setPoolCapacity(capacity);
+        snap.setTotals(mTotalSteps, mTotalCollisionCandidates, mTotalEnemiesDestroyed,
+                mSpawnSystem.getEnemiesSpawned(), mSpawnSystem.getBallsSpawned());
+    }
+
+    /**
+     * Returns true if the host should keep calling calculateNextFrame().
+     */
+    public boolean isAnimating() {
+        return mIsAnimating;
+    }
+
+    /**
+     * Performs some housekeeping after the display has changed, e.g. after a screen rotation.
+     */
+    public void surfaceChanged() {
+        // Pause briefly.  This gives the user time to orient themselves after a screen
+        // rotation or switching back from another app.
+        setPauseTime(1.5f);
+
+        // Reset this so we don't leap forward.  (Not strictly necessary because of the
+        // game pause we set above -- we don't advance the ball state on the first frames we
+        // draw, so this will reset naturally.)
+        mPrevFrameWhenNsec = 0;
+
+        // We need to draw the screen at least once, so set this whether or not we're actually
+        // animating.  If we're in a "game over" state, this will go back to "false" right away.
+        mIsAnimating = true;
+    }
+
+    /**
+     * Sets the pause time.  The game will continue to execute and render, but won't advance
+     * game state.  Used at the start of the game to give the user a chance to orient
+     * themselves to the board.
+     */
+    void setPauseTime(float durationMsec) {
+        mPauseDuration = durationMsec;
+    }
+
+    /**
+     * Creates the player entity, in the middle of the arena.
+     */
+    public void allocPlayer() {
+        Archetype player = mPlayer;
+        player.clear();
+        int row = player.add();
+        player.column(Components.X)[row] = Arena.CENTER_X;
+        player.column(Components.Y)[row] = Arena.CENTER_Y;
+        player.column(Components.RADIUS)[row] = Arena.PLAYER_DIAMETER / 2.0f;
+    }
+
+    public Archetype getPlayer() {
+        return mPlayer;
+    }
+
+    /**
+     * Spawns an enemy right away, without waiting for the spawn timer.
+     */
+    void allocEnemy() {
+        recordInput(InputRecorder.TYPE_ENEMY);
+        EnemyFactory.spawn(mEnemies, mEnemyRandom);
+    }
+
+    public Archetype getEnemies() {
+        return mEnemies;
+    }
+
+    /**
+     * Fires a ball from the start position toward (touchX,touchY).  The ball appears on the
+     * next step.  The position is rounded a little, to what an InputRecorder can hold.
+     */
+    public void allocBall(float touchX, float touchY) {
+        allocBall(touchX, touchY, 0);
+    }
+
+    /**
+     * As allocBall(float,float), for a shot fired by a tap at "tapNsec" (real time), so the
+     * latency can be measured.
+     */
+    void allocBall(float touchX, float touchY, long tapNsec) {
+        touchX = InputRecorder.quantize(touchX);
+        touchY = InputRecorder.quantize(touchY);
+        if (mRecorder != null) {
+            mRecorder.shot(mStepCount, touchX, touchY);
+        }
+        mSpawnSystem.queueShot(touchX, touchY, tapNsec);
+    }
+
+    public Archetype getBalls() {
+        return mBalls;
+    }
+
+    /**
+     * Returns the World that holds all of the entities.
+     */
+    public World getWorld() {
+        return mWorld;
+    }
+
+    /**
+     * Updates all game state for the next frame.  This primarily consists of moving the ball
+     * and checking for collisions.
+     */
+    public void calculateNextFrame() {
+        /*
+         * Pick up any touches.  They become shots on the next step, whenever that is, so
+         * there's no hurry: the simulation thread doesn't need waking for them, and one pass
+         * here per frame is plenty.  We take everything that's waiting -- it's mostly moves,
+         * which are cheap -- and let the FireControl hold back the shots.
+         *
+         * The touches carry real-time stamps, so fingers held down are timed against the
+         * real clock rather than mClock.
+         */
+        mTouches.drain(mTouchSink, mTouches.getCapacity());
+        mFireControl.update(Clock.SYSTEM.nanoTime());
+        mFireControl.fire(this, mMaxShotsPerFrame);
+
+        // First frame has no time delta, so make it a no-op.
+        if (mPrevFrameWhenNsec == 0) {
+            mPrevFrameWhenNsec = mClock.nanoTime();     // use monotonic clock
+            mAccumulatedNsec = 0;
+            return;
+        }
+
+        /*
+         * We used to move everything by (speed * time since the last frame).  That meant the
+         * distance traveled per frame -- and so the amount of collision work -- depended on
+         * the display's refresh rate and on whatever jitter there was in the frame timing,
+         * and the game wasn't deterministic.  Instead, we feed the elapsed time into an
+         * accumulator and advance the simulation by whole fixed-size steps.  A 60Hz device
+         * runs two 120Hz steps per frame, a 120Hz device runs one, and a 90Hz device
+         * alternates.  Each step does the same amount of work no matter what.
+         *
+         * The time left in the accumulator is less than one step.  Rather than let things
+         * visibly stutter, the renderer blends between the last two states.
+         */
+        long nowNsec = mClock.nanoTime();
+        long deltaNsec = nowNsec - mPrevFrameWhenNsec;
+        if (deltaNsec > MAX_FRAME_DELTA_NSEC) {
+            // We went to sleep for an extended period.  Cap it at a reasonable limit.
+            mLog.d("delta time was " + (deltaNsec / NANOS_PER_SECOND) + ", capping at "
+                    + (MAX_FRAME_DELTA_NSEC / NANOS_PER_SECOND));
+            deltaNsec = MAX_FRAME_DELTA_NSEC;
+        }
+        mPrevFrameWhenNsec = nowNsec;
+
+        boolean advanceFrame = true;
+
+        // Do something appropriate based on our current state.
+        switch (mGamePlayState) {
+            case GAME_INITIALIZING:
+                mGamePlayState = GAME_READY;
+                break;
+            case GAME_READY:
+                mStatusMessage = STATUS_READY;
+                if (advanceFrame) {
+                    // "ready" has expired, move ball to starting position
+                    mGamePlayState = GAME_PLAYING;
+                    mStatusMessage = STATUS_NONE;
+                    setPauseTime(0.5f);
+                    advanceFrame = false;
+                }
+                break;
+            case GAME_LOST:
+                mStatusMessage = STATUS_GAME_OVER;
+                mIsAnimating = false;
+                advanceFrame = false;
+                if (mListener != null) {
+                    mListener.onGameOver();
+                }
+                break;
+            case GAME_PLAYING:
+                break;
+            default:
+                mLog.e("GLITCH: bad state " + mGamePlayState);
+                break;
+        }
+
+        if (!advanceFrame) {
+            // Time doesn't carry over a pause, and nothing should be drawn mid-step.
+            mAccumulatedNsec = 0;
+            MovementSystem.savePositions(mWorld);
+            return;
+        }
+
+        mAccumulatedNsec += deltaNsec;
+        while (mAccumulatedNsec >= mStepNsec) {
+            mAccumulatedNsec -= mStepNsec;
+            step(mStepSec);
+            if (mGamePlayState != GAME_PLAYING) {
+                // Game ended mid-frame.  Don't keep simulating the aftermath.
+                mAccumulatedNsec = 0;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Advances the game by one fixed step.
+     */
+    private void step(double deltaSec) {
+        if (mReplay != null) {
+            mReplay.apply(this, mStepCount);
+        }
+        mStepSchedule.run(mWorld, deltaSec);
+        long candidates = mCollisionSystem.getCandidateTotal();
+        mCollisionCandidates += candidates;
+        mTotalCollisionCandidates += candidates;
+        mStepCount++;
+        mTotalSteps++;
+        mSimTimeNsec += mStepNsec;
+    }
+}
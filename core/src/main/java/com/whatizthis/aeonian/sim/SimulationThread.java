@@ -0,0 +1,177 @@
+package com.whatizthis.aeonian.sim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the Simulation on its own thread, publishing a Snapshot after every frame.
+ * <p>
+ * On the device the renderer used to advance the game and then draw it, one after the other,
+ * so an expensive collision frame came straight out of the GL budget and we'd miss vsync.
+ * With the simulation over here, the two overlap; the renderer just draws whatever snapshot
+ * is newest.
+ * <p>
+ * The Simulation itself isn't thread-safe, so once this thread is started nobody else may
+ * touch it.  Other threads can get work done on the simulation with queueEvent(), much like
+ * GLSurfaceView.queueEvent().  Threads can't be restarted, so create a new one each time the
+ * game resumes.
+ */
+public class SimulationThread extends Thread {
+    private final Simulation mSim;
+    private final SnapshotBuffer mSnapshots;
+    private final ConcurrentLinkedQueue<Runnable> mEventQueue =
+            new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean mShouldExit;
+
+    // Deterministic mode: if set, we advance this by exactly one step per step's worth of
+    // real time, instead of letting the simulation see real time.
+    private ManualClock mManualClock;
+    private long mNextStepWhenNsec;
+    private boolean mFullSpeed;
+
+    // If set, how long each calculateNextFrame() takes, in real time.
+    private Histogram mFrameTiming;
+
+    // In deterministic mode, how far behind real time we'll try to catch up from.  Beyond
+    // this, we just carry on from wherever we are.
+    private static final long MAX_LAG_NSEC = 250000000L;
+
+    public SimulationThread(Simulation sim, SnapshotBuffer snapshots) {
+        super("Simulation");
+        mSim = sim;
+        mSnapshots = snapshots;
+    }
+
+    /**
+     * Runs the simulation on a simulated clock, for deterministic play.  "clock" must be the
+     * one the Simulation was created with.  Call before start().
+     * <p>
+     * We still go at real-time speed, but each frame moves the clock forward by exactly one
+     * step, so frame timing jitter, and touches that wake us early, have no effect on how the
+     * game plays out.  If we fall far behind (e.g. the device was busy), the game slows down
+     * rather than skipping ahead.
+     */
+    public void setManualClock(ManualClock clock) {
+        mManualClock = clock;
+    }
+
+    /**
+     * With a manual clock, runs steps back to back as fast as we can, rather than at
+     * real-time speed.  Used to play back recorded input quickly.  Call before start().
+     */
+    public void setFullSpeed(boolean fullSpeed) {
+        mFullSpeed = fullSpeed;
+    }
+
+    /**
+     * Records how long each frame's calculateNextFrame() takes into "timing".  The histogram
+     * belongs to this thread while it runs.  Call before start().
+     */
+    public void setFrameTiming(Histogram timing) {
+        mFrameTiming = timing;
+    }
+
+    /**
+     * Arranges for "event" to run on the simulation thread, before the next frame.  May be
+     * called from any thread.
+     */
+    public void queueEvent(Runnable event) {
+        mEventQueue.add(event);
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Asks the thread to stop, and waits for it to do so.  When this returns, the caller may
+     * use the Simulation directly.
+     */
+    public void requestExitAndWait() {
+        mShouldExit = true;
+        LockSupport.unpark(this);
+
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        Simulation sim = mSim;
+        SnapshotBuffer snapshots = mSnapshots;
+
+        while (!mShouldExit) {
+            Runnable event;
+            while ((event = mEventQueue.poll()) != null) {
+                event.run();
+            }
+
+            boolean animating = sim.isAnimating();
+            long waitNsec = 0;
+            if (animating) {
+                if (mManualClock == null) {
+                    calculateNextFrame();
+                    waitNsec = sim.getNanosUntilNextStep();
+                } else {
+                    if (advanceManualClock()) {
+                        calculateNextFrame();
+                    }
+                    waitNsec = mNextStepWhenNsec - System.nanoTime();
+                }
+            }
+
+            sim.writeSnapshot(snapshots.getBack());
+            snapshots.publish();
+
+            if (animating && sim.isAnimating()) {
+                // Sleep until there's another step's worth of time to simulate.  Events (e.g.
+                // touches) wake us early, which is fine; they'll be handled right away and
+                // the step catches up on the next pass.
+                LockSupport.parkNanos(waitNsec);
+            } else {
+                // Game over.  Nothing to do until somebody queues an event or tells us to go.
+                LockSupport.park();
+            }
+        }
+    }
+
+    private void calculateNextFrame() {
+        if (mFrameTiming == null) {
+            mSim.calculateNextFrame();
+            return;
+        }
+        long startNsec = System.nanoTime();
+        mSim.calculateNextFrame();
+        mFrameTiming.record(System.nanoTime() - startNsec);
+    }
+
+    /**
+     * In deterministic mode, moves the clock forward one step if it's time.  Returns true if
+     * it did.
+     */
+    private boolean advanceManualClock() {
+        long nowNsec = System.nanoTime();
+        if (mFullSpeed) {
+            mManualClock.advance(mSim.getStepNsec());
+            mNextStepWhenNsec = nowNsec;
+            return true;
+        }
+        if (mNextStepWhenNsec == 0 || nowNsec - mNextStepWhenNsec > MAX_LAG_NSEC) {
+            // First time through, or we were held up.  Carry on from here.
+            mNextStepWhenNsec = nowNsec;
+        }
+        if (nowNsec - mNextStepWhenNsec < 0) {
+            return false;
+        }
+        long stepNsec = mSim.getStepNsec();
+        mManualClock.advance(stepNsec);
+        mNextStepWhenNsec += stepNsec;
+        return true;
+    }
+}
@@ -0,0 +1,260 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.factories.BallFactory;
+import com.whatizthis.aeonian.factories.EnemyFactory;
+
+/**
+ * A picture of the simulation at the end of a step: where everything is, and what to show.
+ * <p>
+ * Snapshots are written by the simulation thread and read by the renderer.  They're handed
+ * across through a SnapshotBuffer, which guarantees that nobody writes to a snapshot while the
+ * renderer holds it, so as far as the renderer is concerned a snapshot is immutable.  The
+ * storage is allocated up front and reused from frame to frame; it only grows if the arena
+ * gets more crowded than it has ever been before.
+ */
+public class Snapshot {
+    /**
+     * Positions and sizes for one kind of round entity, e.g. all of the balls.  Each entity has
+     * its position at the start and at the end of the step, so the renderer can blend
+     * between them.
+     */
+    public static class Bodies {
+        private float[] mPrevX, mPrevY;
+        private float[] mX, mY;
+        private float[] mDiameter;
+        private int mCount;
+
+        Bodies(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            mPrevX = new float[capacity];
+            mPrevY = new float[capacity];
+            mX = new float[capacity];
+            mY = new float[capacity];
+            mDiameter = new float[capacity];
+        }
+
+        /**
+         * Discards the contents, and makes sure there's room for at least "count" entities.
+         */
+        void reset(int count) {
+            if (count > mX.length) {
+                int capacity = mX.length;
+                while (capacity < count) {
+                    capacity *= 2;
+                }
+                allocate(capacity);
+            }
+            mCount = 0;
+        }
+
+        /**
+         * Replaces the contents with the entities in "arch", which must have position,
+         * previous position and shape components.
+         */
+        void set(Archetype arch) {
+            int count = arch.size();
+            reset(count);
+            System.arraycopy(arch.column(Components.PREV_X), 0, mPrevX, 0, count);
+            System.arraycopy(arch.column(Components.PREV_Y), 0, mPrevY, 0, count);
+            System.arraycopy(arch.column(Components.X), 0, mX, 0, count);
+            System.arraycopy(arch.column(Components.Y), 0, mY, 0, count);
+            float[] radius = arch.column(Components.RADIUS);
+            float[] diameter = mDiameter;
+            for (int i = 0; i < count; i++) {
+                diameter[i] = radius[i] * 2.0f;
+            }
+            mCount = count;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the X position of entity "index", blended between the start and end of the
+         * step.  See Snapshot.getInterpolation().
+         */
+        public float getXPosition(int index, float alpha) {
+            return mPrevX[index] + (mX[index] - mPrevX[index]) * alpha;
+        }
+
+        /**
+         * Returns the Y position of entity "index", blended between the start and end of the
+         * step.  See Snapshot.getInterpolation().
+         */
+        public float getYPosition(int index, float alpha) {
+            return mPrevY[index] + (mY[index] - mPrevY[index]) * alpha;
+        }
+
+        public float getDiameter(int index) {
+            return mDiameter[index];
+        }
+    }
+
+    private final Bodies mBalls = new Bodies(BallFactory.POOL_SIZE);
+    private final Bodies mEnemies = new Bodies(EnemyFactory.POOL_SIZE);
+
+    private int mScore;
+    private int mStatusMessage = Simulation.STATUS_NONE;
+    private boolean mIsAnimating = true;
+
+    // When the step that produced this snapshot ended, according to the simulation's clock,
+    // and how long a step is.
+    private long mStepWhenNsec;
+    private long mStepNsec = 1;
+
+    // Simulated time at the end of the step.  See Simulation.getSimTimeNsec().
+    private long mSimTimeNsec;
+
+    // How many measured shots had been created as of this snapshot.  See InputLatency.
+    private long mMeasuredShotCount;
+
+    // Slots allocated across all of the world's archetypes, live or not.
+    private int mPoolCapacity;
+
+    // Running totals since the Simulation was created.  See Simulation.writeSnapshot().
+    private long mTotalSteps;
+    private long mTotalCollisionCandidates;
+    private long mTotalEnemiesDestroyed;
+    private long mTotalEnemiesSpawned;
+    private long mTotalBallsSpawned;
+
+    public Bodies getBalls() {
+        return mBalls;
+    }
+
+    public Bodies getEnemies() {
+        return mEnemies;
+    }
+
+    public int getScore() {
+        return mScore;
+    }
+
+    /**
+     * Returns one of the Simulation.STATUS_* values.
+     */
+    public int getStatusMessage() {
+        return mStatusMessage;
+    }
+
+    /**
+     * Returns false once the game has stopped moving (i.e. it's over).
+     */
+    public boolean isAnimating() {
+        return mIsAnimating;
+    }
+
+    /**
+     * Returns how far to blend from the start of the step toward the end, for a frame drawn
+     * at time "nowNsec" (on the simulation's clock).  The result is in the range [0,1].
+     * <p>
+     * We draw things one step behind where the simulation has them.  That way we're always
+     * blending between two states we actually have, rather than guessing where things will
+     * be next.
+     */
+    public float getInterpolation(long nowNsec) {
+        float alpha = (float) (nowNsec - mStepWhenNsec) / mStepNsec;
+        if (alpha < 0.0f) {
+            return 0.0f;
+        } else if (alpha > 1.0f) {
+            return 1.0f;
+        }
+        return alpha;
+    }
+
+    /**
+     * Returns the simulated time matching what's drawn with blend factor "alpha" (from
+     * getInterpolation()).  Use this rather than a real clock to animate anything that should
+     * look the same on every run of a game.
+     */
+    public long getSimTimeNsec(float alpha) {
+        long timeNsec = mSimTimeNsec - mStepNsec + (long) (alpha * mStepNsec);
+        return timeNsec > 0 ? timeNsec : 0;
+    }
+
+    /**
+     * Returns the number of balls fired by taps that have been created so far, and so are
+     * visible in this snapshot or an earlier one.  See InputLatency.
+     */
+    public long getMeasuredShotCount() {
+        return mMeasuredShotCount;
+    }
+
+    /**
+     * Returns the number of entity slots the simulation has allocated, used or not.  This
+     * only goes up; if it keeps climbing, the pools are sized too small.
+     */
+    public int getPoolCapacity() {
+        return mPoolCapacity;
+    }
+
+    /*
+     * Running totals since the Simulation was created, unaffected by new games.  These are
+     * for the session metrics; everything else here is about the current game.
+     */
+
+    public long getTotalSteps() {
+        return mTotalSteps;
+    }
+
+    /**
+     * Returns how many (enemy, ball) pairs the collision system has looked at closely.  See
+     * Simulation.getCollisionCandidates().
+     */
+    public long getTotalCollisionCandidates() {
+        return mTotalCollisionCandidates;
+    }
+
+    /**
+     * Returns how many enemies have been destroyed by balls.
+     */
+    public long getTotalEnemiesDestroyed() {
+        return mTotalEnemiesDestroyed;
+    }
+
+    public long getTotalEnemiesSpawned() {
+        return mTotalEnemiesSpawned;
+    }
+
+    public long getTotalBallsSpawned() {
+        return mTotalBallsSpawned;
+    }
+
+    void setStatus(int score, int statusMessage, boolean isAnimating) {
+        mScore = score;
+        mStatusMessage = statusMessage;
+        mIsAnimating = isAnimating;
+    }
+
+    void setStepTime(long stepWhenNsec, long stepNsec) {
+        mStepWhenNsec = stepWhenNsec;
+        mStepNsec = stepNsec;
+    }
+
+    void setSimTime(long simTimeNsec) {
+        mSimTimeNsec = simTimeNsec;
+    }
+
+    void setMeasuredShotCount(long count) {
+        mMeasuredShotCount = count;
+    }
+
+    void setPoolCapacity(int capacity) {
+        mPoolCapacity = capacity;
+    }
+
+    void setTotals(long steps, long collisionCandidates, long enemiesDestroyed,
+            long enemiesSpawned, long ballsSpawned) {
+        mTotalSteps = steps;
+        mTotalCollisionCandidates = collisionCandidates;
+        mTotalEnemiesDestroyed = enemiesDestroyed;
+        mTotalEnemiesSpawned = enemiesSpawned;
+        mTotalBallsSpawned = ballsSpawned;
+    }
+}
@@ -0,0 +1,52 @@
+package com.whatizthis.aeonian.sim;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands Snapshots from the simulation thread to the renderer without locking.
+ * <p>
+ * This is a classic triple buffer.  The writer owns one snapshot (the "back"), the reader
+ * owns another (the "front"), and the third sits in the middle.  Publishing swaps the back
+ * with the middle; acquiring swaps the middle with the front, but only if something new was
+ * published since the last time.  Neither side ever waits for the other: the writer can
+ * publish as often as it likes (intermediate snapshots are simply dropped), and the reader
+ * can draw the same snapshot several times if the writer falls behind.
+ * <p>
+ * There must be exactly one writer thread and one reader thread at a time.
+ */
+public class SnapshotBuffer {
+    // The middle slot holds a snapshot index in the low bits, plus a flag indicating that the
+    // writer has put something there the reader hasn't seen yet.
+    private static final int INDEX_MASK = 0x03;
+    private static final int FRESH = 0x04;
+
+    private final Snapshot[] mSnapshots = { new Snapshot(), new Snapshot(), new Snapshot() };
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mBack = 0;          // only touched by the writer
+    private int mFront = 2;         // only touched by the reader
+
+    /**
+     * Returns the snapshot the writer should fill in next.  Writer thread only.
+     */
+    public Snapshot getBack() {
+        return mSnapshots[mBack];
+    }
+
+    /**
+     * Makes the back snapshot available to the reader.  Writer thread only.
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the most recently published snapshot.  The caller may use it until the next
+     * call to acquire().  Reader thread only.
+     */
+    public Snapshot acquire() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return mSnapshots[mFront];
+    }
+}
@@ -0,0 +1,259 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+
+/**
+ * A broad phase that uses a uniform grid of square cells, hashed into a fixed number of
+ * buckets.
+ * <p>
+ * Every ball is dropped into the grid by its center at the start of the step, and then each
+ * enemy asks for the balls in the cells its path overlaps.  Building is O(n) in
+ * the number of balls and a query only looks at nearby cells, so the cost of the step grows
+ * with (enemies + balls) rather than (enemies * balls).
+ * <p>
+ * Nothing allocates after the first few steps; the arrays grow when the number of points
+ * does, and are kept.
+ */
+public class SpatialHash implements BroadPhase {
+    /*
+     * Points are stored by counting sort: we hash each point's cell to a bucket, count how
+     * many land in each bucket, turn the counts into start offsets, then drop the row numbers
+     * into mEntries.  Bucket b's rows are mEntries[mBucketStart[b] .. mBucketStart[b+1]-1].
+     * That's three linear passes and no per-point objects, and walking a bucket is walking a
+     * contiguous run of ints.
+     *
+     * Hashing rather than indexing a fixed grid means we don't have to care about the arena
+     * bounds.  Enemies start outside the visible area and balls can be slightly past the
+     * edge before the scoring system notices them, and it all just works.  The cost is that
+     * unrelated cells can share a bucket, so a query can return points that aren't anywhere
+     * close.  We run the coarse overlap test on everything we find before handing it over, so
+     * that only costs a few comparisons.  Two cells inside one query can also share a bucket; we
+     * stamp each point with the query number so it's only returned once.
+     *
+     * The grid holds centers, but the coarse test treats a ball as extending a full diameter
+     * either side of its center, so queries are widened by the largest diameter (mReach) to
+     * make sure we find everything the brute-force loop would.
+     *
+     * The points are ball rows, and rows move around when balls are released (the archetype
+     * swap-removes).  remove() keeps the grid in step with that, so the collision system can
+     * keep querying after it destroys a ball without having to rebuild.
+     */
+
+    private static final int MIN_BUCKETS = 64;
+
+    // Zero means "one enemy across", looked up from Arena on each update.
+    private float mFixedCellSize;
+    private float mCellSize = 1.0f;
+    private float mInvCellSize = 1.0f;
+    private int mBucketMask;
+
+    // Bucket b holds mEntries[mBucketStart[b] .. mBucketStart[b+1]-1].  Removed entries are -1.
+    private int[] mBucketStart = new int[MIN_BUCKETS + 1];
+    private int[] mEntries = new int[0];
+
+    // Per-point data, indexed by row: bucket, index into mEntries, last query that returned it.
+    private int[] mBucketOf = new int[0];
+    private int[] mSlotOf = new int[0];
+    private int[] mStamp = new int[0];
+    private int mCount;
+    private int mQueryStamp;
+
+    // Ball columns from the last update(), and the widest a ball reaches from its center.
+    private float[] mBallX, mBallY, mBallRadius;
+    private float mReach;
+
+    /**
+     * Sets the edge length of a cell.  A cell a bit bigger than the things being queried works
+     * well: most queries touch four cells or fewer.  By default the cells are one enemy
+     * across.  An enemy moves a small fraction of its size per step, so its path covers at most
+     * a 2x2 or 3x3 block of cells, and there's no point going smaller since balls are smaller
+     * than enemies.
+     *
+     * @param cellSize Cell size, or zero to go back to the default.
+     */
+    public void setCellSize(float cellSize) {
+        if (cellSize < 0.0f) {
+            throw new RuntimeException("bad cell size " + cellSize);
+        }
+        mFixedCellSize = cellSize;
+    }
+
+    public float getCellSize() {
+        return mCellSize;
+    }
+
+    @Override
+    public String getName() {
+        return "spatial-hash";
+    }
+
+    @Override
+    public void update(Archetype balls, double deltaSec) {
+        float cellSize = mFixedCellSize;
+        if (cellSize == 0.0f) {
+            cellSize = Math.max(Arena.DEFAULT_ENEMY_DIAMETER, 1);
+        }
+        mCellSize = cellSize;
+        mInvCellSize = 1.0f / cellSize;
+
+        mBallX = balls.column(Components.X);
+        mBallY = balls.column(Components.Y);
+        mBallRadius = balls.column(Components.RADIUS);
+        int count = balls.size();
+        float reach = 0.0f;
+        for (int b = 0; b < count; b++) {
+            if (mBallRadius[b] > reach) {
+                reach = mBallRadius[b];
+            }
+        }
+        mReach = reach * 2.0f;
+
+        build(mBallX, mBallY, count);
+    }
+
+    /**
+     * Replaces the contents of the grid with "count" points.  Point "row" is at
+     * (xpos[row], ypos[row]).
+     */
+    private void build(float[] xpos, float[] ypos, int count) {
+        ensureCapacity(count);
+
+        // Aim for about two buckets per point, so most non-empty buckets hold one cell.
+        int buckets = MIN_BUCKETS;
+        while (buckets < count * 2) {
+            buckets <<= 1;
+        }
+        if (mBucketStart.length < buckets + 1) {
+            mBucketStart = new int[buckets + 1];
+        }
+        mBucketMask = buckets - 1;
+
+        int[] bucketStart = mBucketStart;
+        int[] bucketOf = mBucketOf;
+        for (int b = 0; b <= buckets; b++) {
+            bucketStart[b] = 0;
+        }
+
+        // Count.  bucketStart[b+1] holds the count for bucket b.
+        float inv = mInvCellSize;
+        for (int row = 0; row < count; row++) {
+            int bucket = hash(cell(xpos[row], inv), cell(ypos[row], inv));
+            bucketOf[row] = bucket;
+            bucketStart[bucket + 1]++;
+        }
+
+        // Prefix sum, so bucketStart[b] is where bucket b begins.
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+
+        // Scatter, using bucketStart[b] as the fill cursor for bucket b.  That leaves each
+        // entry pointing at the start of the next bucket, so shift everything back one.
+        int[] entries = mEntries;
+        int[] slotOf = mSlotOf;
+        for (int row = 0; row < count; row++) {
+            int slot = bucketStart[bucketOf[row]]++;
+            entries[slot] = row;
+            slotOf[row] = slot;
+        }
+        for (int b = buckets; b > 0; b--) {
+            bucketStart[b] = bucketStart[b - 1];
+        }
+        bucketStart[0] = 0;
+        mCount = count;
+    }
+
+    @Override
+    public void remove(int row, int lastRow) {
+        mEntries[mSlotOf[row]] = -1;
+        if (row != lastRow) {
+            int slot = mSlotOf[lastRow];
+            mEntries[slot] = row;
+            mSlotOf[row] = slot;
+            mBucketOf[row] = mBucketOf[lastRow];
+            mStamp[row] = mStamp[lastRow];
+        }
+        mCount--;
+    }
+
+    @Override
+    public int query(float left, float right, float bottom, float top, CollisionQuery out) {
+        if (mCount == 0) {
+            return 0;
+        }
+        int stamp = ++mQueryStamp;
+        if (stamp == 0) {
+            // Wrapped around; start over so old stamps can't match.
+            int[] stamps = mStamp;
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = 0;
+            }
+            stamp = mQueryStamp = 1;
+        }
+
+        float inv = mInvCellSize;
+        float reach = mReach;
+        int minX = cell(left - reach, inv);
+        int maxX = cell(right + reach, inv);
+        int minY = cell(bottom - reach, inv);
+        int maxY = cell(top + reach, inv);
+
+        int found = 0;
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > mBucketMask + 1) {
+            // Covers more cells than there are buckets; cheaper to look at everything.
+            for (int b = 0; b <= mBucketMask; b++) {
+                found += collect(b, stamp, left, right, bottom, top, out);
+            }
+        } else {
+            for (int cy = minY; cy <= maxY; cy++) {
+                for (int cx = minX; cx <= maxX; cx++) {
+                    found += collect(hash(cx, cy), stamp, left, right, bottom, top, out);
+                }
+            }
+        }
+        return found;
+    }
+
+    private int collect(int bucket, int stamp, float left, float right, float bottom,
+            float top, CollisionQuery out) {
+        int[] entries = mEntries;
+        int[] stamps = mStamp;
+        float[] ballX = mBallX;
+        float[] ballY = mBallY;
+        float[] ballRadius = mBallRadius;
+        int found = 0;
+        for (int i = mBucketStart[bucket], end = mBucketStart[bucket + 1]; i < end; i++) {
+            int row = entries[i];
+            if (row < 0 || stamps[row] == stamp) {
+                continue;
+            }
+            stamps[row] = stamp;
+            float ballDiameter = ballRadius[row] * 2.0f;
+            if (Collision.checkCoarseCollision(ballX[row], ballY[row], ballDiameter,
+                    ballDiameter, left, right, bottom, top)) {
+                out.add(row);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static int cell(float coord, float invCellSize) {
+        return (int) Math.floor(coord * invCellSize);
+    }
+
+    private int hash(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & mBucketMask;
+    }
+
+    private void ensureCapacity(int count) {
+        if (mEntries.length < count) {
+            int capacity = Math.max(count, mEntries.length * 2);
+            mEntries = new int[capacity];
+            mBucketOf = new int[capacity];
+            mSlotOf = new int[capacity];
+            mStamp = new int[capacity];
+        }
+    }
+}
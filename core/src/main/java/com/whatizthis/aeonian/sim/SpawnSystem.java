@@ -0,0 +1,92 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.GameSystem;
+import com.whatizthis.aeonian.ecs.World;
+import com.whatizthis.aeonian.factories.BallFactory;
+import com.whatizthis.aeonian.factories.EnemyFactory;
+
+/**
+ * Creates new entities: an enemy for every spawn that came due this step (see TimerSystem),
+ * and a ball for every shot the player has fired since the last step.
+ */
+class SpawnSystem extends GameSystem {
+    private final Simulation mSim;
+    private final TimerSystem mTimers;
+    private final Archetype mBalls;
+    private final Archetype mEnemies;
+
+    // Shots waiting to be fired, as (x,y) pairs, and the time of the tap that fired each one
+    // (0 if it wasn't a tap).
+    private float[] mPendingShots = new float[32];
+    private long[] mPendingTapNsec = new long[16];
+    private int mPendingShotCount;
+
+    // Everything we've created since we were constructed, for the session metrics.
+    private long mEnemiesSpawned;
+    private long mBallsSpawned;
+
+    SpawnSystem(Simulation sim, TimerSystem timers, Archetype balls, Archetype enemies) {
+        super("spawn");
+        mSim = sim;
+        mTimers = timers;
+        mBalls = balls;
+        mEnemies = enemies;
+    }
+
+    /**
+     * Queues up a ball aimed at (x,y), to be created on the next step.  If it was fired by a
+     * tap, "tapNsec" is when that happened, so we can measure the latency; otherwise it's 0.
+     */
+    void queueShot(float x, float y, long tapNsec) {
+        int offset = mPendingShotCount * 2;
+        if (offset == mPendingShots.length) {
+            float[] grown = new float[mPendingShots.length * 2];
+            System.arraycopy(mPendingShots, 0, grown, 0, offset);
+            mPendingShots = grown;
+            long[] grownTaps = new long[mPendingTapNsec.length * 2];
+            System.arraycopy(mPendingTapNsec, 0, grownTaps, 0, mPendingShotCount);
+            mPendingTapNsec = grownTaps;
+        }
+        mPendingShots[offset] = x;
+        mPendingShots[offset + 1] = y;
+        mPendingTapNsec[mPendingShotCount] = tapNsec;
+        mPendingShotCount++;
+    }
+
+    long getEnemiesSpawned() {
+        return mEnemiesSpawned;
+    }
+
+    long getBallsSpawned() {
+        return mBallsSpawned;
+    }
+
+    /**
+     * Drops any shots that haven't been fired yet.
+     */
+    void clear() {
+        mPendingShotCount = 0;
+    }
+
+    @Override
+    public void update(World world, double deltaSec) {
+        RandomStream random = mSim.getEnemyRandom();
+        for (int i = mTimers.getDueSpawns(); i > 0; i--) {
+            EnemyFactory.spawn(mEnemies, random);
+            mEnemiesSpawned++;
+        }
+
+        float[] shots = mPendingShots;
+        long[] tapNsec = mPendingTapNsec;
+        for (int i = 0; i < mPendingShotCount; i++) {
+            BallFactory.spawn(mBalls, shots[i * 2], shots[i * 2 + 1]);
+            if (tapNsec[i] != 0) {
+                // Touch times are real time, whatever clock the simulation runs on.
+                mSim.getInputLatency().shotCreated(tapNsec[i], Clock.SYSTEM.nanoTime());
+            }
+        }
+        mBallsSpawned += mPendingShotCount;
+        mPendingShotCount = 0;
+    }
+}
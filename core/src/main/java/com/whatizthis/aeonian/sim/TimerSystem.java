@@ -0,0 +1,107 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.GameSystem;
+import com.whatizthis.aeonian.ecs.World;
+
+/**
+ * Runs the game's timers on simulated time: the score tick, and the enemy spawner.
+ * <p>
+ * These used to be java.util.Timers started by the renderer, which flipped flags on the
+ * Simulation from the timer threads.  Every pass of the spawner made a new Timer -- and so a
+ * new thread -- and none of them were ever cancelled, so a long session piled up hundreds of
+ * threads.  The flags weren't volatile and only held one event, so spawns that came due
+ * close together were lost.  And since the timers ran on the wall clock, they kept going
+ * while the game was paused, and no two runs of a game were the same.
+ * <p>
+ * Here the timers are entries in an EventQueue keyed by simulated time.  Simulated time only
+ * moves when a step runs, so the timers stop when the game does, and come out the same on
+ * every run of a game.  Each step we pop everything that comes due during it, and count it
+ * up; the spawn and scoring systems act on the counts, so several spawns due in one step all
+ * happen.
+ * <p>
+ * The spawner works as before: once a second it picks a random delay of 2 to 6 seconds, and
+ * an enemy arrives when the delay is up.  The delays come from their own random stream.
+ */
+class TimerSystem extends GameSystem {
+    private static final long NSEC_PER_MSEC = 1000000L;
+
+    // The score goes up by one this often.
+    static final long SCORE_PERIOD_NSEC = 200 * NSEC_PER_MSEC;
+
+    // How often the spawner schedules another enemy, and the range of delays it picks from.
+    static final long SPAWN_PERIOD_NSEC = 1000 * NSEC_PER_MSEC;
+    static final long SPAWN_DELAY_MIN_NSEC = 2000 * NSEC_PER_MSEC;
+    static final int SPAWN_DELAY_CHOICES = 5;         // in whole seconds above the minimum
+
+    private static final int EVENT_SCORE = 0;
+    private static final int EVENT_SPAWN_TIMER = 1;
+    private static final int EVENT_SPAWN = 2;
+
+    private final Simulation mSim;
+    private final EventQueue mQueue = new EventQueue();
+
+    // What came due during the current step.
+    private int mDueSpawns;
+    private int mDueScoreTicks;
+
+    TimerSystem(Simulation sim) {
+        super("timers");
+        mSim = sim;
+        reset();
+    }
+
+    /**
+     * Cancels everything, and starts the timers again from simulated time zero.
+     */
+    void reset() {
+        mQueue.clear();
+        mQueue.add(0, EVENT_SCORE, 0, 0, 0, 0);
+        mQueue.add(0, EVENT_SPAWN_TIMER, 0, 0, 0, 0);
+        mDueSpawns = 0;
+        mDueScoreTicks = 0;
+    }
+
+    /**
+     * Returns the number of enemies that came due this step.
+     */
+    int getDueSpawns() {
+        return mDueSpawns;
+    }
+
+    /**
+     * Returns the number of score ticks that came due this step.
+     */
+    int getDueScoreTicks() {
+        return mDueScoreTicks;
+    }
+
+    @Override
+    public void update(World world, double deltaSec) {
+        EventQueue queue = mQueue;
+        long stepEndNsec = mSim.getSimTimeNsec() + mSim.getStepNsec();
+        mDueSpawns = 0;
+        mDueScoreTicks = 0;
+
+        while (!queue.isEmpty() && queue.peekTime() < stepEndNsec) {
+            queue.pop();
+            long whenNsec = (long) queue.getPoppedTime();
+            switch (queue.getPoppedType()) {
+                case EVENT_SCORE:
+                    mDueScoreTicks++;
+                    queue.add(whenNsec + SCORE_PERIOD_NSEC, EVENT_SCORE, 0, 0, 0, 0);
+                    break;
+                case EVENT_SPAWN_TIMER:
+                    long delayNsec = SPAWN_DELAY_MIN_NSEC + 1000 * NSEC_PER_MSEC
+                            * mSim.getSpawnRandom().nextInt(SPAWN_DELAY_CHOICES);
+                    queue.add(whenNsec + delayNsec, EVENT_SPAWN, 0, 0, 0, 0);
+                    queue.add(whenNsec + SPAWN_PERIOD_NSEC, EVENT_SPAWN_TIMER, 0, 0, 0, 0);
+                    break;
+                case EVENT_SPAWN:
+                    mDueSpawns++;
+                    break;
+                default:
+                    throw new RuntimeException("bad timer event " + queue.getPoppedType());
+            }
+        }
+    }
+}
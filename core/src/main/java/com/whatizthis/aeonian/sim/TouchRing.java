@@ -0,0 +1,118 @@
+package com.whatizthis.aeonian.sim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries touches from the UI thread to the simulation thread without locking or allocating.
+ * <p>
+ * Touches used to go over as a Runnable apiece, posted first to the Renderer thread and then
+ * to the simulation thread.  That's two allocations and two queue hand-offs per tap, and every
+ * tap was handled on its own.  This is a fixed-size ring of primitive records instead: the
+ * UI thread writes touches in, and the simulation drains whatever has arrived in one pass
+ * at the start of each frame.
+ * <p>
+ * There must be exactly one producer thread and one consumer thread.  Each side owns one
+ * counter, and only reads the other's, so a lazySet() on the way out and a get() on the way
+ * in is all the synchronization there is.  The counters only grow; the slot for a count is
+ * (count &amp; mask).  If the ring fills up, new touches are dropped and counted.
+ * <p>
+ * Each record is one sample of one pointer: it went down, moved, or came up.  A finger
+ * being dragged over a fast touch panel sends a lot of these, so the ring is sized for a
+ * few frames' worth of several fingers.
+ */
+public class TouchRing {
+    /**
+     * Receives touches from drain().
+     */
+    public interface Sink {
+        void onTouch(int action, float x, float y, long whenNsec, int pointerId);
+    }
+
+    // What happened to the pointer.  CANCEL applies to all of them, and has no pointer ID.
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_MOVE = 1;
+    public static final int ACTION_UP = 2;
+    public static final int ACTION_CANCEL = 3;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int mMask;
+    private final int[] mAction;
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mWhenNsec;
+    private final int[] mPointerId;
+
+    private final AtomicLong mWritten = new AtomicLong();      // producer's
+    private final AtomicLong mRead = new AtomicLong();         // consumer's
+    private volatile long mDropped;                            // producer's
+
+    /**
+     * Creates a ring that holds "capacity" touches, rounded up to a power of two.
+     */
+    public TouchRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mAction = new int[size];
+        mX = new float[size];
+        mY = new float[size];
+        mWhenNsec = new long[size];
+        mPointerId = new int[size];
+    }
+
+    /**
+     * Adds a touch.  Returns false if the ring was full and the touch was dropped.  Producer
+     * thread only.
+     */
+    public boolean offer(int action, float x, float y, long whenNsec, int pointerId) {
+        long written = mWritten.get();
+        if (written - mRead.get() > mMask) {
+            mDropped++;
+            return false;
+        }
+        int slot = (int) written & mMask;
+        mAction[slot] = action;
+        mX[slot] = x;
+        mY[slot] = y;
+        mWhenNsec[slot] = whenNsec;
+        mPointerId[slot] = pointerId;
+        // Publishes the slot contents along with the count.
+        mWritten.lazySet(written + 1);
+        return true;
+    }
+
+    /**
+     * Hands up to "max" waiting touches to "sink", oldest first.  Anything beyond that stays
+     * for next time.  Returns the number handed over.  Consumer thread only.
+     */
+    public int drain(Sink sink, int max) {
+        long read = mRead.get();
+        long available = mWritten.get() - read;
+        int count = (int) Math.min(available, max);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (read + i) & mMask;
+            sink.onTouch(mAction[slot], mX[slot], mY[slot], mWhenNsec[slot], mPointerId[slot]);
+        }
+        // Hands the slots back to the producer.
+        mRead.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Throws away any waiting touches.  Consumer thread only.
+     */
+    public void clear() {
+        mRead.lazySet(mWritten.get());
+    }
+
+    /**
+     * Returns the number of touches dropped because the ring was full.
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+}
@@ -0,0 +1,223 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.World;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that SpatialHash and AabbTree find exactly the balls BruteForceBroadPhase does.
+ * <p>
+ * Each scene is a few dozen steps of seeded random balls moving, with balls coming and going
+ * between steps (the way the scoring system swap-removes them, without telling the broad
+ * phase), and balls released mid-step through remove() (the way the collision system does
+ * it).  Some balls sit right on hash cell edges, sizes vary a lot so the tree's boxes are
+ * all different shapes, and some of the queries are lined up with cell edges too.
+ */
+public class BroadPhaseTest {
+    private static final int MASK = Components.POSITION | Components.PREV_POSITION
+            | Components.MOTION | Components.SHAPE;
+    private static final double STEP_SEC = 1.0 / 120;
+
+    private Archetype mBalls;
+    private Random mRandom;
+    private BroadPhase[] mBroadPhases;
+    private CollisionQuery[] mQueries;
+    private float mCellSize;
+    private long mQueryCount;
+
+    @Before
+    public void setUp() {
+        Arena.setDimensions(1080, 1920);
+        mBalls = new World().createArchetype("balls", MASK, 16);
+        SpatialHash hash = new SpatialHash();
+        mBroadPhases = new BroadPhase[] { new BruteForceBroadPhase(), hash, new AabbTree() };
+        mQueries = new CollisionQuery[mBroadPhases.length];
+        for (int i = 0; i < mQueries.length; i++) {
+            mQueries[i] = new CollisionQuery();
+        }
+        mCellSize = Arena.DEFAULT_ENEMY_DIAMETER;
+    }
+
+    @Test
+    public void sparseScenes() {
+        for (int seed = 1; seed <= 20; seed++) {
+            runScene(seed, 10, 40);
+        }
+    }
+
+    @Test
+    public void crowdedScenes() {
+        for (int seed = 100; seed < 110; seed++) {
+            runScene(seed, 300, 40);
+        }
+    }
+
+    @Test
+    public void emptyScene() {
+        runScene(7, 0, 3);
+    }
+
+    @Test
+    public void allBallsInOneCell() {
+        mRandom = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            int row = mBalls.add();
+            setBall(row, mCellSize * 3.5f + mRandom.nextFloat(), mCellSize * 4.5f,
+                    5.0f + mRandom.nextFloat() * 5.0f);
+        }
+        updateAll();
+        checkQuery(mCellSize * 3, mCellSize * 4, mCellSize * 4, mCellSize * 5);
+        checkQuery(0, mCellSize, 0, mCellSize);
+        removeMidStep(10);
+        removeMidStep(mBalls.size() - 1);
+        checkQuery(mCellSize * 3, mCellSize * 4, mCellSize * 4, mCellSize * 5);
+    }
+
+    private void runScene(long seed, int ballCount, int steps) {
+        mRandom = new Random(seed);
+        mBalls.clear();
+        for (int i = 0; i < ballCount; i++) {
+            addRandomBall();
+        }
+
+        for (int step = 0; step < steps; step++) {
+            move();
+            churn(ballCount / 10 + 1);
+            updateAll();
+
+            for (int q = 0; q < 30; q++) {
+                randomQuery();
+                if (mBalls.size() > 0 && mRandom.nextInt(4) == 0) {
+                    removeMidStep(mRandom.nextInt(mBalls.size()));
+                }
+            }
+        }
+        assertTrue(mQueryCount > 0);
+    }
+
+    /**
+     * Adds a ball somewhere in or near the arena.  A third of them sit exactly on a hash cell
+     * edge or corner.
+     */
+    private void addRandomBall() {
+        float x = -100 + mRandom.nextFloat() * (Arena.WIDTH + 200);
+        float y = -100 + mRandom.nextFloat() * (Arena.HEIGHT + 200);
+        int kind = mRandom.nextInt(6);
+        if (kind == 0) {
+            x = Math.round(x / mCellSize) * mCellSize;
+        } else if (kind == 1) {
+            y = Math.round(y / mCellSize) * mCellSize;
+        }
+        // Sizes from tiny to bigger than a cell.
+        float radius = mRandom.nextInt(8) == 0 ? 40 + mRandom.nextFloat() * 80
+                : 2 + mRandom.nextFloat() * 20;
+        setBall(mBalls.add(), x, y, radius);
+    }
+
+    private void setBall(int row, float x, float y, float radius) {
+        double angle = mRandom.nextDouble() * Math.PI * 2;
+        mBalls.column(Components.X)[row] = x;
+        mBalls.column(Components.Y)[row] = y;
+        mBalls.column(Components.PREV_X)[row] = x;
+        mBalls.column(Components.PREV_Y)[row] = y;
+        mBalls.column(Components.DIR_X)[row] = (float) Math.cos(angle);
+        mBalls.column(Components.DIR_Y)[row] = (float) Math.sin(angle);
+        mBalls.column(Components.SPEED)[row] = mRandom.nextFloat() * 3000;
+        mBalls.column(Components.RADIUS)[row] = radius;
+    }
+
+    private void move() {
+        float[] x = mBalls.column(Components.X);
+        float[] y = mBalls.column(Components.Y);
+        float[] dirX = mBalls.column(Components.DIR_X);
+        float[] dirY = mBalls.column(Components.DIR_Y);
+        float[] speed = mBalls.column(Components.SPEED);
+        for (int row = 0; row < mBalls.size(); row++) {
+            float distance = (float) (speed[row] * STEP_SEC);
+            x[row] += dirX[row] * distance;
+            y[row] += dirY[row] * distance;
+            if (mRandom.nextInt(50) == 0) {
+                // Now and then, a sharp turn, which no fat box will have seen coming.
+                dirX[row] = -dirX[row];
+            }
+        }
+    }
+
+    /**
+     * Removes and adds some balls behind the broad phases' backs, as happens between steps.
+     */
+    private void churn(int max) {
+        int removes = mRandom.nextInt(max + 1);
+        for (int i = 0; i < removes && mBalls.size() > 0; i++) {
+            mBalls.remove(mRandom.nextInt(mBalls.size()));
+        }
+        int adds = mRandom.nextInt(max + 1);
+        for (int i = 0; i < adds; i++) {
+            addRandomBall();
+        }
+    }
+
+    private void updateAll() {
+        for (int i = 0; i < mBroadPhases.length; i++) {
+            mBroadPhases[i].update(mBalls, STEP_SEC);
+            mQueries[i].reserve(mBalls.getCapacity());
+            mQueries[i].beginStep();
+        }
+    }
+
+    /**
+     * Releases a ball the way the collision system does: tell the broad phases, then remove.
+     */
+    private void removeMidStep(int row) {
+        int lastRow = mBalls.size() - 1;
+        for (int i = 0; i < mBroadPhases.length; i++) {
+            mBroadPhases[i].remove(row, lastRow);
+        }
+        mBalls.remove(row);
+    }
+
+    private void randomQuery() {
+        float left = -150 + mRandom.nextFloat() * (Arena.WIDTH + 300);
+        float bottom = -150 + mRandom.nextFloat() * (Arena.HEIGHT + 300);
+        if (mRandom.nextInt(4) == 0) {
+            // Line the query up with the grid.
+            left = Math.round(left / mCellSize) * mCellSize;
+            bottom = Math.round(bottom / mCellSize) * mCellSize;
+        }
+        float width = mRandom.nextInt(10) == 0 ? mRandom.nextFloat() * 600
+                : mRandom.nextFloat() * mCellSize * 2;
+        float height = mRandom.nextFloat() * mCellSize * 2;
+        checkQuery(left, left + width, bottom, bottom + height);
+    }
+
+    private void checkQuery(float left, float right, float bottom, float top) {
+        int[] expected = null;
+        for (int i = 0; i < mBroadPhases.length; i++) {
+            CollisionQuery query = mQueries[i];
+            query.clear();
+            int found = mBroadPhases[i].query(left, right, bottom, top, query);
+            int[] rows = Arrays.copyOf(query.getCandidates(), query.getCandidateCount());
+            Arrays.sort(rows);
+            if (found != rows.length) {
+                throw new AssertionError(mBroadPhases[i].getName() + " returned " + found
+                        + " but added " + rows.length);
+            }
+            if (expected == null) {
+                expected = rows;
+            } else {
+                assertArrayEquals(mBroadPhases[i].getName() + " query " + left + "," + right
+                        + "," + bottom + "," + top, expected, rows);
+            }
+        }
+        mQueryCount++;
+    }
+}
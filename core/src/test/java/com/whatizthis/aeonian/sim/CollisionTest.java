@@ -0,0 +1,271 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.World;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pins down the swept time-of-impact math in Collision, for circles against rects and against
+ * other circles.
+ * <p>
+ * Most of the numbers are picked so the answer is exact in floats.  The rect is centered on
+ * the origin, 100 wide and 40 tall, and the ball has radius 10, so the grown rect the ray is
+ * cast against has its straight edges at x = +/-60 and y = +/-30, with quarter circles of
+ * radius 10 around (+/-50, +/-20).
+ */
+public class CollisionTest {
+    private static final float EPSILON = 1.0e-3f;
+    private static final float HALF_W = 50.0f;
+    private static final float HALF_H = 20.0f;
+    private static final float RADIUS = 10.0f;
+    private static final float DIAG = (float) Math.sqrt(0.5);
+
+    private final Manifold mOut = new Manifold();
+
+    private static float rectToi(float curX, float curY, float dirX, float dirY,
+            float distance) {
+        return Collision.timeOfImpact(0.0f, 0.0f, HALF_W, HALF_H, curX, curY, dirX, dirY,
+                distance, RADIUS);
+    }
+
+    @Test
+    public void rectFaceHits() {
+        // From the left, we stop when the ball's edge reaches the rect's: 100 - 50 - 10.
+        assertEquals(40.0f, rectToi(-100.0f, 0.0f, 1.0f, 0.0f, 100.0f), EPSILON);
+        // From above.
+        assertEquals(70.0f, rectToi(0.0f, 100.0f, 0.0f, -1.0f, 100.0f), EPSILON);
+        // Moved rect, off-center ball, still a face hit.
+        assertEquals(40.0f, Collision.timeOfImpact(500.0f, 300.0f, HALF_W, HALF_H,
+                400.0f, 315.0f, 1.0f, 0.0f, 100.0f, RADIUS), EPSILON);
+
+        assertTrue(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                -100.0f, 0.0f, 1.0f, 0.0f, 100.0f, RADIUS));
+        assertEquals(Collision.HIT_FACE_VERTICAL, mOut.getFace());
+        assertEquals(40.0f, mOut.getDistanceTraveled(), EPSILON);
+        assertEquals(-1.0f, mOut.getNormalX(), EPSILON);
+        assertEquals(0.0f, mOut.getNormalY(), EPSILON);
+        assertEquals(0.0f, mOut.getXAdj(), EPSILON);
+        assertEquals(0.0f, mOut.getYAdj(), EPSILON);
+
+        assertTrue(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                10.0f, -100.0f, 0.0f, 1.0f, 100.0f, RADIUS));
+        assertEquals(Collision.HIT_FACE_HORIZONTAL, mOut.getFace());
+        assertEquals(0.0f, mOut.getNormalX(), EPSILON);
+        assertEquals(-1.0f, mOut.getNormalY(), EPSILON);
+    }
+
+    @Test
+    public void rectDistanceLimit() {
+        // Contact exactly at the end of the step counts; just short of it doesn't.
+        assertEquals(40.0f, rectToi(-100.0f, 0.0f, 1.0f, 0.0f, 40.0f), EPSILON);
+        assertTrue(rectToi(-100.0f, 0.0f, 1.0f, 0.0f, 39.9f) < 0.0f);
+        // Heading away.
+        assertTrue(rectToi(-100.0f, 0.0f, -1.0f, 0.0f, 1000.0f) < 0.0f);
+        // Behind us, then a miss off the side.
+        assertTrue(rectToi(100.0f, 0.0f, 1.0f, 0.0f, 1000.0f) < 0.0f);
+        assertTrue(rectToi(-100.0f, 100.0f, 1.0f, 0.0f, 1000.0f) < 0.0f);
+
+        assertFalse(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                -100.0f, 0.0f, 1.0f, 0.0f, 39.9f, RADIUS));
+        assertFalse(mOut.isHit());
+    }
+
+    @Test
+    public void rectGrazing() {
+        // Sliding along the top with the ball's edge exactly on the rect's edge is a miss:
+        // touching without overlapping doesn't count.
+        assertTrue(rectToi(-100.0f, 30.0f, 1.0f, 0.0f, 1000.0f) < 0.0f);
+        assertTrue(rectToi(60.0f, -100.0f, 0.0f, 1.0f, 1000.0f) < 0.0f);
+
+        // A hair lower and we clip the rounded corner, later than the square corner would
+        // have it: (x + 50)^2 + 9.9^2 = 10^2.
+        float expected = 100.0f - 50.0f - (float) Math.sqrt(100.0 - 9.9 * 9.9);
+        assertEquals(expected, rectToi(-100.0f, 29.9f, 1.0f, 0.0f, 1000.0f), EPSILON);
+        assertTrue(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                -100.0f, 29.9f, 1.0f, 0.0f, 1000.0f, RADIUS));
+        // Moving right, hitting the top left corner from the left.
+        assertEquals(Collision.HIT_FACE_VERTICAL, mOut.getFace());
+        assertTrue(mOut.getNormalX() < 0.0f);
+        assertTrue(mOut.getNormalY() > 0.0f);
+
+        // Anywhere level with the flat part of the side is a plain face hit.
+        assertEquals(40.0f, rectToi(-100.0f, 20.0f, 1.0f, 0.0f, 1000.0f), EPSILON);
+    }
+
+    @Test
+    public void rectCorners() {
+        // Straight in at the top right corner, along the diagonal: the center ends up
+        // RADIUS away from the corner.
+        float start = 30.0f;
+        float expected = (float) Math.sqrt(2.0 * start * start) - RADIUS;
+        assertEquals(expected, rectToi(HALF_W + start, HALF_H + start, -DIAG, -DIAG, 1000.0f),
+                EPSILON);
+        assertTrue(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                HALF_W + start, HALF_H + start, -DIAG, -DIAG, 1000.0f, RADIUS));
+        assertEquals(Collision.HIT_FACE_SHARPCORNER, mOut.getFace());
+        assertEquals(DIAG, mOut.getNormalX(), EPSILON);
+        assertEquals(DIAG, mOut.getNormalY(), EPSILON);
+
+        // Same for the other three corners.
+        assertEquals(expected, rectToi(-HALF_W - start, HALF_H + start, DIAG, -DIAG, 1000.0f),
+                EPSILON);
+        assertEquals(expected, rectToi(-HALF_W - start, -HALF_H - start, DIAG, DIAG, 1000.0f),
+                EPSILON);
+        assertEquals(expected, rectToi(HALF_W + start, -HALF_H - start, -DIAG, DIAG, 1000.0f),
+                EPSILON);
+
+        // This one goes through the square corner of the grown rect, entering at (58,30) and
+        // leaving at (60,28), but passes 12.7 from the real corner, so it's a miss.
+        assertTrue(rectToi(40.0f, 48.0f, DIAG, -DIAG, 1000.0f) < 0.0f);
+    }
+
+    @Test
+    public void rectStartsOverlapping() {
+        // Inside the grown rect, beside the top face.  Reported as a hit right away, whichever
+        // way we're going, so the adjustment can push the ball back out.
+        assertEquals(0.0f, rectToi(0.0f, 25.0f, 1.0f, 0.0f, 100.0f), 0.0f);
+        assertEquals(0.0f, rectToi(0.0f, 25.0f, 0.0f, 1.0f, 100.0f), 0.0f);
+        assertTrue(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                0.0f, 25.0f, 0.0f, 1.0f, 100.0f, RADIUS));
+        assertEquals(Collision.HIT_FACE_HORIZONTAL, mOut.getFace());
+        assertEquals(0.0f, mOut.getXAdj(), EPSILON);
+        assertEquals(5.0f, mOut.getYAdj(), EPSILON);
+        assertEquals(0.0f, mOut.getNormalX(), EPSILON);
+        assertEquals(1.0f, mOut.getNormalY(), EPSILON);
+
+        // Left of the rect, pushed out to the left.
+        assertTrue(Collision.collidedWith(mOut, 0.0f, 0.0f, HALF_W, HALF_H,
+                -55.0f, 0.0f, 1.0f, 0.0f, 100.0f, RADIUS));
+        assertEquals(Collision.HIT_FACE_VERTICAL, mOut.getFace());
+        assertEquals(-5.0f, mOut.getXAdj(), EPSILON);
+        assertEquals(0.0f, mOut.getYAdj(), EPSILON);
+
+        // Center inside the rect itself.
+        assertEquals(0.0f, rectToi(0.0f, 0.0f, 1.0f, 0.0f, 100.0f), 0.0f);
+
+        // Within RADIUS of a corner: overlapping.  In the corner piece but further out: not.
+        assertEquals(0.0f, rectToi(55.0f, 25.0f, 1.0f, 0.0f, 100.0f), 0.0f);
+        assertTrue(rectToi(59.0f, 29.0f, 1.0f, 0.0f, 100.0f) < 0.0f);
+    }
+
+    @Test
+    public void rectNotMoving() {
+        // A ball at rest either overlaps or it doesn't.
+        assertEquals(0.0f, rectToi(0.0f, 25.0f, 0.0f, 0.0f, 0.0f), 0.0f);
+        assertEquals(0.0f, rectToi(55.0f, 25.0f, 0.0f, 0.0f, 0.0f), 0.0f);
+        assertTrue(rectToi(-100.0f, 0.0f, 0.0f, 0.0f, 0.0f) < 0.0f);
+        assertTrue(rectToi(59.0f, 29.0f, 0.0f, 0.0f, 0.0f) < 0.0f);
+        // Moving, but not far enough to get there.
+        assertTrue(rectToi(-100.0f, 0.0f, 1.0f, 0.0f, 0.0f) < 0.0f);
+    }
+
+    @Test
+    public void circleHits() {
+        // Target radius 10, ball radius 5: contact when the centers are 15 apart.
+        assertEquals(85.0f, circleToi(-100.0f, 0.0f, 1.0f, 0.0f, 100.0f), EPSILON);
+        assertEquals(85.0f, circleToi(0.0f, 100.0f, 0.0f, -1.0f, 100.0f), EPSILON);
+        // Off-axis: 100 - sqrt(15^2 - 9^2).
+        assertEquals(88.0f, circleToi(-100.0f, 9.0f, 1.0f, 0.0f, 100.0f), EPSILON);
+        // Diagonal.
+        assertEquals(85.0f, circleToi(-100.0f * DIAG, -100.0f * DIAG, DIAG, DIAG,
+                100.0f), EPSILON);
+
+        // Exactly reaching at the end of the step counts; falling short doesn't.
+        assertEquals(85.0f, circleToi(-100.0f, 0.0f, 1.0f, 0.0f, 85.0f), EPSILON);
+        assertTrue(circleToi(-100.0f, 0.0f, 1.0f, 0.0f, 84.9f) < 0.0f);
+
+        Archetype targets = circleTargets();
+        assertTrue(Collision.collidedWith(mOut, targets, 0, -100.0f, 0.0f, 1.0f, 0.0f, 100.0f,
+                5.0f));
+        assertEquals(Collision.HIT_FACE_ROUND, mOut.getFace());
+        assertEquals(0, mOut.getRow());
+        assertEquals(85.0f, mOut.getDistanceTraveled(), EPSILON);
+        assertEquals(-1.0f, mOut.getNormalX(), EPSILON);
+        assertEquals(0.0f, mOut.getNormalY(), EPSILON);
+        assertEquals(0.0f, mOut.getXAdj(), EPSILON);
+        assertEquals(0.0f, mOut.getYAdj(), EPSILON);
+    }
+
+    @Test
+    public void circleMisses() {
+        assertTrue(circleToi(-100.0f, 0.0f, -1.0f, 0.0f, 1000.0f) < 0.0f);
+        assertTrue(circleToi(-100.0f, 20.0f, 1.0f, 0.0f, 1000.0f) < 0.0f);
+        // Already past it.
+        assertTrue(circleToi(100.0f, 0.0f, 1.0f, 0.0f, 1000.0f) < 0.0f);
+
+        assertFalse(Collision.collidedWith(mOut, circleTargets(), 0, -100.0f, 20.0f,
+                1.0f, 0.0f, 1000.0f, 5.0f));
+        assertFalse(mOut.isHit());
+    }
+
+    @Test
+    public void circleGrazing() {
+        // Unlike the rect's flat sides, just touching a circle counts, at the point of
+        // closest approach.
+        assertEquals(100.0f, circleToi(-100.0f, 15.0f, 1.0f, 0.0f, 1000.0f), EPSILON);
+        assertTrue(circleToi(-100.0f, 15.01f, 1.0f, 0.0f, 1000.0f) < 0.0f);
+        // A near graze, 100 - sqrt(15^2 - 14.9^2).
+        float expected = 100.0f - (float) Math.sqrt(15.0 * 15.0 - 14.9 * 14.9);
+        assertEquals(expected, circleToi(-100.0f, 14.9f, 1.0f, 0.0f, 1000.0f), EPSILON);
+    }
+
+    @Test
+    public void circleStartsOverlapping() {
+        assertEquals(0.0f, circleToi(3.0f, 4.0f, 1.0f, 0.0f, 100.0f), 0.0f);
+        // Heading away still reports the overlap.
+        assertEquals(0.0f, circleToi(3.0f, 4.0f, 0.6f, 0.8f, 100.0f), 0.0f);
+
+        // Centers 5 apart, need to be 15: pushed 10 further out along the line between them.
+        Archetype targets = circleTargets();
+        assertTrue(Collision.collidedWith(mOut, targets, 0, 3.0f, 4.0f, 1.0f, 0.0f, 100.0f,
+                5.0f));
+        assertEquals(0.0f, mOut.getDistanceTraveled(), 0.0f);
+        assertEquals(0.6f, mOut.getNormalX(), EPSILON);
+        assertEquals(0.8f, mOut.getNormalY(), EPSILON);
+        assertEquals(6.0f, mOut.getXAdj(), EPSILON);
+        assertEquals(8.0f, mOut.getYAdj(), EPSILON);
+
+        // Dead center has no line between them, so back out the way we came.
+        assertTrue(Collision.collidedWith(mOut, targets, 0, 0.0f, 0.0f, 1.0f, 0.0f, 100.0f,
+                5.0f));
+        assertEquals(-1.0f, mOut.getNormalX(), EPSILON);
+        assertEquals(0.0f, mOut.getNormalY(), EPSILON);
+        assertEquals(-15.0f, mOut.getXAdj(), EPSILON);
+        assertEquals(0.0f, mOut.getYAdj(), EPSILON);
+    }
+
+    @Test
+    public void circleNotMoving() {
+        assertEquals(0.0f, circleToi(3.0f, 4.0f, 0.0f, 0.0f, 0.0f), 0.0f);
+        assertTrue(circleToi(-100.0f, 0.0f, 0.0f, 0.0f, 0.0f) < 0.0f);
+        assertTrue(circleToi(-100.0f, 0.0f, 1.0f, 0.0f, 0.0f) < 0.0f);
+    }
+
+    /**
+     * Target of radius 10 at the origin, ball of radius 5.
+     */
+    private static float circleToi(float curX, float curY, float dirX, float dirY,
+            float distance) {
+        return Collision.timeOfImpactCircle(0.0f, 0.0f, 10.0f, curX, curY, dirX, dirY,
+                distance, 5.0f);
+    }
+
+    /**
+     * The same target, as the one row of an archetype, for collidedWith().
+     */
+    private static Archetype circleTargets() {
+        Archetype targets = new World().createArchetype("targets",
+                Components.POSITION | Components.SHAPE, 1);
+        int row = targets.add();
+        targets.column(Components.X)[row] = 0.0f;
+        targets.column(Components.Y)[row] = 0.0f;
+        targets.column(Components.RADIUS)[row] = 10.0f;
+        return targets;
+    }
+}
@@ -0,0 +1,133 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for EventQueue, which both KineticScheduler and TimerSystem run on.  Each event's
+ * "a" is a serial number, so the order things come out in can be checked against the order
+ * they went in.
+ */
+public class EventQueueTest {
+    @Test
+    public void earliestFirst() {
+        EventQueue queue = new EventQueue();
+        queue.add(3.0, 7, 0, 10, 20, 30);
+        queue.add(1.0, 8, 1, 11, 21, 31);
+        queue.add(2.0, 9, 2, 12, 22, 32);
+        assertEquals(3, queue.size());
+        assertEquals(1.0, queue.peekTime(), 0.0);
+
+        queue.pop();
+        assertEquals(1.0, queue.getPoppedTime(), 0.0);
+        assertEquals(8, queue.getPoppedType());
+        assertEquals(1, queue.getPoppedA());
+        assertEquals(11, queue.getPoppedAGen());
+        assertEquals(21, queue.getPoppedB());
+        assertEquals(31, queue.getPoppedBGen());
+        assertEquals(2, pop(queue));
+        assertEquals(0, pop(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void tiesComeOutInOrderAdded() {
+        // Enough of them that the heap is several levels deep and has to grow.
+        EventQueue queue = new EventQueue();
+        for (int i = 0; i < 200; i++) {
+            queue.add(i % 3 == 0 ? 1.0 : 2.0, 0, i, 0, 0, 0);
+        }
+        int last = -1;
+        for (int i = 0; i < 67; i++) {
+            int a = pop(queue);
+            assertEquals(0, a % 3);
+            assertTrue(a > last);
+            last = a;
+        }
+        last = -1;
+        while (!queue.isEmpty()) {
+            int a = pop(queue);
+            assertTrue(a % 3 != 0);
+            assertTrue(a > last);
+            last = a;
+        }
+    }
+
+    @Test
+    public void tiesStayInOrderWhenSlotsAreReused() {
+        // Pop some, so later events land in lower slots than earlier ones.  It's still the
+        // order of the add() calls that counts.
+        EventQueue queue = new EventQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.add(i, 0, -1, 0, 0, 0);
+        }
+        queue.add(100.0, 0, 0, 0, 0, 0);
+        for (int i = 0; i < 5; i++) {
+            queue.pop();
+        }
+        for (int i = 1; i <= 5; i++) {
+            queue.add(100.0, 0, i, 0, 0, 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(-1, pop(queue));
+        }
+        for (int i = 0; i <= 5; i++) {
+            assertEquals(i, pop(queue));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void mixedAddsAndPopsStaySorted() {
+        EventQueue queue = new EventQueue();
+        Random random = new Random(1);
+        int serial = 0;
+        double now = 0.0;
+        int lastA = -1;
+        for (int round = 0; round < 1000; round++) {
+            for (int i = random.nextInt(4); i > 0; i--) {
+                // Coarse times, so there are plenty of ties.
+                queue.add(now + random.nextInt(8), 0, serial++, 0, 0, 0);
+            }
+            for (int i = random.nextInt(4); i > 0 && !queue.isEmpty(); i--) {
+                queue.pop();
+                double time = queue.getPoppedTime();
+                int a = queue.getPoppedA();
+                assertTrue(time >= now);
+                if (time == now) {
+                    assertTrue(a > lastA);
+                }
+                now = time;
+                lastA = a;
+            }
+        }
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        EventQueue queue = new EventQueue();
+        for (int i = 0; i < 100; i++) {
+            queue.add(i, 0, i, 0, 0, 0);
+        }
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+
+        queue.add(5.0, 0, 1, 0, 0, 0);
+        queue.add(5.0, 0, 2, 0, 0, 0);
+        queue.add(4.0, 0, 3, 0, 0, 0);
+        assertEquals(3, pop(queue));
+        assertEquals(1, pop(queue));
+        assertEquals(2, pop(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    private static int pop(EventQueue queue) {
+        queue.pop();
+        return queue.getPoppedA();
+    }
+}
@@ -0,0 +1,220 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for FireControl: when a touch turns into a shot, and what happens to shots on their
+ * way to the simulation.
+ */
+public class FireControlTest {
+    private static final long MSEC = 1000000L;
+    private static final long INTERVAL = FireControl.HOLD_FIRE_INTERVAL_NSEC;
+
+    // Made up, but not 0, which is what shots that aren't from a tap carry.
+    private static final long START = 5000 * MSEC;
+
+    /**
+     * Keeps the shots it's given instead of spawning balls.
+     */
+    private static class ShotCatcher extends Simulation {
+        final List<String> mShots = new ArrayList<String>();
+
+        ShotCatcher() {
+            super(new ManualClock(), Logger.SILENT);
+        }
+
+        @Override
+        void allocBall(float touchX, float touchY, long tapNsec) {
+            mShots.add(shot(touchX, touchY, tapNsec));
+        }
+    }
+
+    private FireControl mFire;
+    private ShotCatcher mSim;
+
+    @Before
+    public void setUp() {
+        mFire = new FireControl();
+        mSim = new ShotCatcher();
+    }
+
+    @Test
+    public void tapFiresAndHoldRepeats() {
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        assertFired(shot(1, 2, START));
+
+        mFire.update(START + INTERVAL - 1);
+        assertFired();
+        mFire.update(START + INTERVAL);
+        assertFired(shot(1, 2, 0));
+
+        // Moving only changes the aim; the next shot goes where the finger is then.
+        mFire.onTouch(TouchRing.ACTION_MOVE, 5, 6, START + INTERVAL + 10 * MSEC, 0);
+        mFire.onTouch(TouchRing.ACTION_MOVE, 7, 8, START + INTERVAL + 20 * MSEC, 0);
+        assertFired();
+        mFire.update(START + 2 * INTERVAL - 1);
+        assertFired();
+        mFire.onTouch(TouchRing.ACTION_MOVE, 9, 10, START + 2 * INTERVAL, 0);
+        assertFired(shot(9, 10, 0));
+        mFire.update(START + 2 * INTERVAL);
+        assertFired();
+    }
+
+    @Test
+    public void lateFrameKeepsSchedule() {
+        // A little late: the shot after still comes on the original schedule.
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        mFire.update(START + INTERVAL + 10 * MSEC);
+        assertFired(shot(1, 2, START), shot(1, 2, 0));
+        mFire.update(START + 2 * INTERVAL - 1);
+        assertFired();
+        mFire.update(START + 2 * INTERVAL);
+        assertFired(shot(1, 2, 0));
+    }
+
+    @Test
+    public void noCatchUpAfterStall() {
+        // Held through a long stall (a pause, say): one shot, not the seven that were missed,
+        // and the next one is a full interval later.
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        long stall = START + 7 * INTERVAL + 50 * MSEC;
+        mFire.update(stall);
+        assertFired(shot(1, 2, START), shot(1, 2, 0));
+        mFire.update(stall + INTERVAL - 1);
+        assertFired();
+        mFire.update(stall + INTERVAL);
+        assertFired(shot(1, 2, 0));
+    }
+
+    @Test
+    public void upFiresIfDue() {
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        mFire.onTouch(TouchRing.ACTION_UP, 3, 4, START + INTERVAL, 0);
+        assertFired(shot(1, 2, START), shot(3, 4, 0));
+
+        // Let go, so no more.
+        mFire.update(START + 5 * INTERVAL);
+        assertFired();
+    }
+
+    @Test
+    public void upBeforeDueDoesNotFire() {
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        mFire.onTouch(TouchRing.ACTION_UP, 3, 4, START + INTERVAL - 1, 0);
+        mFire.update(START + 5 * INTERVAL);
+        assertFired(shot(1, 2, START));
+
+        // A stray move or up for a finger that isn't down does nothing.
+        mFire.onTouch(TouchRing.ACTION_MOVE, 5, 6, START + 6 * INTERVAL, 0);
+        mFire.onTouch(TouchRing.ACTION_UP, 5, 6, START + 6 * INTERVAL, 0);
+        assertFired();
+    }
+
+    @Test
+    public void pointersFireSeparately() {
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        mFire.onTouch(TouchRing.ACTION_DOWN, 3, 4, START + 50 * MSEC, 1);
+        assertFired(shot(1, 2, START), shot(3, 4, START + 50 * MSEC));
+        mFire.update(START + INTERVAL);
+        assertFired(shot(1, 2, 0));
+        mFire.update(START + INTERVAL + 50 * MSEC);
+        assertFired(shot(3, 4, 0));
+
+        // Pointer IDs past the ones we track are ignored.
+        mFire.onTouch(TouchRing.ACTION_DOWN, 5, 6, START, 16);
+        mFire.onTouch(TouchRing.ACTION_DOWN, 5, 6, START, -1);
+        assertFired();
+    }
+
+    @Test
+    public void cancelReleasesEveryPointer() {
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        mFire.onTouch(TouchRing.ACTION_DOWN, 3, 4, START, 5);
+        mFire.onTouch(TouchRing.ACTION_CANCEL, 0, 0, START + 10 * MSEC, 0);
+        assertFired(shot(1, 2, START), shot(3, 4, START));
+
+        mFire.update(START + 5 * INTERVAL);
+        mFire.onTouch(TouchRing.ACTION_MOVE, 1, 2, START + 5 * INTERVAL, 0);
+        mFire.onTouch(TouchRing.ACTION_UP, 3, 4, START + 5 * INTERVAL, 5);
+        assertFired();
+    }
+
+    @Test
+    public void fireHandsOverAtMostMax() {
+        for (int i = 0; i < 5; i++) {
+            mFire.onTouch(TouchRing.ACTION_DOWN, i, 0, START + i, i);
+        }
+        mFire.fire(mSim, 2);
+        assertShots(shot(0, 0, START), shot(1, 0, START + 1));
+        mFire.fire(mSim, 2);
+        assertShots(shot(2, 0, START + 2), shot(3, 0, START + 3));
+        mFire.fire(mSim, 2);
+        assertShots(shot(4, 0, START + 4));
+        mFire.fire(mSim, 2);
+        assertShots();
+    }
+
+    @Test
+    public void dropsNewestWhenQueueFull() {
+        // The queue holds 32.  Get its head partway around first, so it wraps.
+        for (int i = 0; i < 10; i++) {
+            mFire.onTouch(TouchRing.ACTION_DOWN, -1, 0, START, 0);
+        }
+        mFire.fire(mSim, 10);
+        mSim.mShots.clear();
+
+        for (int i = 0; i < 40; i++) {
+            mFire.onTouch(TouchRing.ACTION_DOWN, i, 0, START + i, 0);
+        }
+        assertEquals(8, mFire.getDropped());
+        mFire.fire(mSim, 100);
+        assertEquals(32, mSim.mShots.size());
+        for (int i = 0; i < 32; i++) {
+            assertEquals(shot(i, 0, START + i), mSim.mShots.get(i));
+        }
+
+        // There's room again.
+        mFire.onTouch(TouchRing.ACTION_DOWN, 50, 0, START + 50, 0);
+        mFire.fire(mSim, 100);
+        assertEquals(shot(50, 0, START + 50), mSim.mShots.get(32));
+        assertEquals(8, mFire.getDropped());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        mFire.onTouch(TouchRing.ACTION_DOWN, 1, 2, START, 0);
+        mFire.clear();
+        mFire.update(START + 5 * INTERVAL);
+        assertFired();
+    }
+
+    private static String shot(float x, float y, long tapNsec) {
+        return "(" + x + "," + y + ") tap " + tapNsec;
+    }
+
+    /**
+     * Checks that exactly these shots have been queued since the last check.
+     */
+    private void assertFired(String... expected) {
+        mFire.fire(mSim, Integer.MAX_VALUE);
+        assertShots(expected);
+    }
+
+    /**
+     * Checks that exactly these shots have been handed over since the last check.
+     */
+    private void assertShots(String... expected) {
+        List<String> wanted = new ArrayList<String>();
+        for (String shot : expected) {
+            wanted.add(shot);
+        }
+        assertEquals(wanted, mSim.mShots);
+        mSim.mShots.clear();
+    }
+}
@@ -0,0 +1,166 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for Histogram's bucketing and percentile math.
+ * <p>
+ * Values below 32 get a bucket apiece, as do 32..63.  From there on each power of two is cut
+ * into 32 buckets, so 64..127 go in pairs, 128..255 in fours, and so on.  A percentile is
+ * reported as the top of its bucket, but never more than the largest value recorded.
+ */
+public class HistogramTest {
+    // Where the top bucket, which has no upper limit, starts: the last slice below 2^36.
+    private static final long TOP_BUCKET = (1L << 36) - (1L << 30);
+
+    @Test
+    public void empty() {
+        Histogram hist = new Histogram();
+        assertEquals(0, hist.getCount());
+        assertEquals(0, hist.getTotal());
+        assertEquals(0, hist.getMax());
+        assertEquals(0, hist.getMean());
+        assertEquals(0, hist.getPercentile(50));
+        assertEquals(0, hist.getPercentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram hist = new Histogram();
+        for (int i = 0; i < 20; i++) {
+            hist.record(i);
+        }
+        assertEquals(20, hist.getCount());
+        assertEquals(190, hist.getTotal());
+        assertEquals(9, hist.getMean());
+        assertEquals(19, hist.getMax());
+
+        // The nth percentile is the smallest value that at least n% are at or below.
+        assertEquals(0, hist.getPercentile(0));
+        assertEquals(0, hist.getPercentile(5));
+        assertEquals(1, hist.getPercentile(5.1));
+        assertEquals(9, hist.getPercentile(50));
+        assertEquals(18, hist.getPercentile(95));
+        assertEquals(19, hist.getPercentile(99));
+        assertEquals(19, hist.getPercentile(100));
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        // 31, 32 and 33 are all in buckets of their own.
+        assertEquals(31, percentileOfFirst(31, 33));
+        assertEquals(32, percentileOfFirst(32, 33));
+        assertEquals(63, percentileOfFirst(63, 64));
+
+        // 64 and 65 share a bucket, as do 126 and 127; 127 and 128 don't.
+        assertEquals(65, percentileOfFirst(64, 100));
+        assertEquals(65, percentileOfFirst(65, 100));
+        assertEquals(67, percentileOfFirst(66, 100));
+        assertEquals(127, percentileOfFirst(126, 1000));
+        assertEquals(131, percentileOfFirst(128, 1000));
+
+        // Just under a power of two is always the top of a bucket, and the power itself is
+        // at the bottom of the next.
+        for (int bit = 6; bit < 36; bit++) {
+            long power = 1L << bit;
+            assertEquals(power - 1, percentileOfFirst(power - 1, power));
+            long next = percentileOfFirst(power, power * 4);
+            assertEquals(power + (power >> 5) - 1, next);
+        }
+    }
+
+    @Test
+    public void reportedValueCappedByMax() {
+        // 64's bucket goes up to 65, but nothing that big was recorded.
+        Histogram hist = new Histogram();
+        hist.record(64);
+        assertEquals(64, hist.getPercentile(50));
+        assertEquals(64, hist.getPercentile(100));
+    }
+
+    @Test
+    public void precision() {
+        // Every value is reported to within 1/32 above, never below.
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long value = 32 + (long) (random.nextDouble() * random.nextDouble() * TOP_BUCKET);
+            long reported = percentileOfFirst(value, Long.MAX_VALUE / 2);
+            assertTrue(value + " reported as " + reported, reported >= value);
+            assertTrue(value + " reported as " + reported, reported <= value + value / 32);
+        }
+    }
+
+    @Test
+    public void hugeValuesGoInTopBucket() {
+        // Anything past ~68 seconds shares the top bucket, along with the top slice below
+        // that.  Its percentiles come out as the max, which is still exact.
+        Histogram hist = new Histogram();
+        hist.record(TOP_BUCKET);
+        hist.record(1L << 40);
+        assertEquals(1L << 40, hist.getMax());
+        assertEquals(1L << 40, hist.getPercentile(50));
+        assertEquals(1L << 40, hist.getPercentile(100));
+
+        // Just below the top bucket is still bucketed normally.
+        hist.reset();
+        hist.record(TOP_BUCKET - 1);
+        hist.record(1L << 40);
+        assertEquals(TOP_BUCKET - 1, hist.getPercentile(50));
+    }
+
+    @Test
+    public void negativeCountsAsZero() {
+        Histogram hist = new Histogram();
+        hist.record(-5);
+        hist.record(10);
+        assertEquals(2, hist.getCount());
+        assertEquals(10, hist.getTotal());
+        assertEquals(0, hist.getPercentile(50));
+        assertEquals(10, hist.getPercentile(100));
+    }
+
+    @Test
+    public void reset() {
+        Histogram hist = new Histogram();
+        hist.record(1000);
+        hist.record(5);
+        hist.reset();
+        assertEquals(0, hist.getCount());
+        assertEquals(0, hist.getTotal());
+        assertEquals(0, hist.getMax());
+        assertEquals(0, hist.getPercentile(100));
+
+        hist.record(7);
+        assertEquals(7, hist.getPercentile(100));
+        assertEquals(1, hist.getCount());
+    }
+
+    @Test
+    public void summary() {
+        Histogram hist = new Histogram();
+        long value = (1L << 20) - 1;        // 1.05 ms, the top of its bucket
+        for (int i = 0; i < 99; i++) {
+            hist.record(value);
+        }
+        hist.record(1500000);
+        assertEquals(value, hist.getPercentile(99));
+        assertEquals("p50 1.05 p95 1.05 p99 1.05 max 1.50", hist.getSummaryMsec());
+        assertEquals("count 100, p50 1.05 p95 1.05 p99 1.05 max 1.50 ms", hist.toString());
+    }
+
+    /**
+     * Records "value" and then a bigger one, and returns the 50th percentile: the top of
+     * value's bucket, as long as the bigger one is in a different bucket.
+     */
+    private static long percentileOfFirst(long value, long bigger) {
+        Histogram hist = new Histogram();
+        hist.record(value);
+        hist.record(bigger);
+        return hist.getPercentile(50);
+    }
+}
@@ -0,0 +1,284 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips through InputRecorder and InputReplay: what goes in has to come back out on the
+ * same steps, including the awkward values (negative and large deltas, extreme seeds), and
+ * damaged logs have to be turned away rather than misread.
+ */
+public class InputLogTest {
+    private static final long STEP_NSEC = 1000000000L / 120;
+
+    private InputRecorder mRecorder;
+
+    @Before
+    public void setUp() {
+        Arena.setDimensions(1080, 1920);
+        mRecorder = new InputRecorder(STEP_NSEC);
+    }
+
+    @Test
+    public void header() {
+        InputReplay replay = new InputReplay(bytes());
+        assertEquals(STEP_NSEC, replay.getStepNsec());
+        assertEquals(1080, replay.getArenaWidth());
+        assertEquals(1920, replay.getArenaHeight());
+        // No games at all.
+        assertFalse(replay.nextGame());
+        assertFalse(replay.isInGame());
+    }
+
+    @Test
+    public void shotsAndEnemies() {
+        mRecorder.beginGame(42);
+        mRecorder.event(0, InputRecorder.TYPE_ENEMY);
+        mRecorder.shot(3, 540.0f, 960.0f);
+        mRecorder.shot(3, 100.5f, 1900.0625f);        // same step, moved left and up
+        mRecorder.event(7, InputRecorder.TYPE_ENEMY);
+        mRecorder.shot(10, 0.0f, 0.0f);
+        mRecorder.endGame(12, 250);
+
+        InputReplay replay = new InputReplay(bytes());
+        assertTrue(replay.nextGame());
+        assertTrue(replay.isInGame());
+        assertEquals(42, replay.getSeed());
+        assertEquals(12, replay.getEndTick());
+        assertEquals(250, replay.getEndScore());
+        assertEquals(10, replay.getLastInputTick());
+
+        assertEquals(Arrays.asList("0 enemy", "3 shot 540.0,960.0", "3 shot 100.5,1900.0625",
+                "7 enemy", "10 shot 0.0,0.0"), play(replay, 12));
+        assertFalse(replay.nextGame());
+    }
+
+    @Test
+    public void negativeAndLargeValues() {
+        mRecorder.beginGame(Long.MIN_VALUE);
+        // Off the arena on the negative side: negative positions and deltas.
+        mRecorder.shot(0, -5.5f, -0.0625f);
+        mRecorder.shot(1, -100000.0f, 3.0f);
+        // A big jump in position and in time (several days of steps).
+        mRecorder.shot(1, 100000.0f, -100000.0f);
+        long farTick = 120L * 60 * 60 * 24 * 5;
+        mRecorder.shot(farTick, 1.0f, 1.0f);
+        mRecorder.endGame(farTick + 1, Integer.MAX_VALUE);
+
+        mRecorder.beginGame(Long.MAX_VALUE);
+        mRecorder.endGame(0, 0);
+        mRecorder.beginGame(-1);
+        mRecorder.endGame(5, 0);
+
+        InputReplay replay = new InputReplay(bytes());
+        assertTrue(replay.nextGame());
+        assertEquals(Long.MIN_VALUE, replay.getSeed());
+        assertEquals(farTick + 1, replay.getEndTick());
+        assertEquals(Integer.MAX_VALUE, replay.getEndScore());
+        assertEquals(farTick, replay.getLastInputTick());
+
+        // Only look at the steps that matter; the rest would take a while.
+        Recorded sim = new Recorded();
+        sim.apply(replay, 0);
+        sim.apply(replay, 1);
+        assertEquals(Arrays.asList("0 shot -5.5,-0.0625", "1 shot -100000.0,3.0",
+                "1 shot 100000.0,-100000.0"), sim.mEvents);
+        sim.apply(replay, farTick - 1);
+        assertEquals(3, sim.mEvents.size());
+        sim.apply(replay, farTick);
+        assertEquals(farTick + " shot 1.0,1.0", sim.mEvents.get(3));
+
+        assertTrue(replay.nextGame());
+        assertEquals(Long.MAX_VALUE, replay.getSeed());
+        assertEquals(0, replay.getEndTick());
+        assertEquals(0, replay.getEndScore());
+        assertTrue(replay.nextGame());
+        assertEquals(-1, replay.getSeed());
+        assertEquals(5, replay.getEndTick());
+        assertFalse(replay.nextGame());
+    }
+
+    @Test
+    public void endOfGame() {
+        // Nothing is recorded between games, or after one ends.
+        mRecorder.shot(0, 1.0f, 1.0f);
+        mRecorder.beginGame(1);
+        mRecorder.shot(2, 10.0f, 10.0f);
+        mRecorder.endGame(4, 7);
+        mRecorder.shot(5, 20.0f, 20.0f);
+        mRecorder.event(5, InputRecorder.TYPE_ENEMY);
+        mRecorder.endGame(6, 8);
+
+        // A second game's shots are relative to 0,0 again, and its ticks to its start.
+        mRecorder.beginGame(2);
+        mRecorder.shot(1, 10.0f, 10.0f);
+        mRecorder.endGame(3, 9);
+
+        InputReplay replay = new InputReplay(bytes());
+        assertTrue(replay.nextGame());
+        assertEquals(4, replay.getEndTick());
+        assertEquals(7, replay.getEndScore());
+        assertEquals(Arrays.asList("2 shot 10.0,10.0"), play(replay, 100));
+
+        assertTrue(replay.nextGame());
+        assertEquals(3, replay.getEndTick());
+        assertEquals(9, replay.getEndScore());
+        assertEquals(Arrays.asList("1 shot 10.0,10.0"), play(replay, 100));
+        assertFalse(replay.nextGame());
+    }
+
+    @Test
+    public void skipsUnplayedGame() {
+        mRecorder.beginGame(1);
+        mRecorder.shot(2, 10.0f, 10.0f);
+        mRecorder.endGame(4, 7);
+        mRecorder.beginGame(2);
+        mRecorder.shot(1, 30.0f, 30.0f);
+        mRecorder.endGame(3, 9);
+
+        // Moving on without playing the first game skips the rest of it.
+        InputReplay replay = new InputReplay(bytes());
+        assertTrue(replay.nextGame());
+        assertTrue(replay.nextGame());
+        assertEquals(2, replay.getSeed());
+        assertEquals(Arrays.asList("1 shot 30.0,30.0"), play(replay, 100));
+    }
+
+    @Test
+    public void unfinishedGame() {
+        // The recording stopped before the game ended.
+        mRecorder.beginGame(5);
+        mRecorder.shot(3, 10.0f, 10.0f);
+        mRecorder.event(9, InputRecorder.TYPE_ENEMY);
+
+        InputReplay replay = new InputReplay(bytes());
+        assertTrue(replay.nextGame());
+        assertEquals(-1, replay.getEndTick());
+        assertEquals(-1, replay.getEndScore());
+        assertEquals(9, replay.getLastInputTick());
+        assertEquals(Arrays.asList("3 shot 10.0,10.0", "9 enemy"), play(replay, 100));
+        assertFalse(replay.nextGame());
+    }
+
+    @Test
+    public void outOfOrder() {
+        mRecorder.beginGame(1);
+        mRecorder.shot(5, 1.0f, 1.0f);
+        try {
+            mRecorder.shot(4, 1.0f, 1.0f);
+            fail("recorded a step out of order");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void emptyAndTruncated() {
+        expectRejected(new byte[0]);
+        expectRejected(new byte[] { 'A', 'E', 'I' });
+        expectRejected("not a log at all".getBytes());
+
+        mRecorder.beginGame(-123456789L);
+        mRecorder.shot(1000, 12345.0f, -12345.0f);
+        mRecorder.endGame(100000, 5000);
+        byte[] data = bytes();
+
+        // Cutting the header anywhere is caught up front.
+        int headerLength = new InputRecorder(STEP_NSEC).getLength();
+        for (int length = 0; length < headerLength; length++) {
+            expectRejected(Arrays.copyOf(data, length));
+        }
+
+        // Cutting the game anywhere other than between records is caught when it's read.
+        // Between records, it's just an unfinished game.
+        int unfinished = 0;
+        for (int length = headerLength + 1; length < data.length; length++) {
+            InputReplay replay = new InputReplay(Arrays.copyOf(data, length));
+            try {
+                assertTrue(replay.nextGame());
+            } catch (RuntimeException expected) {
+                continue;
+            }
+            assertEquals(-1, replay.getEndTick());
+            play(replay, 100000);
+            unfinished++;
+        }
+        // After the game start, and after the shot.
+        assertEquals(2, unfinished);
+    }
+
+    @Test
+    public void wrongVersion() {
+        byte[] data = bytes();
+        data[4] = (byte) (InputRecorder.VERSION + 1);
+        expectRejected(data);
+    }
+
+    private byte[] bytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            mRecorder.writeTo(out);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        assertEquals(mRecorder.getLength(), out.size());
+        return out.toByteArray();
+    }
+
+    private static void expectRejected(byte[] data) {
+        try {
+            InputReplay replay = new InputReplay(data);
+            replay.nextGame();
+            fail("accepted a bad log of " + data.length + " bytes");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    /**
+     * Plays steps 0 through lastTick of the current game, and returns what was fed in.
+     */
+    private static List<String> play(InputReplay replay, long lastTick) {
+        Recorded sim = new Recorded();
+        for (long tick = 0; tick <= lastTick; tick++) {
+            sim.apply(replay, tick);
+        }
+        return sim.mEvents;
+    }
+
+    /**
+     * A simulation that writes down the inputs it's given instead of acting on them.
+     */
+    private static class Recorded extends Simulation {
+        final List<String> mEvents = new ArrayList<String>();
+        private long mTick;
+
+        Recorded() {
+            super(new ManualClock(), Logger.SILENT);
+        }
+
+        void apply(InputReplay replay, long tick) {
+            mTick = tick;
+            replay.apply(this, tick);
+        }
+
+        @Override
+        void allocEnemy() {
+            mEvents.add(mTick + " enemy");
+        }
+
+        @Override
+        public void allocBall(float touchX, float touchY) {
+            mEvents.add(mTick + " shot " + touchX + "," + touchY);
+        }
+    }
+}
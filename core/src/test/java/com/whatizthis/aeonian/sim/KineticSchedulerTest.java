@@ -0,0 +1,183 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for KineticScheduler's bookkeeping: the handles its events name entities by, and
+ * starting over when the entities change behind its back.
+ * <p>
+ * The scheduler is driven directly, not through a step, so nothing moves: every prediction
+ * is made from PREV_X/PREV_Y, which stay put.  There's no player, so no player events.
+ */
+public class KineticSchedulerTest {
+    private static final double STEP_SEC = 0.5;
+
+    private Simulation mSim;
+    private Archetype mBalls;
+    private Archetype mEnemies;
+    private KineticScheduler mKinetic;
+
+    @Before
+    public void setUp() {
+        Arena.setDimensions(1080, 1920);
+        mSim = new Simulation(new ManualClock(), Logger.SILENT);
+        mBalls = mSim.getBalls();
+        mEnemies = mSim.getEnemies();
+        mKinetic = new KineticScheduler(mSim, mBalls, mEnemies, mSim.getPlayer());
+        mSim.addScore(1000);
+    }
+
+    @Test
+    public void handlesGoStaleWhenRemoved() {
+        KineticScheduler.Handles handles = new KineticScheduler.Handles();
+        handles.reserve(8);
+        for (int row = 0; row < 3; row++) {
+            handles.add(row);
+        }
+        int id0 = handles.getId(0);
+        int gen0 = handles.getGeneration(id0);
+        int id1 = handles.getId(1);
+        int gen1 = handles.getGeneration(id1);
+        int id2 = handles.getId(2);
+        int gen2 = handles.getGeneration(id2);
+        assertEquals(1, handles.findRow(id1, gen1));
+
+        // Row 0 goes, and the last row moves into its place, taking its handle along.
+        handles.remove(0, 2);
+        assertEquals(-1, handles.findRow(id0, gen0));
+        assertEquals(0, handles.findRow(id2, gen2));
+        assertEquals(id2, handles.getId(0));
+        assertEquals(1, handles.findRow(id1, gen1));
+
+        // The id is reused for the next one, under a new generation.  The old handle still
+        // doesn't match, and that's what makes the old one's events stale.
+        handles.add(2);
+        assertEquals(id0, handles.getId(2));
+        int newGen = handles.getGeneration(id0);
+        assertEquals(gen0 + 1, newGen);
+        assertEquals(-1, handles.findRow(id0, gen0));
+        assertEquals(2, handles.findRow(id0, newGen));
+
+        // Removing the last row just gives up its handle.
+        handles.remove(2, 2);
+        assertEquals(-1, handles.findRow(id0, newGen));
+        assertEquals(0, handles.findRow(id2, gen2));
+
+        // clear() gives up all of them.
+        handles.clear();
+        assertEquals(-1, handles.findRow(id2, gen2));
+        assertEquals(-1, handles.findRow(id1, gen1));
+    }
+
+    @Test
+    public void ballLeavesOnTime() {
+        // 110 units from gone (it has to be entirely off the edge) at 100 a second.
+        addBall(100, 500, -1, 100);
+        step();
+        step();
+        assertEquals(1, mBalls.size());
+        step();
+        assertEquals(0, mBalls.size());
+        assertEquals(1000 - ScoringSystem.MISSED_BALL_PENALTY, mSim.getScore());
+        assertEquals(1, mKinetic.getResyncCount());
+    }
+
+    @Test
+    public void newEntitiesDontResync() {
+        addBall(540, 960, 0, 0);
+        step();
+        addBall(100, 500, -1, 100);
+        addEnemy(900, 1500);
+        step();
+        step();
+        assertEquals(1, mKinetic.getResyncCount());
+        // The second ball was predicted at the start of the step it showed up in, so it
+        // leaves 1.1s after that.
+        assertEquals(2, mBalls.size());
+        step();
+        assertEquals(1, mBalls.size());
+        assertEquals(1, mKinetic.getResyncCount());
+    }
+
+    @Test
+    public void fewerBallsThanKnownResyncs() {
+        // The ball in row 1 is on its way out.  Take row 0 away without telling the scheduler,
+        // which moves the leaving ball into row 0.  Its events still say row 1's handle,
+        // which would point past the end.  Instead the scheduler notices there are fewer
+        // balls than it knew of, and predicts again from scratch.
+        addBall(540, 960, 0, 0);
+        addBall(100, 500, -1, 100);
+        step();
+        mBalls.remove(0);
+        step();
+        assertEquals(2, mKinetic.getResyncCount());
+
+        // Time starts over at the resync, so it's 1.1s from there.
+        step();
+        assertEquals(1, mBalls.size());
+        step();
+        assertEquals(0, mBalls.size());
+        assertEquals(1000 - ScoringSystem.MISSED_BALL_PENALTY, mSim.getScore());
+    }
+
+    @Test
+    public void fewerEnemiesThanKnownResyncs() {
+        addEnemy(900, 1500);
+        addEnemy(200, 1500);
+        step();
+        mEnemies.remove(1);
+        step();
+        assertEquals(2, mKinetic.getResyncCount());
+        step();
+        assertEquals(2, mKinetic.getResyncCount());
+    }
+
+    @Test
+    public void resyncStartsOver() {
+        addBall(100, 500, -1, 100);
+        step();
+        mKinetic.resync();
+        step();
+        assertEquals(2, mKinetic.getResyncCount());
+        step();
+        step();
+        assertEquals(0, mBalls.size());
+    }
+
+    private void step() {
+        mKinetic.update(STEP_SEC);
+    }
+
+    /**
+     * Adds a ball at (x,y) heading left or right (dirX -1 or 1) at "speed", with radius 10.
+     */
+    private void addBall(float x, float y, float dirX, float speed) {
+        add(mBalls, x, y, dirX, 0, speed, 10);
+    }
+
+    /**
+     * Adds an enemy at (x,y), standing still, so it never meets anything.
+     */
+    private void addEnemy(float x, float y) {
+        add(mEnemies, x, y, 0, -1, 0, 20);
+    }
+
+    private static void add(Archetype archetype, float x, float y, float dirX, float dirY,
+            float speed, float radius) {
+        int row = archetype.add();
+        archetype.column(Components.X)[row] = x;
+        archetype.column(Components.Y)[row] = y;
+        archetype.column(Components.PREV_X)[row] = x;
+        archetype.column(Components.PREV_Y)[row] = y;
+        archetype.column(Components.DIR_X)[row] = dirX;
+        archetype.column(Components.DIR_Y)[row] = dirY;
+        archetype.column(Components.SPEED)[row] = speed;
+        archetype.column(Components.RADIUS)[row] = radius;
+    }
+}
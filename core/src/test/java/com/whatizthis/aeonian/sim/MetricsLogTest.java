@@ -0,0 +1,177 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for MetricsLog's file handling: what ends up in which file as they're rotated, and
+ * what happens to rows around close() and when the queue is full.
+ * <p>
+ * Most of these offer their rows before start(), so the writer finds them all waiting and
+ * the test doesn't depend on how the threads were scheduled.  The values are all two digits,
+ * so every line is the same length and the caps can be given in lines.
+ */
+public class MetricsLogTest {
+    private static final String[] NAMES = { "frames", "score" };
+    private static final Pattern LINE =
+            Pattern.compile("\\{\"session\":(\\d+),\"time\":(\\d+),\"frames\":(\\d+),"
+                    + "\"score\":(-?\\d+)\\}");
+
+    // As long as the clock has 13 digits (from 2001 to 2286), every line is this long.
+    private static final int LINE_BYTES = ("{\"session\":,\"time\":,\"frames\":10,\"score\":-10}\n")
+            .length() + 2 * Long.toString(System.currentTimeMillis()).length();
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void rotatesOldestOut() throws IOException {
+        File file = new File(mFolder.getRoot(), "metrics.json");
+        MetricsLog log = new MetricsLog(file, NAMES, 2 * LINE_BYTES, 3, Logger.SILENT);
+        offer(log, 10, 17);
+        log.start();
+        log.close();
+
+        // 10,11 went to .1 and then .2, and were deleted to make room for 14,15.
+        assertEquals(Arrays.asList(16L), read(file));
+        assertEquals(Arrays.asList(14L, 15L), read(rotated(file, 1)));
+        assertEquals(Arrays.asList(12L, 13L), read(rotated(file, 2)));
+        assertFalse(rotated(file, 3).exists());
+        assertEquals(0, log.getDropped());
+    }
+
+    @Test
+    public void oneFileStartsOver() throws IOException {
+        File file = new File(mFolder.getRoot(), "metrics.json");
+        MetricsLog log = new MetricsLog(file, NAMES, 2 * LINE_BYTES, 1, Logger.SILENT);
+        offer(log, 10, 15);
+        log.start();
+        log.close();
+
+        assertEquals(Arrays.asList(14L), read(file));
+        assertFalse(rotated(file, 1).exists());
+    }
+
+    @Test
+    public void lineBiggerThanCapStillWritten() throws IOException {
+        // Even an empty file can't hold one line.  Rather than rotating forever, each line
+        // gets a file to itself.
+        File file = new File(mFolder.getRoot(), "metrics.json");
+        MetricsLog log = new MetricsLog(file, NAMES, LINE_BYTES / 2, 3, Logger.SILENT);
+        offer(log, 10, 13);
+        log.start();
+        log.close();
+
+        assertEquals(Arrays.asList(12L), read(file));
+        assertEquals(Arrays.asList(11L), read(rotated(file, 1)));
+        assertEquals(Arrays.asList(10L), read(rotated(file, 2)));
+    }
+
+    @Test
+    public void appendsToExistingFile() throws IOException {
+        // What's already there counts against the cap.
+        File file = new File(mFolder.getRoot(), "metrics.json");
+        MetricsLog log = new MetricsLog(file, NAMES, 2 * LINE_BYTES, 2, Logger.SILENT);
+        offer(log, 10, 11);
+        log.start();
+        log.close();
+
+        log = new MetricsLog(file, NAMES, 2 * LINE_BYTES, 2, Logger.SILENT);
+        offer(log, 11, 13);
+        log.start();
+        log.close();
+
+        assertEquals(Arrays.asList(12L), read(file));
+        assertEquals(Arrays.asList(10L, 11L), read(rotated(file, 1)));
+    }
+
+    @Test
+    public void closeWritesWhatWasOffered() throws IOException {
+        File file = new File(mFolder.getRoot(), "metrics.json");
+        MetricsLog log = new MetricsLog(file, NAMES, 1 << 20, 2, Logger.SILENT);
+        log.start();
+        offer(log, 10, 15);
+        log.close();
+
+        assertEquals(Arrays.asList(10L, 11L, 12L, 13L, 14L), read(file));
+        assertEquals(0, log.getDropped());
+
+        // Too late now.
+        assertFalse(log.offer(new long[] { 20, -20 }));
+        assertEquals(1, log.getDropped());
+        assertEquals(5, read(file).size());
+    }
+
+    @Test
+    public void dropsWhenQueueFull() throws IOException {
+        // With nobody writing, the queue takes 16 rows and no more.
+        File file = new File(mFolder.getRoot(), "metrics.json");
+        MetricsLog log = new MetricsLog(file, NAMES, 1 << 20, 2, Logger.SILENT);
+        offer(log, 10, 26);
+        assertFalse(log.offer(new long[] { 26, -26 }));
+        assertFalse(log.offer(new long[] { 27, -27 }));
+        assertEquals(2, log.getDropped());
+
+        log.start();
+        log.close();
+        List<Long> values = read(file);
+        assertEquals(16, values.size());
+        assertEquals(10L, (long) values.get(0));
+        assertEquals(25L, (long) values.get(15));
+        assertEquals(2, log.getDropped());
+    }
+
+    /**
+     * Offers rows "first" up to but not including "end".  Each has "frames" set to the
+     * number and "score" to minus that.
+     */
+    private static void offer(MetricsLog log, int first, int end) {
+        long[] values = new long[NAMES.length];
+        for (int i = first; i < end; i++) {
+            values[0] = i;
+            values[1] = -i;
+            assertTrue("row " + i, log.offer(values));
+        }
+    }
+
+    /**
+     * Reads back the "frames" value from every line in "file", checking that each line is
+     * well formed and that they're in the order they were offered.
+     */
+    private static List<Long> read(File file) throws IOException {
+        assertTrue(file + " missing", file.exists());
+        List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+        List<Long> values = new ArrayList<Long>();
+        long time = 0;
+        for (String line : lines) {
+            Matcher m = LINE.matcher(line);
+            assertTrue(line, m.matches());
+            assertEquals(line, LINE_BYTES, line.length() + 1);
+            assertTrue(line, Long.parseLong(m.group(2)) >= time);
+            time = Long.parseLong(m.group(2));
+            long frames = Long.parseLong(m.group(3));
+            assertEquals(line, -frames, Long.parseLong(m.group(4)));
+            values.add(frames);
+        }
+        return values;
+    }
+
+    private static File rotated(File file, int index) {
+        return new File(file.getPath() + "." + index);
+    }
+}
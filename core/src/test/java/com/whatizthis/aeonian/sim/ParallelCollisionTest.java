@@ -0,0 +1,170 @@
+package com.whatizthis.aeonian.sim;
+
+import com.whatizthis.aeonian.ecs.Archetype;
+import com.whatizthis.aeonian.ecs.Components;
+import com.whatizthis.aeonian.ecs.Schedule;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a step plays out the same whether the collision system does it on one thread
+ * or hands it to a ParallelCollisionPass.
+ * <p>
+ * Two simulations are fed the same crowded game, one never going parallel and one always,
+ * and after every frame they have to agree on the score, the game state and where every
+ * enemy and ball is.  Shots go out in pairs at the same spot, so there are balls with the
+ * same time of impact, and there are enough enemies that several often want the same ball.
+ */
+public class ParallelCollisionTest {
+    private static final long FRAME_NSEC = 1000000000L / 60;
+    private static final int FRAMES = 3600;
+    private static final int ENEMIES_PER_SEC = 40;
+    private static final int SHOTS_PER_SEC = 60;
+
+    /**
+     * One of the two simulations, and what drives it.
+     */
+    private static class Run {
+        final ManualClock mClock = new ManualClock();
+        final Simulation mSim = new Simulation(mClock, Logger.SILENT);
+        final Random mRandom = new Random(1);
+        float mEnemyCredit;
+        float mShotCredit;
+
+        Run(long parallelPairs, BroadPhase broadPhase) {
+            mSim.setSeed(1);
+            mSim.setBroadPhase(broadPhase);
+            mSim.setParallelCollisionPairs(parallelPairs);
+            // Go parallel even if this machine has one core.
+            findCollisionSystem(mSim).setParallelism(4);
+            mSim.reset();
+            mSim.allocPlayer();
+        }
+
+        /**
+         * Adds this frame's enemies and shots, and runs the frame.  Returns the number of
+         * collision candidates it turned up.
+         */
+        long frame() {
+            mEnemyCredit += ENEMIES_PER_SEC / 60.0f;
+            while (mEnemyCredit >= 1.0f) {
+                mSim.allocEnemy();
+                mEnemyCredit -= 1.0f;
+            }
+            mShotCredit += SHOTS_PER_SEC / 60.0f;
+            while (mShotCredit >= 2.0f) {
+                Archetype enemies = mSim.getEnemies();
+                float x, y;
+                if (enemies.size() > 0) {
+                    int target = mRandom.nextInt(enemies.size());
+                    x = enemies.column(Components.X)[target];
+                    y = enemies.column(Components.Y)[target];
+                } else {
+                    x = mRandom.nextFloat() * Arena.WIDTH;
+                    y = mRandom.nextFloat() * Arena.HEIGHT;
+                }
+                mSim.allocBall(x, y);
+                mSim.allocBall(x, y);
+                mShotCredit -= 2.0f;
+            }
+
+            long before = mSim.getCollisionCandidates();
+            mClock.advance(FRAME_NSEC);
+            mSim.calculateNextFrame();
+            long candidates = mSim.getCollisionCandidates() - before;
+            if (!mSim.isAnimating()) {
+                mSim.reset();
+                mSim.allocPlayer();
+            }
+            return candidates;
+        }
+    }
+
+    @Test
+    public void matchesSerialWithSpatialHash() {
+        compare(new SpatialHash());
+    }
+
+    @Test
+    public void matchesSerialWithAabbTree() {
+        compare(new AabbTree());
+    }
+
+    /**
+     * Plays the game serially with "broadPhase", and in parallel, and compares them frame by
+     * frame.
+     */
+    private static void compare(BroadPhase broadPhase) {
+        Arena.setDimensions(1080, 1920);
+        Run serial = new Run(Long.MAX_VALUE, broadPhase);
+        Run parallel = new Run(0, new SpatialHash());
+        long hitFrames = 0;
+        long gamesLost = 0;
+        long serialCandidates = 0;
+        long parallelCandidates = 0;
+        try {
+            for (int frame = 0; frame < FRAMES; frame++) {
+                int score = serial.mSim.getScore();
+                serialCandidates += serial.frame();
+                parallelCandidates += parallel.frame();
+
+                Simulation a = serial.mSim;
+                Simulation b = parallel.mSim;
+                String where = broadPhase.getName() + " frame " + frame;
+                assertEquals(where + " state", a.getGamePlayState(), b.getGamePlayState());
+                assertEquals(where + " score", a.getScore(), b.getScore());
+                assertEquals(where + " lives", a.getLivesRemaining(), b.getLivesRemaining());
+                assertEquals(where + " steps", a.getStepCount(), b.getStepCount());
+                assertSameRows(where + " enemies", a.getEnemies(), b.getEnemies());
+                assertSameRows(where + " balls", a.getBalls(), b.getBalls());
+
+                if (a.getStepCount() == 0) {
+                    gamesLost++;
+                } else if (a.getScore() > score) {
+                    hitFrames++;
+                }
+            }
+        } finally {
+            serial.mSim.release();
+            parallel.mSim.release();
+        }
+
+        // Make sure the game was busy enough to mean something, and that the parallel steps
+        // count their candidates too.
+        assertTrue("only " + hitFrames + " frames with a hit", hitFrames > FRAMES / 20);
+        assertTrue("no games lost", gamesLost > 0);
+        assertTrue(serialCandidates > 0);
+        assertTrue(parallelCandidates > 0);
+    }
+
+    private static void assertSameRows(String what, Archetype expected, Archetype actual) {
+        int size = expected.size();
+        assertEquals(what + " count", size, actual.size());
+        assertArrayEquals(what + " x", copy(expected.column(Components.X), size),
+                copy(actual.column(Components.X), size), 0.0f);
+        assertArrayEquals(what + " y", copy(expected.column(Components.Y), size),
+                copy(actual.column(Components.Y), size), 0.0f);
+    }
+
+    private static float[] copy(float[] column, int size) {
+        float[] out = new float[size];
+        System.arraycopy(column, 0, out, 0, size);
+        return out;
+    }
+
+    private static CollisionSystem findCollisionSystem(Simulation sim) {
+        Schedule schedule = sim.getStepSchedule();
+        for (int i = 0; i < schedule.getSystemCount(); i++) {
+            if (schedule.getSystem(i).getName().equals("collision")) {
+                return (CollisionSystem) schedule.getSystem(i);
+            }
+        }
+        throw new RuntimeException("no collision system");
+    }
+}
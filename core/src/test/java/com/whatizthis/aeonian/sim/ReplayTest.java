@@ -0,0 +1,201 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays back the recorded sessions in the replays resource directory and checks that they
+ * play out exactly as before: every game ends on the step and with the score it was recorded
+ * with, and the frame, broad-phase candidate, enemies destroyed and games lost counts match.
+ * These don't depend on the machine or on timing, so any difference means a change altered
+ * how the game plays.  If that was the intent, update the numbers below (the failure message
+ * has the new ones), and the baseline ReplayBench reports timings against.
+ * <p>
+ * The sessions aren't real play.  They're synthetic, written by HeadlessRunner, which fires
+ * at random points on the arena, and at every enemy now and then:
+ * <pre>
+ *   steady.rec   HeadlessRunner 7200 10 30 hash 100000 steady.rec
+ *   swarm.rec    HeadlessRunner 7200 40 30 hash 100000 swarm.rec
+ * </pre>
+ * That's enough to catch changes in the rules, but not the sort of thing a person would do
+ * (a burst of shots at a crowd, say).  Sessions recorded on a device can be added; see
+ * ReplayBench.
+ * <p>
+ * The frame loop is the same as ReplayBench's: one calculateNextFrame() and
+ * writeSnapshot() per 60fps frame, with the SpatialHash broad phase they were recorded with.
+ * <p>
+ * We also check that once the JIT has had a go at it, the frame loop doesn't allocate: a
+ * garbage collection mid-game is a dropped frame on a phone.  This is the one performance
+ * number that doesn't wander with the machine (ReplayBench reports the timings, but can't
+ * fail on them), so it's checked here, and a change that allocates per frame fails the build.
+ */
+public class ReplayTest {
+    private static final long FRAME_NSEC = 1000000000L / 60;
+
+    // Passes played before we start counting, so the JIT has compiled the frame loop.  The
+    // interpreter allocates things (boxes, iterators) that compiled code doesn't.
+    private static final int WARMUP_PASSES = 3;
+    // How many measured passes get to come in at zero before we call it a failure.  One is
+    // usually enough; the rest cover a compile landing halfway through a pass.
+    private static final int MEASURE_PASSES = 3;
+
+    private static final ThreadMXBean sThreads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * What one session came to.
+     */
+    private static class Totals {
+        long frames;
+        long candidates;
+        long destroyed;
+        long gamesLost;
+        long allocatedBytes = -1;   // during the frame loop, or -1 if the JVM can't tell us
+
+        @Override
+        public String toString() {
+            return "frames=" + frames + " candidates=" + candidates + " destroyed=" + destroyed
+                    + " gamesLost=" + gamesLost;
+        }
+    }
+
+    @Test
+    public void steady() throws IOException {
+        checkSession("steady", 7200, 3341, 1310, 0);
+    }
+
+    @Test
+    public void swarm() throws IOException {
+        checkSession("swarm", 7141, 7239, 2468, 59);
+    }
+
+    @Test
+    public void framesDontAllocate() throws IOException {
+        Assume.assumeTrue("can't count allocations on this JVM", allocatedBytes() >= 0);
+        checkNoAllocation("steady");
+        checkNoAllocation("swarm");
+    }
+
+    private static void checkSession(String name, long frames, long candidates,
+            long destroyed, long gamesLost) throws IOException {
+        Totals totals = play(name, readSession(name));
+        String expected = "frames=" + frames + " candidates=" + candidates + " destroyed="
+                + destroyed + " gamesLost=" + gamesLost;
+        assertEquals(name, expected, totals.toString());
+    }
+
+    /**
+     * Fails unless a pass through the session, after warming up, allocates less than a byte
+     * per frame (what ReplayBench reports as 0 bytesPerFrame).  The allowance is for the odd
+     * one-off, like a thread-local buffer being grown; anything that allocates every frame,
+     * or even every few hundred, is well over it.
+     */
+    private static void checkNoAllocation(String name) throws IOException {
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            play(name, readSession(name));
+        }
+        long best = Long.MAX_VALUE;
+        long frames = 0;
+        for (int i = 0; i < MEASURE_PASSES && best >= frames; i++) {
+            Totals totals = play(name, readSession(name));
+            frames = totals.frames;
+            best = Math.min(best, totals.allocatedBytes);
+        }
+        assertTrue(name + ": allocated " + best + " bytes over " + frames + " frames",
+                best < frames);
+    }
+
+    private static InputReplay readSession(String name) throws IOException {
+        InputStream in = ReplayTest.class.getResourceAsStream("/replays/" + name + ".rec");
+        assertNotNull("no session " + name, in);
+        try {
+            return InputReplay.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Totals play(String name, InputReplay replay) {
+        Arena.setDimensions(replay.getArenaWidth(), replay.getArenaHeight());
+        ManualClock clock = new ManualClock();
+        Simulation sim = new Simulation(clock, Logger.SILENT);
+        sim.setStepRate((int) Math.round(1000000000.0 / replay.getStepNsec()));
+        assertEquals(replay.getStepNsec(), sim.getStepNsec());
+        sim.setBroadPhase(new SpatialHash());
+        sim.setInputReplay(replay);
+        final Totals totals = new Totals();
+        sim.setListener(new Simulation.Listener() {
+            @Override
+            public void onEnemyDestroyed() {
+                totals.destroyed++;
+            }
+
+            @Override
+            public void onGameOver() {
+            }
+        });
+        SnapshotBuffer snapshots = new SnapshotBuffer();
+
+        // The checks at the end of each game only build their messages when they're going to
+        // fail, so whatever's allocated in here is down to the game.
+        int game = 0;
+        long startBytes = allocatedBytes();
+        while (true) {
+            sim.reset();
+            if (!replay.isInGame()) {
+                break;
+            }
+            sim.allocPlayer();
+
+            long endTick = replay.getEndTick();
+            long lastTick = endTick >= 0 ? endTick : replay.getLastInputTick();
+            while (sim.isAnimating() && sim.getStepCount() <= lastTick) {
+                clock.advance(FRAME_NSEC);
+                sim.calculateNextFrame();
+                sim.writeSnapshot(snapshots.getBack());
+                snapshots.publish();
+                totals.frames++;
+            }
+            totals.candidates += sim.getCollisionCandidates();
+
+            if (endTick >= 0) {
+                if (sim.getGamePlayState() != Simulation.GAME_LOST
+                        || sim.getStepCount() != endTick + 1
+                        || sim.getScore() != replay.getEndScore()) {
+                    String where = name + " game " + game + " (seed " + replay.getSeed() + ")";
+                    assertEquals(where + " state", Simulation.GAME_LOST, sim.getGamePlayState());
+                    assertEquals(where + " last step", endTick + 1, sim.getStepCount());
+                    assertEquals(where + " score", replay.getEndScore(), sim.getScore());
+                }
+                totals.gamesLost++;
+            }
+            game++;
+        }
+        if (startBytes >= 0) {
+            totals.allocatedBytes = allocatedBytes() - startBytes;
+        }
+        sim.release();
+        return totals;
+    }
+
+    /**
+     * Returns the number of bytes this thread has allocated, or -1 if the JVM can't tell us.
+     */
+    private static long allocatedBytes() {
+        if (sThreads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) sThreads;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
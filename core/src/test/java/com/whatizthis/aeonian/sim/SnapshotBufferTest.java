@@ -0,0 +1,100 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the SnapshotBuffer hand-off.  Snapshots are told apart by their simulated time,
+ * which the writer sets to a running count.
+ */
+public class SnapshotBufferTest {
+    private static void write(SnapshotBuffer buffer, long value) {
+        buffer.getBack().setSimTime(value);
+        buffer.publish();
+    }
+
+    private static long read(SnapshotBuffer buffer) {
+        // Step time defaults to 1 ns, and alpha 1 gives the time as of the end of the step.
+        return buffer.acquire().getSimTimeNsec(1.0f);
+    }
+
+    @Test
+    public void acquireWithoutPublishKeepsFront() {
+        SnapshotBuffer buffer = new SnapshotBuffer();
+        Snapshot first = buffer.acquire();
+        assertSame(first, buffer.acquire());
+    }
+
+    @Test
+    public void acquireReturnsLatestPublished() {
+        SnapshotBuffer buffer = new SnapshotBuffer();
+        write(buffer, 1);
+        assertEquals(1, read(buffer));
+
+        // Intermediate snapshots are dropped; the reader only sees the newest.
+        write(buffer, 2);
+        write(buffer, 3);
+        write(buffer, 4);
+        assertEquals(4, read(buffer));
+
+        // Nothing new, so the same one again.
+        assertEquals(4, read(buffer));
+    }
+
+    @Test
+    public void writerNeverGetsReadersSnapshot() {
+        SnapshotBuffer buffer = new SnapshotBuffer();
+        for (int i = 1; i < 50; i++) {
+            Snapshot front = buffer.acquire();
+            assertNotSame(front, buffer.getBack());
+            write(buffer, i);
+            if (i % 3 == 0) {
+                assertEquals(i, read(buffer));
+            }
+            assertNotSame(buffer.acquire(), buffer.getBack());
+        }
+    }
+
+    /**
+     * One writer publishing an increasing count, one reader checking that it never sees a torn
+     * snapshot or goes backwards.  Each snapshot gets the count written twice (as simulated time
+     * and as the score), so a snapshot the writer was still filling in would show a mismatch.
+     */
+    @Test(timeout = 30000)
+    public void twoThreadSmoke() throws InterruptedException {
+        final SnapshotBuffer buffer = new SnapshotBuffer();
+        final int count = 200000;
+
+        Thread writer = new Thread("writer") {
+            @Override
+            public void run() {
+                for (int i = 1; i <= count; i++) {
+                    Snapshot snap = buffer.getBack();
+                    snap.setSimTime(i);
+                    snap.setStatus(i, Simulation.STATUS_NONE, true);
+                    buffer.publish();
+                }
+            }
+        };
+        writer.start();
+
+        long last = 0;
+        while (last < count) {
+            Snapshot snap = buffer.acquire();
+            long value = snap.getSimTimeNsec(1.0f);
+            assertEquals("torn snapshot", value, snap.getScore());
+            assertTrue("went backwards: " + value + " after " + last, value >= last);
+            last = value;
+            if (!writer.isAlive() && last < count) {
+                // The last publish has happened; one more acquire must see it.
+                assertEquals(count, read(buffer));
+                last = count;
+            }
+        }
+        writer.join();
+    }
+}
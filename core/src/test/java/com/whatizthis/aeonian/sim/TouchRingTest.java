@@ -0,0 +1,171 @@
+package com.whatizthis.aeonian.sim;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the TouchRing hand-off.  Touches are told apart by a sequence number, which goes
+ * in every field, so a record that was half written or read from the wrong slot shows up as
+ * a mismatch.
+ */
+public class TouchRingTest {
+    /**
+     * Keeps the sequence number of every touch it's handed, and checks the fields agree.
+     */
+    private static class Collector implements TouchRing.Sink {
+        final List<Integer> mSeen = new ArrayList<Integer>();
+
+        @Override
+        public void onTouch(int action, float x, float y, long whenNsec, int pointerId) {
+            int seq = pointerId;
+            assertEquals("x", seq, (int) x);
+            assertEquals("y", -seq, (int) y);
+            assertEquals("when", seq * 1000L, whenNsec);
+            assertEquals("action", seq & 3, action);
+            mSeen.add(seq);
+        }
+    }
+
+    private static boolean offer(TouchRing ring, int seq) {
+        return ring.offer(seq & 3, seq, -seq, seq * 1000L, seq);
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new TouchRing(0).getCapacity());
+        assertEquals(2, new TouchRing(1).getCapacity());
+        assertEquals(2, new TouchRing(2).getCapacity());
+        assertEquals(4, new TouchRing(3).getCapacity());
+        assertEquals(256, new TouchRing(TouchRing.DEFAULT_CAPACITY).getCapacity());
+        assertEquals(512, new TouchRing(257).getCapacity());
+    }
+
+    @Test
+    public void drainsInOrderAcrossWrapAround() {
+        TouchRing ring = new TouchRing(8);
+        Collector sink = new Collector();
+        int next = 0;
+        int expected = 0;
+        // Three in, two out, so the read and write counts creep around the ring many times
+        // and the waiting touches straddle the end of the arrays.
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 3 && next - expected < ring.getCapacity(); i++) {
+                assertTrue(offer(ring, next++));
+            }
+            sink.mSeen.clear();
+            int count = ring.drain(sink, 2);
+            assertEquals(Math.min(2, next - expected), count);
+            for (int seq : sink.mSeen) {
+                assertEquals(expected++, seq);
+            }
+        }
+        sink.mSeen.clear();
+        ring.drain(sink, Integer.MAX_VALUE);
+        for (int seq : sink.mSeen) {
+            assertEquals(expected++, seq);
+        }
+        assertEquals(next, expected);
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void dropsWhenFull() {
+        TouchRing ring = new TouchRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(offer(ring, i));
+        }
+        // Full: these are dropped, and the ones already in are untouched.
+        assertFalse(offer(ring, 100));
+        assertFalse(offer(ring, 101));
+        assertEquals(2, ring.getDropped());
+
+        // Draining one frees exactly one slot.
+        Collector sink = new Collector();
+        assertEquals(1, ring.drain(sink, 1));
+        assertTrue(offer(ring, 4));
+        assertFalse(offer(ring, 102));
+        assertEquals(3, ring.getDropped());
+
+        assertEquals(4, ring.drain(sink, 10));
+        assertEquals(5, sink.mSeen.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) sink.mSeen.get(i));
+        }
+        // Nothing left, and the count of drops stays.
+        assertEquals(0, ring.drain(sink, 10));
+        assertEquals(3, ring.getDropped());
+    }
+
+    @Test
+    public void clearDiscardsWaiting() {
+        TouchRing ring = new TouchRing(4);
+        offer(ring, 0);
+        offer(ring, 1);
+        ring.clear();
+        Collector sink = new Collector();
+        assertEquals(0, ring.drain(sink, 10));
+
+        // All four slots are free again.
+        for (int i = 2; i < 6; i++) {
+            assertTrue(offer(ring, i));
+        }
+        assertEquals(4, ring.drain(sink, 10));
+        assertEquals(2, (int) sink.mSeen.get(0));
+        assertEquals(0, ring.getDropped());
+    }
+
+    /**
+     * One producer offering touches as fast as it can, one consumer draining in small
+     * batches.  Every touch is either delivered, in order and intact, or counted as dropped.
+     * The producer offers until it has a fixed number accepted, so the consumer knows when
+     * it's seen them all.
+     */
+    @Test(timeout = 30000)
+    public void twoThreadSmoke() throws InterruptedException {
+        final TouchRing ring = new TouchRing(16);
+        final int count = 200000;
+        final long[] refused = new long[1];
+
+        Thread producer = new Thread("producer") {
+            @Override
+            public void run() {
+                int seq = 0;
+                while (seq < count) {
+                    if (offer(ring, seq)) {
+                        seq++;
+                    } else {
+                        refused[0]++;
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+
+        final int[] expected = new int[1];
+        TouchRing.Sink sink = new TouchRing.Sink() {
+            @Override
+            public void onTouch(int action, float x, float y, long whenNsec, int pointerId) {
+                assertEquals("out of order", expected[0], pointerId);
+                assertEquals("torn record", pointerId * 1000L, whenNsec);
+                assertEquals("torn record", pointerId, (int) x);
+                expected[0]++;
+            }
+        };
+        while (expected[0] < count) {
+            if (ring.drain(sink, 5) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        assertEquals(0, ring.drain(sink, 5));
+        assertEquals(refused[0], ring.getDropped());
+    }
+}